@@ -0,0 +1,241 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * ASTGenListener muodostaa saman syntaksipuun kuin ASTGenVisitor, mutta
+ * suoraan jäsennyksen aikana (ks. Minisharp.parseStream). Luokka
+ * rekisteröidään jäsentäjän jäsennyskuuntelijaksi, jolloin jokaisen
+ * säännön exit-metodia kutsutaan heti, kun sääntö on jäsennetty, ja
+ * jäsennyspuuta ei tarvitse rakentaa.
+ *
+ * Säännöt jäsennetään jälkijärjestyksessä, joten valmiit solmut pidetään
+ * pinossa: exit-metodi ottaa osiensa solmut pinosta ja lisää oman solmunsa
+ * pinoon. Säännöille, joiden osien määrä vaihtelee (block, paramlist ja
+ * ifstmt), merkitään enter-metodissa pinon koko. Vasemmalle rekursiivisen
+ * expr-säännön vaihtoehdoille enter-metodeja ei kutsuta luotettavasti,
+ * mutta exit-metodit kutsutaan jälkijärjestyksessä.
+ */
+public class ASTGenListener extends MinisharpBaseListener {
+    private Deque<Object> values = new ArrayDeque<Object>();
+    private Deque<Integer> marks = new ArrayDeque<Integer>();
+    private Program program;
+
+    /**
+     * Palautetaan jäsennetty ohjelma.
+     * @return Program tai null, jos jäsennys ei ole valmis
+     */
+    public Program getProgram() {
+        return program;
+    }
+
+    /**
+     * Merkitään pinon koko säännön alussa.
+     */
+    private void mark() {
+        marks.push(values.size());
+    }
+
+    /**
+     * Otetaan pinosta merkinnän jälkeen lisätyt solmut lisäysjärjestyksessä.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> List<T> take() {
+        int n = values.size() - marks.pop();
+        List<T> list = new ArrayList<T>(n);
+        for (int i = 0; i < n; i++) {
+            list.add((T) values.pop());
+        }
+        Collections.reverse(list);
+        return list;
+    }
+
+    /**
+     * Muodostetaan int-taulukko CONST-tokeneista. Luvut luetaan tokenien
+     * omista teksteistä, koska puskuroimattomasta syötteestä ei voi hakea
+     * jo luettua tekstiä (vrt. ASTGenVisitor.consts).
+     */
+    private static int[] consts(List<TerminalNode> nodes) {
+        int[] array = new int[nodes.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = Integer.parseInt(nodes.get(i).getText());
+        }
+        return array;
+    }
+
+    /**
+     * Programin Block on aina pinon päällimmäisenä ja Paramlist sen alla,
+     * jos ohjelmalla on parametreja.
+     */
+    @Override
+    public void exitStart(MinisharpParser.StartContext ctx) {
+        Block block = (Block) values.pop();
+        Paramlist params = values.isEmpty() ? null : (Paramlist) values.pop();
+        program = new Program(params, block);
+    }
+
+    @Override
+    public void enterParamlist(MinisharpParser.ParamlistContext ctx) {
+        mark();
+    }
+
+    @Override
+    public void exitParamlist(MinisharpParser.ParamlistContext ctx) {
+        values.push(new Paramlist(this.<Param>take()));
+    }
+
+    @Override
+    public void exitParam(MinisharpParser.ParamContext ctx) {
+        values.push(new Param((Type) values.pop(), ctx.ID().getText()));
+    }
+
+    @Override
+    public void exitTypeInt(MinisharpParser.TypeIntContext ctx) {
+        values.push(Type.INT);
+    }
+
+    @Override
+    public void exitTypeIntSequence(MinisharpParser.TypeIntSequenceContext ctx) {
+        values.push(Type.INT_SEQUENCE);
+    }
+
+    @Override
+    public void exitTypeDouble(MinisharpParser.TypeDoubleContext ctx) {
+        values.push(Type.DOUBLE);
+    }
+
+    @Override
+    public void exitTypeBool(MinisharpParser.TypeBoolContext ctx) {
+        values.push(Type.BOOL);
+    }
+
+    @Override
+    public void exitDeclExpr(MinisharpParser.DeclExprContext ctx) {
+        Expr expr = (Expr) values.pop();
+        values.push(new DeclExpr((Type) values.pop(), ctx.ID().getText(), expr));
+    }
+
+    @Override
+    public void exitDeclArray(MinisharpParser.DeclArrayContext ctx) {
+        values.push(new DeclArray((Type) values.pop(), ctx.ID().getText(), consts(ctx.CONST())));
+    }
+
+    @Override
+    public void enterBlock(MinisharpParser.BlockContext ctx) {
+        mark();
+    }
+
+    @Override
+    public void exitBlock(MinisharpParser.BlockContext ctx) {
+        values.push(new Block(this.<Stmt>take()));
+    }
+
+    @Override
+    public void exitAssignExpr(MinisharpParser.AssignExprContext ctx) {
+        values.push(new AssignExpr(ctx.ID().getText(), (Expr) values.pop()));
+    }
+
+    @Override
+    public void exitAssignArray(MinisharpParser.AssignArrayContext ctx) {
+        values.push(new AssignArray(ctx.ID().getText(), consts(ctx.CONST())));
+    }
+
+    @Override
+    public void exitIterator(MinisharpParser.IteratorContext ctx) {
+        values.push(new Iterator(ctx.ID().getText(), ctx.op.getText()));
+    }
+
+    @Override
+    public void exitVarExpr(MinisharpParser.VarExprContext ctx) {
+        values.push(new VarExpr(ctx.ID().getText()));
+    }
+
+    @Override
+    public void exitIndexExpr(MinisharpParser.IndexExprContext ctx) {
+        values.push(new IndexExpr(ctx.ID().getText(), (Expr) values.pop()));
+    }
+
+    @Override
+    public void exitLengthExpr(MinisharpParser.LengthExprContext ctx) {
+        values.push(new LenghtExpr(ctx.ID().getText()));
+    }
+
+    @Override
+    public void exitConstExpr(MinisharpParser.ConstExprContext ctx) {
+        values.push(new ConstExpr(Integer.parseInt(ctx.CONST().getText())));
+    }
+
+    @Override
+    public void exitParenExpr(MinisharpParser.ParenExprContext ctx) {
+        values.push(new ParenExpr((Expr) values.pop()));
+    }
+
+    /**
+     * Oikea operandi on pinon päällimmäisenä, koska se jäsennettiin viimeksi.
+     */
+    @Override
+    public void exitMulExpr(MinisharpParser.MulExprContext ctx) {
+        Expr right = (Expr) values.pop();
+        Expr left = (Expr) values.pop();
+        values.push(ctx.op.getText().equals("/") ? new DivExpr(left, right) : new MulExpr(left, right));
+    }
+
+    @Override
+    public void exitAddExpr(MinisharpParser.AddExprContext ctx) {
+        Expr right = (Expr) values.pop();
+        Expr left = (Expr) values.pop();
+        values.push(ctx.op.getText().equals("+") ? new AddExpr(left, right) : new MinExpr(left, right));
+    }
+
+    @Override
+    public void exitLessthanExpr(MinisharpParser.LessthanExprContext ctx) {
+        Expr right = (Expr) values.pop();
+        values.push(new LessthanExpr((Expr) values.pop(), right));
+    }
+
+    @Override
+    public void exitGreaterthanExpr(MinisharpParser.GreaterthanExprContext ctx) {
+        Expr right = (Expr) values.pop();
+        values.push(new GreaterthanExpr((Expr) values.pop(), right));
+    }
+
+    @Override
+    public void exitEqualExpr(MinisharpParser.EqualExprContext ctx) {
+        Expr right = (Expr) values.pop();
+        values.push(new EqualExpr((Expr) values.pop(), right));
+    }
+
+    @Override
+    public void enterIfstmt(MinisharpParser.IfstmtContext ctx) {
+        mark();
+    }
+
+    /**
+     * If-lauseen osat ovat ehto ja yksi tai kaksi lohkoa (else).
+     */
+    @Override
+    public void exitIfstmt(MinisharpParser.IfstmtContext ctx) {
+        List<Object> parts = take();
+        Block[] blocks = new Block[parts.size() - 1];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = (Block) parts.get(i + 1);
+        }
+        values.push(new IfStatement((Expr) parts.get(0), blocks));
+    }
+
+    @Override
+    public void exitForstmt(MinisharpParser.ForstmtContext ctx) {
+        Block block = (Block) values.pop();
+        Iterator iterator = (Iterator) values.pop();
+        Expr expr = (Expr) values.pop();
+        values.push(new ForLoop((Decl) values.pop(), expr, iterator, block));
+    }
+
+    @Override
+    public void exitStmtReturn(MinisharpParser.StmtReturnContext ctx) {
+        values.push(new Return((Expr) values.pop()));
+    }
+}
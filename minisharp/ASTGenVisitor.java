@@ -1,23 +1,25 @@
 import java.util.ArrayList;
 import java.util.List;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
 import org.antlr.v4.runtime.tree.TerminalNode;
 
 /**
  * ASTGenVisitor on luokka, jossa ANTLR:n luoma luokka MinisharpBaseVisitor
- * laajennetaan kntjn sopivaksi. Kaikki MinisharpBaseVisitorin metodit
- * on korvattu tss luokassa. Minisharp-kntj kytt toiminnassaan
- * tt luokkaa.
+ * laajennetaan kääntäjään sopivaksi. Kaikki MinisharpBaseVisitorin metodit
+ * on korvattu tässä luokassa. Minisharp-kääntäjä käyttää toiminnassaan
+ * tätä luokkaa.
  * @param <Object> object
  */
 @SuppressWarnings("hiding")
 public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     /**
-	 * VisitStart luokassa toteutus on jaettu neljn mahdollisuuteen:
+	 * VisitStart luokassa toteutus on jaettu neljään mahdollisuuteen:
 	 * Programilla on Paramlist ja Block,
-	 * Programilla ei ole Paramlisti ja Blockia,
-	 * Programilla ei ole Paramlisti, mutta sill on Block,
-	 * Programilla on Paramlist, mutta sill ei ole Blockkia.
+	 * Programilla ei ole Paramlistiä ja Blockia,
+	 * Programilla ei ole Paramlistiä, mutta sillä on Block,
+	 * Programilla on Paramlist, mutta sillä ei ole Blockkia.
 	 * 
 	 * Palautettu objekti on Program.
 	 */
@@ -28,33 +30,33 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     	if (ctx.getChildCount() == 6) return (Object) new Program ((Paramlist)this.visit(ctx.paramlist()),
     			(Block)this.visit(ctx.block()));       
         
-    	// Programilla ei ole Paramlisti ja Blockia
+    	// Programilla ei ole Paramlistiä ja Blockia
         if (ctx.getChildCount() == 4) return (Object) new Program (null, null);        
         
-        // Programilla ei ole Paramlisti, mutta sill on Block
+        // Programilla ei ole Paramlistiä, mutta sillä on Block
         if (ctx.getChild(1).toString().equalsIgnoreCase(")")) return (Object) new Program (null,
         		(Block)this.visit(ctx.block()));
         
-        // Programilla on Paramlist, mutta sill ei ole Blockkia
+        // Programilla on Paramlist, mutta sillä ei ole Blockkia
         return (Object) new Program ((Paramlist)this.visit(ctx.paramlist()), null);
     }
     
     
     /**
-     * VisitParamlist luokassa kertn ParamlistContextista
-     * kaikki sen sisltmt parametrit (Param).
+     * VisitParamlist luokassa kerätään ParamlistContextista
+     * kaikki sen sisältämät parametrit (Param).
      * 
-     * Palautettava objekti on Paramlist, joka sislt listan
+     * Palautettava objekti on Paramlist, joka sisältää listan
      * Param olioita.
      */
     @SuppressWarnings("unchecked")
     @Override 
     public Object visitParamlist(MinisharpParser.ParamlistContext ctx){ 
-        // Luodaan tyhj lista ja Paramlist
+        // Luodaan tyhjä lista ja Paramlist
     	List<Param> list = new ArrayList<>();
         Paramlist paramlist = new Paramlist(list);
         
-        // Kydn lpi ParamlistContextin kaikki Paramit ja listn ne listaan
+        // Käydään läpi ParamlistContextin kaikki Paramit ja lisätään ne listaan
         for (MinisharpParser.ParamContext p : ctx.param()){
             Param par = new Param((Type)this.visit(p.type()), p.ID().getText());
             list.add(par);
@@ -67,11 +69,11 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     /**
      * VisitParam luokkaan ei kuulu koskaan tulla, koska parametrien
-     * kerminen suoritetaan visitParamlist-luokassa. Luokka on laajennettu,
+     * kerääminen suoritetaan visitParamlist-luokassa. Luokka on laajennettu,
      * koska mahdolliset virheet halutaan huomata ohjelman ajamisessa. 
      * 
-     * Thn luokkaan tultaessa palautetaan kyttjlle error-viesti
-     * tapahtuneesta virheest.
+     * Tähän luokkaan tultaessa palautetaan käyttäjälle error-viesti
+     * tapahtuneesta virheestä.
      */
     @Override
     public Object visitParam(MinisharpParser.ParamContext ctx){
@@ -82,56 +84,56 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     
     /**
-     * VisitTypeInt luokassa luodaan uusi TypeInt.
+     * VisitTypeInt luokassa palautetaan tyypin TypeInt ainoa olio (Type.INT).
      * Palautettava objekti on TypeInt.
      */
     @SuppressWarnings("unchecked")
     @Override
     public Object visitTypeInt(MinisharpParser.TypeIntContext ctx){
-        TypeInt t = new TypeInt();
+        Type t = Type.INT;
         return (Object) t;
     }
     
     
     /**
-     * VisitTypeIntSequence luokassa luodaan uusi TypeIntSequence.
+     * VisitTypeIntSequence luokassa palautetaan tyypin TypeIntSequence ainoa olio (Type.INT_SEQUENCE).
      * Palautettava objekti on TypeIntSequence.
      */
     @SuppressWarnings("unchecked")
     @Override
     public Object visitTypeIntSequence(MinisharpParser.TypeIntSequenceContext ctx){
-        TypeIntSequence seq = new TypeIntSequence();
+        Type seq = Type.INT_SEQUENCE;
         return (Object) seq;
     }
     
     
     /**
-     * VisitTypeDouble luokassa luodaan uusi TypeDouble.
+     * VisitTypeDouble luokassa palautetaan tyypin TypeDouble ainoa olio (Type.DOUBLE).
      * Palautettava objekti on TypeDouble.
      */
     @SuppressWarnings("unchecked")
     @Override
     public Object visitTypeDouble(MinisharpParser.TypeDoubleContext ctx){
-        TypeDouble d = new TypeDouble();
+        Type d = Type.DOUBLE;
         return (Object) d;
     }
     
     
     /**
-     * VisitTypeBool luokassa luodaan uusi TypeBool.
+     * VisitTypeBool luokassa palautetaan tyypin TypeBool ainoa olio (Type.BOOL).
      * Palautettava objekti on TypeBool.
      */
     @SuppressWarnings("unchecked")
     @Override
     public Object visitTypeBool(MinisharpParser.TypeBoolContext ctx){
-        TypeBool b = new TypeBool();
+        Type b = Type.BOOL;
         return (Object) b;
     }
     
     
     /**
      * VisitDeclExpr luokassa luodaan uusi DeclExpr.
-     * DeclExprContextin avulla selvitetn type, id ja expr.
+     * DeclExprContextin avulla selvitetään type, id ja expr.
      * 
      * Palautettava objekti on DeclExpr.
      */
@@ -144,20 +146,20 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     
     /**
-     * VisitBlock luokassa kertn BlockContextista
-     * kaikki sen sisltmt lauseet/statementit (Stmt).
+     * VisitBlock luokassa kerätään BlockContextista
+     * kaikki sen sisältämät lauseet/statementit (Stmt).
      * 
-     * Palautettava objekti on Block, joka sislt listan
+     * Palautettava objekti on Block, joka sisältää listan
      * Stmt olioita.
      */
     @SuppressWarnings("unchecked")
     @Override
     public Object visitBlock(MinisharpParser.BlockContext ctx) {
-    	// Luodaan tyhj lista ja Block
+    	// Luodaan tyhjä lista ja Block
         List<Stmt> stmts = new ArrayList<Stmt>();
         Block block = new Block(stmts);
         
-        // Kydn lpi BlockContextin kaikki statementit ja listn ne listaan 
+        // Käydään läpi BlockContextin kaikki statementit ja lisätään ne listaan 
         for (MinisharpParser.StmtContext s : ctx.stmt()) {
             Stmt stmt = (Stmt) visit(s);
             stmts.add(stmt);
@@ -172,7 +174,7 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
      * VisitDeclArray luokassa luodaan uusi DeclArray.
      * Alussa DeclArrayn int-taulukko luodaan DeclArrayContextin avulla.
      * Lopussa DeclArrayn muut osat noudetaan DeclArrayContextin avulla
-     * ja int-taulukko listn.
+     * ja int-taulukko lisätään.
      * 
      * Palautettava objekti on DeclArray.
      */
@@ -180,17 +182,9 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     @Override
     public Object visitDeclArray(MinisharpParser.DeclArrayContext ctx) {
         // Luodaan int-taulukko DeclArrayta varten
-        List<Integer> consts = new ArrayList<Integer>();
-        for (TerminalNode c : ctx.CONST()) {
-            int i = Integer.parseInt(c.getText());
-            consts.add(i);
-        }
-        int[] intArray = new int[consts.size()];
-        for (int i = 0; i < consts.size(); i++) {
-            intArray[i] = consts.get(i).intValue();
-        }
+        int[] intArray = consts(ctx.CONST());
         
-        // Haetaan type ja ID DeclArrayContextista ja listn int-taulukko
+        // Haetaan type ja ID DeclArrayContextista ja lisätään int-taulukko
         DeclArray declArray = new DeclArray((Type)this.visit(ctx.type()), ctx.ID().getText(), intArray);
         
         // Palautetaan valmis DeclArray
@@ -198,9 +192,42 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     }
   
    
+    /**
+     * Consts luokassa taulukkovakion CONST-tokenit muunnetaan suoraan
+     * int-taulukoksi. Koko vakion teksti haetaan syötteestä kerran, ja
+     * jokainen luku jäsennetään sen kohdalta tekstistä, joten alkioille ei
+     * luoda merkkijonoja eikä Integer-olioita. Tokenien paikat ovat
+     * Unicode-merkkien indeksejä, joten jos tekstissä on UTF-16-pareja
+     * (esim. kommentissa), luvut haetaan tokeneista yksitellen.
+     * 
+     * Palautettava objekti on int-taulukko.
+     */
+    static int[] consts(List<TerminalNode> nodes) {
+        int[] intArray = new int[nodes.size()];
+        if (nodes.isEmpty()) return intArray;
+        
+        Token first = nodes.get(0).getSymbol();
+        Token last = nodes.get(nodes.size() - 1).getSymbol();
+        int base = first.getStartIndex();
+        String text = first.getInputStream().getText(Interval.of(base, last.getStopIndex()));
+        boolean direct = text.length() == last.getStopIndex() - base + 1;
+        
+        for (int i = 0; i < intArray.length; i++) {
+            Token c = nodes.get(i).getSymbol();
+            if (direct) {
+                intArray[i] = Integer.parseInt(text, c.getStartIndex() - base,
+                        c.getStopIndex() - base + 1, 10);
+            } else {
+                intArray[i] = Integer.parseInt(c.getText());
+            }
+        }
+        return intArray;
+    }
+    
+    
     /**
      * VisitAssignExpr luokassa luodaan uusi AssignExpr.
-     * AssignExprContextin avulla selvitetn ID ja expr.
+     * AssignExprContextin avulla selvitetään ID ja expr.
      * 
      * Palautettava objekti on AssignExpr.
      */
@@ -216,7 +243,7 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
      * VisitAssignArray luokassa luodaan uusi AssignArray.
      * Alussa AssignArrayn int-taulukko luodaan AssignArrayContextin avulla.
      * Lopussa AssignArrayn ID noudetaan AssignArrayContextin avulla
-     * ja int-taulukko listn.
+     * ja int-taulukko lisätään.
      * 
      * Palautettava objekti on AssignArray.
      */
@@ -224,17 +251,9 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     @Override
     public Object visitAssignArray(MinisharpParser.AssignArrayContext ctx) {
         // Luodaan int-taulukko AssignArrayta varten
-        List<Integer> consts = new ArrayList<Integer>();
-        for (TerminalNode c : ctx.CONST()) {
-            int i = Integer.parseInt(c.getText());
-            consts.add(i);
-        }
-        int[] intArray = new int[consts.size()];
-        for (int i = 0; i < consts.size(); i++) {
-            intArray[i] = consts.get(i).intValue();
-        }
+        int[] intArray = consts(ctx.CONST());
         
-        // Haetaan ID AssignArrayContextista ja listn int-taulukko
+        // Haetaan ID AssignArrayContextista ja lisätään int-taulukko
         AssignArray assignArray = new AssignArray(ctx.ID().getText(), intArray);
         
         // Palautetaan valmis AssignArray
@@ -244,7 +263,7 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     /**
      * VisitIterator luokassa luodaan uusi Iterator.
-     * IteratorContextin avulla selvitetn ID ja op (++ tai --).
+     * IteratorContextin avulla selvitetään ID ja op (++ tai --).
      * 
      * Palautettava objekti on Iterator.
      */
@@ -258,7 +277,7 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     /**
      * VisitIndexExpr luokassa luodaan uusi IndexExpr.
-     * IndexExprContextin avulla selvitetn ID ja expr.
+     * IndexExprContextin avulla selvitetään ID ja expr.
      * 
      * Palautettava objekti on IndexExpr.
      */
@@ -273,7 +292,7 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     /**
      * VisitLengthExpr luokassa luodaan uusi LengthExpr.
-     * AssignExprContextin avulla selvitetn ID ja expr.
+     * AssignExprContextin avulla selvitetään ID ja expr.
      * 
      * Palautettava objekti on LengthExpr.
      */
@@ -287,7 +306,7 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     /**
      * VisitVarExpr luokassa luodaan uusi VarExpr.
-     * VarExprContextin avulla selvitetn ID.
+     * VarExprContextin avulla selvitetään ID.
      * 
      * Palautettava objekti on VarExpr.
      */
@@ -301,10 +320,10 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     /**
      * VisitAddExpr luokassa luodaan uusi AddExpr tai MinExpr.
-     * AddExprContextin avulla selvitetn op (+ tai -).
+     * AddExprContextin avulla selvitetään op (+ tai -).
      * Op:n perusteella valitaan kumpi olioista luodaan. Switch casen
-     * default arvoon ei tulisi koskaan pst, koska mahdollinen virhe tulisi
-     * havaita jo ennen thn metodiin tulemista.
+     * default arvoon ei tulisi koskaan päästä, koska mahdollinen virhe tulisi
+     * havaita jo ennen tähän metodiin tulemista.
      * 
      * Palautettava objekti on AddExpr tai MinExpr.
      */
@@ -332,10 +351,10 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     /**
      * VisitMulExpr luokassa luodaan uusi DivExpr tai MulExpr.
-     * MulExprContextin avulla selvitetn op (/ tai *).
+     * MulExprContextin avulla selvitetään op (/ tai *).
      * Op:n perusteella valitaan kumpi olioista luodaan. Switch casen
-     * default arvoon ei tulisi koskaan pst, koska mahdollinen virhe tulisi
-     * havaita jo ennen thn metodiin tulemista.
+     * default arvoon ei tulisi koskaan päästä, koska mahdollinen virhe tulisi
+     * havaita jo ennen tähän metodiin tulemista.
      * 
      * Palautettava objekti on DivExpr tai MulExpr.
      */
@@ -363,7 +382,7 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
    
     /**
      * VisitParenExpr luokassa luodaan uusi ParenExpr.
-     * ParenExprContextin avulla selvitetn expr.
+     * ParenExprContextin avulla selvitetään expr.
      * 
      * Palautettava objekti on ParenExpr.
      */
@@ -377,7 +396,7 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     /**
      * VisitConstExpr luokassa luodaan uusi ConstExpr.
-     * ConstExprContextin avulla selvitetn CONST (kokonaisluku arvo).
+     * ConstExprContextin avulla selvitetään CONST (kokonaisluku arvo).
      * 
      * Palautettava objekti on ConstExpr.
      */
@@ -391,7 +410,7 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     /**
      * VisitLessthanExpr luokassa luodaan uusi LessthanExpr.
-     * LessthanExprContextin avulla selvitetn expr arvot.
+     * LessthanExprContextin avulla selvitetään expr arvot.
      * 
      * Palautettava objekti on LessthanExpr.
      */
@@ -406,7 +425,7 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     /**
      * VisitGreaterthanExpr luokassa luodaan uusi GreaterthanExpr.
-     * GreaterthanExprContextin avulla selvitetn expr arvot.
+     * GreaterthanExprContextin avulla selvitetään expr arvot.
      * 
      * Palautettava objekti on GreaterthanExpr.
      */
@@ -421,7 +440,7 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     /**
      * VisitEqualExpr luokassa luodaan uusi EqualExpr.
-     * EqualExprContextin avulla selvitetn expr arvot.
+     * EqualExprContextin avulla selvitetään expr arvot.
      * 
      * Palautettava objekti on EqualExpr.
      */
@@ -436,9 +455,9 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     /**
      * VisitIfstmt luokassa luodaan uusi IfStatement.
-     * IfstmtContextin avulla selvitetn expr ja block arvot.
+     * IfstmtContextin avulla selvitetään expr ja block arvot.
      * Block arvoja voi olla yksi tai kaksi. Arvoja on kaksi jos if-lause
-     * sislt else osan.
+     * sisältää else osan.
      * 
      * Palautettava objekti on IfStatement.
      */
@@ -446,7 +465,7 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     @Override
     public Object visitIfstmt(MinisharpParser.IfstmtContext ctx) {
         Block[] blocks;
-        // Katsotaan mink kokoisen listan ctx.block() palauttaa ja toimitaan sen mukaan
+        // Katsotaan minkä kokoisen listan ctx.block() palauttaa ja toimitaan sen mukaan
         List<MinisharpParser.BlockContext> ctxs = ctx.block();
         if (ctxs.size() == 2) {
             blocks = new Block[2];
@@ -457,7 +476,7 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
             blocks[0] = (Block)this.visit(ctx.block(0));
         }
         
-        // Haetaan expr IfstmtContextista ja listn block-taulukko
+        // Haetaan expr IfstmtContextista ja lisätään block-taulukko
         IfStatement ifstmt = new IfStatement((Expr)this.visit(ctx.expr()), blocks);
         
         // Palautetaan valmis IfStatement
@@ -467,7 +486,7 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
    
     /**
      * VisitForstmt luokassa luodaan uusi Forloop.
-     * ForstmtContextin avulla selvitetn decl, expr, iterator ja block.
+     * ForstmtContextin avulla selvitetään decl, expr, iterator ja block.
      * 
      * Palautettava objekti on Forloop.
      */
@@ -532,7 +551,7 @@ public class ASTGenVisitor <Object> extends MinisharpBaseVisitor<Object>{
     
     /**
      * VisitStmtReturn luokassa luodaan uusi Return.
-     * StmtReturnContextin avulla selvitetn expr.
+     * StmtReturnContextin avulla selvitetään expr.
      * 
      * Palautettava objekti on Return.
      */
@@ -0,0 +1,111 @@
+import java.util.HashMap;
+
+/**
+ * BoundsChecker todistaa taulukon hakuja rajojen sisäisiksi, jolloin haku
+ * voidaan tehdä ilman rajojen tarkistusta (ks. IndexExpr). Todistus saadaan
+ * laskurisilmukasta: silmukassa for (int i = a; i < t.length; i++), jossa
+ * a on vakio ja a >= 0, pätee lohkossa 0 <= i < t.length, jos lohko ei
+ * kirjoita muuttujiin i ja t. Ylärajana voi olla myös vakio c, jolloin haku
+ * t[i] on turvallinen, jos taulukon t pituus tunnetaan ja se on vähintään c.
+ * Laskevassa silmukassa for (int i = b; i > c; i--) alaraja saadaan ehdosta
+ * (c >= -1) ja yläraja alkuarvosta (vakio tai t.length - k, jossa k >= 1).
+ *
+ * Taulukon pituus tunnetaan, jos taulukkoon kirjoitetaan vain esittelyssä.
+ * Jos hakua ei voida todistaa turvalliseksi, tarkistus säilyy.
+ */
+class BoundsChecker {
+    private ConstantFolder writes;
+    private HashMap<String, Integer> lengths;
+    private HashMap<String, String> arrays = new HashMap<String, String>();
+    private HashMap<String, Integer> limits = new HashMap<String, Integer>();
+
+    /**
+     * Sijoitetaan parametrina tuotu arvo.
+     * @param writes Ohjelman kaikki kirjoitukset muuttujiin
+     */
+    public BoundsChecker(ConstantFolder writes) {
+        this.writes = writes;
+        this.lengths = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Merkitään taulukon pituus, jos taulukkoon ei kirjoiteta muualla.
+     * @param id Taulukon tunniste
+     * @param length Taulukon pituus
+     */
+    public void length(String id, int length) {
+        if (writes.isFinal(id))
+            lengths.put(id, length);
+    }
+
+    /**
+     * Tarkistetaan, onko haku taulukosta id kohdasta index varmasti
+     * rajojen sisällä.
+     * @param id Taulukon tunniste
+     * @param index Int-tyyppinen indeksi
+     * @return true, jos haku on todistettu turvalliseksi
+     */
+    public boolean inBounds(String id, Expr index) {
+        Integer length = lengths.get(id);
+        for (String var : arrays.keySet()) {
+            if (index.isVar(var) && arrays.get(var).equals(id))
+                return true;
+        }
+        for (String var : limits.keySet()) {
+            if (index.isVar(var) && length != null && limits.get(var) <= length)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Luodaan silmukan lohkon tila. Jos silmukan rajoista voidaan päätellä,
+     * että laskuri on lohkossa ei-negatiivinen ja alle taulukon pituuden tai
+     * vakion, tieto lisätään lohkon tilaan.
+     * @param id Laskurin tunniste
+     * @param up true, jos laskuri kasvaa (++)
+     * @param init Laskurin alkuarvo
+     * @param cond Silmukan ehto
+     * @param body Silmukan lohkossa kirjoitettavat muuttujat
+     * @return Lohkon tila
+     */
+    public BoundsChecker loop(String id, boolean up, Expr init, Expr cond, ConstantFolder body) {
+        if (body.isWritten(id))
+            return this;
+        Expr lower = up ? init : cond.lowerBound(id);
+        Expr upper = up ? cond.upperBound(id) : init;
+        if (lower == null || upper == null || !lower.isConstant())
+            return this;
+        // Laskevassa silmukassa ehto i > c antaa lohkoon i >= c + 1.
+        long min = (long) lower.evalInt(null, null) + (up ? 0 : 1);
+        if (min < 0)
+            return this;
+
+        String array = up ? upper.lengthOf() : upper.lastIndexOf();
+        if (array != null && !body.isWritten(array)) {
+            BoundsChecker inner = scope();
+            inner.arrays.put(id, array);
+            return inner;
+        }
+        if (upper.isConstant()) {
+            // Laskevassa silmukassa alkuarvo kuuluu lohkon arvoihin.
+            long limit = (long) upper.evalInt(null, null) + (up ? 0 : 1);
+            BoundsChecker inner = scope();
+            inner.limits.put(id, (int) Math.min(limit, Integer.MAX_VALUE));
+            return inner;
+        }
+        return this;
+    }
+
+    /**
+     * Luodaan sisemmän lohkon tila, jossa ulomman tilan tiedot ovat voimassa.
+     * @return Lohkon tila
+     */
+    private BoundsChecker scope() {
+        BoundsChecker inner = new BoundsChecker(writes);
+        inner.lengths = lengths;
+        inner.arrays.putAll(arrays);
+        inner.limits.putAll(limits);
+        return inner;
+    }
+}
@@ -0,0 +1,601 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Käännetyn ohjelman rajapinta. BytecodeEmitterin luoma piilotettu luokka
+ * (hidden class) toteuttaa rajapinnan. Ohjelman parametrit sidotaan kehykseen
+ * ennen run-metodin kutsumista.
+ */
+interface CompiledProgram {
+
+    /**
+     * Suoritetaan käännetty ohjelma.
+     * @param f Kehys, johon parametrit on sidottu
+     * @return Returnin arvo tai null
+     */
+    Object run(Frame f);
+}
+
+
+/**
+ * Hyppykohde käännettävässä metodissa. Kohteen paikka voi olla vielä
+ * tuntematon, jolloin siihen viittaavat hypyt korjataan mark-metodissa.
+ */
+class Label {
+    int pos = -1;
+    int depth = -1;
+    List<Integer> refs = new ArrayList<Integer>();
+}
+
+
+/**
+ * BytecodeEmitter kirjoittaa tyyppitarkastetun ohjelman JVM-luokkatiedostoksi
+ * ja lataa sen piilotettuna luokkana (MethodHandles.Lookup.defineHiddenClass).
+ * Syntaksipuun solmut kirjoittavat oman koodinsa compile-metodeissaan tämän
+ * luokan avulla.
+ *
+ * Luokkatiedosto kirjoitetaan versiona 49, jolloin JVM päättelee
+ * pinokehykset itse eikä StackMapTable-attribuuttia tarvita. Jokainen
+ * kehyksen paikka on metodin paikallinen muuttuja, jonka indeksi on
+ * 2 + 2 * slot (0 = this, 1 = Frame). Int-taulukkovakiot välitetään luokan
+ * konstruktorille taulukossa, koska luokkatiedostoon ei voi kirjoittaa
+ * taulukkovakioita.
+ */
+class BytecodeEmitter {
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int ILOAD = 0x15;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int IALOAD = 0x2e;
+    static final int DALOAD = 0x31;
+    static final int AALOAD = 0x32;
+    static final int BALOAD = 0x33;
+    static final int ISTORE = 0x36;
+    static final int DSTORE = 0x39;
+    static final int ASTORE = 0x3a;
+    static final int IADD = 0x60;
+    static final int DADD = 0x63;
+    static final int ISUB = 0x64;
+    static final int DSUB = 0x67;
+    static final int IMUL = 0x68;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int IINC = 0x84;
+    static final int I2D = 0x87;
+    static final int D2I = 0x8e;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPNE = 0xa0;
+    static final int IF_ICMPLT = 0xa1;
+    static final int IF_ICMPGE = 0xa2;
+    static final int IF_ICMPGT = 0xa3;
+    static final int IF_ICMPLE = 0xa4;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int ARRAYLENGTH = 0xbe;
+    static final int CHECKCAST = 0xc0;
+    static final int WIDE = 0xc4;
+
+    private static final String NAME = "MinisharpCompiled";
+
+    private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private DataOutputStream poolOut = new DataOutputStream(pool);
+    private HashMap<String, Integer> poolIndex = new HashMap<String, Integer>();
+    private int poolCount = 1;
+
+    private byte[] code = new byte[256];
+    private int size;
+    private int depth;
+    private int maxDepth;
+    private int maxLocals;
+    private List<Object> consts = new ArrayList<Object>();
+
+    /**
+     * Luodaan kirjoittaja ohjelmalle, jonka kehyksessä on slots paikkaa.
+     * @param slots Kehyksen koko
+     */
+    public BytecodeEmitter(int slots) {
+        maxLocals = local(slots);
+    }
+
+    /**
+     * Palautetaan tyyppiä vastaava JVM-tyyppikirjain: 'I' intille,
+     * 'Z' booleanille, '[' int-taulukolle ja 'D' doublelle.
+     * @param type Minisharpin tyyppi
+     * @return JVM-tyyppikirjain
+     */
+    public static char kind(Type type) {
+        if (type.isInt()) {
+            return 'I';
+        } else if (type.isBool()) {
+            return 'Z';
+        } else if (type.isIntSequence()) {
+            return '[';
+        }
+        return 'D';
+    }
+
+    /**
+     * Palautetaan kehyksen paikkaa vastaavan paikallisen muuttujan indeksi.
+     * @param slot Paikka kehyksessä
+     * @return Paikallisen muuttujan indeksi
+     */
+    public int local(int slot) {
+        return 2 + 2 * slot;
+    }
+
+    /**
+     * Kirjoitetaan yksitavuinen käsky.
+     * @param opcode Käsky
+     * @param delta Käskyn vaikutus pinon syvyyteen
+     */
+    public void op(int opcode, int delta) {
+        emit(opcode);
+        stack(delta);
+    }
+
+    /**
+     * Ladataan pinoon int-vakio.
+     * @param value Vakio
+     */
+    public void iconst(int value) {
+        if (value >= -1 && value <= 5) {
+            emit(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            emit(BIPUSH);
+            emit(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            emit(SIPUSH);
+            u2(value);
+        } else {
+            emit(LDC_W);
+            u2(constant("I:" + value, 3, value));
+        }
+        stack(1);
+    }
+
+    /**
+     * Ladataan pinoon double-vakio.
+     * @param value Vakio
+     */
+    public void dconst(double value) {
+        if (Double.doubleToRawLongBits(value) == 0L) {
+            emit(DCONST_0);
+        } else if (value == 1.0) {
+            emit(DCONST_1);
+        } else {
+            emit(LDC2_W);
+            u2(constant("D:" + Double.doubleToRawLongBits(value), 6, value));
+        }
+        stack(2);
+    }
+
+    /**
+     * Ladataan pinoon kehyksen paikan arvo.
+     * @param kind JVM-tyyppikirjain
+     * @param slot Paikka kehyksessä
+     */
+    public void load(char kind, int slot) {
+        switch (kind) {
+            case 'D':
+                local(DLOAD, local(slot));
+                stack(2);
+                break;
+            case 'I':
+            case 'Z':
+                local(ILOAD, local(slot));
+                stack(1);
+                break;
+            default:
+                local(ALOAD, local(slot));
+                stack(1);
+        }
+    }
+
+    /**
+     * Sijoitetaan pinon päällimmäinen arvo kehyksen paikkaan.
+     * @param kind JVM-tyyppikirjain
+     * @param slot Paikka kehyksessä
+     */
+    public void store(char kind, int slot) {
+        switch (kind) {
+            case 'D':
+                local(DSTORE, local(slot));
+                stack(-2);
+                break;
+            case 'I':
+            case 'Z':
+                local(ISTORE, local(slot));
+                stack(-1);
+                break;
+            default:
+                local(ASTORE, local(slot));
+                stack(-1);
+        }
+    }
+
+    /**
+     * Ladataan kehyksen (Frame) paikan arvo paikalliseen muuttujaan.
+     * Käännetty ohjelma kutsuu tätä jokaiselle paikalle alussa, jolloin
+     * parametrit tulevat mukaan ja kaikki paikalliset muuttujat on alustettu.
+     * @param kind JVM-tyyppikirjain
+     * @param slot Paikka kehyksessä
+     */
+    public void loadFrame(char kind, int slot) {
+        local(ALOAD, 1);
+        stack(1);
+        switch (kind) {
+            case 'I':
+                field(GETFIELD, "Frame", "ints", "[I", 0);
+                iconst(slot);
+                op(IALOAD, -1);
+                break;
+            case 'D':
+                field(GETFIELD, "Frame", "nums", "[D", 0);
+                iconst(slot);
+                op(DALOAD, 0);
+                break;
+            case 'Z':
+                field(GETFIELD, "Frame", "bools", "[Z", 0);
+                iconst(slot);
+                op(BALOAD, -1);
+                break;
+            default:
+                field(GETFIELD, "Frame", "arrays", "[[I", 0);
+                iconst(slot);
+                op(AALOAD, -1);
+        }
+        store(kind, slot);
+    }
+
+    /**
+     * Kasvatetaan kehyksen paikan int-arvoa vakiolla.
+     * @param slot Paikka kehyksessä
+     * @param delta Lisättävä arvo
+     */
+    public void iinc(int slot, int delta) {
+        int index = local(slot);
+        if (index > 255) {
+            emit(WIDE);
+            emit(IINC);
+            u2(index);
+            u2(delta);
+        } else {
+            emit(IINC);
+            emit(index);
+            emit(delta);
+        }
+    }
+
+    /**
+     * Muunnetaan pinon päällimmäinen luku tyypistä from tyyppiin to.
+     * Int muuttuu doubleksi ja double intiksi katkaisemalla.
+     * @param from Pinossa olevan arvon JVM-tyyppikirjain
+     * @param to Haluttu JVM-tyyppikirjain
+     */
+    public void convert(char from, char to) {
+        if (from == 'I' && to == 'D') {
+            op(I2D, 1);
+        } else if (from == 'D' && to == 'I') {
+            op(D2I, -1);
+        }
+    }
+
+    /**
+     * Ladataan pinoon int-taulukkovakio.
+     * @param array Taulukko
+     */
+    public void arrayConst(int[] array) {
+        local(ALOAD, 0);
+        stack(1);
+        field(GETFIELD, NAME, "c", "[Ljava/lang/Object;", 0);
+        iconst(consts.size());
+        op(AALOAD, -1);
+        emit(CHECKCAST);
+        u2(classRef("[I"));
+        consts.add(array);
+    }
+
+    /**
+     * Pakataan pinon päällimmäinen arvo olioksi.
+     * @param kind JVM-tyyppikirjain
+     */
+    public void box(char kind) {
+        if (kind == 'D') {
+            invokestatic("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", -1);
+        } else if (kind == 'I') {
+            invokestatic("java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", 0);
+        } else if (kind == 'Z') {
+            invokestatic("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", 0);
+        }
+    }
+
+    /**
+     * Kirjoitetaan staattisen metodin kutsu.
+     * @param owner Luokan nimi
+     * @param name Metodin nimi
+     * @param desc Metodin kuvaaja
+     * @param delta Kutsun vaikutus pinon syvyyteen
+     */
+    public void invokestatic(String owner, String name, String desc, int delta) {
+        emit(INVOKESTATIC);
+        u2(member("M:", owner, name, desc, 10));
+        stack(delta);
+    }
+
+    /**
+     * Kirjoitetaan hyppy. Hypyn jälkeinen pinon syvyys tallennetaan
+     * kohteeseen, jotta se voidaan palauttaa saavuttamattoman koodin jälkeen.
+     * @param opcode Hyppykäsky
+     * @param target Kohde
+     */
+    public void jump(int opcode, Label target) {
+        int at = size;
+        emit(opcode);
+        if (opcode >= IF_ICMPEQ && opcode <= IF_ICMPLE) {
+            stack(-2);
+        } else {
+            stack(opcode == GOTO ? 0 : -1);
+        }
+        target.depth = depth;
+        if (target.pos >= 0) {
+            u2(offset(target.pos - at));
+        } else {
+            target.refs.add(at);
+            u2(0);
+        }
+    }
+
+    /**
+     * Asetetaan kohteen paikaksi nykyinen kohta ja korjataan siihen
+     * aiemmin kirjoitetut hypyt.
+     * @param target Kohde
+     */
+    public void mark(Label target) {
+        target.pos = size;
+        if (target.depth >= 0) {
+            depth = target.depth;
+        }
+        for (int at : target.refs) {
+            int off = offset(target.pos - at);
+            code[at + 1] = (byte) (off >> 8);
+            code[at + 2] = (byte) off;
+        }
+    }
+
+    /**
+     * Kirjoitetaan arvona käytettävä ehto: pinoon jää 1, jos ehto on tosi,
+     * muuten 0.
+     * @param cond Ehto
+     */
+    public void condition(Expr cond) {
+        Label no = new Label();
+        Label end = new Label();
+        cond.compileCondition(this, no);
+        iconst(1);
+        jump(GOTO, end);
+        mark(no);
+        iconst(0);
+        mark(end);
+    }
+
+    /**
+     * Kootaan luokkatiedosto ja ladataan se piilotettuna luokkana.
+     * @return Käännetty ohjelma
+     */
+    public CompiledProgram define() {
+        try {
+            byte[] bytes = classFile();
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (CompiledProgram) lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, Object[].class)).invoke(consts.toArray());
+        } catch (Error | RuntimeException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Compiled program could not be loaded", t);
+        }
+    }
+
+    private byte[] classFile() throws IOException {
+        int thisClass = classRef(NAME);
+        int superClass = classRef("java/lang/Object");
+        int iface = classRef("CompiledProgram");
+        int constsField = member("F:", NAME, "c", "[Ljava/lang/Object;", 9);
+        int objectInit = member("M:", "java/lang/Object", "<init>", "()V", 10);
+        int codeName = utf8("Code");
+        int[] names = {utf8("c"), utf8("[Ljava/lang/Object;"), utf8("<init>"),
+            utf8("([Ljava/lang/Object;)V"), utf8("run"), utf8("(LFrame;)Ljava/lang/Object;")};
+
+        // Konstruktori: super(); this.c = c;
+        byte[] init = {0x2a, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit,
+            0x2a, 0x2b, (byte) PUTFIELD, (byte) (constsField >> 8), (byte) constsField,
+            (byte) RETURN};
+        byte[] run = Arrays.copyOf(code, size);
+        if (run.length > 65535) {
+            throw new IllegalStateException("Program is too large to compile");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);
+        out.writeShort(poolCount);
+        out.write(pool.toByteArray());
+        out.writeShort(0x0030); // ACC_FINAL | ACC_SUPER
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(iface);
+        out.writeShort(1);
+        out.writeShort(0x0012); // ACC_PRIVATE | ACC_FINAL
+        out.writeShort(names[0]);
+        out.writeShort(names[1]);
+        out.writeShort(0);
+        out.writeShort(2);
+        method(out, names[2], names[3], codeName, 2, 2, init);
+        method(out, names[4], names[5], codeName, maxDepth, maxLocals, run);
+        out.writeShort(0);
+        return bytes.toByteArray();
+    }
+
+    private void method(DataOutputStream out, int name, int desc, int codeName,
+            int stack, int locals, byte[] body) throws IOException {
+        out.writeShort(0x0001); // ACC_PUBLIC
+        out.writeShort(name);
+        out.writeShort(desc);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + body.length);
+        out.writeShort(stack);
+        out.writeShort(locals);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    private void field(int opcode, String owner, String name, String desc, int delta) {
+        emit(opcode);
+        u2(member("F:", owner, name, desc, 9));
+        stack(delta);
+    }
+
+    private void local(int opcode, int index) {
+        if (index > 255) {
+            emit(WIDE);
+            emit(opcode);
+            u2(index);
+        } else {
+            emit(opcode);
+            emit(index);
+        }
+    }
+
+    private void stack(int delta) {
+        depth += delta;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private void emit(int b) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size++] = (byte) b;
+    }
+
+    private void u2(int value) {
+        emit(value >> 8);
+        emit(value);
+    }
+
+    private int offset(int off) {
+        if (off < Short.MIN_VALUE || off > Short.MAX_VALUE) {
+            throw new IllegalStateException("Program is too large to compile");
+        }
+        return off;
+    }
+
+    private int utf8(String s) {
+        Integer index = poolIndex.get("U:" + s);
+        if (index != null) {
+            return index;
+        }
+        try {
+            poolOut.writeByte(1);
+            poolOut.writeUTF(s);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolIndex.put("U:" + s, poolCount);
+        return poolCount++;
+    }
+
+    private int classRef(String name) {
+        Integer index = poolIndex.get("C:" + name);
+        if (index != null) {
+            return index;
+        }
+        int n = utf8(name);
+        try {
+            poolOut.writeByte(7);
+            poolOut.writeShort(n);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolIndex.put("C:" + name, poolCount);
+        return poolCount++;
+    }
+
+    private int member(String prefix, String owner, String name, String desc, int tag) {
+        String key = prefix + owner + "." + name + desc;
+        Integer index = poolIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        int c = classRef(owner);
+        int n = utf8(name);
+        int d = utf8(desc);
+        try {
+            poolOut.writeByte(12);
+            poolOut.writeShort(n);
+            poolOut.writeShort(d);
+            int nameAndType = poolCount++;
+            poolOut.writeByte(tag);
+            poolOut.writeShort(c);
+            poolOut.writeShort(nameAndType);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private int constant(String key, int tag, Object value) {
+        Integer index = poolIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            poolOut.writeByte(tag);
+            if (tag == 3) {
+                poolOut.writeInt((Integer) value);
+            } else {
+                poolOut.writeDouble((Double) value);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolIndex.put(key, poolCount);
+        int at = poolCount;
+        // Double vie vakioaltaassa kaksi paikkaa.
+        poolCount += tag == 6 ? 2 : 1;
+        return at;
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.Serializable;
+
+/**
+ * Silmukan kertymämuuttuja: silmukan lohkossa on sijoitus v = v + step tai
+ * v = v - step, jossa step ei muutu silmukassa (ks. ClosedFormLoop).
+ */
+class Accumulator implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final String id;
+    final int slot;
+    final char kind;
+    final Expr step;
+    final boolean subtract;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param id Muuttujan tunniste
+     * @param slot Muuttujan paikka kehyksessä
+     * @param kind Muuttujan ja laskutoimituksen tyyppikirjain, 'I' tai 'D'
+     * @param step Jokaisella kierroksella lisättävä lauseke
+     * @param subtract true, jos step vähennetään
+     */
+    public Accumulator(String id, int slot, char kind, Expr step, boolean subtract) {
+        this.id = id;
+        this.slot = slot;
+        this.kind = kind;
+        this.step = step;
+        this.subtract = subtract;
+    }
+}
+
+
+/**
+ * Suljetun muodon laskenta kertymäsilmukoille. Silmukka
+ * for (int i = from; i < to; i++) kiertää to - from kertaa (tai ei
+ * kertaakaan), ja jokainen kertymä kasvaa joka kierroksella samalla
+ * arvolla. Myös käännetyt ohjelmat kutsuvat näitä metodeja.
+ */
+class ClosedForm {
+    /**
+     * Suurin kokonaisluku, jota pienemmät kokonaisluvut ovat tarkasti
+     * esitettävissä doublena (2^53).
+     */
+    static final double EXACT_LIMIT = 9007199254740992.0;
+
+    /**
+     * Lasketaan kierrosten määrä silmukalle, jossa laskuri kulkee arvosta
+     * from arvoon to yhden askelin. Laskevassa silmukassa from ja to
+     * vaihdetaan keskenään.
+     * @param from Pienempi raja
+     * @param to Suurempi raja, jota ei saavuteta
+     * @return Kierrosten määrä
+     */
+    static long trips(int from, int to) {
+        return to > from ? (long) to - from : 0;
+    }
+
+    /**
+     * Lasketaan int-kertymän arvo silmukan jälkeen. Int-laskutoimitukset
+     * pyörähtävät ympäri, joten tulos on sama kuin silmukassa.
+     * @param v Arvo ennen silmukkaa
+     * @param step Kierroksen lisäys
+     * @param subtract true, jos step vähennetään
+     * @param from Pienempi raja
+     * @param to Suurempi raja
+     * @return Arvo silmukan jälkeen
+     */
+    static int accumulate(int v, int step, boolean subtract, int from, int to) {
+        long d = trips(from, to) * step;
+        return (int) (subtract ? v - d : v + d);
+    }
+
+    /**
+     * Lasketaan double-kertymän arvo silmukan jälkeen. Tulos on sama kuin
+     * silmukassa vain, jos exact palauttaa true.
+     * @param v Arvo ennen silmukkaa
+     * @param step Kierroksen lisäys
+     * @param subtract true, jos step vähennetään
+     * @param from Pienempi raja
+     * @param to Suurempi raja
+     * @return Arvo silmukan jälkeen
+     */
+    static double accumulate(double v, double step, boolean subtract, int from, int to) {
+        long n = trips(from, to);
+        if (n == 0)
+            return v;
+        double d = n * step;
+        return subtract ? v - d : v + d;
+    }
+
+    /**
+     * Tarkistetaan, onko double-kertymän suljettu muoto tarkka. Näin on, jos
+     * v ja step ovat kokonaislukuja ja kaikki välitulokset ovat itseisarvoltaan
+     * alle 2^53, jolloin yksikään yhteen- tai vähennyslasku ei pyöristy.
+     * @param v Arvo ennen silmukkaa
+     * @param step Kierroksen lisäys
+     * @param from Pienempi raja
+     * @param to Suurempi raja
+     * @return true, jos accumulate antaa saman tuloksen kuin silmukka
+     */
+    static boolean exact(double v, double step, int from, int to) {
+        long n = trips(from, to);
+        if (n == 0)
+            return true;
+        return v == Math.rint(v) && step == Math.rint(step)
+                && Math.abs(v) + n * Math.abs(step) < EXACT_LIMIT;
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.List;
+
+/**
+ * Sulkeumina (lambda) käännetyn ohjelman osat. Jokainen syntaksipuun solmu
+ * muutetaan kerran ennen suoritusta sulkeumaksi, johon solmun päätökset
+ * (operandien tyypit, kehyksen paikat, primitiivinen evaluointimetodi) on
+ * jo sidottu. Suoritettaessa sulkeumat kutsuvat suoraan toisiaan eivätkä
+ * tarkasta solmun tyyppiä tai pakkaa arvoja olioiksi.
+ */
+interface DoubleCode {
+    double run(Frame f);
+}
+
+/**
+ * Intin palauttava sulkeuma, ks. DoubleCode.
+ */
+interface IntCode {
+    int run(Frame f);
+}
+
+/**
+ * Totuusarvon palauttava sulkeuma, ks. DoubleCode.
+ */
+interface BooleanCode {
+    boolean run(Frame f);
+}
+
+/**
+ * Int-taulukon palauttava sulkeuma, ks. DoubleCode.
+ */
+interface ArrayCode {
+    int[] run(Frame f);
+}
+
+/**
+ * Statementin sulkeuma. Palauttaa true, jos statementissa suoritettiin
+ * return, jolloin suoritus lopetetaan. Tämä korvaa ReturnCheck-olion.
+ */
+interface StmtCode {
+    boolean run(Frame f);
+}
+
+
+/**
+ * ClosureProgram on sulkeumiksi käännetty ohjelma.
+ */
+class ClosureProgram {
+    private final StmtCode body;
+
+    /**
+     * Sijoitetaan parametrina tuotu arvo.
+     * @param body Ohjelmakoodin sulkeuma
+     */
+    public ClosureProgram(StmtCode body) {
+        this.body = body;
+    }
+
+    /**
+     * Suoritetaan ohjelma.
+     * @param f Kehys, johon parametrit on sidottu
+     * @return Returnin arvo tai null
+     */
+    public Object run(Frame f) {
+        body.run(f);
+        return f.ret;
+    }
+
+    /**
+     * Muodostetaan sulkeuma, joka suorittaa statementit järjestyksessä,
+     * kunnes jokin niistä suorittaa returnin. Yhden ja kahden statementin
+     * lohkoille muodostetaan oma sulkeuma ilman silmukkaa.
+     * @param stmts Statementtien sulkeumat
+     * @return Lohkon sulkeuma
+     */
+    static StmtCode sequence(List<StmtCode> stmts) {
+        switch (stmts.size()) {
+            case 0:
+                return f -> false;
+            case 1:
+                return stmts.get(0);
+            case 2:
+                StmtCode first = stmts.get(0);
+                StmtCode second = stmts.get(1);
+                return f -> first.run(f) || second.run(f);
+            default:
+                StmtCode[] codes = stmts.toArray(new StmtCode[stmts.size()]);
+                return f -> {
+                    for (StmtCode code : codes) {
+                        if (code.run(f))
+                            return true;
+                    }
+                    return false;
+                };
+        }
+    }
+
+    /**
+     * Muodostetaan sulkeuma, joka sijoittaa expr:n arvon paikkaan slot.
+     * Tyyppi valitsee primitiivisen sulkeuman kuten Frame.store.
+     * @param slot Muuttujan paikka
+     * @param kind Muuttujan JVM-tyyppikirjain (ks. BytecodeEmitter.kind)
+     * @param expr Sijoitettava lauseke
+     * @return Sijoituksen sulkeuma
+     */
+    static StmtCode store(int slot, char kind, Expr expr) {
+        if (kind == 'I') {
+            IntCode value = expr.closureInt();
+            return f -> {
+                f.ints[slot] = value.run(f);
+                return false;
+            };
+        } else if (kind == 'Z') {
+            BooleanCode value = expr.closureBoolean();
+            return f -> {
+                f.bools[slot] = value.run(f);
+                return false;
+            };
+        } else if (kind == '[') {
+            ArrayCode value = expr.closureArray();
+            return f -> {
+                f.arrays[slot] = value.run(f);
+                return false;
+            };
+        }
+        DoubleCode value = expr.closureDouble();
+        return f -> {
+            f.nums[slot] = value.run(f);
+            return false;
+        };
+    }
+}
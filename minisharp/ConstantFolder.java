@@ -0,0 +1,179 @@
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * ConstantFolder pitää kirjaa vakiolaskostuksen ja vakioiden levityksen
+ * tilasta. Ensin syntaksipuusta lasketaan, montako kertaa kuhunkin
+ * muuttujaan kirjoitetaan (write). Muuttuja, johon kirjoitetaan vain
+ * esittelyssä, on vakio, jos sen alkuarvo laskostuu vakioksi. Tämän jälkeen
+ * puu käydään läpi suoritusjärjestyksessä (fold), ja vakiomuuttujien lukemiset
+ * korvataan niiden arvoilla.
+ *
+ * Vakion arvo on näkyvissä vain siinä lohkossa, jossa muuttuja esiteltiin,
+ * koska esimerkiksi if-lohkon esittely ei välttämättä suoritu.
+ */
+class ConstantFolder {
+    private HashMap<String, Integer> writes = new HashMap<String, Integer>();
+    private HashMap<String, Expr> values = new HashMap<String, Expr>();
+    private HashMap<String, int[]> arrays = new HashMap<String, int[]>();
+
+    /**
+     * Merkitään kirjoitus muuttujaan id.
+     * @param id Muuttujan tunniste
+     */
+    public void write(String id) {
+        writes.merge(id, 1, Integer::sum);
+    }
+
+    /**
+     * Tarkistetaan, kirjoitetaanko muuttujaan id.
+     * @param id Muuttujan tunniste
+     * @return true, jos muuttujaan kirjoitetaan
+     */
+    public boolean isWritten(String id) {
+        return writes.containsKey(id);
+    }
+
+    /**
+     * Palautetaan muuttujat, joihin kirjoitetaan.
+     * @return Kirjoitettujen muuttujien tunnisteet
+     */
+    public Set<String> written() {
+        return writes.keySet();
+    }
+
+    /**
+     * Tarkistetaan, ettei expr lue yhtään muuttujaa, johon kirjoitetaan.
+     * @param expr Lauseke
+     * @return true, jos expr:n arvo ei muutu kirjoituksissa
+     */
+    public boolean isInvariant(Expr expr) {
+        Set<String> reads = new HashSet<String>();
+        expr.countReads(reads);
+        for (String id : reads) {
+            if (isWritten(id))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tarkistetaan, kirjoitetaanko muuttujaan id vain kerran.
+     * @param id Muuttujan tunniste
+     * @return true, jos muuttujaan kirjoitetaan vain esittelyssä
+     */
+    public boolean isFinal(String id) {
+        Integer n = writes.get(id);
+        return n != null && n == 1;
+    }
+
+    /**
+     * Sidotaan muuttujan id arvoksi vakio, jos muuttujaan ei kirjoiteta
+     * muualla. Vakio muunnetaan muuttujan tyyppiin.
+     * @param id Muuttujan tunniste
+     * @param kind Muuttujan tyyppikirjain
+     * @param value Laskostettu alkuarvo
+     */
+    public void define(String id, char kind, Expr value) {
+        if (isFinal(id) && value.isConstant()) {
+            values.put(id, constant(kind, value));
+        }
+    }
+
+    /**
+     * Sidotaan muuttujan id arvoksi vakio, jonka tiedetään olevan voimassa
+     * koko käsiteltävässä puussa (esim. avatun silmukan kierroksen laskuri).
+     * @param id Muuttujan tunniste
+     * @param value Vakio muuttujan tyyppisenä
+     */
+    public void bind(String id, Expr value) {
+        values.put(id, value);
+    }
+
+    /**
+     * Sidotaan int-taulukon id arvo, jos taulukkoa ei sijoiteta uudelleen.
+     * @param id Muuttujan tunniste
+     * @param consts Taulukon arvot
+     */
+    public void define(String id, int[] consts) {
+        if (isFinal(id)) {
+            arrays.put(id, consts);
+        }
+    }
+
+    /**
+     * Palautetaan vakiomuuttujan arvo.
+     * @param id Muuttujan tunniste
+     * @return Vakio tai null, jos muuttuja ei ole vakio
+     */
+    public Expr value(String id) {
+        return values.get(id);
+    }
+
+    /**
+     * Palautetaan vakiotaulukon arvot.
+     * @param id Muuttujan tunniste
+     * @return Taulukko tai null, jos taulukko ei ole vakio
+     */
+    public int[] array(String id) {
+        return arrays.get(id);
+    }
+
+    /**
+     * Luodaan sisemmän lohkon tila. Lohkossa sidotut vakiot eivät näy
+     * lohkon ulkopuolelle, mutta ulomman lohkon vakiot näkyvät lohkoon.
+     * @return Lohkon tila
+     */
+    public ConstantFolder scope() {
+        ConstantFolder inner = new ConstantFolder();
+        inner.writes = writes;
+        inner.values.putAll(values);
+        inner.arrays.putAll(arrays);
+        return inner;
+    }
+
+    /**
+     * Luodaan avatun silmukan kierroksen kopion tila (ks. LoopUnroller).
+     * Ulomman lohkon vakiot näkyvät kopioon, mutta kirjoitukset lasketaan
+     * vain kopiosta.
+     * @return Kopion tila ilman kirjoituksia
+     */
+    public ConstantFolder unrolled() {
+        ConstantFolder inner = new ConstantFolder();
+        inner.values.putAll(values);
+        inner.arrays.putAll(arrays);
+        return inner;
+    }
+
+    /**
+     * Tarkistetaan, ovatko molemmat lausekkeet lukuvakioita.
+     * @param left Vasen lauseke
+     * @param right Oikea lauseke
+     * @return true, jos molemmat ovat int- tai double-vakioita
+     */
+    static boolean numbers(Expr left, Expr right) {
+        return left.isConstant() && right.isConstant()
+                && (left.kind() == 'I' || left.kind() == 'D')
+                && (right.kind() == 'I' || right.kind() == 'D');
+    }
+
+    /**
+     * Lasketaan vakiolauseke expr tyyppiin kind. Lauseke evaluoidaan samoilla
+     * metodeilla kuin kehyksen avulla evaluoitaessa, joten tulos on sama kuin
+     * ajon aikana.
+     * @param kind Tuloksen tyyppikirjain
+     * @param expr Lauseke, jonka kaikki operandit ovat vakioita
+     * @return Vakio
+     */
+    static Expr constant(char kind, Expr expr) {
+        switch (kind) {
+            case 'I':
+                return new ConstExpr(expr.evalInt(null, null));
+            case 'Z':
+                return new FoldedExpr(expr.evalBoolean(null, null));
+            default:
+                return new FoldedExpr(expr.evalDouble(null, null));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * FrontEndCheck vertaa jäsentäjiä (ks. Minisharp.frontend). Jokainen
+ * lähdekoodi jäsennetään kaikilla jäsentäjillä, ja syntaksipuun tulosteen
+ * (printTree) ja virheilmoitusten on oltava samat kuin valitsimella
+ * -frontend=antlr. Lähdekoodit ovat parametreina annetut tiedostot (esim.
+ * mallisyötteet) ja alla luetellut reunatapaukset. Eroavat tulokset
+ * tulostetaan, ja tarkistus päättyy koodiin 1.
+ * Käyttö: java FrontEndCheck [tiedosto ...]
+ */
+class FrontEndCheck {
+    static final String[] FRONTENDS = { "stream", "handwritten", "mapped", "compare" };
+
+    /**
+     * Reunatapausten nimet ja lähdekoodit.
+     */
+    static final String[][] CASES = {
+        { "bom", "\uFEFFMain(int a)\n{\n\treturn a;\n}\n" },
+        { "comments", "Main(int a)\n{\n\t// rivi\n\tint[] t = {1 /* c */, 2};\n"
+            + "\t/* lohko\n\t*/ return t[1] + a;\n}\n" },
+        { "unterminated comment", "Main(int a)\n{\n\treturn a; /* kesken\n}\n" },
+        { "overflowing constant", "Main(int a)\n{\n\treturn 2147483648;\n}\n" },
+        { "overflowing array constant", "Main(int a)\n{\n\tint[] t = {1, 99999999999};\n\treturn a;\n}\n" },
+        { "largest constant", "Main(int a)\n{\n\tint[] t = {2147483647};\n\treturn 2147483647;\n}\n" },
+        { "crlf", "Main(int a)\r\n{\r\n\treturn a;\r\n}\r\n" },
+        { "unicode identifier", "Main(int ä)\n{\n\treturn ä;\n}\n" },
+        { "text after program", "Main(int a)\n{\n\treturn a;\n}\nx = ;" },
+        { "syntax error", "Main(int a)\n{\n\tint x = ;\n\treturn a;\n}\n" },
+        { "unknown character", "Main(int a)\n{\n\treturn a # 1;\n}\n" },
+        { "empty", "" },
+    };
+
+    public static void main(String[] args) throws IOException {
+        int failures = 0;
+        int count = 0;
+        for (String path : args) {
+            failures += check(Files.readAllBytes(Paths.get(path)), path);
+            count++;
+        }
+        for (String[] c : CASES) {
+            failures += check(c[1].getBytes(StandardCharsets.UTF_8), c[0]);
+            count++;
+        }
+        System.out.printf("%d sources, %d failures\n", count, failures);
+        if (failures > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Verrataan jäsentäjien tuloksia ANTLR:n tulokseen.
+     * @param source Lähdekoodi
+     * @param path Tiedoston polku tai reunatapauksen nimi
+     * @return Eroavien jäsentäjien määrä
+     */
+    private static int check(byte[] source, String path) {
+        String expected = result("antlr", source, path);
+        int failures = 0;
+        for (String frontend : FRONTENDS) {
+            // Tiedosto kuvataan muistiin kuten ajettaessa ilman välimuistia.
+            boolean mapFile = frontend.equals("mapped") && Files.exists(Paths.get(path));
+            String actual = result(frontend, mapFile ? null : source, path);
+            if (!expected.equals(actual)) {
+                System.err.printf("%s -frontend=%s differs\nantlr:\n%s%s:\n%s", path, frontend,
+                        expected, frontend, actual);
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Jäsennetään ja tyyppitarkastetaan lähdekoodi ilman optimointeja.
+     * @return Virheilmoitukset ja syntaksipuu tai poikkeus
+     */
+    private static String result(String frontend, byte[] source, String path) {
+        PassManager none = PassManager.standard();
+        none.disable(none.enabled());
+        PrintStream err = System.err;
+        ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+        String tree;
+        try {
+            System.setErr(new PrintStream(diagnostics, true));
+            Minisharp.frontend = frontend;
+            StringWriter out = new StringWriter();
+            PrintWriter pw = new PrintWriter(out);
+            Minisharp.frontEnd(source, path, none).printTree(pw);
+            pw.flush();
+            tree = out.toString();
+        } catch (RuntimeException e) {
+            tree = e.toString();
+        } finally {
+            System.setErr(err);
+        }
+        return diagnostics.toString() + tree + "\n";
+    }
+}
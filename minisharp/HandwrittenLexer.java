@@ -0,0 +1,533 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * HandwrittenLexer jakaa UTF-8-muotoisen lähdekoodin tokeneiksi kieliopin
+ * (Minisharp.g4) lekserisääntöjen mukaan ilman ANTLR:ää (ks.
+ * HandwrittenParser). Kuten ANTLR:n lekserissä, pisin mahdollinen token
+ * valitaan, ja saman pituisista avainsana voittaa tunnisteen (int, mutta
+ * int2 on tunniste). Välilyönnit ja kommentit ohitetaan. Myös tiedoston
+ * alussa oleva BOM ohitetaan (ANTLR ilmoittaa siitä tunnistamattomana
+ * merkkinä, mutta jättää sen pois), ja se merkitään kenttään bom, jotta
+ * jäsennyksen jälkeen voidaan tulostaa sama virheilmoitus.
+ *
+ * Lähdekoodia luetaan tavuina puskurista, joka voi olla myös muistiin
+ * kuvattu tiedosto (ks. ParallelLexer). ASCII-merkit luokitellaan
+ * taulukosta. Muut merkit puretaan UTF-8:sta vain tunnisteissa: tunnisteen
+ * ensimmäinen merkki tarkistetaan Character.isUnicodeIdentifierStartilla ja
+ * muut merkit Character.isUnicodeIdentifierPartilla. Nämä vastaavat
+ * Unicoden ID_Start- ja ID_Continue-ominaisuuksia, jotka eroavat kieliopin
+ * XID-ominaisuuksista vain muutaman harvinaisen merkin osalta.
+ *
+ * Tokenit luetaan yksi kerrallaan (next), ja nykyisen tokenin sijainti
+ * puskurissa on kentissä start ja end.
+ */
+class HandwrittenLexer extends TokenBuffer {
+    static final int EOF = 0;
+    static final int ID = 1;
+    static final int CONST = 2;
+    static final int MAIN = 3;
+    static final int INT = 4;
+    static final int INTSEQUENCE = 5;
+    static final int DOUBLE = 6;
+    static final int BOOLEAN = 7;
+    static final int IF = 8;
+    static final int ELSE = 9;
+    static final int FOR = 10;
+    static final int RETURN = 11;
+    static final int LPAREN = 12;
+    static final int RPAREN = 13;
+    static final int LBRACE = 14;
+    static final int RBRACE = 15;
+    static final int LBRACKET = 16;
+    static final int RBRACKET = 17;
+    static final int BRACKETS = 18;
+    static final int COMMA = 19;
+    static final int SEMI = 20;
+    static final int ASSIGN = 21;
+    static final int LENGTH = 22;
+    static final int MUL = 23;
+    static final int DIV = 24;
+    static final int ADD = 25;
+    static final int SUB = 26;
+    static final int LT = 27;
+    static final int GT = 28;
+    static final int EQ = 29;
+    static final int INC = 30;
+    static final int DEC = 31;
+
+    static final String[] NAMES = {
+        "<EOF>", "ID", "CONST", "'Main('", "'int'", "'intsequence'", "'double'",
+        "'boolean'", "'if'", "'else'", "'for'", "'return'", "'('", "')'", "'{'",
+        "'}'", "'['", "']'", "'[]'", "','", "';'", "'='", "'.length'", "'*'",
+        "'/'", "'+'", "'-'", "'<'", "'>'", "'=='", "'++'", "'--'"
+    };
+
+    private static final byte SPACE = 1;
+    private static final byte LETTER = 2;
+    private static final byte DIGIT = 4;
+    private static final byte[] CLASS = new byte[128];
+
+    static {
+        CLASS[' '] = CLASS['\t'] = CLASS['\n'] = CLASS['\r'] = SPACE;
+        for (char c = 'a'; c <= 'z'; c++) {
+            CLASS[c] = LETTER;
+            CLASS[Character.toUpperCase(c)] = LETTER;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            CLASS[c] = DIGIT;
+        }
+    }
+
+    private ByteBuffer source;
+    private int length;
+    private int pos;
+    private int line = 1;
+    private int lineStart;
+
+    /**
+     * Nykyisen tokenin alku ja loppu.
+     */
+    int start;
+    int end;
+
+    /**
+     * Luetaan koko lähdekoodi.
+     * @param source Lähdekoodi UTF-8-muodossa
+     */
+    public HandwrittenLexer(byte[] source) {
+        this(ByteBuffer.wrap(source), 0);
+    }
+
+    /**
+     * Luetaan puskuria kohdasta from alkaen. Puskurin alussa oleva BOM
+     * ohitetaan.
+     * @param source Lähdekoodi UTF-8-muodossa
+     * @param from Aloituskohta
+     */
+    public HandwrittenLexer(ByteBuffer source, int from) {
+        this.source = source;
+        length = source.limit();
+        pos = lineStart = from;
+        if (from == 0 && startsWithBom(source)) {
+            pos = lineStart = 3;
+            bom = true;
+        }
+    }
+
+    /**
+     * Tarkistetaan, alkaako puskuri UTF-8-muotoisella BOM:lla.
+     * @param source Lähdekoodi UTF-8-muodossa
+     * @return true, jos puskurin alussa on BOM
+     */
+    static boolean startsWithBom(ByteBuffer source) {
+        return source.limit() >= 3 && source.get(0) == (byte) 0xEF
+                && source.get(1) == (byte) 0xBB && source.get(2) == (byte) 0xBF;
+    }
+
+    /**
+     * Luetaan seuraava token.
+     * @return Tokenin laji
+     */
+    @Override
+    public int next() {
+        next(length);
+        return token;
+    }
+
+    /**
+     * Luetaan seuraava token, jos se alkaa ennen kohtaa limit. Välilyönnit
+     * ja kommentit ohitetaan kuitenkin myös kohdan limit yli.
+     * @param limit Kohta, jota ennen tokenin on alettava
+     * @return true, jos token luettiin, false, jos token alkaisi kohdassa
+     *         limit tai sen jälkeen tai lähdekoodi on luettu loppuun
+     */
+    public boolean next(int limit) {
+        skip();
+        start = pos;
+        if (pos >= limit || pos >= length) {
+            token = EOF;
+            end = pos;
+            return false;
+        }
+        token = scan();
+        end = pos;
+        return true;
+    }
+
+    /**
+     * Palautetaan kohta, josta seuraavaa tokenia aletaan etsiä.
+     * @return Kohta puskurissa
+     */
+    public int position() {
+        return pos;
+    }
+
+    /**
+     * Palautetaan nykyisen tokenin teksti.
+     * @return Teksti
+     */
+    @Override
+    public String text() {
+        byte[] bytes = new byte[end - start];
+        source.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Palautetaan nykyisen CONST-tokenin arvo. Liian suuresta arvosta
+     * heitetään sama poikkeus kuin Integer.parseIntistä.
+     * @return Arvo
+     */
+    @Override
+    public int value() {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (source.get(i) - '0');
+            if (value > Integer.MAX_VALUE)
+                throw new NumberFormatException("For input string: \"" + text() + "\"");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Luodaan virhe nykyisen tokenin kohdalle.
+     * @param message Viesti
+     * @return Virhe
+     */
+    @Override
+    public IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(
+                String.format("line %d:%d %s", line, start - lineStart, message));
+    }
+
+    /**
+     * Luetaan taulukkovakion alkiot suoraan puskurista kasvavaan
+     * int-taulukkoon, jolloin alkioille ei luoda tokeneita eikä
+     * merkkijonoja. Vakiossa saa olla vain numeroita, pilkkuja ja
+     * välilyöntejä. Muussa tapauksessa (esim. kommentti, virhe tai liian
+     * suuri luku) palautetaan null, eikä mitään lueta, jolloin jäsentäjä
+     * lukee vakion tokeneina ja ilmoittaa mahdollisen virheen.
+     * @return Alkiot tai null
+     */
+    @Override
+    public int[] constants() {
+        int savedLine = line;
+        int savedLineStart = lineStart;
+        int[] values = new int[16];
+        int n = 0;
+        int p = end;
+        while (true) {
+            p = spaces(p);
+            if (p >= length || !isDigit(source.get(p)))
+                break;
+            long value = 0;
+            while (p < length && isDigit(source.get(p))) {
+                value = value * 10 + (source.get(p) - '0');
+                if (value > Integer.MAX_VALUE)
+                    break;
+                p++;
+            }
+            if (value > Integer.MAX_VALUE)
+                break;
+            if (n == values.length)
+                values = Arrays.copyOf(values, n * 2);
+            values[n++] = (int) value;
+            p = spaces(p);
+            if (p >= length)
+                break;
+            byte b = source.get(p++);
+            if (b == '}') {
+                pos = p;
+                next();
+                return Arrays.copyOf(values, n);
+            }
+            if (b != ',')
+                break;
+        }
+        line = savedLine;
+        lineStart = savedLineStart;
+        return null;
+    }
+
+    /**
+     * Ohitetaan välilyönnit kohdasta p alkaen.
+     * @return Ensimmäinen muu kohta
+     */
+    private int spaces(int p) {
+        while (p < length) {
+            byte b = source.get(p);
+            if (b < 0 || CLASS[b] != SPACE)
+                break;
+            if (b == '\n')
+                newline(p);
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * Ohitetaan välilyönnit sekä rivi- ja lohkokommentit.
+     */
+    private void skip() {
+        while (pos < length) {
+            int c = source.get(pos);
+            if (c >= 0 && CLASS[c] == SPACE) {
+                if (c == '\n')
+                    newline(pos);
+                pos++;
+            } else if (c == '/' && pos + 1 < length && source.get(pos + 1) == '/') {
+                while (pos < length && source.get(pos) != '\r' && source.get(pos) != '\n')
+                    pos++;
+            } else if (c == '/' && pos + 1 < length && source.get(pos + 1) == '*') {
+                int close = pos + 2;
+                while (close + 1 < length && !(source.get(close) == '*' && source.get(close + 1) == '/'))
+                    close++;
+                if (close + 1 >= length) {
+                    start = pos;
+                    throw error("unterminated comment");
+                }
+                for (int i = pos; i < close; i++) {
+                    if (source.get(i) == '\n')
+                        newline(i);
+                }
+                pos = close + 2;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Merkitään rivinvaihto kohdassa i.
+     */
+    private void newline(int i) {
+        line++;
+        lineStart = i + 1;
+    }
+
+    /**
+     * Luetaan token kohdasta pos.
+     */
+    private int scan() {
+        int c = source.get(pos);
+        if (c >= 0) {
+            if (CLASS[c] == LETTER)
+                return identifier();
+            if (CLASS[c] == DIGIT) {
+                pos++;
+                while (pos < length && isDigit(source.get(pos)))
+                    pos++;
+                return CONST;
+            }
+        } else if (Character.isUnicodeIdentifierStart(codePoint(pos))) {
+            return identifier();
+        }
+        pos++;
+        switch (c) {
+            case '(': return LPAREN;
+            case ')': return RPAREN;
+            case '{': return LBRACE;
+            case '}': return RBRACE;
+            case ']': return RBRACKET;
+            case ',': return COMMA;
+            case ';': return SEMI;
+            case '*': return MUL;
+            case '/': return DIV;
+            case '<': return LT;
+            case '>': return GT;
+            case '[': return follows(']') ? BRACKETS : LBRACKET;
+            case '+': return follows('+') ? INC : ADD;
+            case '-': return follows('-') ? DEC : SUB;
+            case '=': return follows('=') ? EQ : ASSIGN;
+            case '.':
+                if (matches(pos, "length")) {
+                    pos += "length".length();
+                    return LENGTH;
+                }
+                break;
+        }
+        end = pos;
+        throw error(String.format("token recognition error at: '%s'", text()));
+    }
+
+    /**
+     * Tarkistetaan, onko tavu numero.
+     */
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Luetaan merkki c, jos se on seuraavana.
+     */
+    private boolean follows(char c) {
+        if (pos < length && source.get(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Luetaan tunniste tai avainsana. 'Main(' on yksi token, joten sulku
+     * kuuluu siihen, jos se seuraa tunnistetta Main välittömästi.
+     */
+    private int identifier() {
+        pos += width(source.get(pos));
+        while (pos < length) {
+            int c = source.get(pos);
+            if (c >= 0) {
+                if (CLASS[c] != LETTER && CLASS[c] != DIGIT && c != '_')
+                    break;
+                pos++;
+            } else {
+                int cp = codePoint(pos);
+                if (!Character.isUnicodeIdentifierPart(cp) || Character.isIdentifierIgnorable(cp))
+                    break;
+                pos += width((byte) c);
+            }
+        }
+        int kind = keyword(start, pos - start);
+        if (kind == MAIN) {
+            if (follows('('))
+                return MAIN;
+            return ID;
+        }
+        return kind;
+    }
+
+    /**
+     * Palautetaan UTF-8-merkin tavujen määrä sen ensimmäisestä tavusta.
+     */
+    private static int width(byte b) {
+        if (b >= 0)
+            return 1;
+        if ((b & 0xE0) == 0xC0)
+            return 2;
+        if ((b & 0xF0) == 0xE0)
+            return 3;
+        return 4;
+    }
+
+    /**
+     * Puretaan UTF-8-merkki kohdasta i. Virheellinen tavujono palautetaan
+     * arvona -1, joka ei kelpaa tunnisteeseen.
+     */
+    private int codePoint(int i) {
+        int b = source.get(i);
+        int n = width((byte) b);
+        if (n == 1 || i + n > length || (b & 0xC0) == 0x80)
+            return n == 1 ? b : -1;
+        int cp = b & (0x7F >> n);
+        for (int k = 1; k < n; k++) {
+            int next = source.get(i + k);
+            if ((next & 0xC0) != 0x80)
+                return -1;
+            cp = (cp << 6) | (next & 0x3F);
+        }
+        return cp;
+    }
+
+    /**
+     * Palautetaan avainsanan laji tai ID. Main palautetaan lajina MAIN,
+     * vaikka sulku puuttuisi.
+     */
+    private int keyword(int from, int n) {
+        switch (source.get(from)) {
+            case 'M':
+                return matches(from, n, "Main") ? MAIN : ID;
+            case 'i':
+                if (matches(from, n, "int"))
+                    return INT;
+                if (matches(from, n, "if"))
+                    return IF;
+                return matches(from, n, "intsequence") ? INTSEQUENCE : ID;
+            case 'd':
+                return matches(from, n, "double") ? DOUBLE : ID;
+            case 'b':
+                return matches(from, n, "boolean") ? BOOLEAN : ID;
+            case 'e':
+                return matches(from, n, "else") ? ELSE : ID;
+            case 'f':
+                return matches(from, n, "for") ? FOR : ID;
+            case 'r':
+                return matches(from, n, "return") ? RETURN : ID;
+            default:
+                return ID;
+        }
+    }
+
+    /**
+     * Tarkistetaan, onko puskurin kohta from..from+n sana word.
+     */
+    private boolean matches(int from, int n, String word) {
+        return n == word.length() && matches(from, word);
+    }
+
+    /**
+     * Tarkistetaan, alkaako puskuri kohdasta from sanalla word.
+     */
+    private boolean matches(int from, String word) {
+        if (from + word.length() > length)
+            return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (source.get(from + i) != word.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}
+
+/**
+ * Käsin kirjoitetun jäsentäjän tokenit (ks. HandwrittenParser): joko
+ * lekseri, joka lukee ne suoraan lähdekoodista, tai osina rinnakkain
+ * luetut tokenit (ks. ParallelLexer).
+ */
+abstract class TokenBuffer {
+    /**
+     * Nykyisen tokenin laji (ks. HandwrittenLexer).
+     */
+    int token;
+
+    /**
+     * Oliko lähdekoodin alussa BOM, josta ANTLR:n lekseri ilmoittaa.
+     */
+    boolean bom;
+
+    /**
+     * Luetaan seuraava token.
+     * @return Tokenin laji
+     */
+    public abstract int next();
+
+    /**
+     * Palautetaan nykyisen tokenin teksti.
+     * @return Teksti
+     */
+    public abstract String text();
+
+    /**
+     * Palautetaan nykyisen CONST-tokenin arvo.
+     * @return Arvo
+     */
+    public abstract int value();
+
+    /**
+     * Luodaan syntaksivirhe nykyisen tokenin kohdalle.
+     * @param message Viesti
+     * @return Virhe
+     */
+    public abstract IllegalArgumentException error(String message);
+
+    /**
+     * Luetaan taulukkovakion alkiot ilman tokeneita, kun nykyinen token on
+     * '{'. Onnistuessaan metodi lukee vakion loppuun ja siirtyy sitä
+     * seuraavaan tokeniin.
+     * @return Alkiot tai null, jos alkiot on luettava tokeneina
+     */
+    public int[] constants() {
+        return null;
+    }
+}
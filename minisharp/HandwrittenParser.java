@@ -0,0 +1,373 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * HandwrittenParser on käsin kirjoitettu jäsentäjä, joka muodostaa saman
+ * syntaksipuun kuin ANTLR:n jäsentäjä ja ASTGenVisitor, mutta ilman
+ * ANTLR:n alustusta (ks. Minisharp.parseHandwritten). Statementit
+ * jäsennetään rekursiivisesti kieliopin (Minisharp.g4) sääntöjen mukaan.
+ * Kielioppi on LL(1), joten jokainen sääntö valitaan seuraavasta tokenista.
+ *
+ * Lausekkeet jäsennetään prioriteettikiipeämällä. Kieliopin expr-säännössä
+ * aiempi vaihtoehto sitoo vahvemmin, joten jokaisella operaattorilla on oma
+ * tasonsa: * ja / (5), + ja - (4), < (3), > (2) ja == (1). Kaikki
+ * operaattorit ovat vasemmalle assosiatiivisia, joten oikea operandi
+ * jäsennetään yhtä tasoa korkeammalla prioriteetilla.
+ *
+ * Kuten ANTLR:n start-säännössä, ohjelman viimeisen aaltosulkeen jälkeistä
+ * tekstiä ei lueta. Ensimmäinen syntaksivirhe keskeyttää jäsennyksen
+ * IllegalArgumentExceptionilla.
+ */
+class HandwrittenParser {
+    private TokenBuffer tokens;
+
+    /**
+     * Jäsennetään lähdekoodi.
+     * @param source Lähdekoodi UTF-8-muodossa
+     */
+    public HandwrittenParser(byte[] source) {
+        this(new HandwrittenLexer(source));
+    }
+
+    /**
+     * Sijoitetaan parametrina tuotu arvo.
+     * @param tokens Tokenit, joista ensimmäistä ei ole vielä luettu
+     */
+    public HandwrittenParser(TokenBuffer tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * Jäsennetään ohjelma (start-sääntö).
+     * @return Syntaksipuu
+     */
+    public Program parse() {
+        tokens.next();
+        expect(HandwrittenLexer.MAIN);
+        Paramlist params = isType() ? paramlist() : null;
+        expect(HandwrittenLexer.RPAREN);
+        expect(HandwrittenLexer.LBRACE);
+        Block block = block();
+        if (tokens.token != HandwrittenLexer.RBRACE)
+            throw unexpected(HandwrittenLexer.RBRACE);
+        return new Program(params, block);
+    }
+
+    /**
+     * Jäsennetään pilkuin erotetut parametrit.
+     */
+    private Paramlist paramlist() {
+        List<Param> params = new ArrayList<Param>();
+        do {
+            Type type = type();
+            params.add(new Param(type, id()));
+        } while (accept(HandwrittenLexer.COMMA));
+        return new Paramlist(params);
+    }
+
+    /**
+     * Tarkistetaan, alkaako nykyisestä tokenista tyyppi.
+     */
+    private boolean isType() {
+        int t = tokens.token;
+        return t == HandwrittenLexer.INT || t == HandwrittenLexer.INTSEQUENCE
+                || t == HandwrittenLexer.DOUBLE || t == HandwrittenLexer.BOOLEAN;
+    }
+
+    /**
+     * Jäsennetään tyyppi.
+     */
+    private Type type() {
+        Type type;
+        switch (tokens.token) {
+            case HandwrittenLexer.INT:
+                type = Type.INT;
+                break;
+            case HandwrittenLexer.INTSEQUENCE:
+                type = Type.INT_SEQUENCE;
+                break;
+            case HandwrittenLexer.DOUBLE:
+                type = Type.DOUBLE;
+                break;
+            case HandwrittenLexer.BOOLEAN:
+                type = Type.BOOL;
+                break;
+            default:
+                throw tokens.error(String.format("mismatched input '%s' expecting type", tokens.text()));
+        }
+        tokens.next();
+        return type;
+    }
+
+    /**
+     * Jäsennetään lohkon statementit. Lohko päättyy aaltosulkeeseen, jota
+     * ei lueta.
+     */
+    private Block block() {
+        List<Stmt> stmts = new ArrayList<Stmt>();
+        while (tokens.token != HandwrittenLexer.RBRACE) {
+            stmts.add(stmt());
+        }
+        return new Block(stmts);
+    }
+
+    /**
+     * Jäsennetään aaltosulkeissa oleva lohko.
+     */
+    private Block braces() {
+        expect(HandwrittenLexer.LBRACE);
+        Block block = block();
+        expect(HandwrittenLexer.RBRACE);
+        return block;
+    }
+
+    /**
+     * Jäsennetään statementti.
+     */
+    private Stmt stmt() {
+        switch (tokens.token) {
+            case HandwrittenLexer.INT:
+            case HandwrittenLexer.INTSEQUENCE:
+            case HandwrittenLexer.DOUBLE:
+            case HandwrittenLexer.BOOLEAN:
+                return decl();
+            case HandwrittenLexer.ID:
+                return assign();
+            case HandwrittenLexer.IF:
+                return ifstmt();
+            case HandwrittenLexer.FOR:
+                return forstmt();
+            case HandwrittenLexer.RETURN:
+                tokens.next();
+                Expr expr = expr(1);
+                expect(HandwrittenLexer.SEMI);
+                return new Return(expr);
+            default:
+                throw tokens.error(String.format("extraneous input '%s'", tokens.text()));
+        }
+    }
+
+    /**
+     * Jäsennetään esittely: type ID = expr; tai type[] ID = {...};
+     */
+    private Decl decl() {
+        Type type = type();
+        if (accept(HandwrittenLexer.BRACKETS)) {
+            String id = id();
+            expect(HandwrittenLexer.ASSIGN);
+            int[] consts = consts();
+            expect(HandwrittenLexer.SEMI);
+            return new DeclArray(type, id, consts);
+        }
+        String id = id();
+        expect(HandwrittenLexer.ASSIGN);
+        Expr expr = expr(1);
+        expect(HandwrittenLexer.SEMI);
+        return new DeclExpr(type, id, expr);
+    }
+
+    /**
+     * Jäsennetään sijoitus: ID = expr; tai ID = {...};
+     */
+    private Stmt assign() {
+        String id = id();
+        expect(HandwrittenLexer.ASSIGN);
+        if (tokens.token == HandwrittenLexer.LBRACE) {
+            int[] consts = consts();
+            expect(HandwrittenLexer.SEMI);
+            return new AssignArray(id, consts);
+        }
+        Expr expr = expr(1);
+        expect(HandwrittenLexer.SEMI);
+        return new AssignExpr(id, expr);
+    }
+
+    /**
+     * Jäsennetään aaltosulkeissa olevat pilkuin erotetut vakiot suoraan
+     * int-taulukkoon. Jos tokenit voi ohittaa (ks. TokenBuffer.constants),
+     * vakiot luetaan suoraan lähdekoodista.
+     */
+    private int[] consts() {
+        if (tokens.token == HandwrittenLexer.LBRACE) {
+            int[] consts = tokens.constants();
+            if (consts != null)
+                return consts;
+        }
+        expect(HandwrittenLexer.LBRACE);
+        int[] consts = new int[8];
+        int n = 0;
+        do {
+            if (tokens.token != HandwrittenLexer.CONST)
+                throw unexpected(HandwrittenLexer.CONST);
+            if (n == consts.length)
+                consts = Arrays.copyOf(consts, n * 2);
+            consts[n++] = tokens.value();
+            tokens.next();
+        } while (accept(HandwrittenLexer.COMMA));
+        expect(HandwrittenLexer.RBRACE);
+        return Arrays.copyOf(consts, n);
+    }
+
+    /**
+     * Jäsennetään if-lause ja sen mahdollinen else-lohko.
+     */
+    private IfStatement ifstmt() {
+        expect(HandwrittenLexer.IF);
+        expect(HandwrittenLexer.LPAREN);
+        Expr expr = expr(1);
+        expect(HandwrittenLexer.RPAREN);
+        Block then = braces();
+        if (accept(HandwrittenLexer.ELSE))
+            return new IfStatement(expr, new Block[] { then, braces() });
+        return new IfStatement(expr, new Block[] { then });
+    }
+
+    /**
+     * Jäsennetään for-silmukka: for (decl expr; ID++) {...}
+     */
+    private ForLoop forstmt() {
+        expect(HandwrittenLexer.FOR);
+        expect(HandwrittenLexer.LPAREN);
+        Decl decl = decl();
+        Expr expr = expr(1);
+        expect(HandwrittenLexer.SEMI);
+        String id = id();
+        String op = tokens.text();
+        if (!accept(HandwrittenLexer.INC) && !accept(HandwrittenLexer.DEC))
+            throw tokens.error(String.format("mismatched input '%s' expecting {'++', '--'}", op));
+        expect(HandwrittenLexer.RPAREN);
+        return new ForLoop(decl, expr, new Iterator(id, op), braces());
+    }
+
+    /**
+     * Jäsennetään lauseke, jonka operaattoreiden prioriteetti on vähintään
+     * min.
+     * @param min Pienin prioriteetti
+     * @return Lauseke
+     */
+    private Expr expr(int min) {
+        Expr left = primary();
+        int op = tokens.token;
+        int p = precedence(op);
+        while (p >= min) {
+            tokens.next();
+            left = binary(op, left, expr(p + 1));
+            op = tokens.token;
+            p = precedence(op);
+        }
+        return left;
+    }
+
+    /**
+     * Palautetaan binäärioperaattorin prioriteetti tai 0, jos token ei ole
+     * binäärioperaattori.
+     */
+    private static int precedence(int token) {
+        switch (token) {
+            case HandwrittenLexer.MUL:
+            case HandwrittenLexer.DIV:
+                return 5;
+            case HandwrittenLexer.ADD:
+            case HandwrittenLexer.SUB:
+                return 4;
+            case HandwrittenLexer.LT:
+                return 3;
+            case HandwrittenLexer.GT:
+                return 2;
+            case HandwrittenLexer.EQ:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Luodaan binäärioperaattorin solmu.
+     */
+    private static Expr binary(int op, Expr left, Expr right) {
+        switch (op) {
+            case HandwrittenLexer.MUL:
+                return new MulExpr(left, right);
+            case HandwrittenLexer.DIV:
+                return new DivExpr(left, right);
+            case HandwrittenLexer.ADD:
+                return new AddExpr(left, right);
+            case HandwrittenLexer.SUB:
+                return new MinExpr(left, right);
+            case HandwrittenLexer.LT:
+                return new LessthanExpr(left, right);
+            case HandwrittenLexer.GT:
+                return new GreaterthanExpr(left, right);
+            default:
+                return new EqualExpr(left, right);
+        }
+    }
+
+    /**
+     * Jäsennetään operaattoriton lauseke: muuttuja, indeksointi, taulukon
+     * pituus, vakio tai sulkulauseke.
+     */
+    private Expr primary() {
+        switch (tokens.token) {
+            case HandwrittenLexer.ID:
+                String id = id();
+                if (accept(HandwrittenLexer.LBRACKET)) {
+                    Expr index = expr(1);
+                    expect(HandwrittenLexer.RBRACKET);
+                    return new IndexExpr(id, index);
+                }
+                if (accept(HandwrittenLexer.LENGTH))
+                    return new LenghtExpr(id);
+                return new VarExpr(id);
+            case HandwrittenLexer.CONST:
+                ConstExpr c = new ConstExpr(tokens.value());
+                tokens.next();
+                return c;
+            case HandwrittenLexer.LPAREN:
+                tokens.next();
+                Expr expr = expr(1);
+                expect(HandwrittenLexer.RPAREN);
+                return new ParenExpr(expr);
+            default:
+                throw tokens.error(String.format("no viable alternative at input '%s'", tokens.text()));
+        }
+    }
+
+    /**
+     * Luetaan tunniste.
+     */
+    private String id() {
+        if (tokens.token != HandwrittenLexer.ID)
+            throw unexpected(HandwrittenLexer.ID);
+        String id = tokens.text();
+        tokens.next();
+        return id;
+    }
+
+    /**
+     * Luetaan token, jos se on nykyinen token.
+     */
+    private boolean accept(int token) {
+        if (tokens.token != token)
+            return false;
+        tokens.next();
+        return true;
+    }
+
+    /**
+     * Luetaan token, jonka on oltava nykyinen token.
+     */
+    private void expect(int token) {
+        if (!accept(token))
+            throw unexpected(token);
+    }
+
+    /**
+     * Luodaan virhe odottamattomasta tokenista.
+     */
+    private IllegalArgumentException unexpected(int expected) {
+        return tokens.error(String.format("mismatched input '%s' expecting %s",
+                tokens.text(), HandwrittenLexer.NAMES[expected]));
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LoopHoister siirtää silmukan invariantit lausekkeet silmukan edelle.
+ * Lauseke on invariantti, jos mitään sen lukemaa muuttujaa ei kirjoiteta
+ * silmukassa (esittely, iteraattori tai silmukan lohkon esittelyt ja
+ * sijoitukset). Invariantin lausekkeen arvo lasketaan kerran uuteen
+ * apumuuttujaan ennen silmukkaa, ja lauseke korvataan apumuuttujan
+ * lukemisella.
+ *
+ * Siirrettävä lauseke lasketaan, vaikka silmukan lohkoa ei suoritettaisi
+ * kertaakaan, joten lausekkeita, joiden evaluointi voi epäonnistua
+ * (ks. Expr.mayFail), ei siirretä.
+ */
+class LoopHoister {
+    private FrameLayout layout;
+    private ConstantFolder writes;
+    private List<Stmt> hoisted = new ArrayList<Stmt>();
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param layout Kehyksen asettelu, johon apumuuttujat lisätään
+     * @param writes Silmukassa kirjoitettavat muuttujat
+     */
+    public LoopHoister(FrameLayout layout, ConstantFolder writes) {
+        this.layout = layout;
+        this.writes = writes;
+    }
+
+    /**
+     * Tarkistetaan, voidaanko expr siirtää silmukan edelle.
+     * @param expr Lauseke
+     * @return true, jos expr on invariantti eikä sen evaluointi voi epäonnistua
+     */
+    public boolean invariant(Expr expr) {
+        return !expr.mayFail() && writes.isInvariant(expr);
+    }
+
+    /**
+     * Lasketaan expr ennen silmukkaa uuteen apumuuttujaan.
+     * @param expr Invariantti lauseke, jonka muuttujat on ratkaistu
+     * @return Apumuuttujan lukeva lauseke
+     */
+    public Expr hoist(Expr expr) {
+        DeclExpr decl = declareTemp(layout, expr);
+        hoisted.add(decl);
+        VarExpr var = new VarExpr(decl.getID());
+        var.resolve(layout);
+        return var;
+    }
+
+    /**
+     * Esitellään uusi apumuuttuja, jonka alkuarvo on expr. Apumuuttujan
+     * tyyppi on expr:n tyyppi.
+     * @param layout Kehyksen asettelu, johon apumuuttuja lisätään
+     * @param expr Lauseke, jonka muuttujat on ratkaistu
+     * @return Apumuuttujan esittely
+     */
+    static DeclExpr declareTemp(FrameLayout layout, Expr expr) {
+        Type type;
+        switch (expr.kind()) {
+            case 'I':
+                type = Type.INT;
+                break;
+            case 'Z':
+                type = Type.BOOL;
+                break;
+            default:
+                type = Type.DOUBLE;
+        }
+        String id = layout.declareTemp(type);
+        DeclExpr decl = new DeclExpr(type, id, expr);
+        decl.resolve(layout);
+        return decl;
+    }
+
+    /**
+     * Palautetaan silmukan edelle lisättävät apumuuttujien esittelyt.
+     * @return Esittelyt suoritusjärjestyksessä
+     */
+    public List<Stmt> hoisted() {
+        return hoisted;
+    }
+}
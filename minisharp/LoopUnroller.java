@@ -0,0 +1,180 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * LoopUnroller avaa laskettuja silmukoita (ks. ForLoop.unroll). Silmukka,
+ * jonka kierrosten määrä on vakio ja pieni, avataan kokonaan: lohko
+ * kopioidaan jokaista kierrosta varten, ja kopiossa laskurin lukemiset
+ * korvataan kierroksen vakioarvolla, jolloin kopion vakiolausekkeet
+ * laskostuvat (ks. ConstantFolder). Pitkä silmukka, jonka raja on vakio tai
+ * taulukon pituus, avataan osittain: pääsilmukan lohkossa on FACTOR kopiota
+ * lohkosta, ja loput kierrokset suoritetaan alkuperäisellä silmukalla.
+ * Kierrokset suoritetaan samassa järjestyksessä kuin silmukassa, joten
+ * rajojen tarkistuksen tulokset (ks. BoundsChecker) ovat voimassa myös
+ * kopioissa.
+ *
+ * Kopiot tehdään rakenteellisesti (ks. Block.copy), ja vain kopiot
+ * laskostetaan ympäröivien lohkojen vakioilla. Kopion vakioehtoiset
+ * if-lauseet karsitaan heti; muuttujat, joita ei enää lueta, poistetaan
+ * Program.unrollissa.
+ */
+class LoopUnroller {
+    /**
+     * Suurin kierrosten määrä, jolla silmukka avataan kokonaan.
+     */
+    static final int FULL_TRIPS = 8;
+
+    /**
+     * Kokonaan avatun silmukan statementtien enimmäismäärä.
+     */
+    static final int FULL_SIZE = 64;
+
+    /**
+     * Osittain avatun silmukan lohkon kopioiden määrä.
+     */
+    static final int FACTOR = 4;
+
+    /**
+     * Osittain avattavan silmukan lohkon statementtien enimmäismäärä.
+     */
+    static final int PARTIAL_SIZE = 8;
+
+    private FrameLayout layout;
+    private ConstantFolder outer;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param layout Kehyksen asettelu
+     * @param outer Silmukkaa ympäröivien lohkojen vakiot
+     */
+    public LoopUnroller(FrameLayout layout, ConstantFolder outer) {
+        this.layout = layout;
+        this.outer = outer;
+    }
+
+    /**
+     * Avataan silmukka kokonaan. Laskurin esittely säilyy, ja silmukan
+     * jälkeen laskurilla on sama arvo kuin silmukan jälkeen.
+     * @param decl Laskurin esittely, jonka alkuarvo on from
+     * @param block Silmukan lohko
+     * @param from Laskurin alkuarvo
+     * @param trips Kierrosten määrä
+     * @param step Laskurin askel, 1 tai -1
+     * @param out Lista, johon statementit lisätään
+     */
+    public void full(Decl decl, Block block, int from, int trips, int step, List<Stmt> out) {
+        String id = decl.getID();
+        out.add(decl);
+        for (int k = 0; k < trips; k++) {
+            out.addAll(copy(block, id, from + k * step));
+        }
+        if (trips > 0)
+            out.add(assign(id, new ConstExpr(from + trips * step)));
+    }
+
+    /**
+     * Muodostetaan osittain avatun silmukan lohko: FACTOR kopiota lohkosta,
+     * joiden välissä laskuria kasvatetaan askeleella. Viimeisen kopion
+     * jälkeen laskuria kasvattaa silmukan iteraattori.
+     * @param id Laskurin tunniste
+     * @param block Silmukan lohko
+     * @param step Laskurin askel, 1 tai -1
+     * @return Pääsilmukan lohko
+     */
+    public Block partial(String id, Block block, int step) {
+        List<Stmt> stmts = new ArrayList<Stmt>();
+        for (int k = 0; k < FACTOR; k++) {
+            if (k > 0)
+                stmts.add(assign(id, new AddExpr(variable(id), new ConstExpr(step))));
+            stmts.addAll(block.copy().getStmts());
+        }
+        Block body = new Block(stmts);
+        body.resolve(layout);
+        return body;
+    }
+
+    /**
+     * Palautetaan pääsilmukan raja: pääsilmukan kierros suoritetaan vain,
+     * jos kaikki sen FACTOR alkuperäistä kierrosta suoritettaisiin.
+     * @param bound Alkuperäinen raja
+     * @param step Laskurin askel, 1 tai -1
+     * @return Raja tai null, jos sitä ei voi laskea ilman ylivuotoa
+     */
+    public Expr limit(Expr bound, int step) {
+        Expr limit;
+        if (bound.isConstant()) {
+            long b = (long) bound.evalInt(null, null) - (long) step * (FACTOR - 1);
+            if (b < Integer.MIN_VALUE || b > Integer.MAX_VALUE)
+                return null;
+            limit = new ConstExpr((int) b);
+        } else if (bound.lengthOf() != null) {
+            // Taulukon pituus on ei-negatiivinen ja alle Integer.MAX_VALUE - 8.
+            Expr length = new LenghtExpr(bound.lengthOf());
+            Expr k = new ConstExpr(FACTOR - 1);
+            limit = step > 0 ? new MinExpr(length, k) : new AddExpr(length, k);
+        } else {
+            return null;
+        }
+        limit.resolve(layout);
+        return limit;
+    }
+
+    /**
+     * Kopioidaan lohko ja korvataan kopiossa laskurin lukemiset arvolla
+     * value. Laskostuksen jälkeen kopiosta karsitaan vakioehtojen
+     * suorittamatta jäävät haarat; kopion muuttujien esittelyt säilyvät.
+     * Jos kopio lukee laskuria vielä laskostuksen jälkeen, laskurille
+     * sijoitetaan arvo ennen kopiota.
+     * @param block Lohko
+     * @param id Laskurin tunniste
+     * @param value Laskurin arvo
+     * @return Kopion statementit
+     */
+    private List<Stmt> copy(Block block, String id, int value) {
+        Block copy = block.copy();
+        ConstantFolder c = outer.unrolled();
+        copy.countWrites(c);
+        c.bind(id, new ConstExpr(value));
+        copy.fold(c);
+        copy.prune(c.written());
+        List<Stmt> stmts = new ArrayList<Stmt>();
+        Set<String> reads = new HashSet<String>();
+        copy.countReads(reads);
+        if (reads.contains(id))
+            stmts.add(assign(id, new ConstExpr(value)));
+        stmts.addAll(copy.getStmts());
+        return stmts;
+    }
+
+    /**
+     * Esitellään laskuri uudelleen sen nykyisellä arvolla. Jäännössilmukka
+     * jatkaa siitä, mihin pääsilmukka jäi.
+     * @param id Laskurin tunniste
+     * @return Esittely
+     */
+    public Decl redeclare(String id) {
+        DeclExpr decl = new DeclExpr(layout.type(id), id, variable(id));
+        decl.resolve(layout);
+        return decl;
+    }
+
+    /**
+     * Luodaan ratkaistu sijoitus id = value.
+     */
+    private Stmt assign(String id, Expr value) {
+        AssignExpr assign = new AssignExpr(id, value);
+        assign.resolve(layout);
+        return assign;
+    }
+
+    /**
+     * Luodaan ratkaistu muuttujan lukeminen.
+     */
+    Expr variable(String id) {
+        VarExpr var = new VarExpr(id);
+        var.resolve(layout);
+        return var;
+    }
+}
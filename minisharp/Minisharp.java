@@ -1,47 +1,509 @@
-    import java.io.PrintWriter;
+    import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
     import org.antlr.v4.runtime.tree.*;
     public class Minisharp
     {
+        /**
+         * Tulostetaanko etuosan vaiheiden ajat (valitsin -stats).
+         */
+        static boolean stats;
+
+        /**
+         * Jäsentäjä: antlr (jäsennyspuu ja ASTGenVisitor), stream
+         * (syntaksipuu jäsennyksen aikana, ks. parseStream), handwritten
+         * (käsin kirjoitettu jäsentäjä, ks. parseHandwritten), mapped
+         * (muistiin kuvattu tiedosto luetaan osina rinnakkain, ks.
+         * parseMapped) tai compare
+         * (antlr ja handwritten, joiden syntaksipuita verrataan).
+         */
+        static String frontend = "antlr";
+
+        /**
+         * Viimeisimmän jäsennyksen vaihe tilastoja varten.
+         */
+        static String stage;
+
+        /**
+         * ANTLR:n lekserin virheilmoitus lähdekoodin alussa olevasta BOM:sta.
+         */
+        static final String BOM_ERROR = "line 1:0 token recognition error at: '\uFEFF'";
+
+        /**
+         * Viimeisimmän frontEndin vaiheiden ajat tilastoja varten.
+         */
+        static String timings;
+
         public static void main(String[] args) throws Exception 
         {
-            CharStream input;
+            // Luetaan tiedostopolkua edeltävät valitsimet, esim. -engine=frame
+            String engine = "map";
+            String cacheDir = null;
+            PassManager passes = PassManager.standard();
+            int argi = 0;
+            while (argi < args.length && args[argi].startsWith("-")) {
+                String opt = args[argi++];
+                if (opt.startsWith("-engine=")) {
+                    engine = opt.substring("-engine=".length());
+                } else if (opt.startsWith("-cache=")) {
+                    cacheDir = opt.substring("-cache=".length());
+                } else if (opt.startsWith("-disable=")) {
+                    passes.disable(opt.substring("-disable=".length()));
+                } else if (opt.equals("-verify")) {
+                    passes.setVerify(true);
+                } else if (opt.equals("-stats")) {
+                    stats = true;
+                } else if (opt.startsWith("-frontend=")) {
+                    frontend = opt.substring("-frontend=".length());
+                    if (!Arrays.asList("antlr", "stream", "handwritten", "mapped", "compare").contains(frontend)) {
+                        System.err.printf("Unknown front end %s\n", frontend);
+                        frontend = "antlr";
+                    }
+                } else {
+                    System.err.printf("Unknown option %s\n", opt);
+                }
+            }
+            
+            String path = args[argi];
+            byte[] source;
             try {
-                input = CharStreams.fromFileName(args[0]);
+                // Valitsimella -frontend=mapped tiedostoa ei lueta, vaan se
+                // kuvataan muistiin (ks. parseMapped), paitsi jos sen
+                // sisältöä tarvitaan välimuistin avaimeksi.
+                if (frontend.equals("mapped") && cacheDir == null) {
+                    if (!Files.exists(Paths.get(path)))
+                        throw new NoSuchFileException(path);
+                    source = null;
+                } else {
+                    source = Files.readAllBytes(Paths.get(path));
+                }
             } catch (NoSuchFileException e) {
-                throw new NoSuchFileException("Tiedostoa ei lydy sijainnista " + args[0]);
+                throw new NoSuchFileException("Tiedostoa ei löydy sijainnista " + path);
+            }
+
+            // Välimuistia käytettäessä muuttumattoman ohjelman jäsennys ja
+            // tyyppitarkastus ohitetaan, ks. ProgramCache. Tilastot
+            // tulostetaan vasta tässä, jotta välimuistiin tallennetut
+            // virheilmoitukset eivät sisällä edellisen ajon aikoja.
+            long start = System.nanoTime();
+            Program ast;
+            boolean hit = false;
+            if (cacheDir != null) {
+                ProgramCache cache = new ProgramCache(Paths.get(cacheDir));
+                ast = cache.get(source, passes.enabled(), () -> frontEnd(source, path, passes));
+                hit = cache.hit();
+            } else {
+                ast = frontEnd(source, path, passes);
+            }
+            if (stats) {
+                if (hit)
+                    System.err.printf("cache hit %.2f ms\n", (System.nanoTime() - start) / 1e6);
+                else
+                    System.err.println(timings);
             }
-            
-            MinisharpLexer lexer = new MinisharpLexer(input);
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
-            MinisharpParser parser = new MinisharpParser(tokens);
-            parser.setBuildParseTree(true);
-            
-            MinisharpParser.StartContext tree = parser.start();
-            ASTGenVisitor<Object> visitor = new ASTGenVisitor<Object>();
-            Program ast = (Program) visitor.visit(tree);
 
-            // Printataan konsoliin puun sislt
+            // Printataan konsoliin puun sisältö
             //PrintWriter pw = new PrintWriter(System.out);
             //ast.printTree(pw); // print LISP-style tree
             //pw.flush();
             
             String[] trimmedArgs;
-            if (args.length > 1) {
-                trimmedArgs = Arrays.copyOfRange(args, 1, args.length);
+            if (args.length > argi + 1) {
+                trimmedArgs = Arrays.copyOfRange(args, argi + 1, args.length);
             } else {
                 trimmedArgs = new String[0];
             }
             
-            ast.typecheck(new HashMap<String, Type>());
-            
-            Object r = ast.eval(new HashMap<String, Object>(), trimmedArgs);
+            // Valitaan evaluointitapa: HashMap-ympäristö (map),
+            // tyyppitarkastuksessa ratkaistuihin paikkoihin perustuva kehys (frame),
+            // JVM-tavukoodiksi käännetty ohjelma (bytecode), rekisteripohjainen
+            // virtuaalikone (vm), sulkeumien puu (closure), itseään
+            // erikoistavien solmujen puu (specialize) tai kehyksen avulla
+            // tulkinta, jossa kuumat silmukat käännetään sulkeumiksi (tiered).
+            Object r;
+            try {
+                r = run(ast, engine, trimmedArgs);
+            } catch (ExecutionError e) {
+                System.err.println(e.getMessage());
+                return;
+            }
             if (r!=null) System.out.println(r.toString());
             
             //pw.close();
         }
+
+        /**
+         * Suoritetaan ohjelma valitulla evaluointitavalla.
+         * @param ast Tyyppitarkastettu ohjelma
+         * @param engine Evaluointitapa
+         * @param trimmedArgs Ohjelman parametrit
+         * @return Ohjelman paluuarvo tai null
+         * @throws ExecutionError Jos suoritus keskeytyy virheeseen
+         */
+        static Object run(Program ast, String engine, String[] trimmedArgs) {
+            Object r;
+            switch (engine) {
+                case "frame":
+                    r = ast.eval(ast.newFrame(), trimmedArgs);
+                    break;
+                case "bytecode":
+                    // Liian suurta ohjelmaa (JVM:n metodin koko on rajattu)
+                    // ei voi kääntää, jolloin se suoritetaan kehyksen avulla.
+                    CompiledProgram compiled;
+                    try {
+                        compiled = ast.compile();
+                    } catch (IllegalStateException e) {
+                        System.err.printf("%s, using engine frame\n", e.getMessage());
+                        r = ast.eval(ast.newFrame(), trimmedArgs);
+                        break;
+                    }
+                    r = ast.eval(compiled, trimmedArgs);
+                    break;
+                case "tiered":
+                    r = ast.evalTiered(trimmedArgs);
+                    break;
+                case "closure":
+                    r = ast.eval(ast.closure(), trimmedArgs);
+                    break;
+                case "specialize":
+                    r = ast.eval(ast.specialize(), trimmedArgs);
+                    break;
+                case "vm":
+                    r = ast.eval(ast.compileVM(), trimmedArgs);
+                    break;
+                case "map":
+                    r = ast.eval(new HashMap<String, Object>(), trimmedArgs);
+                    break;
+                default:
+                    System.err.printf("Unknown engine %s\n", engine);
+                    return null;
+            }
+            return r;
+        }
+
+        /**
+         * Jäsennetään lähdekoodi, muodostetaan siitä syntaksipuu,
+         * tyyppitarkastetaan se ja optimoidaan se. Valitsimella -stats
+         * vaiheiden ajat ja käytetty jäsennysvaihe talletetaan kenttään
+         * timings.
+         * @param source Lähdekoodi UTF-8-muodossa
+         * @param path Tiedoston polku virheilmoituksia varten
+         * @param passes Optimoinnin passit
+         * @return Tyyppitarkastettu ohjelma
+         */
+        static Program frontEnd(byte[] source, String path, PassManager passes)
+        {
+            long start = System.nanoTime();
+            Program ast;
+            switch (frontend) {
+                case "stream":
+                    ast = parseStream(source, path);
+                    break;
+                case "handwritten":
+                    ast = parseHandwritten(source, path);
+                    break;
+                case "mapped":
+                    ast = parseMapped(source, path);
+                    break;
+                case "compare":
+                    ast = compare(source, path);
+                    break;
+                default:
+                    ast = parseTree(source, path);
+            }
+            long parsed = System.nanoTime();
+            ast.typecheck(new HashMap<String, Type>());
+            long checked = System.nanoTime();
+            ast.optimize(passes);
+            long optimized = System.nanoTime();
+            if (stats) {
+                timings = String.format("parse %.2f ms (%s), typecheck %.2f ms, optimize %.2f ms",
+                        (parsed - start) / 1e6, stage, (checked - parsed) / 1e6, (optimized - checked) / 1e6);
+            }
+            return ast;
+        }
+
+        /**
+         * Jäsennetään lähdekoodi käsin kirjoitetulla jäsentäjällä (ks.
+         * HandwrittenParser). Syntaksivirheen sattuessa lähdekoodi
+         * jäsennetään uudelleen ANTLR:llä, joten virheilmoitukset ovat samat
+         * kuin valitsimella -frontend=antlr.
+         * @param source Lähdekoodi UTF-8-muodossa
+         * @param path Tiedoston polku virheilmoituksia varten
+         * @return Syntaksipuu
+         */
+        static Program parseHandwritten(byte[] source, String path)
+        {
+            try {
+                TokenBuffer tokens = new HandwrittenLexer(source);
+                Program ast = new HandwrittenParser(tokens).parse();
+                reportBom(tokens);
+                stage = "handwritten";
+                return ast;
+            } catch (IllegalArgumentException e) {
+                return parseTree(source, path);
+            }
+        }
+
+        /**
+         * Tulostetaan onnistuneen jäsennyksen jälkeen sama lekserin
+         * virheilmoitus kuin ANTLR:llä, jos lähdekoodin alussa oli BOM
+         * (ks. HandwrittenLexer).
+         * @param tokens Jäsennetyt tokenit
+         */
+        static void reportBom(TokenBuffer tokens)
+        {
+            if (tokens.bom)
+                System.err.println(BOM_ERROR);
+        }
+
+        /**
+         * Jäsennetään lähdekoodi käsin kirjoitetulla jäsentäjällä, jonka
+         * tokenit luetaan osina rinnakkain (ks. ParallelLexer). Jos
+         * lähdekoodia ei ole luettu, tiedosto kuvataan muistiin.
+         * Syntaksivirheen sattuessa lähdekoodi jäsennetään uudelleen
+         * ANTLR:llä kuten parseHandwrittenissa.
+         * @param source Lähdekoodi UTF-8-muodossa tai null
+         * @param path Tiedoston polku
+         * @return Syntaksipuu
+         */
+        static Program parseMapped(byte[] source, String path)
+        {
+            try {
+                try {
+                    TokenBuffer tokens = source != null ? ParallelLexer.lex(ByteBuffer.wrap(source))
+                            : ParallelLexer.lex(Paths.get(path));
+                    Program ast = new HandwrittenParser(tokens).parse();
+                    reportBom(tokens);
+                    stage = "mapped";
+                    return ast;
+                } catch (IllegalArgumentException e) {
+                    return parseTree(source != null ? source : Files.readAllBytes(Paths.get(path)), path);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Jäsennetään lähdekoodi sekä ANTLR:llä että käsin kirjoitetulla
+         * jäsentäjällä ja verrataan syntaksipuiden tulosteita (printTree)
+         * ja virheilmoituksia. Jos ne eroavat, molemmat tulostetaan.
+         * ANTLR:n virheilmoitukset tulostetaan normaalisti, ja ohjelma
+         * suoritetaan ANTLR:n puulla.
+         * @param source Lähdekoodi UTF-8-muodossa
+         * @param path Tiedoston polku virheilmoituksia varten
+         * @return ANTLR:n syntaksipuu
+         */
+        static Program compare(byte[] source, String path)
+        {
+            // ANTLR:n virheilmoitukset tulostetaan normaalisti ja kopioidaan
+            // talteen, käsin kirjoitetun jäsentäjän vain talteen.
+            PrintStream err = System.err;
+            ByteArrayOutputStream antlrErr = new ByteArrayOutputStream();
+            ByteArrayOutputStream handwrittenErr = new ByteArrayOutputStream();
+            Program expected;
+            Program actual;
+            try {
+                System.setErr(new PrintStream(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                        err.write(b);
+                        antlrErr.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        err.write(b, off, len);
+                        antlrErr.write(b, off, len);
+                    }
+                }, true));
+                expected = parseTree(source, path);
+            } finally {
+                System.setErr(err);
+            }
+            try {
+                System.setErr(new PrintStream(handwrittenErr, true));
+                TokenBuffer tokens = new HandwrittenLexer(source);
+                actual = new HandwrittenParser(tokens).parse();
+                reportBom(tokens);
+            } catch (IllegalArgumentException e) {
+                // Jos ANTLR ilmoitti muustakin kuin BOM:sta, käsin
+                // kirjoitetun jäsentäjän kuuluukin epäonnistua.
+                System.setErr(err);
+                String reported = antlrErr.toString().replace(BOM_ERROR + System.lineSeparator(), "");
+                if (reported.isEmpty())
+                    System.err.printf("Handwritten parser failed on %s: %s\n", path, e.getMessage());
+                stage += ", compared";
+                return expected;
+            } finally {
+                System.setErr(err);
+            }
+            String a = tree(expected);
+            String b = tree(actual);
+            if (!a.equals(b)) {
+                System.err.printf("Front ends produced different syntax trees for %s\n", path);
+                System.err.printf("antlr: %s\nhandwritten: %s\n", a, b);
+            }
+            a = antlrErr.toString();
+            b = handwrittenErr.toString();
+            if (!a.equals(b)) {
+                System.err.printf("Front ends produced different diagnostics for %s\n", path);
+                System.err.printf("antlr: %shandwritten: %s", a, b);
+            }
+            stage += ", compared";
+            return expected;
+        }
+
+        /**
+         * Tulostetaan syntaksipuu merkkijonoksi vertailua varten.
+         */
+        private static String tree(Program ast)
+        {
+            StringWriter out = new StringWriter();
+            PrintWriter pw = new PrintWriter(out);
+            ast.printTree(pw);
+            pw.flush();
+            return out.toString();
+        }
+
+        /**
+         * Jäsennetään lähdekoodi jäsennyspuuksi, josta syntaksipuu
+         * muodostetaan ASTGenVisitorilla.
+         * @param source Lähdekoodi UTF-8-muodossa
+         * @param path Tiedoston polku virheilmoituksia varten
+         * @return Syntaksipuu
+         */
+        static Program parseTree(byte[] source, String path)
+        {
+            CharStream input = CharStreams.fromString(
+                    new String(source, StandardCharsets.UTF_8), path);
+            
+            MinisharpLexer lexer = new MinisharpLexer(input);
+            CommonTokenStream tokens = new CommonTokenStream(lexer);
+            MinisharpParser parser = new MinisharpParser(tokens);
+            parser.setBuildParseTree(true);
+            
+            MinisharpParser.StartContext tree = parse(parser, tokens);
+            stage = parser.getInterpreter().getPredictionMode() == PredictionMode.SLL ? "SLL" : "LL";
+            ASTGenVisitor<Object> visitor = new ASTGenVisitor<Object>();
+            return (Program) visitor.visit(tree);
+        }
+
+        /**
+         * Jäsennetään kahdessa vaiheessa. Ensin käytetään nopeaa SLL-ennustusta
+         * ja keskeytetään ensimmäiseen virheeseen ilman virheilmoituksia. SLL
+         * hyväksyy saman kielen kuin LL, joten virhe tarkoittaa joko aitoa
+         * syntaksivirhettä tai SLL:n liian heikkoa ennustusta. Silloin syöte
+         * jäsennetään uudelleen täydellä LL-ennustuksella ja tavallisella
+         * virheiden käsittelyllä, jolloin virheilmoitukset ovat samat kuin
+         * ennenkin.
+         * @param parser Jäsentäjä
+         * @param tokens Jäsentäjän tokenivirta
+         * @return Jäsennyspuu
+         */
+        static MinisharpParser.StartContext parse(MinisharpParser parser, CommonTokenStream tokens)
+        {
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            parser.removeErrorListeners();
+            parser.setErrorHandler(new BailErrorStrategy());
+            try {
+                return parser.start();
+            } catch (ParseCancellationException e) {
+                tokens.seek(0);
+                parser.reset();
+                parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+                parser.setErrorHandler(new DefaultErrorStrategy());
+                parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                return parser.start();
+            }
+        }
+
+        /**
+         * Muodostetaan syntaksipuu suoraan jäsennyksen aikana
+         * (valitsin -frontend=stream, ks. ASTGenListener). Jäsennyspuuta ei
+         * rakenneta, eikä merkkejä tai tokeneita puskuroida koko syötteen
+         * ajalta, joten muistiin jää vain syntaksipuu. Jäsennys tehdään
+         * SLL-ennustuksella, ja jos se tai syntaksipuun muodostus
+         * epäonnistuu, syöte jäsennetään uudelleen jäsennyspuun kautta (ks.
+         * parseTree), jolloin virheilmoitukset ovat samat kuin ennenkin.
+         * @param source Lähdekoodi UTF-8-muodossa
+         * @param path Tiedoston polku virheilmoituksia varten
+         * @return Syntaksipuu
+         */
+        static Program parseStream(byte[] source, String path)
+        {
+            UnbufferedCharStream input = new UnbufferedCharStream(
+                    new InputStreamReader(new ByteArrayInputStream(source), StandardCharsets.UTF_8));
+            input.name = path;
+            MinisharpLexer lexer = new MinisharpLexer(input);
+            // Tokenin teksti kopioidaan, koska merkkejä ei säilytetä.
+            lexer.setTokenFactory(new CommonTokenFactory(true));
+            // Lekserin virheilmoitukset tulostetaan vasta onnistuneen
+            // jäsennyksen jälkeen, koska parseTree tulostaa ne uudelleen.
+            List<String> lexerErrors = new ArrayList<String>();
+            lexer.removeErrorListeners();
+            lexer.addErrorListener(new BaseErrorListener() {
+                @Override
+                public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                        int charPositionInLine, String msg, RecognitionException e) {
+                    lexerErrors.add("line " + line + ":" + charPositionInLine + " " + msg);
+                }
+            });
+            MinisharpParser parser = new MinisharpParser(new UnbufferedTokenStream<Token>(lexer));
+            parser.setBuildParseTree(false);
+            ASTGenListener listener = new ASTGenListener();
+            parser.addParseListener(listener);
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            parser.removeErrorListeners();
+            // Keskeytyksen jälkeen jäsentäjä kutsuu vielä kesken jääneiden
+            // sääntöjen exit-metodeja, joiden osia ei ole pinossa, joten
+            // kuuntelija poistetaan ennen keskeytystä.
+            parser.setErrorHandler(new BailErrorStrategy() {
+                @Override
+                public void recover(Parser recognizer, RecognitionException e) {
+                    recognizer.removeParseListeners();
+                    super.recover(recognizer, e);
+                }
+
+                @Override
+                public Token recoverInline(Parser recognizer) throws RecognitionException {
+                    recognizer.removeParseListeners();
+                    return super.recoverInline(recognizer);
+                }
+            });
+            try {
+                parser.start();
+            } catch (RuntimeException e) {
+                // Syntaksivirheen (ParseCancellationException) lisäksi
+                // kuuntelija voi epäonnistua, esim. liian suureen vakioon.
+                // Jäsentäjä kutsuu silloinkin keskeneräisten sääntöjen
+                // exit-metodeja, jotka peittävät alkuperäisen virheen, joten
+                // virhe tuotetaan uudelleen jäsennyspuun kautta.
+                return parseTree(source, path);
+            }
+            for (String error : lexerErrors) {
+                System.err.println(error);
+            }
+            stage = "SLL, stream";
+            return listener.getProgram();
+        }
     }
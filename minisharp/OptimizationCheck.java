@@ -0,0 +1,110 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * OptimizationCheck suorittaa tarkistusohjelmat kaikilla suoritustavoilla,
+ * ensin kaikilla passeilla ja sitten kukin passi vuorollaan poistettuna
+ * käytöstä, ja vertaa tuloksia optimoimattoman ohjelman tulokseen
+ * HashMap-ympäristössä (-engine=map). Ohjelmat ovat optimointien
+ * korjattujen virheiden toistoja. Eroavat tulokset tulostetaan, ja
+ * tarkistus päättyy koodiin 1.
+ * Käyttö: java OptimizationCheck
+ */
+class OptimizationCheck {
+    static final String[] ENGINES = {
+        "map", "frame", "bytecode", "vm", "closure", "specialize", "tiered"
+    };
+
+    /**
+     * Tarkistusohjelmat ja niiden parametrit.
+     */
+    static final String[][] CASES = {
+        // cse: apumuuttujaan laskettu lauseke lukee a:ta, joten
+        // sijoitus a:han poistaa sen taulusta.
+        { "Main(int a)\n"
+            + "{\n"
+            + "\tint x = 1 + (a - 3) * (a - 3);\n"
+            + "\tint y = (a - 3) * (a - 3);\n"
+            + "\tif (a > 2)\n"
+            + "\t{\n"
+            + "\t\ta = a - 1;\n"
+            + "\t\ty = y + (a - 3) * (a - 3);\n"
+            + "\t}\n"
+            + "\treturn x * 1000 + y;\n"
+            + "}\n", "5" },
+        { "Main(int a)\n"
+            + "{\n"
+            + "\tint[] t = {1, 2, 3, 4};\n"
+            + "\tint s = 0;\n"
+            + "\tfor (int i = 0; i < t.length; i++)\n"
+            + "\t{\n"
+            + "\t\tint x = t[i] + (a - i) * (a - i);\n"
+            + "\t\tint y = (a - i) * (a - i);\n"
+            + "\t\tif (a > 2)\n"
+            + "\t\t{\n"
+            + "\t\t\ta = a - 1;\n"
+            + "\t\t\ty = y + (a - i) * (a - i);\n"
+            + "\t\t}\n"
+            + "\t\ts = s + x + y;\n"
+            + "\t}\n"
+            + "\treturn s;\n"
+            + "}\n", "5" },
+        // Nollalla jakaminen: kaikkien suoritustapojen on ilmoitettava
+        // samasta virheestä, eikä jakoa saa siirtää silmukasta.
+        { "Main(int a)\n"
+            + "{\n"
+            + "\tint s = 0;\n"
+            + "\tfor (int i = 0; i < 10; i++)\n"
+            + "\t{\n"
+            + "\t\tif (i < 3)\n"
+            + "\t\t{\n"
+            + "\t\t\ts = s + 100 / (a - i);\n"
+            + "\t\t}\n"
+            + "\t}\n"
+            + "\treturn s;\n"
+            + "}\n", "2" },
+    };
+
+    public static void main(String[] args) {
+        String[] passes = PassManager.standard().enabled().split(",");
+        int failures = 0;
+        for (int c = 0; c < CASES.length; c++) {
+            String[] params = CASES[c][1].split(" ");
+            String name = "case " + (c + 1);
+            PassManager none = PassManager.standard();
+            none.disable(String.join(",", passes));
+            String expected = result(CASES[c][0], name, none, "map", params);
+            for (int p = -1; p < passes.length; p++) {
+                for (String engine : ENGINES) {
+                    PassManager pm = PassManager.standard();
+                    pm.setVerify(true);
+                    if (p >= 0)
+                        pm.disable(passes[p]);
+                    String actual = result(CASES[c][0], name, pm, engine, params);
+                    if (!expected.equals(actual)) {
+                        System.err.printf("%s -engine=%s%s: %s, expected %s\n", name, engine,
+                                p >= 0 ? " -disable=" + passes[p] : "", actual, expected);
+                        failures++;
+                    }
+                }
+            }
+        }
+        System.out.printf("%d cases, %d failures\n", CASES.length, failures);
+        if (failures > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Jäsennetään, optimoidaan ja suoritetaan ohjelma.
+     * @return Ohjelman tulos tai suorituksen virheilmoitus
+     */
+    private static String result(String source, String name, PassManager pm, String engine,
+            String[] params) {
+        Program ast = Minisharp.frontEnd(source.getBytes(StandardCharsets.UTF_8), name, pm);
+        try {
+            return Objects.toString(Minisharp.run(ast, engine, params));
+        } catch (ExecutionError e) {
+            return e.getMessage();
+        }
+    }
+}
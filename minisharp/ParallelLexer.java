@@ -0,0 +1,239 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelLexer lukee suuren lähdekooditiedoston tokenit osissa rinnakkain
+ * (ks. HandwrittenLexer). Tiedosto kuvataan muistiin (FileChannel.map),
+ * joten sitä ei lueta eikä pureta merkeiksi ennen tokenien lukemista. Osat
+ * luetaan ForkJoinPoolin säikeissä, ja jäsentäjä käy niiden tokenit läpi
+ * järjestyksessä (ks. Tokens), jolloin jäsennys alkaa heti, kun ensimmäinen
+ * osa on luettu. Vakiot muunnetaan luvuiksi jo osia luettaessa.
+ *
+ * Osan raja valitaan heti puolipisteen, aaltosulkeen, pilkun tai
+ * rivinvaihdon jälkeen, jolloin se on statementtien tai vakioiden välissä,
+ * jos se ei ole kommentin sisällä. Sitä ei voi tietää lukematta tiedostoa
+ * alusta, joten osa luetaan olettaen, että raja on tokenien välissä, ja
+ * oletus tarkistetaan osia yhdistettäessä. Edellinen osa lukee viimeisen
+ * tokeninsa sekä sitä seuraavat välilyönnit ja kommentit loppuun rajan yli,
+ * ja tähän kohtaan on osuttava myös osan ensimmäisen tokenin. Jos ei osu,
+ * osa luetaan uudelleen edellisen osan loppukohdasta.
+ */
+class ParallelLexer {
+    /**
+     * Osan vähimmäiskoko tavuina. Pienempi tiedosto luetaan yhtenä osana.
+     */
+    static final int MIN_CHUNK = 1 << 20;
+
+    /**
+     * Kuvataan tiedosto muistiin ja aloitetaan sen tokenien lukeminen.
+     * @param path Tiedoston polku
+     * @return Tokenit
+     * @throws IOException Jos tiedostoa ei voi kuvata muistiin
+     */
+    static TokenBuffer lex(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("File is too large to map: " + path);
+            return lex(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Jaetaan puskuri osiin ja aloitetaan osien lukeminen rinnakkain.
+     * @param source Lähdekoodi UTF-8-muodossa
+     * @return Tokenit
+     */
+    static TokenBuffer lex(ByteBuffer source) {
+        int length = source.limit();
+        int parts = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, length / MIN_CHUNK));
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        int from = 0;
+        for (int k = 1; k <= parts && from < length; k++) {
+            int limit = k == parts ? length : boundary(source, Math.max(from, (int) ((long) length * k / parts)));
+            Chunk chunk = new Chunk(source, from, limit);
+            chunk.fork();
+            chunks.add(chunk);
+            from = limit;
+        }
+        Tokens tokens = new Tokens(chunks);
+        tokens.bom = HandwrittenLexer.startsWithBom(source);
+        return tokens;
+    }
+
+    /**
+     * Palautetaan kohta heti kohdan at jälkeisen ;, }, , tai rivinvaihdon
+     * jälkeen tai puskurin loppu.
+     */
+    private static int boundary(ByteBuffer source, int at) {
+        int length = source.limit();
+        for (int i = at; i < length; i++) {
+            byte b = source.get(i);
+            if (b == ';' || b == '}' || b == ',' || b == '\n')
+                return i + 1;
+        }
+        return length;
+    }
+
+    /**
+     * Puskurin osa from..limit ja sen tokenit. Osaan kuuluvat tokenit,
+     * jotka alkavat ennen kohtaa limit.
+     */
+    private static class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer source;
+        private final int limit;
+        byte[] kinds;
+        int[] values;
+        int count;
+        List<String> ids;
+
+        /**
+         * Ensimmäisen tokenin alku ja kohta, josta seuraava token alkaisi,
+         * tai -1, jos lukeminen keskeytyi virheeseen.
+         */
+        int first;
+        int end;
+        IllegalArgumentException error;
+
+        private int from;
+
+        Chunk(ByteBuffer source, int from, int limit) {
+            this.source = source;
+            this.from = from;
+            this.limit = limit;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                read(from);
+            } catch (IllegalArgumentException e) {
+                error = e;
+            }
+        }
+
+        /**
+         * Luetaan osan tokenit kohdasta from alkaen.
+         * @param from Aloituskohta
+         */
+        void read(int from) {
+            this.from = from;
+            int capacity = Math.max(16, (limit - from) / 2);
+            kinds = new byte[capacity];
+            values = new int[capacity];
+            ids = new ArrayList<String>();
+            count = 0;
+            first = end = -1;
+            error = null;
+            HandwrittenLexer lexer = new HandwrittenLexer(source, from);
+            while (lexer.next(limit)) {
+                if (count == kinds.length) {
+                    kinds = Arrays.copyOf(kinds, count * 2);
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                if (count == 0)
+                    first = lexer.start;
+                int token = lexer.token;
+                kinds[count] = (byte) token;
+                if (token == HandwrittenLexer.CONST) {
+                    values[count] = lexer.value();
+                } else if (token == HandwrittenLexer.ID) {
+                    values[count] = ids.size();
+                    ids.add(lexer.text());
+                }
+                count++;
+            }
+            end = lexer.position();
+            if (count == 0)
+                first = end;
+        }
+    }
+
+    /**
+     * Osien tokenit järjestyksessä. Osa otetaan käyttöön, kun sen lukeminen
+     * on valmis ja sen ensimmäinen token on tarkistettu (ks. ParallelLexer).
+     */
+    private static class Tokens extends TokenBuffer {
+        private final List<Chunk> chunks;
+        private int index = -1;
+        private Chunk chunk;
+        private int i;
+
+        Tokens(List<Chunk> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int next() {
+            i++;
+            while (chunk == null || i >= chunk.count) {
+                if (!nextChunk()) {
+                    token = HandwrittenLexer.EOF;
+                    return token;
+                }
+            }
+            token = chunk.kinds[i];
+            return token;
+        }
+
+        /**
+         * Otetaan seuraava osa käyttöön. Edellinen osa vapautetaan.
+         * @return false, jos osia ei ole enää
+         */
+        private boolean nextChunk() {
+            if (index + 1 >= chunks.size())
+                return false;
+            int previous = chunk == null ? 0 : chunk.end;
+            index++;
+            chunk = chunks.get(index);
+            chunks.set(index, null);
+            chunk.join();
+            if (index > 0 && chunk.first != previous)
+                chunk.read(previous);
+            else if (chunk.error != null)
+                throw chunk.error;
+            i = 0;
+            return true;
+        }
+
+        @Override
+        public String text() {
+            switch (token) {
+                case HandwrittenLexer.EOF:
+                    return "<EOF>";
+                case HandwrittenLexer.ID:
+                    return chunk.ids.get(chunk.values[i]);
+                case HandwrittenLexer.CONST:
+                    return Integer.toString(chunk.values[i]);
+                default:
+                    String name = HandwrittenLexer.NAMES[token];
+                    return name.substring(1, name.length() - 1);
+            }
+        }
+
+        @Override
+        public int value() {
+            return chunk.values[i];
+        }
+
+        /**
+         * Tokenien sijainteja ei tallenneta, joten virheen kohdaksi
+         * ilmoitetaan osan alku.
+         */
+        @Override
+        public IllegalArgumentException error(String message) {
+            int at = chunk == null ? 0 : chunk.first;
+            return new IllegalArgumentException(String.format("chunk at offset %d: %s", at, message));
+        }
+    }
+}
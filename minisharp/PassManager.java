@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * PassManager suorittaa tyyppitarkastetun ohjelman optimointivaiheet
+ * (passit) järjestyksessä. Jokaisella passilla on nimi, jolla sen voi
+ * poistaa käytöstä (valitsin -disable). Jos tarkistus on päällä (valitsin
+ * -verify), syntaksipuu tarkistetaan (ks. TreeVerifier) ennen ensimmäistä
+ * passia ja jokaisen passin jälkeen, jolloin rikkinäisen syntaksipuun
+ * jättänyt passi löytyy suoraan.
+ */
+class PassManager {
+    /**
+     * Optimointivaihe.
+     */
+    interface Pass {
+        void run(Program p);
+    }
+
+    private LinkedHashMap<String, Pass> passes = new LinkedHashMap<String, Pass>();
+    private Set<String> disabled = new HashSet<String>();
+    private boolean verify;
+
+    /**
+     * Luodaan passien oletusjärjestys (ks. Program.optimize).
+     * @return PassManager
+     */
+    static PassManager standard() {
+        PassManager pm = new PassManager();
+        pm.add("fold", Program::fold);
+        pm.add("bounds", Program::checkBounds);
+        pm.add("dce", Program::prune);
+        pm.add("hoist", Program::hoistLoops);
+        pm.add("closedform", Program::closedForm);
+        pm.add("reduce", Program::reductions);
+        pm.add("unroll", Program::unroll);
+        pm.add("cse", Program::valueNumbering);
+        return pm;
+    }
+
+    /**
+     * Lisätään passi viimeiseksi.
+     * @param name Passin nimi
+     * @param pass Passi
+     */
+    public void add(String name, Pass pass) {
+        passes.put(name, pass);
+    }
+
+    /**
+     * Poistetaan passit käytöstä.
+     * @param names Pilkuin erotetut passien nimet
+     */
+    public void disable(String names) {
+        for (String name : names.split(",")) {
+            if (!passes.containsKey(name)) {
+                System.err.printf("Unknown pass %s\n", name);
+                continue;
+            }
+            disabled.add(name);
+        }
+    }
+
+    /**
+     * Asetetaan tarkistus päälle tai pois.
+     * @param verify true, jos ohjelma tarkistetaan passien välissä
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * Palautetaan käytössä olevien passien nimet järjestyksessä, esim.
+     * välimuistin avaimeksi (ks. ProgramCache).
+     * @return Pilkuin erotetut nimet
+     */
+    public String enabled() {
+        List<String> names = new ArrayList<String>();
+        for (String name : passes.keySet()) {
+            if (!disabled.contains(name))
+                names.add(name);
+        }
+        return String.join(",", names);
+    }
+
+    /**
+     * Suoritetaan käytössä olevat passit.
+     * @param p Tyyppitarkastettu ohjelma
+     */
+    public void run(Program p) {
+        verify(p, "typecheck");
+        for (String name : passes.keySet()) {
+            if (disabled.contains(name))
+                continue;
+            passes.get(name).run(p);
+            verify(p, name);
+        }
+    }
+
+    /**
+     * Tarkistetaan ohjelma, jos tarkistus on päällä.
+     */
+    private void verify(Program p, String after) {
+        if (verify && !p.verify())
+            System.err.printf("Tree verification failed after %s\n", after);
+    }
+}
@@ -1,15 +1,23 @@
 import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
- * Program on pluokka, joka sislt kntjn rungon.
- * Paramlist ja Block kydn lpi rekursiivisesti eval metodissa.
+ * Program on pääluokka, joka sisältää kääntäjän rungon.
+ * Paramlist ja Block käydään läpi rekursiivisesti eval metodissa.
  * Lopullinen tulos palautetaan evalin lopussa returnissa.
+ * Tyyppitarkastettu ohjelma voidaan sarjallistaa (ks. ProgramCache).
  */
-public class Program {
+public class Program implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private Paramlist params;
     private Block block;
+    private FrameLayout layout;
 
     /** 
      * Sijoitetaan parametreina tuodut arvot muuttujiin params ja block.
@@ -22,7 +30,7 @@ public class Program {
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
      * @param pw Printwriter syntaksipuun kirjoittamiseen
      */
     public void printTree(PrintWriter pw) {
@@ -34,1855 +42,8061 @@ public class Program {
     }
 
     /**
-     * Tehdn params:in ja/tai block:in tyyppitarkastus rekursiivisesti.
-     * @param tenv Tyyppiymprist
+     * Tehdään params:in ja/tai block:in tyyppitarkastus rekursiivisesti.
+     * Tyyppitarkastuksen lopuksi jokaisen muuttujan nimi ratkaistaan
+     * kiinteäksi paikaksi kehyksessä (ks. FrameLayout).
+     * @param tenv Tyyppiympäristö
      */
     public void typecheck(HashMap<String, Type> tenv) {
         if (params != null)
             params.typecheck(tenv);
         if (block != null)
             block.typecheck(tenv);
+
+        layout = new FrameLayout(tenv);
+        if (params != null)
+            params.resolve(layout);
+        if (block != null)
+            block.resolve(layout);
+    }
+
+    /**
+     * Luodaan tyhjä kehys, johon mahtuvat kaikki ohjelman muuttujat.
+     * Metodia voi kutsua vasta tyyppitarkastuksen jälkeen.
+     * @return Uusi kehys
+     */
+    public Frame newFrame() {
+        return new Frame(layout.size());
     }
 
     /**
-     * Evaluoidaan sytteen annetun ohjelman parametrit (params) ja ohjelmakoodi
+     * Evaluoidaan syötteenä annetun ohjelman parametrit (params) ja ohjelmakoodi
      * (block). Palautetaan lopuksi HashMap envin arvo return.
-     * @param env Ymprist
-     * @param args Parametrit, jotka kyttj on antanut
+     * @param env Ympäristö
+     * @param args Parametrit, jotka käyttäjä on antanut
      * @return Envin arvo return
      */
     public Object eval(HashMap<String, Object> env, String[] args) {
-        // Jos params on ei ole tyhj, aloitetaan evaluoimalla params:in sislt.
+        // Jos params on ei ole tyhjä, aloitetaan evaluoimalla params:in sisältö.
         if (params != null) {
             params.eval(env, args);
         }
         // Luodaan ReturnCheck apuolio.
         ReturnCheck returned = new ReturnCheck();
         
-        // Aloitetaan evaluoimaan blockin sislt.
+        // Aloitetaan evaluoimaan blockin sisältöä.
         block.eval(env, returned);
         
         // Palautetaan Minisharp-luokalle env:iin laitettu returnin arvo
-        // Jos envist ei lydy arvoa avaimella return, palautetaan null.
+        // Jos envistä ei löydy arvoa avaimella return, palautetaan null.
         return env.get("return");
     }
-}
-
 
-/**
- * ReturnCheck on apuolio, jonka tehtvn on pit kirjaa siit,
- * milloin syteohjelman koodissa ollaan palautettu jokin arvo komennolla
- * return. ReturnCheck olion returned arvoa tarkastellaan blockin lpikynniss,
- * jotta koodin suorittaminen osataan lopettaa.
- */
-class ReturnCheck {
+    /**
+     * Optimoidaan tyyppitarkastettu ohjelma. Vakiolausekkeet lasketaan
+     * valmiiksi ja muuttujat, joihin kirjoitetaan vain esittelyssä,
+     * korvataan vakioarvoillaan (ks. ConstantFolder). Laskurisilmukoiden
+     * taulukon haut, jotka ovat todistetusti rajojen sisällä, merkitään
+     * tarkistamattomiksi (ks. BoundsChecker). Tämän jälkeen
+     * poistetaan kuollut koodi niin kauan kuin ohjelma muuttuu, koska
+     * poistettu esittely voi jättää muitakin muuttujia lukematta. Lopuksi
+     * silmukoiden invariantit lausekkeet siirretään silmukoiden edelle
+     * (ks. LoopHoister), kertymäsilmukat korvataan suljetulla muodolla
+     * (ks. ClosedFormLoop), int-taulukon reduktiot yhdellä reduktiolla
+     * (ks. ReductionLoop), lasketut silmukat avataan (ks. LoopUnroller)
+     * ja toistuvat lausekkeet lasketaan vain kerran
+     * (ks. ValueNumbering). Optimoitu ohjelma kelpaa kaikille
+     * evaluointitavoille. Vaiheet suoritetaan passeina (ks. PassManager).
+     */
+    public void optimize() {
+        optimize(PassManager.standard());
+    }
 
-    private boolean returned = false;
+    /**
+     * Optimoidaan tyyppitarkastettu ohjelma annetuilla passeilla.
+     * @param pm Passit
+     */
+    public void optimize(PassManager pm) {
+        if (block == null)
+            return;
+        pm.run(this);
+    }
 
     /**
-     * Palautetaan returnedin arvo.
-     * @return boolean arvo returned
+     * Lasketaan ohjelman kirjoitukset muuttujiin.
+     * @return Kirjoitukset
      */
-    public boolean isReturned() {
-        return returned;
+    private ConstantFolder writes() {
+        ConstantFolder c = new ConstantFolder();
+        if (params != null)
+            params.countWrites(c);
+        block.countWrites(c);
+        return c;
     }
 
     /**
-     * Metodi, jossa returned asetetaan trueksi, koska
-     * syteohjelmassa on ksitelty statement Result.
+     * Passi fold: vakiolausekkeet ja vakiomuuttujat (ks. ConstantFolder).
      */
-    public void setReturn() {
-        returned = true;
+    void fold() {
+        block.fold(writes());
     }
-}
 
+    /**
+     * Passi bounds: taulukon hakujen rajojen tarkistukset (ks. BoundsChecker).
+     */
+    void checkBounds() {
+        block.checkBounds(new BoundsChecker(writes()));
+    }
 
-/**
- * Block olio sislt listan statementteja (Stmt).
- * Blockin ptehtvn on rekursiivisesti evaluoida syteohjelman koodi.
- */
-class Block {
-    private List<Stmt> stmts;
+    /**
+     * Passi dce: ensin poistetaan kuolleet haarat ja lukemattomien
+     * muuttujien esittelyt. Esittelyjen poistaminen voi jättää muitakin
+     * muuttujia lukematta, joten jäljelle jääneiden lukemat lasketaan
+     * (ks. UseCounts) ja kaikki kuolleet esittelyt poistetaan kerralla.
+     */
+    void prune() {
+        Set<String> reads = new HashSet<String>();
+        block.countReads(reads);
+        if (!block.prune(reads))
+            return;
+        UseCounts uses = new UseCounts();
+        block.countUses(uses);
+        block.prune(uses.live());
+    }
 
     /**
-     * Sijoitetaan parametrina tuotu arvo stmts:iin.
-     * @param stmts Statementit, jotka sijoitetaan
+     * Passi hoist: silmukoiden invariantit lausekkeet (ks. LoopHoister).
      */
-    public Block(List<Stmt> stmts) { 
-        this.stmts = stmts; 
+    void hoistLoops() {
+        block.hoistLoops(layout);
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
-     * @param pw Printwriter syntaksipuun kirjoittamiseen
+     * Passi closedform: kertymäsilmukat (ks. ClosedFormLoop).
      */
-    public void printTree(PrintWriter pw) {
-        pw.print(" ( ");
-        for (Stmt statement : stmts) {
-            statement.printTree(pw);
-        }
-        pw.print(" ) ");
+    void closedForm() {
+        block.closedForm();
     }
-    
+
     /**
-     * Suoritetaan stmts-listan sislln tarkastus rekursiivisesti silmukassa.
-     * Mahdollisia aliluokkia ovat Decl, Assign, IfStatement tai ForLoop.
-     * @param tenv Tyyppiymprist
+     * Passi reduce: int-taulukon reduktiot (ks. ReductionLoop).
      */
-    public void typecheck(HashMap<String, Type> tenv) {
-        for (Stmt stmt : stmts) {
-            stmt.typecheck(tenv);
-        }
+    void reductions() {
+        block.reductions();
     }
- 
+
     /**
-     * Evaluoidaan stmts-listan statementit rekursiivisesti. Jokaisen evaluoinnin
-     * jlkeen tarkistetaan ReturnCheck olion tila. Jos ReturnCheck olion tila on true,
-     * voidaan listan lpikynti lopettaa.
-     * @param env Ymprist
-     * @param r ReturnCheck-olio
+     * Passi unroll: laskettujen silmukoiden avaaminen (ks. LoopUnroller).
+     * Avattujen kierrosten kopiot laskostetaan ja karsitaan jo avattaessa.
+     * Lopuksi poistetaan muuttujat, joita kopioiden laskostuksen jälkeen
+     * ei enää lueta (esim. kierroksen vakioksi laskostunut apumuuttuja tai
+     * laskurin loppuarvo), mikä vaatii koko ohjelman lukemat.
      */
-    public void eval(HashMap<String, Object> env, ReturnCheck r) {
-        for (Stmt stmt : stmts) {
-            if (r.isReturned())
-                return;
-            stmt.eval(env, r);
-        }
+    void unroll() {
+        block.unroll(layout, writes());
+        prune();
     }
-}
 
+    /**
+     * Passi cse: toistuvat lausekkeet (ks. ValueNumbering).
+     */
+    void valueNumbering() {
+        new ValueNumbering(layout).run(block);
+    }
 
-/**
- * Statementtien ylluokka, jonka alle kuuluvat Decl, Assign, IfStatement, ForLoop
- * ja Return. Tmn luokan metodeihin ei kuulu koskaan tulla. Luokka on luotu
- * perimisen takia.
- */
-abstract class Stmt {
+    /**
+     * Tarkistetaan syntaksipuu (ks. TreeVerifier). Metodia voi kutsua vasta
+     * tyyppitarkastuksen jälkeen.
+     * @return true, jos virheitä ei löytynyt
+     */
+    public boolean verify() {
+        TreeVerifier v = new TreeVerifier(layout);
+        if (params != null)
+            params.verify(v);
+        if (block != null)
+            block.verify(v);
+        return v.errors() == 0;
+    }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
-     * @param pw Printwriter syntaksipuun kirjoittamiseen
+     * Evaluoidaan ohjelma kehyksen (Frame) avulla. Muuttujat on ratkaistu
+     * tyyppitarkastuksessa kehyksen paikoiksi, joten muuttujan käsittely on
+     * taulukon indeksointia HashMap-haun sijaan.
+     * @param f Kehys, ks. newFrame
+     * @param args Parametrit, jotka käyttäjä on antanut
+     * @return Returnin arvo tai null
      */
-    public void printTree(PrintWriter pw) {
-        pw.print(" ( statement ) ");
+    public Object eval(Frame f, String[] args) {
+        if (params != null) {
+            params.eval(f, args);
+        }
+        ReturnCheck returned = new ReturnCheck();
+        block.eval(f, returned);
+        return f.ret;
     }
 
     /**
-     * Tyyppitarkastus. Metodi luotu perint varten.
-     * @param tenv Tyyppiymprist
+     * Evaluoidaan ohjelma porrastetusti: ohjelma tulkitaan kehyksen avulla,
+     * ja silmukat, joissa on tehty vähintään ForLoop.TIER_THRESHOLD
+     * takaisinhyppyä, käännetään kesken suorituksen sulkeumiksi.
+     * @param args Parametrit, jotka käyttäjä on antanut
+     * @return Returnin arvo tai null
      */
-    public void typecheck(HashMap<String, Type> tenv) {
-        //
+    public Object evalTiered(String[] args) {
+        Frame f = newFrame();
+        f.tierThreshold = ForLoop.TIER_THRESHOLD;
+        return eval(f, args);
     }
 
     /**
-     * Evaluointi. Metodi luotu perint varten.
-     * @param env Ymprist
-     * @param r ReturnCheck-olio
+     * Käännetään ohjelma JVM-luokaksi. Käännetty koodi lukee alussa kaikki
+     * kehyksen paikat JVM:n paikallisiin muuttujiin, joten HotSpot voi
+     * kääntää silmukat edelleen konekoodiksi. Metodia voi kutsua vasta
+     * tyyppitarkastuksen jälkeen.
+     * @return Käännetty ohjelma
+     * @throws IllegalStateException Jos ohjelma on liian suuri JVM:n metodiksi
      */
-    public void eval(HashMap<String, Object> env, ReturnCheck r) {
-        //
+    public CompiledProgram compile() {
+        BytecodeEmitter e = new BytecodeEmitter(layout.size());
+        for (int slot = 0; slot < layout.size(); slot++) {
+            e.loadFrame(BytecodeEmitter.kind(layout.slotType(slot)), slot);
+        }
+        if (block != null)
+            block.compile(e);
+        e.op(BytecodeEmitter.ACONST_NULL, 1);
+        e.op(BytecodeEmitter.ARETURN, -1);
+        return e.define();
     }
-}
 
+    /**
+     * Käännetään ohjelma rekisteripohjaisen virtuaalikoneen käskyiksi.
+     * Metodia voi kutsua vasta tyyppitarkastuksen jälkeen.
+     * @return Käännetty ohjelma
+     */
+    public VMProgram compileVM() {
+        VMCompiler c = new VMCompiler(layout.size());
+        if (block != null)
+            block.compile(c);
+        c.emit(VMProgram.RETN);
+        return c.finish();
+    }
 
-/**
- * Luokka, jonka ptehtvn on evaluoida kaikki syteohjelman parametrit.
- */
-class Paramlist {
-    private List<Param> params;
+    /**
+     * Muodostetaan ohjelmasta sulkeumien puu. Metodia voi kutsua vasta
+     * tyyppitarkastuksen jälkeen.
+     * @return Sulkeumiksi käännetty ohjelma
+     */
+    public ClosureProgram closure() {
+        if (block == null)
+            return new ClosureProgram(f -> false);
+        return new ClosureProgram(block.closure());
+    }
 
     /**
-     * Sijoitetaan parametrina tuotu arvo.
-     * @param params Sijoitettavat parametrit
+     * Muodostetaan ohjelmasta itseään erikoistavien solmujen puu. Metodia
+     * voi kutsua vasta tyyppitarkastuksen jälkeen.
+     * @return Suoritettava solmupuu
      */
-    public Paramlist(List<Param> params) {
-        this.params = params;   
+    public SpecializingProgram specialize() {
+        if (block == null)
+            return new SpecializingProgram(new BlockNode(new ArrayList<StmtNode>()));
+        return new SpecializingProgram(block.specialize());
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
-     * @param pw Printwriter syntaksipuun kirjoittamiseen
+     * Suoritetaan itseään erikoistavien solmujen puu.
+     * @param code Solmupuu, ks. specialize
+     * @param args Parametrit, jotka käyttäjä on antanut
+     * @return Returnin arvo tai null
      */
-    public void printTree(PrintWriter pw) {
-        pw.print(" ( ");
-        for (Param parameter : params) {
-            parameter.printTree(pw);
+    public Object eval(SpecializingProgram code, String[] args) {
+        Frame f = newFrame();
+        if (params != null) {
+            params.eval(f, args);
         }
-        pw.print(" ) ");
+        return code.run(f);
     }
 
     /**
-     * Suoritetaan syteohjelmassa annettujen parametrien deklarointi. 
-     * @param tenv Tyyppiymprist
+     * Suoritetaan sulkeumiksi käännetty ohjelma.
+     * @param code Käännetty ohjelma, ks. closure
+     * @param args Parametrit, jotka käyttäjä on antanut
+     * @return Returnin arvo tai null
      */
-    public void typecheck(HashMap<String, Type> tenv) {
-        for (Param param : params) {
-            param.declare(tenv);
+    public Object eval(ClosureProgram code, String[] args) {
+        Frame f = newFrame();
+        if (params != null) {
+            params.eval(f, args);
         }
+        return code.run(f);
     }
 
     /**
-     * Evaluoidaan syteohjelmassa annetut parametrit.
-     * Minisharp-kntjlle on mahdollista antaa enemmn parametreja argsien kautta,
-     * kuin mit syteohjelma niit vaatii. Kyttjn ylimrisi parametreja ei
-     * huomioida evalissa. Kyttjn on kuitenkin annettava parametreja vhintn
-     * yht paljon kuin syteohjelma niit vaatii.
-     * @param env Ymprist
-     * @param args Kyttjn antamat parametrit
+     * Suoritetaan virtuaalikoneelle käännetty ohjelma.
+     * @param code Käännetty ohjelma, ks. compileVM
+     * @param args Parametrit, jotka käyttäjä on antanut
+     * @return Returnin arvo tai null
      */
-    public void eval(HashMap<String, Object> env, String[] args) {
-        // Tarkistetaan, ett argumentteja on tarpeeksi.
-        if (params.size() > args.length) {
-            System.err.println("Program needs more arguments!");
-            return;
+    public Object eval(VMProgram code, String[] args) {
+        Frame f = newFrame();
+        if (params != null) {
+            params.eval(f, args);
         }
-        // Evaluoidaan parametrit silmukassa.
-        for (int i = 0; i < params.size(); i++) {
-            params.get(i).eval(env, args[i]);
+        return code.run(f);
+    }
+
+    /**
+     * Suoritetaan käännetty ohjelma. Parametrit sidotaan uuteen kehykseen,
+     * josta käännetty koodi lukee ne.
+     * @param code Käännetty ohjelma, ks. compile
+     * @param args Parametrit, jotka käyttäjä on antanut
+     * @return Returnin arvo tai null
+     */
+    public Object eval(CompiledProgram code, String[] args) {
+        Frame f = newFrame();
+        if (params != null) {
+            params.eval(f, args);
         }
+        return code.run(f);
     }
 }
 
 
 /**
- * Luokka, joka deklaroi ja evaluoi parametrin.
+ * ReturnCheck on apuolio, jonka tehtävänä on pitää kirjaa siitä,
+ * milloin syöteohjelman koodissa ollaan palautettu jokin arvo komennolla
+ * return. ReturnCheck olion returned arvoa tarkastellaan blockin läpikäynnissä,
+ * jotta koodin suorittaminen osataan lopettaa.
  */
-class Param {
-    private Type type;
-    private String id;
+class ReturnCheck {
 
-    /**
-     * Sijoitetaan parametreina tuodut arvot.
-     * @param type Parametrin tyyppi
-     * @param id Parametrin tunniste
-     */
-    public Param(Type type, String id) {
-        this.type = type;
-        this.id = id;
-    }
+    private boolean returned = false;
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
-     * @param pw Printwriter syntaksipuun kirjoittamiseen
+     * Palautetaan returnedin arvo.
+     * @return boolean arvo returned
      */
-    public void printTree(PrintWriter pw) {
-        pw.print(" ( ");
-        type.printTree(pw);
-        pw.printf(" %s ", id);
-        pw.print(" ) ");
+    public boolean isReturned() {
+        return returned;
     }
 
     /**
-     * Listn parametrin tyyppi ja id HashMappiin.
-     * @param tenv Tyyppiymprist
+     * Metodi, jossa returned asetetaan trueksi, koska
+     * syöteohjelmassa on käsitelty statement Result.
      */
-    public void declare(HashMap<String, Type> tenv) {
-        // Tarkistetaan onko jo deklaroitu.
-        if (tenv.containsKey(id)) {
-            System.err.printf("%s has already been declared.\n", id);
-        }
-        tenv.put(id, type);
-        
+    public void setReturn() {
+        returned = true;
     }
-    
+}
+
+
+/**
+ * Suorituksen aikainen virhe, esim. taulukon rajojen ylitys. Kaikki
+ * evaluointitavat heittävät saman virheen, ja Minisharp.main tulostaa sen
+ * viestin ja lopettaa suorituksen, joten virheen jälkeinen käytös ei
+ * riipu evaluointitavasta.
+ */
+class ExecutionError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
     /**
-     * Evaluoidaan parametrin arvo muistiin. Minisharp hyvksyy parametreina
-     * vain int ja double tyyppisi arvoja, mutta laskutoimitusten helpottamiseksi
-     * argsin arvo tallennetaan doublena.
-     * @param env Ymprist
-     * @param arg Kyttjn antama parametri
+     * Sijoitetaan parametrina tuotu virheilmoitus.
+     * @param message Virheilmoitus
      */
-    public void eval(HashMap<String, Object> env, String arg) {
-        try {
-            if (type.isInt()) {
-                Integer integer = Integer.parseInt(arg);
-                env.put(id, integer.doubleValue());
-            } else {
-                Double d = Double.parseDouble(arg);
-                env.put(id, d.doubleValue());
-            }
-            
-        } catch (NumberFormatException nfe) {
-                System.err.printf("Given argument types don't match: %s\n", arg);
-        }
+    public ExecutionError(String message) {
+        super(message);
     }
 }
 
+
 /**
- * Type-yliluokan metodit.
- * Luokkaa kytetn pasiassa vain silloin, kun aliluokalla
- * ei ole metodille omaa toteutusta ja vastauksesta
- * halutaan negatiivinen. 
+ * FrameLayout kuvaa jokaisen muuttujan nimen kiinteäksi paikaksi (slot)
+ * kehyksessä. Paikat ratkaistaan tyyppitarkastuksen lopuksi, jolloin
+ * evaluoinnissa muuttujan käsittely on pelkkä taulukon indeksointi.
  */
-abstract class Type {
+class FrameLayout implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private HashMap<String, Type> tenv;
+    private HashMap<String, Integer> slots = new HashMap<String, Integer>();
+    private List<Type> types = new ArrayList<Type>();
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
-     * @param pw Printwriter syntaksipuun kirjoittamiseen
+     * Sijoitetaan parametrina tuotu tyyppiympäristö.
+     * @param tenv Tyyppitarkastettu tyyppiympäristö
      */
-    public void printTree(PrintWriter pw) {
-        pw.print("type ");
+    public FrameLayout(HashMap<String, Type> tenv) {
+        this.tenv = tenv;
     }
 
     /**
-     * Tarkistetaan onko tyyppi boolean. Yliluokan default-toteutus.
-     * @return boolean arvon merkkaamaan onko tyyppi boolean
+     * Palautetaan id:n paikka kehyksessä. Ensimmäisellä kysymiskerralla
+     * id:lle varataan uusi paikka. Jos id:tä ei ole esitelty, palautetaan -1.
+     * @param id Muuttujan tunniste
+     * @return Paikan indeksi kehyksessä
      */
-    public boolean isBool() {
-        return false;
-    };
+    public int slot(String id) {
+        if (!tenv.containsKey(id)) {
+            return -1;
+        }
+        Integer s = slots.get(id);
+        if (s == null) {
+            s = slots.size();
+            slots.put(id, s);
+            types.add(tenv.get(id));
+        }
+        return s;
+    }
 
     /**
-     * Tarkistetaan onko tyyppi int. Yliluokan default-toteutus.
-     * @return boolean arvon merkkaamaan onko tyyppi int
+     * Palautetaan id:n paikka varaamatta uutta paikkaa.
+     * @param id Muuttujan tunniste
+     * @return Paikan indeksi kehyksessä tai -1, jos id:lle ei ole paikkaa
      */
-    public boolean isInt() {
-        return false;
-    };
+    public int resolved(String id) {
+        Integer s = slots.get(id);
+        return s == null ? -1 : s;
+    }
 
     /**
-     * Tarkistetaan onko tyyppi double. Yliluokan default-toteutus.
-     * @return boolean arvon merkkaamaan onko tyyppi double
+     * Palautetaan paikan slot muuttujan tyyppi.
+     * @param slot Paikka kehyksessä
+     * @return Muuttujan tyyppi
      */
-    public boolean isDouble() {
-        return false;
-    };
+    public Type slotType(int slot) {
+        return types.get(slot);
+    }
 
     /**
-     * Tarkistetaan onko tyyppi int-taulukko. Yliluokan default-toteutus.
-     * @return boolean arvon merkkaamaan onko tyyppi int-taulukko
+     * Palautetaan id:n tyyppi tyyppiympäristöstä.
+     * @param id Muuttujan tunniste
+     * @return Muuttujan tyyppi tai null, jos id:tä ei ole esitelty
      */
-    public boolean isIntSequence() {
-        return false;
-    };
+    public Type type(String id) {
+        return tenv.get(id);
+    }
 
     /**
-     * Tarkastetaan, voidaanko parametrina tuotu tyyppi sijoittaa
-     * haluttuun tyyppiin. Yliluokan default-metodi, johon ei ajon
-     * aikana kuuluisi koskaan tulla.
-     * @param type Tyyppi, jota tarkastellaan
-     * @return true, jos yhteensopiva toisen tyypin kanssa, muuten false
+     * Palautetaan varattujen paikkojen määrä.
+     * @return Kehyksen koko
      */
-    public boolean canAssignTo(Type type) {
-        System.err.println("Incorrect use of canAssignTo.");
-        return false;
+    public int size() {
+        return slots.size();
+    }
+
+
+    /**
+     * Esitellään optimoinnin tarvitsema apumuuttuja. Nimi alkaa merkillä $,
+     * joten se ei voi olla ohjelman oma muuttuja.
+     * @param type Apumuuttujan tyyppi
+     * @return Apumuuttujan tunniste
+     */
+    public String declareTemp(Type type) {
+        String id = "$" + tenv.size();
+        while (tenv.containsKey(id)) {
+            id = "$" + id;
+        }
+        tenv.put(id, type);
+        return id;
     }
 }
 
 
 /**
- * Tyyppiluokka, jolla merkataan tyyppi int.
+ * Kehys (Frame) korvaa HashMap-ympäristön. Jokaisella muuttujalla on
+ * kehyksessä oma paikkansa, joka on ratkaistu FrameLayoutin avulla.
+ * Arvot säilytetään tyypin mukaan primitiivisissä taulukoissa, jotta
+ * evaluointi ei luo olioita: intit taulukossa ints, doublet taulukossa nums,
+ * totuusarvot taulukossa bools ja int-taulukot taulukossa arrays.
+ * Returnin arvo tallennetaan kenttään ret. Jos tierThreshold on suurempi
+ * kuin nolla, kuumat silmukat käännetään kesken suorituksen (ks. ForLoop).
  */
-class TypeInt extends Type {
+class Frame {
+    int[] ints;
+    double[] nums;
+    boolean[] bools;
+    int[][] arrays;
+    Object ret;
+    int tierThreshold;
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Luodaan kehys annetulle määrälle muuttujia.
+     * @param size Muuttujien määrä
      */
-    @Override
-    public void printTree(PrintWriter pw) {
-        pw.print("int ");
+    public Frame(int size) {
+        ints = new int[size];
+        nums = new double[size];
+        bools = new boolean[size];
+        arrays = new int[size][];
     }
-    
+
     /**
-     * Tarkastetaan, voidaanko parametrina tuotu tyyppi sijoittaa
-     * haluttuun tyyppiin.
+     * Evaluoidaan expr ja sijoitetaan sen arvo paikkaan slot. Tyyppi
+     * valitsee primitiivisen evaluointimetodin, joten arvoa ei pakata olioksi.
+     * @param slot Muuttujan paikka
+     * @param kind Muuttujan JVM-tyyppikirjain (ks. BytecodeEmitter.kind)
+     * @param expr Sijoitettava lauseke
+     * @param r ReturnCheck-olio
      */
-    @Override
-    public boolean canAssignTo(Type type) {
-        return type.isInt() || type.isDouble();
+    public void store(int slot, char kind, Expr expr, ReturnCheck r) {
+        switch (kind) {
+            case 'I':
+                ints[slot] = expr.evalInt(this, r);
+                break;
+            case 'Z':
+                bools[slot] = expr.evalBoolean(this, r);
+                break;
+            case '[':
+                arrays[slot] = expr.evalArray(this, r);
+                break;
+            default:
+                nums[slot] = expr.evalDouble(this, r);
+        }
     }
 
     /**
-     * Tarkistetaan onko tyyppi int.
+     * Palautetaan paikan slot arvo oliona tyypin mukaan.
+     * @param slot Muuttujan paikka
+     * @param kind Muuttujan JVM-tyyppikirjain
+     * @return Paikan arvo oliona
+     */
+    public Object load(int slot, char kind) {
+        switch (kind) {
+            case 'I':
+                return Integer.valueOf(ints[slot]);
+            case 'Z':
+                return Boolean.valueOf(bools[slot]);
+            case '[':
+                return arrays[slot];
+            default:
+                return Double.valueOf(nums[slot]);
+        }
+    }
+}
+
+
+/**
+ * Block olio sisältää listan statementteja (Stmt).
+ * Blockin päätehtävänä on rekursiivisesti evaluoida syöteohjelman koodi.
+ */
+class Block implements Serializable, Cloneable {
+    private static final long serialVersionUID = 1L;
+
+    private List<Stmt> stmts;
+    private boolean returns = true;
+
+    /**
+     * Sijoitetaan parametrina tuotu arvo stmts:iin.
+     * @param stmts Statementit, jotka sijoitetaan
+     */
+    public Block(List<Stmt> stmts) { 
+        this.stmts = stmts; 
+    }
+
+    /**
+     * Kopioidaan lohko ja sen statementit rakenteellisesti (ks.
+     * LoopUnroller). Kopion muuttujat on ratkaistu samoihin paikkoihin
+     * kuin lohkon.
+     * @return Kopio
+     */
+    public Block copy() {
+        Block copy;
+        try {
+            copy = (Block) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        copy.stmts = new ArrayList<Stmt>(stmts.size());
+        for (Stmt stmt : stmts) {
+            copy.stmts.add(stmt.copy());
+        }
+        return copy;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     * @param pw Printwriter syntaksipuun kirjoittamiseen
+     */
+    public void printTree(PrintWriter pw) {
+        pw.print(" ( ");
+        for (Stmt statement : stmts) {
+            statement.printTree(pw);
+        }
+        pw.print(" ) ");
+    }
+    
+    /**
+     * Suoritetaan stmts-listan sisällön tarkastus rekursiivisesti silmukassa.
+     * Mahdollisia aliluokkia ovat Decl, Assign, IfStatement tai ForLoop.
+     * @param tenv Tyyppiympäristö
+     */
+    public void typecheck(HashMap<String, Type> tenv) {
+        for (Stmt stmt : stmts) {
+            stmt.typecheck(tenv);
+        }
+    }
+ 
+    /**
+     * Evaluoidaan stmts-listan statementit rekursiivisesti. Jokaisen evaluoinnin
+     * jälkeen tarkistetaan ReturnCheck olion tila. Jos ReturnCheck olion tila on true,
+     * voidaan listan läpikäynti lopettaa. Jos lohkossa ei ole returnia, tilaa
+     * ei tarvitse tarkistaa.
+     * @param env Ympäristö
+     * @param r ReturnCheck-olio
+     */
+    public void eval(HashMap<String, Object> env, ReturnCheck r) {
+        if (!returns) {
+            for (Stmt stmt : stmts) {
+                stmt.eval(env, r);
+            }
+            return;
+        }
+        for (Stmt stmt : stmts) {
+            if (r.isReturned())
+                return;
+            stmt.eval(env, r);
+        }
+    }
+
+    /**
+     * Ratkaistaan stmts-listan statementtien muuttujien paikat kehyksessä.
+     * Samalla selvitetään, voiko lohkossa suorittua return.
+     * @param layout Kehyksen asettelu
+     */
+    public void resolve(FrameLayout layout) {
+        for (Stmt stmt : stmts) {
+            stmt.resolve(layout);
+        }
+        returns = mayReturn();
+    }
+
+    /**
+     * Tarkistetaan stmts-listan statementit suoritusjärjestyksessä.
+     * @param v Tarkistaja
+     */
+    public void verify(TreeVerifier v) {
+        for (Stmt stmt : stmts) {
+            stmt.verify(v);
+        }
+    }
+
+    /**
+     * Evaluoidaan stmts-listan statementit kehyksen (Frame) avulla.
+     * Toiminta vastaa HashMap-ympäristöä käyttävää evalia.
+     * @param f Kehys
+     * @param r ReturnCheck-olio
+     */
+    public void eval(Frame f, ReturnCheck r) {
+        if (!returns) {
+            for (Stmt stmt : stmts) {
+                stmt.eval(f, r);
+            }
+            return;
+        }
+        for (Stmt stmt : stmts) {
+            if (r.isReturned())
+                return;
+            stmt.eval(f, r);
+        }
+    }
+
+    /**
+     * Käännetään stmts-listan statementit JVM-tavukoodiksi.
+     * @param e Tavukoodin kirjoittaja
+     */
+    public void compile(BytecodeEmitter e) {
+        for (Stmt stmt : stmts) {
+            stmt.compile(e);
+        }
+    }
+
+    /**
+     * Käännetään stmts-listan statementit virtuaalikoneen käskyiksi.
+     * @param c Virtuaalikoneen kääntäjä
+     */
+    public void compile(VMCompiler c) {
+        for (Stmt stmt : stmts) {
+            stmt.compile(c);
+        }
+    }
+
+    /**
+     * Muodostetaan stmts-listan statementeista yksi sulkeuma.
+     * @return Lohkon sulkeuma
+     */
+    public StmtCode closure() {
+        List<StmtCode> codes = new ArrayList<StmtCode>();
+        for (Stmt stmt : stmts) {
+            codes.add(stmt.closure());
+        }
+        return ClosureProgram.sequence(codes);
+    }
+
+    /**
+     * Muodostetaan stmts-listan statementeista itseään erikoistava lohkosolmu.
+     * @return Lohkon solmu
+     */
+    public StmtNode specialize() {
+        List<StmtNode> nodes = new ArrayList<StmtNode>();
+        for (Stmt stmt : stmts) {
+            nodes.add(stmt.specialize());
+        }
+        return new BlockNode(nodes);
+    }
+
+
+    /**
+     * Lasketaan stmts-listan statementtien kirjoitukset muuttujiin.
+     * @param c Vakiolaskostuksen tila
+     */
+    public void countWrites(ConstantFolder c) {
+        for (Stmt stmt : stmts) {
+            stmt.countWrites(c);
+        }
+    }
+
+    /**
+     * Laskostetaan stmts-listan statementtien vakiolausekkeet. Lohkossa
+     * esitellyt vakiot ovat näkyvissä vain lohkon sisällä.
+     * @param c Vakiolaskostuksen tila
+     */
+    public void fold(ConstantFolder c) {
+        ConstantFolder inner = c.scope();
+        for (Stmt stmt : stmts) {
+            stmt.fold(inner);
+        }
+    }
+
+
+    /**
+     * Kerätään stmts-listan statementtien lukemat muuttujat.
+     * @param reads Luettujen muuttujien joukko
+     */
+    public void countReads(Set<String> reads) {
+        for (Stmt stmt : stmts) {
+            stmt.countReads(reads);
+        }
+    }
+
+    /**
+     * Lasketaan stmts-listan statementtien lukemat (ks. UseCounts).
+     * @param uses Lukemien lukumäärät
+     */
+    public void countUses(UseCounts uses) {
+        for (Stmt stmt : stmts) {
+            stmt.countUses(uses);
+        }
+    }
+
+    /**
+     * Poistetaan kuollut koodi: statementit ehdottoman returnin jälkeen,
+     * vakioehtoisten if-lauseiden suorittamatta jäävät haarat sekä
+     * esittelyt ja sijoitukset muuttujiin, joita ei lueta.
+     * @param reads Luettujen muuttujien joukko
+     * @return true, jos lohko muuttui
+     */
+    public boolean prune(Set<String> reads) {
+        List<Stmt> out = new ArrayList<Stmt>();
+        boolean changed = false;
+        for (int i = 0; i < stmts.size(); i++) {
+            changed |= stmts.get(i).prune(reads, out);
+            if (!out.isEmpty() && out.get(out.size() - 1).alwaysReturns()) {
+                changed |= i < stmts.size() - 1;
+                break;
+            }
+        }
+        stmts = out;
+        return changed;
+    }
+
+    /**
+     * Lisätään lohkon statementit listaan out. Käytetään, kun lohkon
+     * sisältävä statement korvataan lohkon sisällöllä.
+     * @param out Lista, johon statementit lisätään
+     */
+    public void inline(List<Stmt> out) {
+        out.addAll(stmts);
+    }
+
+    /**
+     * Tarkistetaan, päättyykö lohkon suoritus aina returniin.
+     * @return true, jos jokin lohkon statementeista palauttaa aina
+     */
+    public boolean alwaysReturns() {
+        for (Stmt stmt : stmts) {
+            if (stmt.alwaysReturns())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tarkistetaan, voiko lohkossa suorittua return.
+     * @return true, jos lohkossa on return
+     */
+    public boolean mayReturn() {
+        for (Stmt stmt : stmts) {
+            if (stmt.mayReturn())
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Siirretään ympäröivän silmukan invariantit lausekkeet silmukan edelle.
+     * @param h Ympäröivän silmukan siirtäjä
+     */
+    public void hoist(LoopHoister h) {
+        for (Stmt stmt : stmts) {
+            stmt.hoist(h);
+        }
+    }
+
+    /**
+     * Siirretään lohkon silmukoiden invariantit lausekkeet silmukoiden
+     * edelle. Apumuuttujien esittelyt lisätään lohkoon silmukan eteen.
+     * @param layout Kehyksen asettelu
+     */
+    public void hoistLoops(FrameLayout layout) {
+        List<Stmt> out = new ArrayList<Stmt>();
+        for (Stmt stmt : stmts) {
+            stmt.hoistLoops(layout, out);
+        }
+        stmts = out;
+    }
+
+
+    /**
+     * Korvataan lohkon kertymäsilmukat suljetulla muodolla
+     * (ks. ClosedFormLoop).
+     */
+    public void closedForm() {
+        List<Stmt> out = new ArrayList<Stmt>();
+        for (Stmt stmt : stmts) {
+            out.add(stmt.closedForm());
+        }
+        stmts = out;
+    }
+
+    /**
+     * Tunnistetaan silmukan lohkon kertymät. Jokaisen statementin on oltava
+     * kertymä, jonka muuttujaan kirjoitetaan silmukassa vain kerran ja jonka
+     * lisäys on invariantti eikä voi epäonnistua.
+     * @param writes Silmukassa kirjoitettavat muuttujat
+     * @return Kertymät tai null, jos lohkossa on muutakin
+     */
+    public List<Accumulator> accumulators(ConstantFolder writes) {
+        List<Accumulator> accs = new ArrayList<Accumulator>();
+        for (Stmt stmt : stmts) {
+            Accumulator a = stmt.accumulator();
+            if (a == null || !writes.isFinal(a.id) || a.step.mayFail()
+                    || !writes.isInvariant(a.step))
+                return null;
+            accs.add(a);
+        }
+        return accs;
+    }
+
+
+    /**
+     * Todistetaan lohkon taulukon haut rajojen sisäisiksi (ks. BoundsChecker).
+     * @param b Rajojen tarkistuksen tila
+     */
+    public void checkBounds(BoundsChecker b) {
+        for (Stmt stmt : stmts) {
+            stmt.checkBounds(b);
+        }
+    }
+
+
+    /**
+     * Palautetaan lohkon ainoa statement.
+     * @return Statement tai null, jos lohkossa on muu määrä statementteja
+     */
+    public Stmt single() {
+        return stmts.size() == 1 ? stmts.get(0) : null;
+    }
+
+    /**
+     * Korvataan lohkon reduktiosilmukat (ks. ReductionLoop).
+     */
+    public void reductions() {
+        List<Stmt> out = new ArrayList<Stmt>();
+        for (Stmt stmt : stmts) {
+            out.add(stmt.reductions());
+        }
+        stmts = out;
+    }
+
+
+    /**
+     * Poistetaan toistuvat lausekkeet (ks. ValueNumbering). Apumuuttujien
+     * esittelyt lisätään statementin eteen.
+     * @param v Arvojen numeroinnin tila
+     */
+    public void cse(ValueNumbering v) {
+        List<Stmt> out = new ArrayList<Stmt>();
+        for (Stmt stmt : stmts) {
+            stmt.cse(v);
+            out.addAll(v.temps());
+            out.add(stmt);
+        }
+        stmts = out;
+    }
+
+
+    /**
+     * Palautetaan lohkon statementit.
+     * @return Statementit suoritusjärjestyksessä
+     */
+    public List<Stmt> getStmts() {
+        return stmts;
+    }
+
+    /**
+     * Lasketaan lohkon koko avattavien silmukoiden rajoittamiseksi.
+     * @return Statementtien määrä sisäkkäiset lohkot mukaan lukien
+     */
+    public int size() {
+        int size = 0;
+        for (Stmt stmt : stmts) {
+            size += stmt.size();
+        }
+        return size;
+    }
+
+    /**
+     * Avataan lohkon lasketut silmukat (ks. LoopUnroller).
+     * @param layout Kehyksen asettelu
+     * @param c Ulomman lohkon vakiot, joilla avatut kopiot laskostetaan
+     */
+    public void unroll(FrameLayout layout, ConstantFolder c) {
+        ConstantFolder inner = c.scope();
+        List<Stmt> out = new ArrayList<Stmt>();
+        for (Stmt stmt : stmts) {
+            stmt.unroll(layout, inner, out);
+        }
+        stmts = out;
+    }
+}
+
+
+/**
+ * Statementtien yläluokka, jonka alle kuuluvat Decl, Assign, IfStatement, ForLoop
+ * ja Return. Tämän luokan metodeihin ei kuulu koskaan tulla. Luokka on luotu
+ * perimisen takia.
+ */
+abstract class Stmt implements Serializable, Cloneable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Kopioidaan statement rakenteellisesti (ks. LoopUnroller). Kopio on
+     * ratkaistu kuten statement. Oletuksena statementilla ei ole
+     * lausekkeita, joten kopio on matala.
+     * @return Kopio
+     */
+    public Stmt copy() {
+        try {
+            return (Stmt) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     * @param pw Printwriter syntaksipuun kirjoittamiseen
+     */
+    public void printTree(PrintWriter pw) {
+        pw.print(" ( statement ) ");
+    }
+
+    /**
+     * Tyyppitarkastus. Metodi luotu perintää varten.
+     * @param tenv Tyyppiympäristö
+     */
+    public void typecheck(HashMap<String, Type> tenv) {
+        //
+    }
+
+    /**
+     * Evaluointi. Metodi luotu perintää varten.
+     * @param env Ympäristö
+     * @param r ReturnCheck-olio
+     */
+    public void eval(HashMap<String, Object> env, ReturnCheck r) {
+        //
+    }
+
+    /**
+     * Muuttujien paikkojen ratkaiseminen. Metodi luotu perintää varten.
+     * @param layout Kehyksen asettelu
+     */
+    public void resolve(FrameLayout layout) {
+        //
+    }
+
+    /**
+     * Syntaksipuun tarkistus. Metodi luotu perintää varten.
+     * @param v Tarkistaja
+     */
+    public void verify(TreeVerifier v) {
+        throw new IllegalStateException("Incorrect use of stmt in method verify.");
+    }
+
+    /**
+     * Evaluointi kehyksen avulla. Metodi luotu perintää varten.
+     * @param f Kehys
+     * @param r ReturnCheck-olio
+     */
+    public void eval(Frame f, ReturnCheck r) {
+        //
+    }
+
+    /**
+     * Kääntäminen JVM-tavukoodiksi. Metodi luotu perintää varten.
+     * @param e Tavukoodin kirjoittaja
+     */
+    public void compile(BytecodeEmitter e) {
+        //
+    }
+
+    /**
+     * Kääntäminen virtuaalikoneen käskyiksi. Metodi luotu perintää varten.
+     * @param c Virtuaalikoneen kääntäjä
+     */
+    public void compile(VMCompiler c) {
+        //
+    }
+
+    /**
+     * Sulkeuman muodostaminen. Metodi luotu perintää varten.
+     * @return Statementin sulkeuma
+     */
+    public StmtCode closure() {
+        return f -> false;
+    }
+
+    /**
+     * Solmun muodostaminen. Metodi luotu perintää varten.
+     * @return Statementin solmu
+     */
+    public StmtNode specialize() {
+        return new BlockNode(new ArrayList<StmtNode>());
+    }
+
+
+    /**
+     * Kirjoitusten laskeminen. Metodi luotu perintää varten.
+     * @param c Vakiolaskostuksen tila
+     */
+    public void countWrites(ConstantFolder c) {
+        //
+    }
+
+    /**
+     * Vakiolaskostus. Metodi luotu perintää varten.
+     * @param c Vakiolaskostuksen tila
+     */
+    public void fold(ConstantFolder c) {
+        //
+    }
+
+
+    /**
+     * Luettujen muuttujien kerääminen. Metodi luotu perintää varten.
+     * @param reads Luettujen muuttujien joukko
+     */
+    public void countReads(Set<String> reads) {
+        //
+    }
+
+    /**
+     * Lasketaan lukemat kuolleen koodin poistoa varten. Oletuksena
+     * statementin kaikki lukemat säilyvät.
+     * @param uses Lukemien lukumäärät
+     */
+    public void countUses(UseCounts uses) {
+        Set<String> reads = new HashSet<String>();
+        countReads(reads);
+        uses.read(reads);
+    }
+
+    /**
+     * Kuolleen koodin poistaminen. Statement lisää listaan out itsensä tai
+     * sen korvaavat statementit. Oletuksena statement säilyy.
+     * @param reads Luettujen muuttujien joukko
+     * @param out Lista, johon säilyvät statementit lisätään
+     * @return true, jos statement poistettiin tai korvattiin
+     */
+    public boolean prune(Set<String> reads, List<Stmt> out) {
+        out.add(this);
+        return false;
+    }
+
+    /**
+     * Tarkistetaan, päättyykö statementin suoritus aina returniin.
+     * @return true, jos statement palauttaa aina
+     */
+    public boolean alwaysReturns() {
+        return false;
+    }
+
+    /**
+     * Tarkistetaan, voiko statementissa suorittua return.
+     * @return true, jos statementissa on return
+     */
+    public boolean mayReturn() {
+        return false;
+    }
+
+
+    /**
+     * Invarianttien lausekkeiden siirtäminen. Metodi luotu perintää varten.
+     * @param h Ympäröivän silmukan siirtäjä
+     */
+    public void hoist(LoopHoister h) {
+        //
+    }
+
+    /**
+     * Silmukoiden etsiminen invarianttien siirtämistä varten. Statement
+     * lisää listaan out itsensä ja mahdolliset silmukan edelle siirretyt
+     * esittelyt. Oletuksena statement lisää vain itsensä.
+     * @param layout Kehyksen asettelu
+     * @param out Lista, johon statementit lisätään
+     */
+    public void hoistLoops(FrameLayout layout, List<Stmt> out) {
+        out.add(this);
+    }
+
+
+    /**
+     * Kertymäsilmukoiden korvaaminen suljetulla muodolla. Palautetaan
+     * statementin sijaan käytettävä statement. Oletuksena statement ei muutu.
+     * @return Statement tai sen korvaava ClosedFormLoop
+     */
+    public Stmt closedForm() {
+        return this;
+    }
+
+    /**
+     * Tarkistetaan, onko statement kertymä v = v + e tai v = v - e.
+     * @return Kertymä tai null
+     */
+    public Accumulator accumulator() {
+        return null;
+    }
+
+
+    /**
+     * Taulukon hakujen todistaminen turvallisiksi. Metodi luotu perintää varten.
+     * @param b Rajojen tarkistuksen tila
+     */
+    public void checkBounds(BoundsChecker b) {
+        //
+    }
+
+
+    /**
+     * Reduktiosilmukoiden korvaaminen. Palautetaan statementin sijaan
+     * käytettävä statement. Oletuksena statement ei muutu.
+     * @return Statement tai sen korvaava ReductionLoop
+     */
+    public Stmt reductions() {
+        return this;
+    }
+
+    /**
+     * Tarkistetaan, onko statement laskurisilmukan lohkona int-taulukon
+     * reduktio (ks. Reduction).
+     * @param counter Laskurin tunniste
+     * @return Reduktio tai null
+     */
+    public Reduction reduction(String counter) {
+        return null;
+    }
+
+    /**
+     * Palautetaan statement sijoituksena.
+     * @return Sijoitus tai null, jos statement ei ole sijoitus muuttujaan
+     */
+    public AssignExpr assignment() {
+        return null;
+    }
+
+
+    /**
+     * Toistuvien lausekkeiden poistaminen. Oletuksena statementin
+     * kirjoittamia muuttujia lukevat arvot poistetaan taulusta.
+     * @param v Arvojen numeroinnin tila
+     */
+    public void cse(ValueNumbering v) {
+        ConstantFolder writes = new ConstantFolder();
+        countWrites(writes);
+        v.write(writes);
+    }
+
+
+    /**
+     * Statementin koko avattavien silmukoiden rajoittamiseksi. Oletuksena
+     * statementin koko on yksi.
+     * @return Statementtien määrä
+     */
+    public int size() {
+        return 1;
+    }
+
+    /**
+     * Silmukoiden avaaminen. Statement lisää listaan out itsensä tai sen
+     * korvaavat statementit. Oletuksena statement lisää vain itsensä.
+     * @param layout Kehyksen asettelu
+     * @param c Lohkon vakiot statementin kohdalla
+     * @param out Lista, johon statementit lisätään
+     */
+    public void unroll(FrameLayout layout, ConstantFolder c, List<Stmt> out) {
+        out.add(this);
+    }
+}
+
+
+/**
+ * Luokka, jonka päätehtävänä on evaluoida kaikki syöteohjelman parametrit.
+ */
+class Paramlist implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private List<Param> params;
+
+    /**
+     * Sijoitetaan parametrina tuotu arvo.
+     * @param params Sijoitettavat parametrit
+     */
+    public Paramlist(List<Param> params) {
+        this.params = params;   
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     * @param pw Printwriter syntaksipuun kirjoittamiseen
+     */
+    public void printTree(PrintWriter pw) {
+        pw.print(" ( ");
+        for (Param parameter : params) {
+            parameter.printTree(pw);
+        }
+        pw.print(" ) ");
+    }
+
+    /**
+     * Suoritetaan syöteohjelmassa annettujen parametrien deklarointi. 
+     * @param tenv Tyyppiympäristö
+     */
+    public void typecheck(HashMap<String, Type> tenv) {
+        for (Param param : params) {
+            param.declare(tenv);
+        }
+    }
+
+    /**
+     * Evaluoidaan syöteohjelmassa annetut parametrit.
+     * Minisharp-kääntäjälle on mahdollista antaa enemmän parametreja argsien kautta,
+     * kuin mitä syöteohjelma niitä vaatii. Käyttäjän ylimääräisiä parametreja ei
+     * huomioida evalissa. Käyttäjän on kuitenkin annettava parametreja vähintään
+     * yhtä paljon kuin syöteohjelma niitä vaatii.
+     * @param env Ympäristö
+     * @param args Käyttäjän antamat parametrit
+     */
+    public void eval(HashMap<String, Object> env, String[] args) {
+        // Tarkistetaan, että argumentteja on tarpeeksi.
+        if (params.size() > args.length) {
+            System.err.println("Program needs more arguments!");
+            return;
+        }
+        // Evaluoidaan parametrit silmukassa.
+        for (int i = 0; i < params.size(); i++) {
+            params.get(i).eval(env, args[i]);
+        }
+    }
+
+    /**
+     * Ratkaistaan parametrien paikat kehyksessä.
+     * @param layout Kehyksen asettelu
+     */
+    public void resolve(FrameLayout layout) {
+        for (Param param : params) {
+            param.resolve(layout);
+        }
+    }
+
+    /**
+     * Parametrit ovat esiteltyjä muuttujia.
+     * @param v Tarkistaja
+     */
+    public void verify(TreeVerifier v) {
+        for (Param param : params) {
+            param.verify(v);
+        }
+    }
+
+    /**
+     * Evaluoidaan syöteohjelmassa annetut parametrit kehykseen.
+     * @param f Kehys
+     * @param args Käyttäjän antamat parametrit
+     */
+    public void eval(Frame f, String[] args) {
+        // Tarkistetaan, että argumentteja on tarpeeksi.
+        if (params.size() > args.length) {
+            System.err.println("Program needs more arguments!");
+            return;
+        }
+        for (int i = 0; i < params.size(); i++) {
+            params.get(i).eval(f, args[i]);
+        }
+    }
+
+
+    /**
+     * Merkitään parametrit kirjoitetuiksi, koska niiden arvot tulevat
+     * käyttäjältä.
+     * @param c Vakiolaskostuksen tila
+     */
+    public void countWrites(ConstantFolder c) {
+        for (Param param : params) {
+            param.countWrites(c);
+        }
+    }
+}
+
+
+/**
+ * Luokka, joka deklaroi ja evaluoi parametrin.
+ */
+class Param implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Type type;
+    private String id;
+    private int slot;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param type Parametrin tyyppi
+     * @param id Parametrin tunniste
+     */
+    public Param(Type type, String id) {
+        this.type = type;
+        this.id = id;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     * @param pw Printwriter syntaksipuun kirjoittamiseen
+     */
+    public void printTree(PrintWriter pw) {
+        pw.print(" ( ");
+        type.printTree(pw);
+        pw.printf(" %s ", id);
+        pw.print(" ) ");
+    }
+
+    /**
+     * Lisätään parametrin tyyppi ja id HashMappiin.
+     * @param tenv Tyyppiympäristö
+     */
+    public void declare(HashMap<String, Type> tenv) {
+        // Tarkistetaan onko jo deklaroitu.
+        if (tenv.containsKey(id)) {
+            System.err.printf("%s has already been declared.\n", id);
+        }
+        tenv.put(id, type);
+        
+    }
+    
+    /**
+     * Evaluoidaan parametrin arvo muistiin. Minisharp hyväksyy parametreina
+     * vain int ja double tyyppisiä arvoja, mutta laskutoimitusten helpottamiseksi
+     * argsin arvo tallennetaan doublena.
+     * @param env Ympäristö
+     * @param arg Käyttäjän antama parametri
+     */
+    public void eval(HashMap<String, Object> env, String arg) {
+        try {
+            if (type.isInt()) {
+                Integer integer = Integer.parseInt(arg);
+                env.put(id, integer);
+            } else {
+                Double d = Double.parseDouble(arg);
+                env.put(id, d.doubleValue());
+            }
+            
+        } catch (NumberFormatException nfe) {
+                System.err.printf("Given argument types don't match: %s\n", arg);
+        }
+    }
+
+    /**
+     * Ratkaistaan parametrin paikka kehyksessä.
+     * @param layout Kehyksen asettelu
+     */
+    public void resolve(FrameLayout layout) {
+        slot = layout.slot(id);
+    }
+
+    /**
+     * Merkitään parametri esitellyksi.
+     * @param v Tarkistaja
+     */
+    public void verify(TreeVerifier v) {
+        v.declare(id, slot, BytecodeEmitter.kind(type));
+    }
+
+    /**
+     * Evaluoidaan parametrin arvo kehykseen. Int tallennetaan taulukkoon
+     * ints ja double taulukkoon nums.
+     * @param f Kehys
+     * @param arg Käyttäjän antama parametri
+     */
+    public void eval(Frame f, String arg) {
+        try {
+            if (type.isInt()) {
+                f.ints[slot] = Integer.parseInt(arg);
+            } else {
+                f.nums[slot] = Double.parseDouble(arg);
+            }
+        } catch (NumberFormatException nfe) {
+                System.err.printf("Given argument types don't match: %s\n", arg);
+        }
+    }
+
+
+    /**
+     * Merkitään parametri kirjoitetuksi.
+     * @param c Vakiolaskostuksen tila
+     */
+    public void countWrites(ConstantFolder c) {
+        c.write(id);
+    }
+}
+
+/**
+ * Type-yliluokan metodit.
+ * Luokkaa käytetään pääasiassa vain silloin, kun aliluokalla
+ * ei ole metodille omaa toteutusta ja vastauksesta
+ * halutaan negatiivinen. 
+ *
+ * Tyypeillä ei ole tilaa, joten jokaisesta tyypistä käytetään yhtä
+ * oliota (INT, INT_SEQUENCE, DOUBLE ja BOOL). Sarjallistuksesta luettu
+ * tyyppi korvataan samalla oliolla (readResolve).
+ */
+abstract class Type implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final Type INT = new TypeInt();
+    static final Type INT_SEQUENCE = new TypeIntSequence();
+    static final Type DOUBLE = new TypeDouble();
+    static final Type BOOL = new TypeBool();
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     * @param pw Printwriter syntaksipuun kirjoittamiseen
+     */
+    public void printTree(PrintWriter pw) {
+        pw.print("type ");
+    }
+
+    /**
+     * Tarkistetaan onko tyyppi boolean. Yliluokan default-toteutus.
+     * @return boolean arvon merkkaamaan onko tyyppi boolean
+     */
+    public boolean isBool() {
+        return false;
+    };
+
+    /**
+     * Tarkistetaan onko tyyppi int. Yliluokan default-toteutus.
+     * @return boolean arvon merkkaamaan onko tyyppi int
+     */
+    public boolean isInt() {
+        return false;
+    };
+
+    /**
+     * Tarkistetaan onko tyyppi double. Yliluokan default-toteutus.
+     * @return boolean arvon merkkaamaan onko tyyppi double
+     */
+    public boolean isDouble() {
+        return false;
+    };
+
+    /**
+     * Tarkistetaan onko tyyppi int-taulukko. Yliluokan default-toteutus.
+     * @return boolean arvon merkkaamaan onko tyyppi int-taulukko
+     */
+    public boolean isIntSequence() {
+        return false;
+    };
+
+    /**
+     * Tarkastetaan, voidaanko parametrina tuotu tyyppi sijoittaa
+     * haluttuun tyyppiin. Yliluokan default-metodi, johon ei ajon
+     * aikana kuuluisi koskaan tulla.
+     * @param type Tyyppi, jota tarkastellaan
+     * @return true, jos yhteensopiva toisen tyypin kanssa, muuten false
+     */
+    public boolean canAssignTo(Type type) {
+        System.err.println("Incorrect use of canAssignTo.");
+        return false;
+    }
+}
+
+
+/**
+ * Tyyppiluokka, jolla merkataan tyyppiä int.
+ */
+class TypeInt extends Type {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print("int ");
+    }
+    
+    /**
+     * Tarkastetaan, voidaanko parametrina tuotu tyyppi sijoittaa
+     * haluttuun tyyppiin.
+     */
+    @Override
+    public boolean canAssignTo(Type type) {
+        return type.isInt() || type.isDouble();
+    }
+
+    /**
+     * Tarkistetaan onko tyyppi int.
+     */
+    @Override
+    public boolean isInt() {
+        return true;
+    }
+
+    /**
+     * Korvataan sarjallistuksesta luettu olio tyypin ainoalla oliolla.
+     */
+    private Object readResolve() {
+        return Type.INT;
+    }
+}
+
+/**
+ * Tyyppiluokka, jolla merkataan int-taulukkoa.
+ */
+class TypeIntSequence extends Type {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print("intsequence ");
+    }
+
+    /**
+     * Tarkastetaan, voidaanko parametrina tuotu tyyppi sijoittaa
+     * haluttuun tyyppiin.
+     */
+    @Override
+    public boolean canAssignTo(Type type) {
+        return type.isIntSequence();
+    }
+
+    /**
+     * Tarkistetaan onko tyyppi int-taulukko.
+     */
+    @Override
+    public boolean isIntSequence() {
+        return true;
+    }
+
+    /**
+     * Korvataan sarjallistuksesta luettu olio tyypin ainoalla oliolla.
+     */
+    private Object readResolve() {
+        return Type.INT_SEQUENCE;
+    }
+}
+
+/**
+ * Tyyppiluokka, jolla merkataan doublea.
+ */
+class TypeDouble extends Type {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print("double ");
+    }
+
+    /**
+     * Tarkastetaan, voidaanko parametrina tuotu tyyppi sijoittaa
+     * haluttuun tyyppiin.
+     */
+    @Override
+    public boolean canAssignTo(Type type) {
+        return type.isDouble();
+    }
+
+    /**
+     * Tarkistetaan onko tyyppi double.
+     */
+    @Override
+    public boolean isDouble() {
+        return true;
+    }
+
+    /**
+     * Korvataan sarjallistuksesta luettu olio tyypin ainoalla oliolla.
+     */
+    private Object readResolve() {
+        return Type.DOUBLE;
+    }
+}
+
+
+/**
+ * Tyyppiluokka, jolla merkataan booleania.
+ */
+class TypeBool extends Type {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print("boolean ");
+    }
+
+    /**
+     * Tarkastetaan, voidaanko parametrina tuotu tyyppi sijoittaa
+     * haluttuun tyyppiin.
+     */
+    @Override
+    public boolean canAssignTo(Type type) {
+        return type.isBool();
+    }
+    
+    /**
+     * Tarkistetaan onko tyyppi boolean.
+     */
+    @Override
+    public boolean isBool() {
+        return true;
+    }
+
+    /**
+     * Korvataan sarjallistuksesta luettu olio tyypin ainoalla oliolla.
+     */
+    private Object readResolve() {
+        return Type.BOOL;
+    }
+}
+
+
+/**
+ * Declien yläluokka, jonka alle kuuluvat DeclExpr ja DeclArray.
+ * Tämän luokan metodeihin ei kuulu koskaan tulla forloopDeclCheck-metodia
+ * lukuun ottamatta. Luokka on luotu pääasiassa perimisen takia.
+ */
+abstract class Decl extends Stmt {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print(" ( decl ) ");
+    }
+
+    /**
+     * Tyyppitarkastus. Metodi luotu perintää varten.
+     */
+    @Override
+    public void typecheck(HashMap<String, Type> tenv) {
+        //
+    }
+
+    /**
+     * Tyyppitarkastus silmukan muuttujan alustamiseen.
+     * Default-metodi.
+     * @param tenv Tyyppiympäristö
+     * @return True, jos Decl on sopiva silmukan alustustoimenpiteeseen, muuten false
+     */
+    public boolean forloopDeclCheck(HashMap<String, Type> tenv) {
+        return false;
+    }
+
+    /**
+     * Default-metodi id:n kysymiseen. Metodi luotu perintää varten.
+     * @return id:n arvo merkkijonona
+     */
+    public String getID() {
+        System.err.printf("Trying to ask id value from abstract Decl!\n");
+        return "";
+    }
+
+
+    /**
+     * Palautetaan esittelyn alkuarvo.
+     * @return Alkuarvo tai null, jos esittely ei ole lauseke
+     */
+    public Expr initializer() {
+        return null;
+    }
+}
+
+/**
+ * Luokka uuden arvon alustamista varten.
+ * Luokalla on tyyppi ja id, sekä Expr arvo.
+ */
+class DeclExpr extends Decl {
+    private static final long serialVersionUID = 1L;
+
+    private Type type;
+    private String id;
+    private int slot;
+    private char kind;
+    private Expr expr;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param type Sijoitettava tyyppi
+     * @param id Sijoitettava tunniste/id
+     * @param expr Sijoitettava lauseke/expressions
+     */
+    public DeclExpr(Type type, String id, Expr expr) {
+        this.type = type;
+        this.id = id;
+        this.expr = expr;
+    }
+
+    /**
+     * Metodi ID:n kysymiseen.
+     */
+    @Override
+    public String getID() {
+        return id;
+    }
+
+    /**
+     * Kopioidaan esittely ja sen alkuarvo.
+     */
+    @Override
+    public Stmt copy() {
+        DeclExpr copy = (DeclExpr) super.copy();
+        copy.expr = expr.copy();
+        return copy;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print(" ( ");
+        type.printTree(pw);
+        pw.printf(" %s ", id);
+        expr.printTree(pw);
+        pw.print(" ) ");
+    }
+
+    /**
+     * Tyyppitarkastetaan DeclExpr vaihe vaiheelta.
+     */
+    @Override
+    public void typecheck(HashMap<String, Type> tenv) {
+        // Tarkastetaan onko ID jo tenvissä. 
+        if (tenv.containsKey(id)) {
+            System.err.printf("Variable name %s has already been declared\n",
+                    id);
+            return;
+        }
+        // Lisätään ID ja type tyyppiympäristöön.
+        tenv.put(id, type);
+
+        // Tarkastetaan onko expr:n tyyppi yhteensopiva DeclExpr:n tyypin kanssa.
+        Type t = expr.type(tenv);
+        if (!t.canAssignTo(type)) {
+            System.err.println("Type mismatch on declaration");
+            return;
+        }
+    }
+
+    /**
+     * Tarkastetaan, käykö DeclExpr silmukan muuttujan alustamiseen.
+     */
+    @Override
+    public boolean forloopDeclCheck(HashMap<String, Type> tenv) {
+        // Tarkastetaan onko DeclExpr:n tyyppi int. 
+        if (!type.isInt()) {
+            System.err.println("Decl type must be int!");
+            return false;
+        }
+        
+        // Tarkastetaan onko vastaava id jo lisätty tenviin.
+        if (tenv.containsKey(id)) {
+            System.err.printf("Variable name %s has already been declared\n",
+                    id);
+            return false;
+        }
+        // Lisätään ID ja type tyyppiympäristöön.
+        tenv.put(id, type);
+        
+        // Tarkastetaan, että Expr:n tyyppi on TypeInt.
+        if (!expr.type(tenv).isInt()) {
+            System.err.println("Expr type must be type TypeInt!");
+            return false;
+        }
+        
+        // Palautetaan tosi, jos DeclExpr:n tyyppi oli int, muuttujaa ei oltu
+        // lisätty tenviin aikaisemmin ja Expr:n tyyppi on TypeInt.
+        return true;
+    }
+
+    /**
+     * Lisätään env:iin id ja expr:n evaluoitu arvo.
+     */
+    @Override
+    public void eval(HashMap<String, Object> env, ReturnCheck r) {
+        Object value = expr.eval(env, r);
+        // Double-muuttujaan sijoitettu int muutetaan doubleksi.
+        if (kind == 'D' && value instanceof Integer) {
+            value = Double.valueOf(((Integer) value).doubleValue());
+        }
+        env.put(id, value);
+    }
+
+    /**
+     * Ratkaistaan id:n ja expr:n muuttujien paikat kehyksessä. Paikan
+     * tyyppi otetaan tyyppiympäristöstä, koska sama nimi on voitu esitellä
+     * aiemmin eri tyyppisenä.
+     */
+    @Override
+    public void resolve(FrameLayout layout) {
+        slot = layout.slot(id);
+        Type t = layout.type(id);
+        kind = BytecodeEmitter.kind(t != null ? t : type);
+        expr.resolve(layout);
+    }
+
+    /**
+     * Tarkistetaan esittely. Muuttuja esitellään ennen alkuarvoa kuten
+     * tyyppitarkastuksessa.
+     */
+    @Override
+    public void verify(TreeVerifier v) {
+        v.declare(id, slot, kind);
+        expr.verify(v);
+        v.assign(id, kind, expr);
+    }
+
+    /**
+     * Sijoitetaan kehykseen expr:n evaluoitu arvo. Esitelty tyyppi
+     * valitsee primitiivisen evaluointimetodin.
+     */
+    @Override
+    public void eval(Frame f, ReturnCheck r) {
+        f.store(slot, kind, expr, r);
+    }
+
+    /**
+     * Käännetään expr ja sijoitetaan sen arvo id:n paikkaan.
+     */
+    @Override
+    public void compile(BytecodeEmitter e) {
+        expr.compile(e, kind);
+        e.store(kind, slot);
+    }
+
+    /**
+     * Käännetään expr suoraan id:n rekisteriin.
+     */
+    @Override
+    public void compile(VMCompiler c) {
+        c.statement();
+        expr.compile(c, kind, slot);
+    }
+
+    /**
+     * Muodostetaan expr:n arvon sijoitus id:n paikkaan.
+     */
+    @Override
+    public StmtCode closure() {
+        return ClosureProgram.store(slot, kind, expr);
+    }
+
+    /**
+     * Muodostetaan expr:n arvon sijoitus id:n paikkaan.
+     */
+    @Override
+    public StmtNode specialize() {
+        return new StoreNode(slot, kind, expr.specialize());
+    }
+
+
+    /**
+     * Esittely kirjoittaa muuttujaan.
+     */
+    @Override
+    public void countWrites(ConstantFolder c) {
+        c.write(id);
+    }
+
+    /**
+     * Laskostetaan alkuarvo. Jos muuttujaan ei kirjoiteta muualla ja
+     * alkuarvo on vakio, muuttujan lukemiset korvataan alkuarvolla.
+     */
+    @Override
+    public void fold(ConstantFolder c) {
+        expr = expr.fold(c);
+        c.define(id, kind, expr);
+    }
+
+    /**
+     * Alkuarvo on jo laskostettu, joten vakio vain merkitään myöhempien
+     * silmukoiden kopioita varten.
+     */
+    @Override
+    public void unroll(FrameLayout layout, ConstantFolder c, List<Stmt> out) {
+        c.define(id, kind, expr);
+        out.add(this);
+    }
+
+
+    /**
+     * Kerätään alkuarvon lukemat muuttujat.
+     */
+    @Override
+    public void countReads(Set<String> reads) {
+        expr.countReads(reads);
+    }
+
+    /**
+     * Esittely poistetaan, jos muuttujaa ei lueta, ellei alkuarvon
+     * laskeminen voi epäonnistua.
+     */
+    @Override
+    public void countUses(UseCounts uses) {
+        Set<String> reads = new HashSet<String>();
+        expr.countReads(reads);
+        if (expr.mayFail())
+            uses.read(reads);
+        else
+            uses.define(id, reads);
+    }
+
+    /**
+     * Poistetaan esittely, jos muuttujaa ei lueta eikä alkuarvon
+     * laskeminen voi epäonnistua.
+     */
+    @Override
+    public boolean prune(Set<String> reads, List<Stmt> out) {
+        if (!reads.contains(id) && !expr.mayFail())
+            return true;
+        out.add(this);
+        return false;
+    }
+
+
+    /**
+     * Siirretään alkuarvon invariantit osat.
+     */
+    @Override
+    public void hoist(LoopHoister h) {
+        expr = expr.hoist(h);
+    }
+
+
+    /**
+     * Palautetaan alkuarvon lauseke.
+     */
+    @Override
+    public Expr initializer() {
+        return expr;
+    }
+
+    /**
+     * Tarkistetaan alkuarvon taulukon haut.
+     */
+    @Override
+    public void checkBounds(BoundsChecker b) {
+        expr.checkBounds(b);
+    }
+
+
+    /**
+     * Käsitellään expr, jonka arvo on tämän jälkeen saatavilla muuttujassa id.
+     */
+    @Override
+    public void cse(ValueNumbering v) {
+        expr = expr.cse(v);
+        v.assign(id, kind, expr);
+    }
+}
+
+
+/**
+ * Luokka uuden int-taulukon alustamista varten.
+ * Luokalla on tyyppi, id ja int-taulukko arvo.
+ */
+class DeclArray extends Decl {
+    private static final long serialVersionUID = 1L;
+
+    private Type type;
+    private String id;
+    private int slot;
+    private int[] consts;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param type Sijoitettava tyyppi
+     * @param id Sijoitettava tunniste/id
+     * @param consts Sijoitettava int-taulukko
+     */
+    public DeclArray(Type type, String id, int[] consts) {
+        this.type = type;
+        this.id = id;
+        this.consts = consts;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        type.printTree(pw);
+        pw.print(id);
+        for (int a : consts) {
+            pw.printf(" %s ", a);
+        }
+    }
+
+    /**
+     * Tyyppitarkastetaan DeclArray vaihe vaiheelta.
+     */
+    @Override
+    public void typecheck(HashMap<String, Type> tenv) {
+        // Tarkastetaan, onko type tyyppiä int.
+        if (!type.isInt()) {
+            System.err.println("Array type must be int.");
+            return;
+        }
+        // Tarkastetaan onko vastaava id jo lisätty tenviin.
+        if (tenv.containsKey(id)) {
+            System.err.printf("Variable name %s has already been declared.\n",
+                    id);
+            return;
+        }
+        type = Type.INT_SEQUENCE;
+        // Lisätään tenv:iin id ja type
+        tenv.put(id, type);
+    }
+
+    /**
+     * Lisätään env:iin id ja consts.
+     */
+    @Override
+    public void eval(HashMap<String, Object> env, ReturnCheck r) {
+        env.put(id, consts);
+    }
+
+    /**
+     * Ratkaistaan id:n paikka kehyksessä.
+     */
+    @Override
+    public void resolve(FrameLayout layout) {
+        slot = layout.slot(id);
+    }
+
+    /**
+     * Merkitään taulukko esitellyksi.
+     */
+    @Override
+    public void verify(TreeVerifier v) {
+        v.declare(id, slot, '[');
+    }
+
+    /**
+     * Sijoitetaan kehykseen consts.
+     */
+    @Override
+    public void eval(Frame f, ReturnCheck r) {
+        f.arrays[slot] = consts;
+    }
+
+    /**
+     * Käännetään consts:n sijoitus id:n paikkaan.
+     */
+    @Override
+    public void compile(BytecodeEmitter e) {
+        e.arrayConst(consts);
+        e.store('[', slot);
+    }
+
+    /**
+     * Käännetään consts:n sijoitus id:n rekisteriin.
+     */
+    @Override
+    public void compile(VMCompiler c) {
+        c.statement();
+        c.move('[', c.aconst(consts), slot);
+    }
+
+    /**
+     * Muodostetaan consts:n sijoitus id:n paikkaan.
+     */
+    @Override
+    public StmtCode closure() {
+        int s = slot;
+        int[] c = consts;
+        return f -> {
+            f.arrays[s] = c;
+            return false;
+        };
+    }
+
+    /**
+     * Muodostetaan consts:n sijoitus id:n paikkaan.
+     */
+    @Override
+    public StmtNode specialize() {
+        return new ArrayStoreNode(slot, consts);
+    }
+
+
+    /**
+     * Esittely kirjoittaa muuttujaan.
+     */
+    @Override
+    public void countWrites(ConstantFolder c) {
+        c.write(id);
+    }
+
+    /**
+     * Jos taulukkoa ei sijoiteta uudelleen, sen pituus ja arvot ovat vakioita.
+     */
+    @Override
+    public void fold(ConstantFolder c) {
+        c.define(id, consts);
+    }
+
+    /**
+     * Vakiotaulukko merkitään myöhempien silmukoiden kopioita varten.
+     */
+    @Override
+    public void unroll(FrameLayout layout, ConstantFolder c, List<Stmt> out) {
+        c.define(id, consts);
+        out.add(this);
+    }
+
+
+    /**
+     * Esittely poistetaan, jos taulukkoa ei lueta.
+     */
+    @Override
+    public void countUses(UseCounts uses) {
+        uses.define(id, new HashSet<String>());
+    }
+
+    /**
+     * Poistetaan esittely, jos taulukkoa ei lueta.
+     */
+    @Override
+    public boolean prune(Set<String> reads, List<Stmt> out) {
+        if (!reads.contains(id))
+            return true;
+        out.add(this);
+        return false;
+    }
+
+
+    /**
+     * Taulukon pituus tunnetaan, jos taulukkoa ei sijoiteta uudelleen.
+     */
+    @Override
+    public void checkBounds(BoundsChecker b) {
+        b.length(id, consts.length);
+    }
+}
+
+
+/**
+ * Assignien yläluokka, jonka alle kuuluvat AssignExpr ja AssignArray.
+ * Tämän luokan metodeihin ei kuulu koskaan tulla. Luokka on luotu perimisen takia.
+ */
+abstract class Assign extends Stmt {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print(" ( assign ) ");
+    }
+
+    /**
+     * Tyyppitarkastus. Metodi luotu perintää varten.
+     */
+    @Override
+    public void typecheck(HashMap<String, Type> tenv) {
+        //
+    }
+    
+}
+
+
+/**
+ * Luokka arvon sijoittamista varten.
+ * Luokalla on id, sekä Expr arvo.
+ */
+class AssignExpr extends Assign {
+    private static final long serialVersionUID = 1L;
+
+    private String id;
+    private int slot;
+    private char kind;
+    private Expr expr;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param id Sijoitettava tunniste/id
+     * @param expr Sijoitettava lauseke/expression
+     */
+    public AssignExpr(String id, Expr expr) {
+        this.id = id;
+        this.expr = expr;
+    }
+
+    /**
+     * Kopioidaan sijoitus ja sen lauseke.
+     */
+    @Override
+    public Stmt copy() {
+        AssignExpr copy = (AssignExpr) super.copy();
+        copy.expr = expr.copy();
+        return copy;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print(" ( ");
+        pw.printf(" %s ", id);
+        expr.printTree(pw);
+        pw.print(" ) ");
+    }
+
+    /**
+     * Tyyppitarkastetaan AssignExpr vaihe vaiheelta.
+     */
+    @Override
+    public void typecheck(HashMap<String, Type> tenv) {
+        // Tarkastetaan, onko vastaava id jo lisätty tenviin.
+        if (!tenv.containsKey(id)) {
+            System.err.printf("Variable name %s has not been declared.\n", id);
+            return;
+        }
+        Type t = expr.type(tenv);
+        
+        // Tarkastetaan vastaavatko tyypit toisiaan.
+        if (!t.canAssignTo(tenv.get(id))) {
+            System.err.println("Types missmatch");
+            return;
+        }
+    }
+
+    /**
+     * Lisätään env:iin id ja expr:n evaluoitu arvo.
+     */
+    @Override
+    public void eval(HashMap<String, Object> env, ReturnCheck r) {
+        Object value = expr.eval(env, r);
+        // Double-muuttujaan sijoitettu int muutetaan doubleksi.
+        if (kind == 'D' && value instanceof Integer) {
+            value = Double.valueOf(((Integer) value).doubleValue());
+        }
+        env.put(id, value);
+    }
+
+    /**
+     * Ratkaistaan id:n ja expr:n muuttujien paikat kehyksessä.
+     * Samalla otetaan talteen id:n tyyppi evaluointia varten.
+     */
+    @Override
+    public void resolve(FrameLayout layout) {
+        slot = layout.slot(id);
+        Type t = layout.type(id);
+        kind = t != null ? BytecodeEmitter.kind(t) : 'D';
+        expr.resolve(layout);
+    }
+
+    /**
+     * Tarkistetaan sijoitus esiteltyyn muuttujaan.
+     */
+    @Override
+    public void verify(TreeVerifier v) {
+        expr.verify(v);
+        v.use(id, slot, kind);
+        v.assign(id, kind, expr);
+    }
+
+    /**
+     * Sijoitetaan kehykseen expr:n evaluoitu arvo. Id:n tyyppi
+     * valitsee primitiivisen evaluointimetodin.
+     */
+    @Override
+    public void eval(Frame f, ReturnCheck r) {
+        f.store(slot, kind, expr, r);
+    }
+
+    /**
+     * Käännetään expr ja sijoitetaan sen arvo id:n paikkaan.
+     */
+    @Override
+    public void compile(BytecodeEmitter e) {
+        expr.compile(e, kind);
+        e.store(kind, slot);
+    }
+
+    /**
+     * Käännetään expr suoraan id:n rekisteriin.
+     */
+    @Override
+    public void compile(VMCompiler c) {
+        c.statement();
+        expr.compile(c, kind, slot);
+    }
+
+    /**
+     * Muodostetaan expr:n arvon sijoitus id:n paikkaan.
+     */
+    @Override
+    public StmtCode closure() {
+        return ClosureProgram.store(slot, kind, expr);
+    }
+
+    /**
+     * Muodostetaan expr:n arvon sijoitus id:n paikkaan.
+     */
+    @Override
+    public StmtNode specialize() {
+        return new StoreNode(slot, kind, expr.specialize());
+    }
+
+
+    /**
+     * Sijoitus kirjoittaa muuttujaan.
+     */
+    @Override
+    public void countWrites(ConstantFolder c) {
+        c.write(id);
+    }
+
+    /**
+     * Laskostetaan sijoitettava lauseke.
+     */
+    @Override
+    public void fold(ConstantFolder c) {
+        expr = expr.fold(c);
+    }
+
+
+    /**
+     * Kerätään sijoitettavan lausekkeen lukemat muuttujat.
+     */
+    @Override
+    public void countReads(Set<String> reads) {
+        expr.countReads(reads);
+    }
+
+    /**
+     * Sijoitus poistetaan, jos muuttujaa ei lueta, ellei lausekkeen
+     * laskeminen voi epäonnistua.
+     */
+    @Override
+    public void countUses(UseCounts uses) {
+        Set<String> reads = new HashSet<String>();
+        expr.countReads(reads);
+        if (expr.mayFail())
+            uses.read(reads);
+        else
+            uses.define(id, reads);
+    }
+
+    /**
+     * Poistetaan sijoitus, jos muuttujaa ei lueta eikä lausekkeen
+     * laskeminen voi epäonnistua.
+     */
+    @Override
+    public boolean prune(Set<String> reads, List<Stmt> out) {
+        if (!reads.contains(id) && !expr.mayFail())
+            return true;
+        out.add(this);
+        return false;
+    }
+
+
+    /**
+     * Siirretään sijoitettavan lausekkeen invariantit osat.
+     */
+    @Override
+    public void hoist(LoopHoister h) {
+        expr = expr.hoist(h);
+    }
+
+
+    /**
+     * Sijoitus on kertymä, jos lauseke lisää muuttujaan jotain.
+     */
+    @Override
+    public Accumulator accumulator() {
+        return expr.accumulator(id, slot, kind);
+    }
+
+
+    /**
+     * Tarkistetaan sijoitettavan lausekkeen taulukon haut.
+     */
+    @Override
+    public void checkBounds(BoundsChecker b) {
+        expr.checkBounds(b);
+    }
+
+
+    /**
+     * Palautetaan sijoitettavan muuttujan tunniste.
+     * @return Tunniste
+     */
+    public String getID() {
+        return id;
+    }
+
+    /**
+     * Palautetaan sijoitettavan muuttujan paikka kehyksessä.
+     * @return Paikka
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Palautetaan sijoitettavan muuttujan tyyppikirjain.
+     * @return Tyyppikirjain
+     */
+    public char getKind() {
+        return kind;
+    }
+
+    /**
+     * Palautetaan sijoitettava lauseke.
+     * @return Lauseke
+     */
+    public Expr getExpr() {
+        return expr;
+    }
+
+    /**
+     * Sijoitus on sijoitus.
+     */
+    @Override
+    public AssignExpr assignment() {
+        return this;
+    }
+
+    /**
+     * Sijoitus s = s + t[i] on int-taulukon summa.
+     */
+    @Override
+    public Reduction reduction(String counter) {
+        Accumulator a = accumulator();
+        if (a == null || a.subtract || kind != 'I')
+            return null;
+        IndexExpr element = a.step.element(counter);
+        if (element == null)
+            return null;
+        return new Reduction(Reductions.SUM, element.getID(), element.getSlot(), id, slot, null);
+    }
+
+
+    /**
+     * Käsitellään expr, jonka arvo on tämän jälkeen saatavilla muuttujassa id.
+     */
+    @Override
+    public void cse(ValueNumbering v) {
+        expr = expr.cse(v);
+        v.assign(id, kind, expr);
+    }
+}
+
+
+/**
+ * Luokka int-taulukon sijoittamista varten.
+ * Luokalla on id ja int-taulukko.
+ */
+class AssignArray extends Assign {
+    private static final long serialVersionUID = 1L;
+
+    private String id;
+    private int slot;
+    private int[] consts;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param id Sijoitettava tunniste/id
+     * @param consts Sijoitettava int-taulukko
+     */
+    public AssignArray(String id, int[] consts) {
+        this.id = id;
+        this.consts = consts;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print(" ( ");
+        pw.printf(" %s ", id);
+        for (int a : consts) {
+            pw.printf(" %s ", a);
+        }
+        pw.print(" ) ");
+    }
+    
+    /**
+     * Tyyppitarkastetaan AssignArray vaihe vaiheelta.
+     */
+    @Override
+    public void typecheck(HashMap<String, Type> tenv) {
+        // Tarkastetaan, onko vastaava id jo lisätty tenviin.
+        if (!tenv.containsKey(id)) {
+            System.err.printf("Variable name %s has not been declared.\n", id);
+        }
+        // Tarkastetaan, onko id:n tyyppi IntSequence.
+        if (!tenv.get(id).isIntSequence()) {
+            System.err.printf("%s type is not IntSequence type.\n", id);
+        }
+    }
+
+    /**
+     * Lisätään env:iin id ja consts.
+     */
+    @Override
+    public void eval(HashMap<String, Object> env, ReturnCheck r) {
+        env.put(id, consts);
+    }
+
+    /**
+     * Ratkaistaan id:n paikka kehyksessä.
+     */
+    @Override
+    public void resolve(FrameLayout layout) {
+        slot = layout.slot(id);
+    }
+
+    /**
+     * Tarkistetaan sijoitus esiteltyyn taulukkoon.
+     */
+    @Override
+    public void verify(TreeVerifier v) {
+        v.use(id, slot, '[');
+    }
+
+    /**
+     * Sijoitetaan kehykseen consts.
+     */
+    @Override
+    public void eval(Frame f, ReturnCheck r) {
+        f.arrays[slot] = consts;
+    }
+
+    /**
+     * Käännetään consts:n sijoitus id:n paikkaan.
+     */
+    @Override
+    public void compile(BytecodeEmitter e) {
+        e.arrayConst(consts);
+        e.store('[', slot);
+    }
+
+    /**
+     * Käännetään consts:n sijoitus id:n rekisteriin.
+     */
+    @Override
+    public void compile(VMCompiler c) {
+        c.statement();
+        c.move('[', c.aconst(consts), slot);
+    }
+
+    /**
+     * Muodostetaan consts:n sijoitus id:n paikkaan.
+     */
+    @Override
+    public StmtCode closure() {
+        int s = slot;
+        int[] c = consts;
+        return f -> {
+            f.arrays[s] = c;
+            return false;
+        };
+    }
+
+    /**
+     * Muodostetaan consts:n sijoitus id:n paikkaan.
+     */
+    @Override
+    public StmtNode specialize() {
+        return new ArrayStoreNode(slot, consts);
+    }
+
+
+    /**
+     * Sijoitus kirjoittaa muuttujaan.
+     */
+    @Override
+    public void countWrites(ConstantFolder c) {
+        c.write(id);
+    }
+
+
+    /**
+     * Sijoitus poistetaan, jos taulukkoa ei lueta.
+     */
+    @Override
+    public void countUses(UseCounts uses) {
+        uses.define(id, new HashSet<String>());
+    }
+
+    /**
+     * Poistetaan sijoitus, jos taulukkoa ei lueta.
+     */
+    @Override
+    public boolean prune(Set<String> reads, List<Stmt> out) {
+        if (!reads.contains(id))
+            return true;
+        out.add(this);
+        return false;
+    }
+}
+
+/**
+ * Luokka, jolla merkataan silmukan (ForLoop) toiston jälkeistä indeksin
+ * kasvatus tai vähennys operaatiota (esim. perinteinen i++).
+ */
+class Iterator implements Serializable, Cloneable {
+    private static final long serialVersionUID = 1L;
+
+    private String id;
+    private int slot;
+    private char kind;
+    private String op;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param id Sijoitettava id
+     * @param op Sijoitettava operaation merkkijonona (++ tai --)
+     */
+    public Iterator(String id, String op) {
+        this.id = id;
+        this.op = op;
+    }
+
+    /**
+     * Kopioidaan iteraattori (ks. LoopUnroller).
+     * @return Kopio
+     */
+    public Iterator copy() {
+        try {
+            return (Iterator) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     * @param pw Printwriter syntaksipuun kirjoittamiseen
+     */
+    public void printTree(PrintWriter pw) {
+        pw.print(" ( ");
+        pw.printf("%s", id);
+        pw.print(op);
+        pw.print(" ) ");
+    }
+
+    /**
+     * Tyyppitarkastetaan AssignArray vaihe vaiheelta.
+     * @param tenv Tyyppiympäristö
+     */
+    public void typecheck(HashMap<String, Type> tenv) {
+        // Tarkastetaan, onko vastaava id jo lisätty tenviin. 
+        if (!tenv.containsKey(id)) {
+            System.err.printf("%s has not been declared.\n", id);
+        }
+        // Tarkastetaan, että id:n tyyppi on int.
+        if (!tenv.get(id).isInt()) {
+            System.err.printf(
+                    "Incompatible type in iterator, requires int was %s.\n",
+                    tenv.get(id));
+        }
+    }
+
+    /**
+     * Evaluoidaan Iteraattorin arvo ja päivitetään uusi arvo enviin.
+     * @param env Ymrpäristö
+     * @param r ReturnCheck-olio
+     */
+    public void eval(HashMap<String, Object> env, ReturnCheck r) {
+        // Haetaan Iteraattorin arvo envistä id:n avulla.
+        Object idvalue = env.get(id);
+        
+        // Jos op on ++, korotetaan arvoa yhdellä, muuten vähennetään yhdellä.
+        int delta = op.equals("++") ? 1 : -1;
+        
+        // Lisätään env:iin id ja päivitetty arvo. Arvo pysyy samaa tyyppiä.
+        // Id-avain löytyy envistä jo ennestään, joten id:lle päivitetään uusi arvo.
+        if (idvalue instanceof Integer) {
+            env.put(id, Integer.valueOf((Integer) idvalue + delta));
+        } else {
+            env.put(id, Double.valueOf((Double) idvalue + delta));
+        }
+    }
+
+    /**
+     * Ratkaistaan id:n paikka kehyksessä.
+     * @param layout Kehyksen asettelu
+     */
+    public void resolve(FrameLayout layout) {
+        slot = layout.slot(id);
+        Type t = layout.type(id);
+        kind = t != null ? BytecodeEmitter.kind(t) : 'D';
+    }
+
+    /**
+     * Tarkistetaan iteraattorin muuttuja, joka on int tai double.
+     * @param v Tarkistaja
+     */
+    public void verify(TreeVerifier v) {
+        v.use(id, slot, kind);
+        v.check(kind == 'I' || kind == 'D', id + op + " on a variable of kind " + kind);
+    }
+
+    /**
+     * Päivitetään iteraattorin arvo kehykseen.
+     * @param f Kehys
+     * @param r ReturnCheck-olio
+     */
+    public void eval(Frame f, ReturnCheck r) {
+        if (kind == 'I') {
+            if (op.equals("++"))
+                f.ints[slot]++;
+            else
+                f.ints[slot]--;
+        } else {
+            if (op.equals("++"))
+                f.nums[slot]++;
+            else
+                f.nums[slot]--;
+        }
+    }
+
+    /**
+     * Käännetään iteraattorin arvon kasvatus tai vähennys.
+     * @param e Tavukoodin kirjoittaja
+     */
+    public void compile(BytecodeEmitter e) {
+        if (kind == 'I') {
+            e.iinc(slot, op.equals("++") ? 1 : -1);
+            return;
+        }
+        e.load('D', slot);
+        e.dconst(1);
+        e.op(op.equals("++") ? BytecodeEmitter.DADD : BytecodeEmitter.DSUB, -2);
+        e.store('D', slot);
+    }
+
+    /**
+     * Käännetään iteraattorin arvon kasvatus tai vähennys.
+     * @param c Virtuaalikoneen kääntäjä
+     */
+    public void compile(VMCompiler c) {
+        if (kind == 'I')
+            c.emit(op.equals("++") ? VMProgram.INCI : VMProgram.DECI, slot);
+        else
+            c.emit(op.equals("++") ? VMProgram.INCD : VMProgram.DECD, slot);
+    }
+
+    /**
+     * Muodostetaan iteraattorin sulkeuma. Operaatio valitaan jo tässä.
+     * @return Iteraattorin sulkeuma
+     */
+    public StmtCode closure() {
+        int s = slot;
+        if (kind == 'I') {
+            int delta = op.equals("++") ? 1 : -1;
+            return f -> {
+                f.ints[s] += delta;
+                return false;
+            };
+        }
+        if (op.equals("++")) {
+            return f -> {
+                f.nums[s]++;
+                return false;
+            };
+        }
+        return f -> {
+            f.nums[s]--;
+            return false;
+        };
+    }
+
+    /**
+     * Muodostetaan iteraattorin solmu.
+     * @return Iteraattorin solmu
+     */
+    public StmtNode specialize() {
+        return new IncrementNode(slot, kind, op.equals("++") ? 1 : -1);
+    }
+
+
+    /**
+     * Iteraattori kirjoittaa muuttujaan.
+     * @param c Vakiolaskostuksen tila
+     */
+    public void countWrites(ConstantFolder c) {
+        c.write(id);
+    }
+
+
+    /**
+     * Iteraattori lukee muuttujansa.
+     * @param reads Luettujen muuttujien joukko
+     */
+    public void countReads(Set<String> reads) {
+        reads.add(id);
+    }
+
+
+    /**
+     * Palautetaan iteraattorin muuttujan tunniste.
+     * @return Tunniste
+     */
+    public String getID() {
+        return id;
+    }
+
+    /**
+     * Palautetaan iteraattorin muuttujan paikka kehyksessä.
+     * @return Paikka
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Palautetaan int-laskurin askel.
+     * @return 1 (++), -1 (--) tai 0, jos muuttuja ei ole int
+     */
+    public int step() {
+        if (kind != 'I')
+            return 0;
+        return op.equals("++") ? 1 : -1;
+    }
+}
+
+
+/**
+ * Exprien (lauseke/expression) abstrakti yläluokka, jonka alle kuuluvat VarExpr,
+ * IndexExpr, ConstExpr, ParenExpr, MulExpr, AddExpr, LessthanExpr, GreaterthanExpr,
+ * EqualExpr ja LengthExpr.
+ * Tämän luokan metodeihin ei kuulu koskaan tulla. Luokka on luotu perimisen takia. 
+ */
+abstract class Expr implements Serializable, Cloneable {
+    private static final long serialVersionUID = 1L;
+
+    private Type type;
+    private boolean typed;
+
+    /**
+     * Kopioidaan lauseke rakenteellisesti (ks. LoopUnroller). Kopio on
+     * ratkaistu ja tyypitetty kuten lauseke. Oletuksena lausekkeella ei ole
+     * alilausekkeita, joten kopio on matala.
+     * @return Kopio
+     */
+    public Expr copy() {
+        try {
+            return (Expr) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     * @param pw Printwriter syntaksipuun kirjoittamiseen
+     */
+    public void printTree(PrintWriter pw) {
+        pw.print(" ( expr ) ");
+    }
+
+    /**
+     * Tyyppitarkastus. Tarkastus tehdään vain kerran (ks. type).
+     * @param tenv Tyyppiympäristö
+     */
+    public void typecheck(HashMap<String, Type> tenv) {
+        type(tenv);
+    }
+
+    /**
+     * Palautetaan expr:n tyyppi. Tyyppi lasketaan ja tarkastetaan
+     * ensimmäisellä kutsulla (ks. check) ja tallennetaan solmuun, joten
+     * alilausekkeita ei käydä läpi uudelleen ja virheilmoitukset
+     * tulostetaan vain kerran.
+     * @param tenv Tyyppiympäristö
+     * @return Expr-olion tyyppi tai null, jos tyyppi on virheellinen
+     */
+    public Type type(HashMap<String, Type> tenv) {
+        if (!typed) {
+            type = check(tenv);
+            typed = true;
+        }
+        return type;
+    }
+
+    /**
+     * Tyyppitarkastetaan expr ja palautetaan sen tyyppi. Alilausekkeiden
+     * tyypit haetaan type-metodilla. Metodi luotu perintää varten.
+     * @param tenv Tyyppiympäristö
+     * @return Expr-olion tyyppi tai null, jos tyyppi on virheellinen
+     */
+    protected Type check(HashMap<String, Type> tenv) {
+        System.err.println("Incorrect typecheck of expr.");
+        return null;
+    }
+
+    /**
+     * Palautetaan tyyppitarkastuksessa solmuun tallennettu tyyppi.
+     * @return Tyyppi tai null, jos tyyppi on virheellinen tai solmu on
+     *         luotu tyyppitarkastuksen jälkeen (esim. optimoinnissa)
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Evaluointi. Metodi luotu perintää varten.
+     * @param env Ympäristö
+     * @param r ReturnCheck-olio
+     * @return Expr:n evaluoitu arvo osbjectina
+     */
+    public Object eval(HashMap<String, Object> env, ReturnCheck r) {
+        System.err.println("Incorrect use of expr in method eval.");
+        return null;
+    }
+
+    /**
+     * Muuttujien paikkojen ratkaiseminen. Metodi luotu perintää varten.
+     * @param layout Kehyksen asettelu
+     */
+    public void resolve(FrameLayout layout) {
+        //
+    }
+
+    /**
+     * Lausekkeen tarkistus. Oletuksena lausekkeessa ei ole muuttujia eikä
+     * alilausekkeita (vakiot).
+     * @param v Tarkistaja
+     */
+    public void verify(TreeVerifier v) {
+        //
+    }
+
+    /**
+     * Evaluointi kehyksen avulla. Metodi luotu perintää varten.
+     * @param f Kehys
+     * @param r ReturnCheck-olio
+     * @return Expr:n evaluoitu arvo objectina
+     */
+    public Object eval(Frame f, ReturnCheck r) {
+        System.err.println("Incorrect use of expr in method eval.");
+        return null;
+    }
+
+    /**
+     * Evaluointi kehyksen avulla primitiivisenä doublena. Oletustoteutus
+     * purkaa evalin palauttaman olion. Aliluokat korvaavat metodin, jotta
+     * luvuilla laskeminen ei luo olioita.
+     * @param f Kehys
+     * @param r ReturnCheck-olio
+     * @return Expr:n evaluoitu arvo doublena
+     */
+    public double evalDouble(Frame f, ReturnCheck r) {
+        return ((Number) eval(f, r)).doubleValue();
+    }
+
+    /**
+     * Evaluointi kehyksen avulla primitiivisenä booleanina.
+     * Oletustoteutus purkaa evalin palauttaman olion.
+     * @param f Kehys
+     * @param r ReturnCheck-olio
+     * @return Expr:n evaluoitu arvo booleanina
+     */
+    public boolean evalBoolean(Frame f, ReturnCheck r) {
+        return ((Boolean) eval(f, r)).booleanValue();
+    }
+
+    /**
+     * Evaluointi kehyksen avulla primitiivisenä intinä.
+     * Oletustoteutus katkaisee evalDoublen palauttaman arvon.
+     * @param f Kehys
+     * @param r ReturnCheck-olio
+     * @return Expr:n evaluoitu arvo intinä
+     */
+    public int evalInt(Frame f, ReturnCheck r) {
+        return (int) evalDouble(f, r);
+    }
+
+    /**
+     * Evaluointi kehyksen avulla int-taulukoksi.
+     * @param f Kehys
+     * @param r ReturnCheck-olio
+     * @return Expr:n evaluoitu int-taulukko
+     */
+    public int[] evalArray(Frame f, ReturnCheck r) {
+        return (int[]) eval(f, r);
+    }
+
+    /**
+     * Kääntäminen JVM-tavukoodiksi. Käännetty koodi jättää expr:n arvon
+     * pinoon. Metodi luotu perintää varten.
+     * @param e Tavukoodin kirjoittaja
+     * @return Pinoon jäävän arvon JVM-tyyppikirjain (ks. BytecodeEmitter.kind)
+     */
+    public char compile(BytecodeEmitter e) {
+        throw new IllegalStateException("Incorrect use of expr in method compile.");
+    }
+
+    /**
+     * Käännetään expr niin, että pinoon jää tyypin kind arvo. Int muunnetaan
+     * tarvittaessa doubleksi ja double intiksi.
+     * @param e Tavukoodin kirjoittaja
+     * @param kind Haluttu JVM-tyyppikirjain
+     */
+    public void compile(BytecodeEmitter e, char kind) {
+        e.convert(compile(e), kind);
+    }
+
+    /**
+     * Käännetään expr ehtona: käännetty koodi hyppää kohteeseen onFalse,
+     * jos ehto ei täyty. Oletustoteutus vertaa compilen tulosta nollaan.
+     * @param e Tavukoodin kirjoittaja
+     * @param onFalse Hyppykohde, kun ehto ei täyty
+     */
+    public void compileCondition(BytecodeEmitter e, Label onFalse) {
+        compile(e);
+        e.jump(BytecodeEmitter.IFEQ, onFalse);
+    }
+
+    /**
+     * Palautetaan expr:n arvon JVM-tyyppikirjain (ks. BytecodeEmitter.kind).
+     * Oletuksena expr on double. Metodia voi kutsua vasta, kun muuttujien
+     * paikat on ratkaistu.
+     * @return 'I', 'D', 'Z' tai '['
+     */
+    public char kind() {
+        return 'D';
+    }
+
+    /**
+     * Kääntäminen virtuaalikoneen käskyiksi. Metodi luotu perintää varten.
+     * @param c Virtuaalikoneen kääntäjä
+     * @param dst Kindin mukaisen rekisteritiedoston rekisteri, johon arvo
+     *            sijoitetaan, tai -1, jolloin arvo saa jäädä mihin tahansa
+     *            rekisteriin
+     * @return Rekisteri, jossa expr:n arvo on
+     */
+    public int compile(VMCompiler c, int dst) {
+        throw new IllegalStateException("Incorrect use of expr in method compile.");
+    }
+
+    /**
+     * Käännetään expr tyypin kind rekisteriin. Int muunnetaan tarvittaessa
+     * doubleksi ja double intiksi.
+     * @param c Virtuaalikoneen kääntäjä
+     * @param kind Haluttu rekisteritiedosto
+     * @param dst Rekisteri tai -1
+     * @return Rekisteri, jossa expr:n arvo on
+     */
+    public int compile(VMCompiler c, char kind, int dst) {
+        char own = kind();
+        if (own == kind) {
+            return compile(c, dst);
+        }
+        return c.convert(own, compile(c, -1), kind, dst);
+    }
+
+    /**
+     * Käännetään expr ehtona: käännetty koodi hyppää kohteeseen onFalse,
+     * jos ehto ei täyty.
+     * @param c Virtuaalikoneen kääntäjä
+     * @param onFalse Hyppykohde, kun ehto ei täyty
+     */
+    public void compileCondition(VMCompiler c, Label onFalse) {
+        c.jump(VMProgram.JZ, onFalse, compile(c, -1));
+    }
+
+    /**
+     * Sulkeuman muodostaminen doublena. Int-tyyppisen expr:n arvo
+     * muunnetaan doubleksi. Metodi luotu perintää varten.
+     * @return Expr:n sulkeuma
+     */
+    public DoubleCode closureDouble() {
+        if (kind() == 'I') {
+            IntCode i = closureInt();
+            return f -> i.run(f);
+        }
+        throw new IllegalStateException("Incorrect use of expr in method closureDouble.");
+    }
+
+    /**
+     * Sulkeuman muodostaminen intinä. Double-tyyppisen expr:n arvo
+     * katkaistaan intiksi. Metodi luotu perintää varten.
+     * @return Expr:n sulkeuma
+     */
+    public IntCode closureInt() {
+        if (kind() == 'D') {
+            DoubleCode d = closureDouble();
+            return f -> (int) d.run(f);
+        }
+        throw new IllegalStateException("Incorrect use of expr in method closureInt.");
+    }
+
+    /**
+     * Sulkeuman muodostaminen totuusarvona. Metodi luotu perintää varten.
+     * @return Expr:n sulkeuma
+     */
+    public BooleanCode closureBoolean() {
+        throw new IllegalStateException("Incorrect use of expr in method closureBoolean.");
+    }
+
+    /**
+     * Sulkeuman muodostaminen int-taulukkona. Metodi luotu perintää varten.
+     * @return Expr:n sulkeuma
+     */
+    public ArrayCode closureArray() {
+        throw new IllegalStateException("Incorrect use of expr in method closureArray.");
+    }
+
+    /**
+     * Itseään erikoistavan solmun muodostaminen. Metodi luotu perintää varten.
+     * @return Expr:n solmu
+     */
+    public ExprNode specialize() {
+        throw new IllegalStateException("Incorrect use of expr in method specialize.");
+    }
+
+
+    /**
+     * Tarkistetaan, onko expr vakio. Vakion arvo voidaan evaluoida
+     * ilman kehystä.
+     * @return true, jos expr on vakio
+     */
+    public boolean isConstant() {
+        return false;
+    }
+
+    /**
+     * Vakiolaskostus. Palautetaan expr:n sijaan käytettävä lauseke, jonka
+     * vakio-osat on laskettu valmiiksi. Metodia voi kutsua vasta, kun
+     * muuttujien paikat on ratkaistu. Oletuksena expr ei muutu.
+     * @param c Vakiolaskostuksen tila
+     * @return Laskostettu lauseke
+     */
+    public Expr fold(ConstantFolder c) {
+        return this;
+    }
+
+
+    /**
+     * Luettujen muuttujien kerääminen. Oletuksena expr ei lue muuttujia.
+     * @param reads Luettujen muuttujien joukko
+     */
+    public void countReads(Set<String> reads) {
+        //
+    }
+
+    /**
+     * Tarkistetaan, voiko expr:n evaluointi epäonnistua (nollalla jakaminen
+     * tai indeksi rajojen ulkopuolella). Tällaista lauseketta ei poisteta,
+     * vaikka sen arvoa ei käytettäisi.
+     * @return true, jos evaluointi voi epäonnistua
+     */
+    public boolean mayFail() {
+        return false;
+    }
+
+
+    /**
+     * Invarianttien osalausekkeiden siirtäminen silmukan edelle.
+     * Palautetaan expr:n sijaan käytettävä lauseke. Oletuksena expr ei muutu,
+     * koska muuttujan tai vakion lukemista ei kannata siirtää.
+     * @param h Ympäröivän silmukan siirtäjä
+     * @return Lauseke, jonka invariantit osat lukevat apumuuttujia
+     */
+    public Expr hoist(LoopHoister h) {
+        return this;
+    }
+
+
+    /**
+     * Tarkistetaan, onko expr muuttujan id lukeminen.
+     * @param id Muuttujan tunniste
+     * @return true, jos expr on muuttuja id
+     */
+    public boolean isVar(String id) {
+        return false;
+    }
+
+    /**
+     * Palautetaan int-muuttujan id yläraja, jos expr on muotoa id < b
+     * tai b > id.
+     * @param id Laskurin tunniste
+     * @return Raja b tai null
+     */
+    public Expr upperBound(String id) {
+        return null;
+    }
+
+    /**
+     * Palautetaan int-muuttujan id alaraja, jos expr on muotoa id > b
+     * tai b < id.
+     * @param id Laskurin tunniste
+     * @return Raja b tai null
+     */
+    public Expr lowerBound(String id) {
+        return null;
+    }
+
+    /**
+     * Tarkistetaan, onko expr muotoa id + e, e + id tai id - e, kun expr
+     * sijoitetaan muuttujaan id. Laskutoimituksen on oltava muuttujan tyyppiä.
+     * @param id Muuttujan tunniste
+     * @param slot Muuttujan paikka kehyksessä
+     * @param kind Muuttujan tyyppikirjain
+     * @return Kertymä tai null
+     */
+    public Accumulator accumulator(String id, int slot, char kind) {
+        return null;
+    }
+
+
+    /**
+     * Taulukon hakujen todistaminen turvallisiksi. Oletuksena expr ei
+     * sisällä hakuja.
+     * @param b Rajojen tarkistuksen tila
+     */
+    public void checkBounds(BoundsChecker b) {
+        //
+    }
+
+    /**
+     * Palautetaan taulukon tunniste, jos expr on t.length.
+     * @return Taulukon tunniste tai null
+     */
+    public String lengthOf() {
+        return null;
+    }
+
+    /**
+     * Palautetaan taulukon tunniste, jos expr on t.length - k, jossa k on
+     * int-vakio ja k >= 1. Tällöin expr on enintään taulukon viimeinen indeksi.
+     * @return Taulukon tunniste tai null
+     */
+    public String lastIndexOf() {
+        return null;
+    }
+
+
+    /**
+     * Palautetaan taulukon haku, jos expr on t[counter] ja haku on
+     * todistettu rajojen sisäiseksi.
+     * @param counter Laskurin tunniste
+     * @return Taulukon haku tai null
+     */
+    public IndexExpr element(String counter) {
+        return null;
+    }
+
+    /**
+     * Tunnistetaan reduktio, jos expr on if-lauseen ehto (ks. Reduction).
+     * @param counter Laskurin tunniste
+     * @param then If-lauseen ainoa statement
+     * @return Reduktio tai null
+     */
+    public Reduction reduction(String counter, AssignExpr then) {
+        return null;
+    }
+
+
+    /**
+     * Palautetaan lausekkeen rakenteesta muodostettu avain, joka on sama
+     * kaikille lausekkeille, joilla on varmasti sama arvo, jos niiden
+     * lukemat muuttujat eivät muutu (ks. ValueNumbering).
+     * @return Avain tai null, jos lauseketta ei numeroida
+     */
+    public String key() {
+        return null;
+    }
+
+    /**
+     * Tarkistetaan, kannattaako lausekkeen arvo käyttää uudelleen, eli onko
+     * se laskutoimitus, vertailu tai taulukon haku.
+     * @return true, jos lauseke kannattaa korvata muuttujalla
+     */
+    public boolean isReusable() {
+        return false;
+    }
+
+    /**
+     * Toistuvien lausekkeiden poistaminen. Palautetaan lauseke, jolla tämä
+     * lauseke korvataan. Oletuksena lauseke ei muutu.
+     * @param v Arvojen numeroinnin tila
+     * @return Lauseke
+     */
+    public Expr cse(ValueNumbering v) {
+        return this;
+    }
+}
+
+
+/**
+ * Luokka, joka edustaa muuttujaa.
+ */
+class VarExpr extends Expr {
+    private static final long serialVersionUID = 1L;
+
+    private String id;
+    private int slot;
+    private char kind;
+
+    /**
+     * Sijoitetaan parametrina tuotu id.
+     * @param id Sijoitettava tunniste/id
+     */
+    public VarExpr(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Tyyppitarkastus. Id:n tulee löytyä tenvistä, ja sen tyyppi on expr:n
+     * tyyppi.
+     */
+    @Override
+    protected Type check(HashMap<String, Type> tenv) {
+        if (tenv.containsKey(id)) {
+            return tenv.get(id);
+        }
+        System.err.printf("Variable name %s has not been declared.\n", id);
+        return null;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.printf(" %s ", id);
+    }
+
+    /**
+     * Evaluointi. Palautetaan envistä id:llä löytyvä arvo.
+     */
+    @Override
+    public Object eval(HashMap<String, Object> env, ReturnCheck r) {
+        return env.get(id);
+    }
+
+    /**
+     * Ratkaistaan id:n paikka ja tyyppi kehyksessä.
+     */
+    @Override
+    public void resolve(FrameLayout layout) {
+        slot = layout.slot(id);
+        Type t = layout.type(id);
+        kind = t != null ? BytecodeEmitter.kind(t) : 'D';
+    }
+
+    /**
+     * Tarkistetaan muuttujan lukeminen.
+     */
+    @Override
+    public void verify(TreeVerifier v) {
+        v.use(id, slot, kind);
+    }
+
+    /**
+     * Evaluointi. Palautetaan kehyksestä id:n paikassa oleva arvo oliona.
+     */
+    @Override
+    public Object eval(Frame f, ReturnCheck r) {
+        return f.load(slot, kind);
+    }
+
+    /**
+     * Palautetaan kehyksestä id:n paikassa oleva luku.
+     */
+    @Override
+    public double evalDouble(Frame f, ReturnCheck r) {
+        if (kind == 'I')
+            return f.ints[slot];
+        return f.nums[slot];
+    }
+
+    /**
+     * Palautetaan kehyksestä id:n paikassa oleva int.
+     */
+    @Override
+    public int evalInt(Frame f, ReturnCheck r) {
+        if (kind == 'I')
+            return f.ints[slot];
+        return (int) f.nums[slot];
+    }
+
+    /**
+     * Palautetaan kehyksestä id:n paikassa oleva totuusarvo.
+     */
+    @Override
+    public boolean evalBoolean(Frame f, ReturnCheck r) {
+        return f.bools[slot];
+    }
+
+    /**
+     * Palautetaan kehyksestä id:n paikassa oleva int-taulukko.
+     */
+    @Override
+    public int[] evalArray(Frame f, ReturnCheck r) {
+        return f.arrays[slot];
+    }
+
+    /**
+     * Ladataan id:n paikan arvo pinoon.
+     */
+    @Override
+    public char compile(BytecodeEmitter e) {
+        e.load(kind, slot);
+        return kind;
+    }
+
+    /**
+     * Palautetaan id:n tyypin JVM-tyyppikirjain.
+     */
+    @Override
+    public char kind() {
+        return kind;
+    }
+
+    /**
+     * Muuttuja on valmiiksi omassa rekisterissään, joten käskyä tarvitaan
+     * vain, jos arvo halutaan toiseen rekisteriin.
+     */
+    @Override
+    public int compile(VMCompiler c, int dst) {
+        return c.move(kind(), slot, dst);
+    }
+
+    /**
+     * Muodostetaan id:n paikan luku.
+     */
+    @Override
+    public DoubleCode closureDouble() {
+        if (kind == 'I')
+            return super.closureDouble();
+        int s = slot;
+        return f -> f.nums[s];
+    }
+
+    /**
+     * Muodostetaan id:n paikan int.
+     */
+    @Override
+    public IntCode closureInt() {
+        if (kind != 'I')
+            return super.closureInt();
+        int s = slot;
+        return f -> f.ints[s];
+    }
+
+    /**
+     * Muodostetaan id:n paikan totuusarvo.
+     */
+    @Override
+    public BooleanCode closureBoolean() {
+        int s = slot;
+        return f -> f.bools[s];
+    }
+
+    /**
+     * Muodostetaan id:n paikan int-taulukko.
+     */
+    @Override
+    public ArrayCode closureArray() {
+        int s = slot;
+        return f -> f.arrays[s];
+    }
+
+    /**
+     * Muodostetaan id:n paikan luku.
+     */
+    @Override
+    public ExprNode specialize() {
+        if (kind == 'I')
+            return new IntLocalNode(slot);
+        return new LocalNode(slot);
+    }
+
+
+    /**
+     * Korvataan vakiomuuttuja sen arvolla.
+     */
+    @Override
+    public Expr fold(ConstantFolder c) {
+        Expr value = c.value(id);
+        return value != null ? value : this;
+    }
+
+
+    /**
+     * Muuttuja luetaan.
+     */
+    @Override
+    public void countReads(Set<String> reads) {
+        reads.add(id);
+    }
+
+
+    /**
+     * Muuttuja on id, jos tunnisteet ovat samat.
+     */
+    @Override
+    public boolean isVar(String id) {
+        return this.id.equals(id);
+    }
+
+
+    /**
+     * Muuttujan avain on sen paikka.
+     */
+    @Override
+    public String key() {
+        return "v" + slot;
+    }
+}
+
+/**
+ * Luokka, joka edustaa int-taulukon indeksiä.
+ * Id edustaa muuttujan nimeä ja index indeksiä, jolla osoitetaan tiettyä taulukon arvoa.
+ */
+class IndexExpr extends Expr {
+    private static final long serialVersionUID = 1L;
+
+    private String id;
+    private int slot;
+    private char indexKind;
+    private Expr index;
+    private boolean checked = true;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param id Sijoitettava tunniste/id
+     * @param index Sijoitettava Expr indeksi
+     */
+    public IndexExpr(String id, Expr index) {
+        this.id = id;
+        this.index = index;
+    }
+
+    /**
+     * Kopioidaan haku ja indeksi.
+     */
+    @Override
+    public Expr copy() {
+        IndexExpr copy = (IndexExpr) super.copy();
+        copy.index = index.copy();
+        return copy;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print(" ( ");
+        pw.print(id);
+        pw.print("[");
+        index.printTree(pw);
+        pw.print("]");
+        pw.print(" ) ");
+    }
+
+    /**
+     * Tyyppitarkastus, jossa tarkastetaan, että id löytyy tenvistä,
+     * id:n arvon tyyppi on IntSequence (int-taulukko) ja indexin arvolla pystytään
+     * osoittamaan paikkaa taulukossa. Taulukon alkio on int.
+     */
+    @Override
+    protected Type check(HashMap<String, Type> tenv) {
+        if (!tenv.containsKey(id)) {
+            System.err.printf("Variable name %s has not been declared.\n", id);
+        }
+        if (!tenv.get(id).isIntSequence()) {
+            System.err.printf("Variable %s is not int array.\n", id);
+        }
+        // Jos indexin tyyppi on virheellinen, virhe on jo ilmoitettu.
+        Type i = index.type(tenv);
+        if (i != null && !i.isInt()) {
+            System.err.println("Array index must evaluate to integer");
+        }
+        return Type.INT;
+    }
+
+    /**
+     * Evaluoidaan int-taulukosta arvo kohdasta index.
+     */
+    @Override
+    public Integer eval(HashMap<String, Object> env, ReturnCheck r) {
+        // Alustetaan taulukko t noutamalla id:n arvo env:stä
+        int[] t = (int[]) env.get(id);
+        // Evaluoidaan indexin arvo
+        Number d = (Number) index.eval(env, r);
+        if (!checked)
+            return Integer.valueOf(t[d.intValue()]);
+
+        // Tarkistetaan onko d:n arvo taulukon t rajojen sisällä.
+        if (d.doubleValue() > t.length - 1 || d.doubleValue() < 0) {
+            throw new ExecutionError(String.format("Index out of bounds, index was %s.", d));
+        }
+        // Palautetaan taulukosta t arvo, joka sijaitsee indeksissä d.
+        return Integer.valueOf(t[d.intValue()]);
+    }
+
+    /**
+     * Ratkaistaan id:n ja indexin muuttujien paikat kehyksessä.
+     */
+    @Override
+    public void resolve(FrameLayout layout) {
+        slot = layout.slot(id);
+        index.resolve(layout);
+        indexKind = index.kind();
+    }
+
+    /**
+     * Tarkistetaan taulukon ja indeksin lukeminen. Indeksin tyyppi on
+     * tallennettu ratkaistaessa.
+     */
+    @Override
+    public void verify(TreeVerifier v) {
+        v.use(id, slot, '[');
+        index.verify(v);
+        v.expect(index, id + " index", "ID");
+        v.check(indexKind == index.kind(), id + " index has stale kind " + indexKind);
+    }
+
+    /**
+     * Evaluoidaan kehyksessä olevasta int-taulukosta arvo kohdasta index.
+     */
+    @Override
+    public Integer eval(Frame f, ReturnCheck r) {
+        return Integer.valueOf(evalInt(f, r));
+    }
+
+    /**
+     * Evaluoidaan int-taulukosta arvo kohdasta index ilman olioiden luomista.
+     */
+    @Override
+    public int evalInt(Frame f, ReturnCheck r) {
+        if (!checked)
+            return f.arrays[slot][index.evalInt(f, r)];
+        if (indexKind == 'I')
+            return load(f.arrays[slot], index.evalInt(f, r));
+        return load(f.arrays[slot], index.evalDouble(f, r));
+    }
+
+    /**
+     * Palautetaan taulukon t arvo kohdasta i. Rajojen ulkopuolisesta
+     * indeksistä heitetään ExecutionError.
+     * Myös käännetyt ohjelmat kutsuvat tätä metodia.
+     * @param t Int-taulukko
+     * @param i Indeksi
+     * @return Taulukon arvo kohdassa i
+     */
+    static int load(int[] t, int i) {
+        if (i < 0 || i >= t.length) {
+            throw new ExecutionError(String.format("Index out of bounds, index was %s.", i));
+        }
+        return t[i];
+    }
+
+    /**
+     * Palautetaan taulukon t arvo double-indeksin d kohdasta. Rajojen
+     * ulkopuolisesta indeksistä heitetään sama ExecutionError kuin evalissa.
+     * Myös käännetyt ohjelmat kutsuvat tätä metodia.
+     * @param t Int-taulukko
+     * @param d Indeksi
+     * @return Taulukon arvo kohdassa d
+     */
+    static int load(int[] t, double d) {
+        // Tarkistetaan onko d:n arvo taulukon t rajojen sisällä.
+        if (d > t.length - 1 || d < 0) {
+            throw new ExecutionError(String.format("Index out of bounds, index was %s.", d));
+        }
+        return t[(int) d];
+    }
+
+    /**
+     * Evaluoidaan int-taulukosta arvo kohdasta index doublena.
+     */
+    @Override
+    public double evalDouble(Frame f, ReturnCheck r) {
+        return evalInt(f, r);
+    }
+
+    /**
+     * Käännetään taulukon arvon haku. Rajojen tarkistus tehdään samassa
+     * staattisessa metodissa kuin kehyksen avulla evaluoitaessa, ellei
+     * indeksiä ole todistettu rajojen sisäiseksi.
+     */
+    @Override
+    public char compile(BytecodeEmitter e) {
+        e.load('[', slot);
+        if (!checked) {
+            index.compile(e, 'I');
+            e.op(BytecodeEmitter.IALOAD, -1);
+            return 'I';
+        }
+        if (index.compile(e) == 'I') {
+            e.invokestatic("IndexExpr", "load", "([II)I", -1);
+        } else {
+            e.invokestatic("IndexExpr", "load", "([ID)I", -2);
+        }
+        return 'I';
+    }
+
+    /**
+     * Taulukon arvo on int.
+     */
+    @Override
+    public char kind() {
+        return 'I';
+    }
+
+    /**
+     * Käännetään taulukon arvon haku.
+     */
+    @Override
+    public int compile(VMCompiler c, int dst) {
+        int i = index.compile(c, -1);
+        int d = c.target('I', dst);
+        if (!checked)
+            c.emit(VMProgram.LOADU, d, slot, i);
+        else
+            c.emit(indexKind == 'I' ? VMProgram.LOADA : VMProgram.LOADAD, d, slot, i);
+        return d;
+    }
+
+    /**
+     * Muodostetaan taulukon arvon haku.
+     */
+    @Override
+    public IntCode closureInt() {
+        int s = slot;
+        if (!checked) {
+            IntCode i = index.closureInt();
+            return f -> f.arrays[s][i.run(f)];
+        }
+        if (indexKind == 'I') {
+            IntCode i = index.closureInt();
+            return f -> load(f.arrays[s], i.run(f));
+        }
+        DoubleCode d = index.closureDouble();
+        return f -> load(f.arrays[s], d.run(f));
+    }
+
+    /**
+     * Muodostetaan taulukon arvon haku.
+     */
+    @Override
+    public ExprNode specialize() {
+        if (!checked)
+            return new UncheckedIndexNode(slot, index.specialize());
+        return new IndexNode(slot, index.specialize(), indexKind == 'I');
+    }
+
+
+    /**
+     * Laskostetaan indeksi. Jos taulukko ja indeksi ovat vakioita ja
+     * indeksi on rajojen sisällä, korvataan haku taulukon arvolla.
+     */
+    @Override
+    public Expr fold(ConstantFolder c) {
+        index = index.fold(c);
+        int[] t = c.array(id);
+        if (t != null && index.isConstant() && index.kind() != 'Z') {
+            double d = index.evalDouble(null, null);
+            if (d >= 0 && d <= t.length - 1)
+                return new ConstExpr(t[(int) d]);
+        }
+        return this;
+    }
+
+
+    /**
+     * Taulukko ja indeksin muuttujat luetaan.
+     */
+    @Override
+    public void countReads(Set<String> reads) {
+        reads.add(id);
+        index.countReads(reads);
+    }
+
+    /**
+     * Indeksi voi olla rajojen ulkopuolella, ellei sitä ole todistettu
+     * rajojen sisäiseksi.
+     */
+    @Override
+    public boolean mayFail() {
+        return checked || index.mayFail();
+    }
+
+
+    /**
+     * Taulukon haku voi epäonnistua, joten siirretään vain indeksin
+     * invariantit osat.
+     */
+    @Override
+    public Expr hoist(LoopHoister h) {
+        index = index.hoist(h);
+        return this;
+    }
+
+
+    /**
+     * Tarkistetaan indeksin taulukon haut. Jos int-indeksi on todistetusti
+     * rajojen sisällä, rajojen tarkistus jätetään pois.
+     */
+    @Override
+    public void checkBounds(BoundsChecker b) {
+        index.checkBounds(b);
+        if (indexKind == 'I' && b.inBounds(id, index))
+            checked = false;
+    }
+
+
+    /**
+     * Palautetaan taulukon tunniste.
+     * @return Tunniste
+     */
+    public String getID() {
+        return id;
+    }
+
+    /**
+     * Palautetaan taulukon paikka kehyksessä.
+     * @return Paikka
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Haku on t[counter], jos indeksi on laskuri ja haku on tarkistamaton.
+     */
+    @Override
+    public IndexExpr element(String counter) {
+        return !checked && index.isVar(counter) ? this : null;
+    }
+
+
+    /**
+     * Tarkistamattoman haun avain muodostuu taulukosta ja indeksistä.
+     */
+    @Override
+    public String key() {
+        String i = index.key();
+        if (checked || i == null)
+            return null;
+        return "[" + slot + "," + i + "]";
+    }
+
+    /**
+     * Haku kannattaa käyttää uudelleen.
+     */
+    @Override
+    public boolean isReusable() {
+        return true;
+    }
+
+    /**
+     * Korvataan toistuva haku tai käsitellään indeksi.
+     */
+    @Override
+    public Expr cse(ValueNumbering v) {
+        String key = mayFail() ? null : key();
+        Expr known = v.lookup(key, this);
+        if (known != null)
+            return known;
+        index = index.cse(v);
+        return v.define(key, this);
+    }
+}
+
+
+/**
+ * Luokka, joka edustaa kokonaislukuarvoja.
+ * Val kertoo kokonaislukuarvon.
+ */
+class ConstExpr extends Expr {
+    private static final long serialVersionUID = 1L;
+
+    private int val;
+
+    /**
+     * Sijoitetaan parametrina tuotu arvo.
+     * @param val Sijoitettava kokonaislukuarvo
+     */
+    public ConstExpr(int val) { // 
+        this.val = val;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.printf(" %s ", val);
+    }
+
+    /**
+     * Tyyppitarkastus, jossa ei tarkasteta mitään, koska virhe tulisi
+     * huomata jo aikaisemmin ANTLR:n generoimissa Java-tiedostoissa.
+     * Vakio on aina int.
+     */
+    @Override
+    protected Type check(HashMap<String, Type> tenv) {
+        return Type.INT;
+    }
+
+    /**
+     * Palautetaan val:n arvo Integer-oliona.
+     */
+    @Override
+    public Integer eval(HashMap<String, Object> env, ReturnCheck r) {
+        return Integer.valueOf(val);
+    }
+
+    /**
+     * Palautetaan val:n arvo Integer-oliona.
+     */
+    @Override
+    public Integer eval(Frame f, ReturnCheck r) {
+        return Integer.valueOf(val);
+    }
+
+    /**
+     * Palautetaan val:n arvo doublena.
+     */
+    @Override
+    public double evalDouble(Frame f, ReturnCheck r) {
+        return val;
+    }
+
+    /**
+     * Palautetaan val:n arvo.
+     */
+    @Override
+    public int evalInt(Frame f, ReturnCheck r) {
+        return val;
+    }
+
+    /**
+     * Ladataan val pinoon intinä.
+     */
+    @Override
+    public char compile(BytecodeEmitter e) {
+        e.iconst(val);
+        return 'I';
+    }
+
+    /**
+     * Vakio on int.
+     */
+    @Override
+    public char kind() {
+        return 'I';
+    }
+
+    /**
+     * Vakio on omassa rekisterissään.
+     */
+    @Override
+    public int compile(VMCompiler c, int dst) {
+        return c.move('I', c.iconst(val), dst);
+    }
+
+    /**
+     * Muodostetaan vakion sulkeuma.
+     */
+    @Override
+    public IntCode closureInt() {
+        int v = val;
+        return f -> v;
+    }
+
+    /**
+     * Muodostetaan vakion solmu.
+     */
+    @Override
+    public ExprNode specialize() {
+        return new ConstNode(val);
+    }
+
+
+    /**
+     * Kokonaisluku on vakio.
+     */
+    @Override
+    public boolean isConstant() {
+        return true;
+    }
+
+
+    /**
+     * Vakion avain on sen arvo.
+     */
+    @Override
+    public String key() {
+        return "c" + val;
+    }
+}
+
+/**
+ * Luokka, joka edustaa vakiolaskostuksessa laskettua double- tai
+ * totuusarvovakiota. Kielessä ei ole näille literaaleja, joten vakio syntyy
+ * vain optimoinnissa (ks. ConstantFolder).
+ */
+class FoldedExpr extends Expr {
+    private static final long serialVersionUID = 1L;
+
+    private char kind;
+    private double num;
+    private boolean bool;
+
+    /**
+     * Luodaan double-vakio.
+     * @param num Vakion arvo
+     */
+    public FoldedExpr(double num) {
+        this.kind = 'D';
+        this.num = num;
+    }
+
+    /**
+     * Luodaan totuusarvovakio.
+     * @param bool Vakion arvo
+     */
+    public FoldedExpr(boolean bool) {
+        this.kind = 'Z';
+        this.bool = bool;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        if (kind == 'Z')
+            pw.printf(" %s ", bool);
+        else
+            pw.printf(" %s ", num);
+    }
+
+    /**
+     * Palautetaan vakion tyyppi. Muuta tarkastettavaa ei ole, koska vakio
+     * on laskettu tyyppitarkastetusta lausekkeesta.
+     */
+    @Override
+    protected Type check(HashMap<String, Type> tenv) {
+        if (kind == 'Z')
+            return Type.BOOL;
+        return Type.DOUBLE;
+    }
+
+    /**
+     * Palautetaan vakion arvo Double- tai Boolean-oliona.
+     */
+    @Override
+    public Object eval(HashMap<String, Object> env, ReturnCheck r) {
+        if (kind == 'Z')
+            return Boolean.valueOf(bool);
+        return Double.valueOf(num);
+    }
+
+    /**
+     * Palautetaan vakion arvo Double- tai Boolean-oliona.
+     */
+    @Override
+    public Object eval(Frame f, ReturnCheck r) {
+        if (kind == 'Z')
+            return Boolean.valueOf(bool);
+        return Double.valueOf(num);
+    }
+
+    /**
+     * Palautetaan num.
+     */
+    @Override
+    public double evalDouble(Frame f, ReturnCheck r) {
+        return num;
+    }
+
+    /**
+     * Palautetaan bool.
+     */
+    @Override
+    public boolean evalBoolean(Frame f, ReturnCheck r) {
+        return bool;
+    }
+
+    /**
+     * Vakio on vakio.
+     */
+    @Override
+    public boolean isConstant() {
+        return true;
+    }
+
+    /**
+     * Vakion tyyppikirjain on 'D' tai 'Z'.
+     */
+    @Override
+    public char kind() {
+        return kind;
+    }
+
+    /**
+     * Ladataan vakio pinoon. Totuusarvo ladataan arvona 1 tai 0.
+     */
+    @Override
+    public char compile(BytecodeEmitter e) {
+        if (kind == 'Z')
+            e.iconst(bool ? 1 : 0);
+        else
+            e.dconst(num);
+        return kind;
+    }
+
+    /**
+     * Double-vakio on omassa rekisterissään. Totuusarvorekistereillä ei
+     * ole vakioita, joten totuusarvo lasketaan int-vakioiden vertailulla.
+     */
+    @Override
+    public int compile(VMCompiler c, int dst) {
+        if (kind == 'D')
+            return c.move('D', c.dconst(num), dst);
+        int z = c.target('Z', dst);
+        c.emit(VMProgram.EQI, z, c.iconst(0), c.iconst(bool ? 0 : 1));
+        return z;
+    }
+
+    /**
+     * Muodostetaan vakion sulkeuma.
+     */
+    @Override
+    public DoubleCode closureDouble() {
+        double v = num;
+        return f -> v;
+    }
+
+    /**
+     * Muodostetaan vakion sulkeuma.
+     */
+    @Override
+    public BooleanCode closureBoolean() {
+        boolean v = bool;
+        return f -> v;
+    }
+
+    /**
+     * Muodostetaan vakion solmu.
+     */
+    @Override
+    public ExprNode specialize() {
+        if (kind == 'Z')
+            return new BoolConstNode(bool);
+        return new DoubleConstNode(num);
+    }
+
+
+    /**
+     * Vakion avain on sen arvo.
+     */
+    @Override
+    public String key() {
+        if (kind == 'Z')
+            return "z" + bool;
+        return "d" + Double.doubleToLongBits(num);
+    }
+}
+
+
+
+/**
+ * Luokka, joka edustaa sulutettua Expr-oliota.
+ * ParenExpr on käsittely järjestyksessä ennen aritmetiikkaa ja vertailua
+ * suorittavia expr-olioita. Järjestys on asetettu Minisharp.g4 -tiedostossa.
+ */
+class ParenExpr extends Expr {
+    private static final long serialVersionUID = 1L;
+
+    private Expr paren;
+
+    /**
+     * Sijoitetaan parametrina tuotu arvo.
+     * @param paren Sijoitettava expr
+     */
+    public ParenExpr(Expr paren) { // 
+        this.paren = paren;
+    }
+
+    /**
+     * Kopioidaan sulkeet ja niiden lauseke.
+     */
+    @Override
+    public Expr copy() {
+        ParenExpr copy = (ParenExpr) super.copy();
+        copy.paren = paren.copy();
+        return copy;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print("( ");
+        paren.printTree(pw);
+        pw.print(" )");
+    }
+
+    /**
+     * Suoritetaan tyyppitarkastus rekursiivisesti ja palautetaan parenin
+     * tyyppi.
+     */
+    @Override
+    protected Type check(HashMap<String, Type> tenv) {
+        return paren.type(tenv);
+    }
+
+    /**
+     * Evaluoidaan parenin arvo rekursiivisesti ja palautetaan arvo Doublena.
+     */
+    @Override
+    public Object eval(HashMap<String, Object> env, ReturnCheck r) {
+        return paren.eval(env, r);
+    }
+
+
+    /**
+     * Ratkaistaan parenin muuttujien paikat rekursiivisesti.
+     */
+    @Override
+    public void resolve(FrameLayout layout) {
+        paren.resolve(layout);
+    }
+
+    /**
+     * Tarkistetaan sulkeiden sisällä oleva lauseke.
+     */
+    @Override
+    public void verify(TreeVerifier v) {
+        paren.verify(v);
+    }
+
+    /**
+     * Evaluoidaan parenin arvo kehyksen avulla.
+     */
+    @Override
+    public Object eval(Frame f, ReturnCheck r) {
+        return paren.eval(f, r);
+    }
+
+    /**
+     * Evaluoidaan parenin arvo doublena.
+     */
+    @Override
+    public double evalDouble(Frame f, ReturnCheck r) {
+        return paren.evalDouble(f, r);
+    }
+
+    /**
+     * Evaluoidaan parenin arvo booleanina.
+     */
+    @Override
+    public boolean evalBoolean(Frame f, ReturnCheck r) {
+        return paren.evalBoolean(f, r);
+    }
+
+    /**
+     * Evaluoidaan parenin arvo intinä.
+     */
+    @Override
+    public int evalInt(Frame f, ReturnCheck r) {
+        return paren.evalInt(f, r);
+    }
+
+    /**
+     * Käännetään paren rekursiivisesti.
+     */
+    @Override
+    public char compile(BytecodeEmitter e) {
+        return paren.compile(e);
+    }
+
+    /**
+     * Käännetään paren ehtona rekursiivisesti.
+     */
+    @Override
+    public void compileCondition(BytecodeEmitter e, Label onFalse) {
+        paren.compileCondition(e, onFalse);
+    }
+
+    /**
+     * Palautetaan parenin JVM-tyyppikirjain.
+     */
+    @Override
+    public char kind() {
+        return paren.kind();
+    }
+
+    /**
+     * Käännetään paren rekursiivisesti.
+     */
+    @Override
+    public int compile(VMCompiler c, int dst) {
+        return paren.compile(c, dst);
+    }
+
+    /**
+     * Käännetään paren ehtona rekursiivisesti.
+     */
+    @Override
+    public void compileCondition(VMCompiler c, Label onFalse) {
+        paren.compileCondition(c, onFalse);
+    }
+
+    /**
+     * Muodostetaan parenin sulkeuma.
+     */
+    @Override
+    public DoubleCode closureDouble() {
+        return paren.closureDouble();
+    }
+
+    /**
+     * Muodostetaan parenin sulkeuma.
+     */
+    @Override
+    public IntCode closureInt() {
+        return paren.closureInt();
+    }
+
+    /**
+     * Muodostetaan parenin sulkeuma.
+     */
+    @Override
+    public BooleanCode closureBoolean() {
+        return paren.closureBoolean();
+    }
+
+    /**
+     * Muodostetaan parenin sulkeuma.
+     */
+    @Override
+    public ArrayCode closureArray() {
+        return paren.closureArray();
+    }
+
+    /**
+     * Muodostetaan parenin solmu.
+     */
+    @Override
+    public ExprNode specialize() {
+        return paren.specialize();
+    }
+
+
+    /**
+     * Sulut eivät vaikuta laskostettuun lausekkeeseen, joten palautetaan
+     * parenin laskostettu lauseke.
+     */
+    @Override
+    public Expr fold(ConstantFolder c) {
+        return paren.fold(c);
+    }
+
+
+    /**
+     * Kerätään parenin lukemat muuttujat.
+     */
+    @Override
+    public void countReads(Set<String> reads) {
+        paren.countReads(reads);
+    }
+
+    /**
+     * Tarkistetaan paren rekursiivisesti.
+     */
+    @Override
+    public boolean mayFail() {
+        return paren.mayFail();
+    }
+
+
+    /**
+     * Siirretään parenin invariantit osat.
+     */
+    @Override
+    public Expr hoist(LoopHoister h) {
+        return paren.hoist(h);
+    }
+
+
+    /**
+     * Sulkeiden sisältö voi olla kertymä.
+     */
+    @Override
+    public Accumulator accumulator(String id, int slot, char kind) {
+        return paren.accumulator(id, slot, kind);
+    }
+
+
+    /**
+     * Tarkistetaan sulkeiden sisällön taulukon haut.
+     */
+    @Override
+    public void checkBounds(BoundsChecker b) {
+        paren.checkBounds(b);
+    }
+
+
+    /**
+     * Sulkeiden avain on sisällön avain.
+     */
+    @Override
+    public String key() {
+        return paren.key();
+    }
+
+    /**
+     * Sulkeiden sisältö voi olla uudelleen käytettävä.
+     */
+    @Override
+    public boolean isReusable() {
+        return paren.isReusable();
+    }
+
+    /**
+     * Käsitellään sulkeiden sisältö.
+     */
+    @Override
+    public Expr cse(ValueNumbering v) {
+        paren = paren.cse(v);
+        return this;
+    }
+}
+
+/**
+ * Luokka, joka edustaa aritmetiikan suorittamista.
+ * ArithExpr on abstrakti yliluokka, josta MulExpr ja AddExpr peritään.
+ */
+abstract class ArithExpr extends Expr {
+    private static final long serialVersionUID = 1L;
+
+    protected Expr left;
+    protected Expr right;
+    protected char kind;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param left Sijoitettava vasen arvo
+     * @param right Sijoitettava oikea arvo
+     */
+    public ArithExpr(Expr left, Expr right) {
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Kopioidaan laskutoimitus ja sen operandit.
+     */
+    @Override
+    public Expr copy() {
+        ArithExpr copy = (ArithExpr) super.copy();
+        copy.left = left.copy();
+        copy.right = right.copy();
+        return copy;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print(" ( arithexpr ) ");
+    }
+
+    /**
+     * Tyyppitarkastetaan molemmat expr:t rekursiivisesti ja palautetaan
+     * niiden arvoille yhteinen tyyppi.
+     * Jos yhteistä tyyppiä ei löydetä, palautetaan null ja tyypitysvirhe.
+     */
+    @Override
+    protected Type check(HashMap<String, Type> tenv) {
+        Type lty = left.type(tenv);
+        Type rty = right.type(tenv);
+        if (lty.isInt()) {
+            if (rty.isInt()) {
+                return lty;
+            } else if (rty.isDouble()) {
+                return rty;
+            }
+        } else if (lty.isDouble()) {
+            if (rty.isInt()) {
+                return lty;
+            } else if (rty.isDouble()) {
+                return rty;
+            }
+        }
+        // Tyyppi on tänne jouduttaessa virheellinen.
+        System.err.println("Arithmetic type error");
+        return null;
+    }
+
+    /**
+     * Ratkaistaan molempien expr:ien muuttujien paikat rekursiivisesti.
+     */
+    @Override
+    public void resolve(FrameLayout layout) {
+        left.resolve(layout);
+        right.resolve(layout);
+        // Laskutoimitus tehdään intteinä vain, jos molemmat puolet ovat int.
+        kind = left.kind() == 'I' && right.kind() == 'I' ? 'I' : 'D';
+    }
+
+    /**
+     * Tarkistetaan operandit. Laskutoimituksen tyyppi on tallennettu
+     * ratkaistaessa, joten sen on vastattava operandeja.
+     */
+    @Override
+    public void verify(TreeVerifier v) {
+        left.verify(v);
+        right.verify(v);
+        v.expect(left, "arithmetic operand", "ID");
+        v.expect(right, "arithmetic operand", "ID");
+        v.check(kind == (left.kind() == 'I' && right.kind() == 'I' ? 'I' : 'D'),
+                "arithmetic has stale kind " + kind);
+    }
+
+    /**
+     * Palautetaan laskutoimituksen tyyppikirjain: 'I', jos molemmat puolet
+     * ovat int, muuten 'D'.
+     */
+    @Override
+    public char kind() {
+        return kind;
+    }
+
+    /**
+     * Evaluoidaan laskutoimitus kehyksen avulla. Tulos lasketaan
+     * evalIntillä tai evalDoublella ja pakataan olioksi vasta lopuksi.
+     */
+    @Override
+    public Number eval(Frame f, ReturnCheck r) {
+        if (kind == 'I')
+            return Integer.valueOf(evalInt(f, r));
+        return Double.valueOf(evalDouble(f, r));
+    }
+
+    /**
+     * Käännetään laskutoimitus JVM-tavukoodiksi. Operandit muunnetaan
+     * laskutoimituksen tyyppiin ennen käskyä.
+     * @param e Tavukoodin kirjoittaja
+     * @param iop Int-laskutoimituksen käsky
+     * @param dop Double-laskutoimituksen käsky
+     * @return Pinoon jäävän arvon JVM-tyyppikirjain
+     */
+    protected char compile(BytecodeEmitter e, int iop, int dop) {
+        left.compile(e, kind);
+        right.compile(e, kind);
+        if (kind == 'I') {
+            e.op(iop, -1);
+        } else {
+            e.op(dop, -2);
+        }
+        return kind;
+    }
+
+    /**
+     * Käännetään laskutoimitus: operandit lasketaan rekistereihin ja
+     * tulos sijoitetaan suoraan kohderekisteriin.
+     * @param c Virtuaalikoneen kääntäjä
+     * @param dst Kohderekisteri tai -1
+     * @param iop Int-laskutoimituksen käsky
+     * @param dop Double-laskutoimituksen käsky
+     * @return Rekisteri, jossa tulos on
+     */
+    protected int compile(VMCompiler c, int dst, int iop, int dop) {
+        int l = left.compile(c, kind, -1);
+        int r = right.compile(c, kind, -1);
+        int d = c.target(kind, dst);
+        c.emit(kind == 'I' ? iop : dop, d, l, r);
+        return d;
+    }
+
+
+    /**
+     * Laskostetaan molemmat puolet. Jos molemmat ovat vakioita,
+     * laskutoimitus lasketaan valmiiksi.
+     */
+    @Override
+    public Expr fold(ConstantFolder c) {
+        left = left.fold(c);
+        right = right.fold(c);
+        if (ConstantFolder.numbers(left, right))
+            return ConstantFolder.constant(kind, this);
+        return this;
+    }
+
+
+    /**
+     * Kerätään molempien puolten lukemat muuttujat.
+     */
+    @Override
+    public void countReads(Set<String> reads) {
+        left.countReads(reads);
+        right.countReads(reads);
+    }
+
+    /**
+     * Tarkistetaan molemmat puolet rekursiivisesti.
+     */
+    @Override
+    public boolean mayFail() {
+        return left.mayFail() || right.mayFail();
+    }
+
+
+    /**
+     * Siirretään laskutoimitus kokonaan, jos se on invariantti. Muuten
+     * siirretään molempien puolten invariantit osat.
+     */
+    @Override
+    public Expr hoist(LoopHoister h) {
+        if (h.invariant(this))
+            return h.hoist(this);
+        left = left.hoist(h);
+        right = right.hoist(h);
+        return this;
+    }
+
+
+    /**
+     * Tarkistetaan molempien puolten taulukon haut.
+     */
+    @Override
+    public void checkBounds(BoundsChecker b) {
+        left.checkBounds(b);
+        right.checkBounds(b);
+    }
+
+
+    /**
+     * Muodostetaan laskutoimituksen avain. Vaihdannaisen laskutoimituksen
+     * operandit järjestetään, jolloin a + b ja b + a saavat saman avaimen.
+     * @param op Laskutoimituksen merkki
+     * @param commutative true, jos laskutoimitus on vaihdannainen
+     * @return Avain tai null
+     */
+    protected String key(char op, boolean commutative) {
+        String l = left.key();
+        String r = right.key();
+        if (l == null || r == null)
+            return null;
+        if (commutative && l.compareTo(r) > 0) {
+            String t = l;
+            l = r;
+            r = t;
+        }
+        return "(" + l + op + kind + r + ")";
+    }
+
+    /**
+     * Laskutoimitus kannattaa käyttää uudelleen.
+     */
+    @Override
+    public boolean isReusable() {
+        return true;
+    }
+
+    /**
+     * Korvataan toistuva laskutoimitus tai käsitellään operandit.
+     */
+    @Override
+    public Expr cse(ValueNumbering v) {
+        String key = mayFail() ? null : key();
+        Expr known = v.lookup(key, this);
+        if (known != null)
+            return known;
+        left = left.cse(v);
+        right = right.cse(v);
+        return v.define(key, this);
+    }
+}
+
+/**
+ * Luokka, joka suorittaa jakolaskun.
+ * Suorittaminen tapahtuu varmasti ennen yhteen- ja
+ * vähennyslaskua. Järjestys määritelty Minisharp.g4-tiedostossa. 
+ */
+class DivExpr extends ArithExpr {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param left Sijoitettava vasen arvo
+     * @param right Sijoitettava oikea arvo
+     */
+    public DivExpr(Expr left, Expr right) {
+        super(left, right);
+    }
+
+    /**
+     * Jaetaan int a intillä b. Tulos katkaistaan kohti nollaa. Nollalla
+     * jakamisesta heitetään ExecutionError, jonka Minisharp.main tulostaa.
+     * Myös käännetyt ohjelmat kutsuvat tätä metodia.
+     * @param a Jaettava
+     * @param b Jakaja
+     * @return Osamäärä
+     */
+    static int divide(int a, int b) {
+        if (b == 0)
+            throw new ExecutionError("Division by zero.");
+        return a / b;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print("( ");
+        left.printTree(pw);
+        pw.print(" / ");
+        right.printTree(pw);
+        pw.print(" )");
+    }
+
+    /**
+     * Suoritetaan jakolasku.
+     */
+    @Override
+    public Number eval(HashMap<String, Object> env, ReturnCheck ret) {
+        Number l = (Number) left.eval(env, ret);
+        Number r = (Number) right.eval(env, ret);
+        // Kahden intin jakolasku on int.
+        if (l instanceof Integer && r instanceof Integer) {
+            return Integer.valueOf(divide(l.intValue(), r.intValue()));
+        }
+        return l.doubleValue() / r.doubleValue();
+    }
+
+    /**
+     * Suoritetaan jakolasku kehyksen avulla ilman olioiden luomista.
+     */
+    @Override
+    public double evalDouble(Frame f, ReturnCheck ret) {
+        if (kind == 'I')
+            return evalInt(f, ret);
+        return left.evalDouble(f, ret) / right.evalDouble(f, ret);
+    }
+
+    /**
+     * Suoritetaan int-tyyppinen jakolasku kehyksen avulla.
+     */
+    @Override
+    public int evalInt(Frame f, ReturnCheck ret) {
+        if (kind != 'I')
+            return (int) evalDouble(f, ret);
+        return divide(left.evalInt(f, ret), right.evalInt(f, ret));
+    }
+
+    /**
+     * Käännetään jakolasku.
+     */
+    @Override
+    public char compile(BytecodeEmitter e) {
+        left.compile(e, kind);
+        right.compile(e, kind);
+        if (kind == 'I') {
+            e.invokestatic("DivExpr", "divide", "(II)I", -1);
+        } else {
+            e.op(BytecodeEmitter.DDIV, -2);
+        }
+        return kind;
+    }
+
+    /**
+     * Käännetään jakolasku.
+     */
+    @Override
+    public int compile(VMCompiler c, int dst) {
+        return compile(c, dst, VMProgram.DIVI, VMProgram.DIVD);
+    }
+
+    /**
+     * Muodostetaan jakolaskun sulkeuma.
+     */
+    @Override
+    public DoubleCode closureDouble() {
+        if (kind == 'I')
+            return super.closureDouble();
+        DoubleCode l = left.closureDouble();
+        DoubleCode r = right.closureDouble();
+        return f -> l.run(f) / r.run(f);
+    }
+
+    /**
+     * Muodostetaan int-tyyppisen jakolaskun sulkeuma.
+     */
+    @Override
+    public IntCode closureInt() {
+        if (kind != 'I')
+            return super.closureInt();
+        IntCode l = left.closureInt();
+        IntCode r = right.closureInt();
+        return f -> divide(l.run(f), r.run(f));
+    }
+
+    /**
+     * Muodostetaan alustamaton jakolasku.
+     */
+    @Override
+    public ExprNode specialize() {
+        if (kind == 'I')
+            return new IntTypedArithNode('/', left.specialize(), right.specialize());
+        return new UninitializedArithNode('/', left.specialize(), right.specialize());
+    }
+
+
+    /**
+     * Laskostetaan jakolasku. Int-jakoa nollalla ei laskosteta, jotta
+     * virhe tulee ajon aikana.
+     */
+    @Override
+    public Expr fold(ConstantFolder c) {
+        left = left.fold(c);
+        right = right.fold(c);
+        if (kind == 'I' && right.isConstant() && right.evalInt(null, null) == 0)
+            return this;
+        if (ConstantFolder.numbers(left, right))
+            return ConstantFolder.constant(kind, this);
+        return this;
+    }
+
+
+    /**
+     * Int-jako voi epäonnistua, ellei jakaja ole nollasta eroava vakio.
+     */
+    @Override
+    public boolean mayFail() {
+        if (kind == 'I' && !(right.isConstant() && right.evalInt(null, null) != 0))
+            return true;
+        return super.mayFail();
+    }
+
+
+    /**
+     * Jakolaskun avain.
+     */
+    @Override
+    public String key() {
+        return key('/', false);
+    }
+}
+
+
+/**
+ * Luokka, joka suorittaa kertolaskun.
+ * Suorittaminen tapahtuu varmasti ennen yhteen- ja
+ * vähennyslaskua. Järjestys määritelty Minisharp.g4-tiedostossa. 
+ */
+class MulExpr extends ArithExpr {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param left Sijoitettava vasen arvo
+     * @param right Sijoitettava oikea arvo
+     */
+    public MulExpr(Expr left, Expr right) {
+        super(left, right);
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print("( ");
+        left.printTree(pw);
+        pw.print(" * ");
+        right.printTree(pw);
+        pw.print(" )");
+    }
+
+    /**
+     * Suoritetaan kertolasku.
+     */
+    @Override
+    public Number eval(HashMap<String, Object> env, ReturnCheck ret) {
+        Number l = (Number) left.eval(env, ret);
+        Number r = (Number) right.eval(env, ret);
+        // Kahden intin kertolasku on int.
+        if (l instanceof Integer && r instanceof Integer) {
+            return Integer.valueOf(l.intValue() * r.intValue());
+        }
+        return l.doubleValue() * r.doubleValue();
+    }
+
+    /**
+     * Suoritetaan kertolasku kehyksen avulla ilman olioiden luomista.
+     */
+    @Override
+    public double evalDouble(Frame f, ReturnCheck ret) {
+        if (kind == 'I')
+            return evalInt(f, ret);
+        return left.evalDouble(f, ret) * right.evalDouble(f, ret);
+    }
+
+    /**
+     * Suoritetaan int-tyyppinen kertolasku kehyksen avulla.
+     */
+    @Override
+    public int evalInt(Frame f, ReturnCheck ret) {
+        if (kind != 'I')
+            return (int) evalDouble(f, ret);
+        return left.evalInt(f, ret) * right.evalInt(f, ret);
+    }
+
+    /**
+     * Käännetään kertolasku.
+     */
+    @Override
+    public char compile(BytecodeEmitter e) {
+        return compile(e, BytecodeEmitter.IMUL, BytecodeEmitter.DMUL);
+    }
+
+    /**
+     * Käännetään kertolasku.
+     */
+    @Override
+    public int compile(VMCompiler c, int dst) {
+        return compile(c, dst, VMProgram.MULI, VMProgram.MULD);
+    }
+
+    /**
+     * Muodostetaan kertolaskun sulkeuma.
+     */
+    @Override
+    public DoubleCode closureDouble() {
+        if (kind == 'I')
+            return super.closureDouble();
+        DoubleCode l = left.closureDouble();
+        DoubleCode r = right.closureDouble();
+        return f -> l.run(f) * r.run(f);
+    }
+
+    /**
+     * Muodostetaan int-tyyppisen kertolaskun sulkeuma.
+     */
+    @Override
+    public IntCode closureInt() {
+        if (kind != 'I')
+            return super.closureInt();
+        IntCode l = left.closureInt();
+        IntCode r = right.closureInt();
+        return f -> l.run(f) * r.run(f);
+    }
+
+    /**
+     * Muodostetaan alustamaton kertolasku.
+     */
+    @Override
+    public ExprNode specialize() {
+        if (kind == 'I')
+            return new IntTypedArithNode('*', left.specialize(), right.specialize());
+        return new UninitializedArithNode('*', left.specialize(), right.specialize());
+    }
+
+
+    /**
+     * Kertolaskun avain.
+     */
+    @Override
+    public String key() {
+        return key('*', true);
+    }
+}
+
+
+/**
+ * Luokka, joka suorittaa vähennyslaskun.
+ * Suorittaminen tapahtuu varmasti kerto- ja
+ * jakolaskun jälkeen. Järjestys määritelty Minisharp.g4-tiedostossa. 
+ */
+class MinExpr extends ArithExpr {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param left Sijoitettava vasen arvo
+     * @param right Sijoitettava oikea arvo
+     */
+    public MinExpr(Expr left, Expr right) {
+        super(left, right);
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print("( ");
+        left.printTree(pw);
+        pw.print(" - ");
+        right.printTree(pw);
+        pw.print(" )");
+    }
+
+    /**
+     * Suoritetaan vähennyslasku.
+     */
+    @Override
+    public Number eval(HashMap<String, Object> env, ReturnCheck ret) {
+        Number l = (Number) left.eval(env, ret);
+        Number r = (Number) right.eval(env, ret);
+        // Kahden intin vähennyslasku on int.
+        if (l instanceof Integer && r instanceof Integer) {
+            return Integer.valueOf(l.intValue() - r.intValue());
+        }
+        return l.doubleValue() - r.doubleValue();
+    }
+
+    /**
+     * Suoritetaan vähennyslasku kehyksen avulla ilman olioiden luomista.
+     */
+    @Override
+    public double evalDouble(Frame f, ReturnCheck ret) {
+        if (kind == 'I')
+            return evalInt(f, ret);
+        return left.evalDouble(f, ret) - right.evalDouble(f, ret);
+    }
+
+    /**
+     * Suoritetaan int-tyyppinen vähennyslasku kehyksen avulla.
+     */
+    @Override
+    public int evalInt(Frame f, ReturnCheck ret) {
+        if (kind != 'I')
+            return (int) evalDouble(f, ret);
+        return left.evalInt(f, ret) - right.evalInt(f, ret);
+    }
+
+    /**
+     * Käännetään vähennyslasku.
+     */
+    @Override
+    public char compile(BytecodeEmitter e) {
+        return compile(e, BytecodeEmitter.ISUB, BytecodeEmitter.DSUB);
+    }
+
+    /**
+     * Käännetään vähennyslasku.
+     */
+    @Override
+    public int compile(VMCompiler c, int dst) {
+        return compile(c, dst, VMProgram.SUBI, VMProgram.SUBD);
+    }
+
+    /**
+     * Muodostetaan vähennyslaskun sulkeuma.
+     */
+    @Override
+    public DoubleCode closureDouble() {
+        if (kind == 'I')
+            return super.closureDouble();
+        DoubleCode l = left.closureDouble();
+        DoubleCode r = right.closureDouble();
+        return f -> l.run(f) - r.run(f);
+    }
+
+    /**
+     * Muodostetaan int-tyyppisen vähennyslaskun sulkeuma.
+     */
+    @Override
+    public IntCode closureInt() {
+        if (kind != 'I')
+            return super.closureInt();
+        IntCode l = left.closureInt();
+        IntCode r = right.closureInt();
+        return f -> l.run(f) - r.run(f);
+    }
+
+    /**
+     * Muodostetaan alustamaton vähennyslasku.
+     */
+    @Override
+    public ExprNode specialize() {
+        if (kind == 'I')
+            return new IntTypedArithNode('-', left.specialize(), right.specialize());
+        return new UninitializedArithNode('-', left.specialize(), right.specialize());
+    }
+
+
+    /**
+     * Vähennyslasku id - e on kertymä.
+     */
+    @Override
+    public Accumulator accumulator(String id, int slot, char kind) {
+        if (this.kind == kind && left.isVar(id))
+            return new Accumulator(id, slot, kind, right, true);
+        return null;
+    }
+
+
+    /**
+     * Vähennyslasku t.length - k on enintään viimeinen indeksi.
+     */
+    @Override
+    public String lastIndexOf() {
+        if (kind == 'I' && right.isConstant() && right.evalInt(null, null) >= 1)
+            return left.lengthOf();
+        return null;
+    }
+
+
+    /**
+     * Vähennyslaskun avain.
+     */
+    @Override
+    public String key() {
+        return key('-', false);
+    }
+}
+
+
+/**
+ * Luokka, joka suorittaa yhteenlaskun.
+ * Suorittaminen tapahtuu varmasti kerto- ja
+ * jakolaskun jälkeen. Järjestys määritelty Minisharp.g4-tiedostossa. 
+ */
+class AddExpr extends ArithExpr {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param left Sijoitettava vasen arvo
+     * @param right Sijoitettava oikea arvo
+     */
+    public AddExpr(Expr left, Expr right) {
+        super(left, right);
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print("( ");
+        left.printTree(pw);
+        pw.print(" + ");
+        right.printTree(pw);
+        pw.print(" )");
+    }
+
+    /**
+     * Suoritetaan yhteenlasku.
+     */
+    @Override
+    public Number eval(HashMap<String, Object> env, ReturnCheck ret) {
+        Number l = (Number) left.eval(env, ret);
+        Number r = (Number) right.eval(env, ret);
+        // Kahden intin yhteenlasku on int.
+        if (l instanceof Integer && r instanceof Integer) {
+            return Integer.valueOf(l.intValue() + r.intValue());
+        }
+        return l.doubleValue() + r.doubleValue();
+    }
+
+    /**
+     * Suoritetaan yhteenlasku kehyksen avulla ilman olioiden luomista.
+     */
+    @Override
+    public double evalDouble(Frame f, ReturnCheck ret) {
+        if (kind == 'I')
+            return evalInt(f, ret);
+        return left.evalDouble(f, ret) + right.evalDouble(f, ret);
+    }
+
+    /**
+     * Suoritetaan int-tyyppinen yhteenlasku kehyksen avulla.
+     */
+    @Override
+    public int evalInt(Frame f, ReturnCheck ret) {
+        if (kind != 'I')
+            return (int) evalDouble(f, ret);
+        return left.evalInt(f, ret) + right.evalInt(f, ret);
+    }
+
+    /**
+     * Käännetään yhteenlasku.
+     */
+    @Override
+    public char compile(BytecodeEmitter e) {
+        return compile(e, BytecodeEmitter.IADD, BytecodeEmitter.DADD);
+    }
+
+    /**
+     * Käännetään yhteenlasku.
+     */
+    @Override
+    public int compile(VMCompiler c, int dst) {
+        return compile(c, dst, VMProgram.ADDI, VMProgram.ADDD);
+    }
+
+    /**
+     * Muodostetaan yhteenlaskun sulkeuma.
+     */
+    @Override
+    public DoubleCode closureDouble() {
+        if (kind == 'I')
+            return super.closureDouble();
+        DoubleCode l = left.closureDouble();
+        DoubleCode r = right.closureDouble();
+        return f -> l.run(f) + r.run(f);
+    }
+
+    /**
+     * Muodostetaan int-tyyppisen yhteenlaskun sulkeuma.
+     */
+    @Override
+    public IntCode closureInt() {
+        if (kind != 'I')
+            return super.closureInt();
+        IntCode l = left.closureInt();
+        IntCode r = right.closureInt();
+        return f -> l.run(f) + r.run(f);
+    }
+
+    /**
+     * Muodostetaan alustamaton yhteenlasku.
+     */
+    @Override
+    public ExprNode specialize() {
+        if (kind == 'I')
+            return new IntTypedArithNode('+', left.specialize(), right.specialize());
+        return new UninitializedArithNode('+', left.specialize(), right.specialize());
+    }
+
+
+    /**
+     * Yhteenlasku id + e tai e + id on kertymä.
+     */
+    @Override
+    public Accumulator accumulator(String id, int slot, char kind) {
+        if (this.kind != kind)
+            return null;
+        if (left.isVar(id))
+            return new Accumulator(id, slot, kind, right, false);
+        if (right.isVar(id))
+            return new Accumulator(id, slot, kind, left, false);
+        return null;
+    }
+
+
+    /**
+     * Yhteenlaskun avain.
+     */
+    @Override
+    public String key() {
+        return key('+', true);
+    }
+}
+
+
+/**
+ * Luokka, joka suorittaa pienempi kuin -vertailun.
+ */
+class LessthanExpr extends Expr {
+    private static final long serialVersionUID = 1L;
+
+    private Expr left;
+    private Expr right;
+    private boolean ints;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param left Sijoitettava vasen arvo
+     * @param right Sijoitettava oikea arvo
+     */
+    public LessthanExpr(Expr left, Expr right) {
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Kopioidaan vertailu ja sen operandit.
+     */
+    @Override
+    public Expr copy() {
+        LessthanExpr copy = (LessthanExpr) super.copy();
+        copy.left = left.copy();
+        copy.right = right.copy();
+        return copy;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print("( ");
+        left.printTree(pw);
+        pw.print(" < ");
+        right.printTree(pw);
+        pw.print(" )");
+    }
+
+    /**
+     * Tyyppitarkastetaan molemmat expr:t rekursiivisesti ja palautetaan
+     * Type.BOOL, jos tyypit ovat yhteensopivat.
+     * Muuten palautetaan null ja virheilmoitus.
+     */
+    @Override
+    protected Type check(HashMap<String, Type> tenv) {
+        Type lty = left.type(tenv);
+        Type rty = right.type(tenv);
+        
+        // Tarkastetaan, ovatko molemmat puolet ovat samaa tyyppiä,
+        // eli ovatko ne vertailukelpoiset keskenään.
+        if (lty.isInt() && rty.isInt() || lty.isInt() && rty.isDouble() || lty.isDouble() && rty.isInt()
+                || lty.isDouble() && rty.isDouble()) {
+            return Type.BOOL;
+        }
+        System.err.println("Incompatiple types in comparison");
+        return null;
+    }
+
+    /**
+     * Suoritetaan vertailu.
+     */
+    @Override
+    public Boolean eval(HashMap<String, Object> env, ReturnCheck ret) {
+        Number l = (Number) left.eval(env, ret);
+        Number r = (Number) right.eval(env, ret);
+        return l.doubleValue() < r.doubleValue();
+    }
+
+    /**
+     * Ratkaistaan molempien expr:ien muuttujien paikat rekursiivisesti.
+     */
+    @Override
+    public void resolve(FrameLayout layout) {
+        left.resolve(layout);
+        right.resolve(layout);
+        // Kaksi intiä verrataan intteinä, muuten doubleina.
+        ints = left.kind() == 'I' && right.kind() == 'I';
+    }
+
+    /**
+     * Tarkistetaan lukuja vertailevat operandit.
+     */
+    @Override
+    public void verify(TreeVerifier v) {
+        left.verify(v);
+        right.verify(v);
+        v.expect(left, "operand of <", "ID");
+        v.expect(right, "operand of <", "ID");
+        v.check(ints == (left.kind() == 'I' && right.kind() == 'I'), "< has stale kind");
+    }
+
+    /**
+     * Suoritetaan vertailu kehyksen avulla.
+     */
+    @Override
+    public Boolean eval(Frame f, ReturnCheck ret) {
+        return Boolean.valueOf(evalBoolean(f, ret));
+    }
+
+    /**
+     * Suoritetaan vertailu kehyksen avulla ilman olioiden luomista.
+     */
+    @Override
+    public boolean evalBoolean(Frame f, ReturnCheck ret) {
+        if (ints)
+            return left.evalInt(f, ret) < right.evalInt(f, ret);
+        return left.evalDouble(f, ret) < right.evalDouble(f, ret);
+    }
+
+    /**
+     * Käännetään vertailu arvoksi 1 tai 0.
+     */
+    @Override
+    public char compile(BytecodeEmitter e) {
+        e.condition(this);
+        return 'Z';
+    }
+
+    /**
+     * Käännetään vertailu suoraan hypyksi. NaN-arvolla ehto ei täyty.
+     */
+    @Override
+    public void compileCondition(BytecodeEmitter e, Label onFalse) {
+        if (ints) {
+            left.compile(e, 'I');
+            right.compile(e, 'I');
+            e.jump(BytecodeEmitter.IF_ICMPGE, onFalse);
+            return;
+        }
+        left.compile(e, 'D');
+        right.compile(e, 'D');
+        e.op(BytecodeEmitter.DCMPG, -3);
+        e.jump(BytecodeEmitter.IFGE, onFalse);
+    }
+
+    /**
+     * Vertailun tulos on totuusarvo.
+     */
+    @Override
+    public char kind() {
+        return 'Z';
+    }
+
+    /**
+     * Käännetään vertailu totuusarvorekisteriin.
+     */
+    @Override
+    public int compile(VMCompiler c, int dst) {
+        char kind = ints ? 'I' : 'D';
+        int l = left.compile(c, kind, -1);
+        int r = right.compile(c, kind, -1);
+        int z = c.target('Z', dst);
+        c.emit(ints ? VMProgram.LTI : VMProgram.LTD, z, l, r);
+        return z;
+    }
+
+    /**
+     * Käännetään vertailu suoraan ehdolliseksi hypyksi.
+     */
+    @Override
+    public void compileCondition(VMCompiler c, Label onFalse) {
+        char kind = ints ? 'I' : 'D';
+        int l = left.compile(c, kind, -1);
+        int r = right.compile(c, kind, -1);
+        c.jump(ints ? VMProgram.JNLTI : VMProgram.JNLTD, onFalse, l, r);
+    }
+
+    /**
+     * Muodostetaan vertailun sulkeuma.
+     */
+    @Override
+    public BooleanCode closureBoolean() {
+        if (ints) {
+            IntCode l = left.closureInt();
+            IntCode r = right.closureInt();
+            return f -> l.run(f) < r.run(f);
+        }
+        DoubleCode l = left.closureDouble();
+        DoubleCode r = right.closureDouble();
+        return f -> l.run(f) < r.run(f);
+    }
+
+    /**
+     * Muodostetaan alustamaton vertailu.
+     */
+    @Override
+    public ExprNode specialize() {
+        if (ints)
+            return new IntCompareNode('<', left.specialize(), right.specialize());
+        return new UninitializedCompareNode('<', left.specialize(), right.specialize());
+    }
+
+
+    /**
+     * Laskostetaan molemmat puolet. Jos molemmat ovat vakioita, vertailu
+     * lasketaan valmiiksi.
+     */
+    @Override
+    public Expr fold(ConstantFolder c) {
+        left = left.fold(c);
+        right = right.fold(c);
+        if (ConstantFolder.numbers(left, right))
+            return ConstantFolder.constant('Z', this);
+        return this;
+    }
+
+
+    /**
+     * Kerätään molempien puolten lukemat muuttujat.
+     */
+    @Override
+    public void countReads(Set<String> reads) {
+        left.countReads(reads);
+        right.countReads(reads);
+    }
+
+    /**
+     * Tarkistetaan molemmat puolet rekursiivisesti.
+     */
+    @Override
+    public boolean mayFail() {
+        return left.mayFail() || right.mayFail();
+    }
+
+
+    /**
+     * Siirretään vertailu kokonaan, jos se on invariantti. Muuten
+     * siirretään molempien puolten invariantit osat.
+     */
+    @Override
+    public Expr hoist(LoopHoister h) {
+        if (h.invariant(this))
+            return h.hoist(this);
+        left = left.hoist(h);
+        right = right.hoist(h);
+        return this;
+    }
+
+
+    /**
+     * Int-vertailussa id < b raja on b.
+     */
+    @Override
+    public Expr upperBound(String id) {
+        return ints && left.isVar(id) ? right : null;
+    }
+
+    /**
+     * Int-vertailussa b < id raja on b.
+     */
+    @Override
+    public Expr lowerBound(String id) {
+        return ints && right.isVar(id) ? left : null;
+    }
+
+
+    /**
+     * Tarkistetaan molempien puolten taulukon haut.
+     */
+    @Override
+    public void checkBounds(BoundsChecker b) {
+        left.checkBounds(b);
+        right.checkBounds(b);
+    }
+
+
+    /**
+     * Int-vertailu voi olla reduktion ehto.
+     */
+    @Override
+    public Reduction reduction(String counter, AssignExpr then) {
+        return ints ? Reduction.compare('<', left, right, counter, then) : null;
+    }
+
+
+    /**
+     * Vertailun avain.
+     */
+    @Override
+    public String key() {
+        String l = left.key();
+        String r = right.key();
+        if (l == null || r == null)
+            return null;
+        return "(" + l + (ints ? "<I" : "<D") + r + ")";
+    }
+
+    /**
+     * Vertailu kannattaa käyttää uudelleen.
+     */
+    @Override
+    public boolean isReusable() {
+        return true;
+    }
+
+    /**
+     * Korvataan toistuva vertailu tai käsitellään operandit.
+     */
+    @Override
+    public Expr cse(ValueNumbering v) {
+        String key = mayFail() ? null : key();
+        Expr known = v.lookup(key, this);
+        if (known != null)
+            return known;
+        left = left.cse(v);
+        right = right.cse(v);
+        return v.define(key, this);
+    }
+}
+
+
+/**
+ * Luokka, joka suorittaa suurempi kuin -vertailun.
+ */
+class GreaterthanExpr extends Expr {
+    private static final long serialVersionUID = 1L;
+
+    private Expr left;
+    private Expr right;
+    private boolean ints;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param left Sijoitettava vasen arvo
+     * @param right Sijoitettava oikea arvo
+     */
+    public GreaterthanExpr(Expr left, Expr right) {
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Kopioidaan vertailu ja sen operandit.
+     */
+    @Override
+    public Expr copy() {
+        GreaterthanExpr copy = (GreaterthanExpr) super.copy();
+        copy.left = left.copy();
+        copy.right = right.copy();
+        return copy;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print("( ");
+        left.printTree(pw);
+        pw.print(" > ");
+        right.printTree(pw);
+        pw.print(" )");
+    }
+
+    /**
+     * Tyyppitarkastetaan molemmat expr:t rekursiivisesti ja palautetaan
+     * Type.BOOL, jos tyypit ovat yhteensopivat.
+     * Muuten palautetaan null ja virheilmoitus.
+     */
+    @Override
+    protected Type check(HashMap<String, Type> tenv) {
+        Type lty = left.type(tenv);
+        Type rty = right.type(tenv);
+        
+        // Tarkastetaan, ovatko molemmat puolet ovat samaa tyyppiä,
+        // eli ovatko ne vertailukelpoiset keskenään.
+        if (lty.isInt() && rty.isInt() || lty.isInt() && rty.isDouble() || lty.isDouble() && rty.isInt()
+                || lty.isDouble() && rty.isDouble()) {
+            return Type.BOOL;
+        }
+        System.err.println("Incompatiple types in comparison");
+        return null;
+    }
+
+    /**
+     * Suoritetaan vertailu.
+     */ 
+    @Override
+    public Boolean eval(HashMap<String, Object> env, ReturnCheck ret) {
+        Number l = (Number) left.eval(env, ret);
+        Number r = (Number) right.eval(env, ret);
+        return l.doubleValue() > r.doubleValue();
+    }
+
+    /**
+     * Ratkaistaan molempien expr:ien muuttujien paikat rekursiivisesti.
+     */
+    @Override
+    public void resolve(FrameLayout layout) {
+        left.resolve(layout);
+        right.resolve(layout);
+        // Kaksi intiä verrataan intteinä, muuten doubleina.
+        ints = left.kind() == 'I' && right.kind() == 'I';
+    }
+
+    /**
+     * Tarkistetaan lukuja vertailevat operandit.
+     */
+    @Override
+    public void verify(TreeVerifier v) {
+        left.verify(v);
+        right.verify(v);
+        v.expect(left, "operand of >", "ID");
+        v.expect(right, "operand of >", "ID");
+        v.check(ints == (left.kind() == 'I' && right.kind() == 'I'), "> has stale kind");
+    }
+
+    /**
+     * Suoritetaan vertailu kehyksen avulla.
+     */
+    @Override
+    public Boolean eval(Frame f, ReturnCheck ret) {
+        return Boolean.valueOf(evalBoolean(f, ret));
+    }
+
+    /**
+     * Suoritetaan vertailu kehyksen avulla ilman olioiden luomista.
+     */
+    @Override
+    public boolean evalBoolean(Frame f, ReturnCheck ret) {
+        if (ints)
+            return left.evalInt(f, ret) > right.evalInt(f, ret);
+        return left.evalDouble(f, ret) > right.evalDouble(f, ret);
+    }
+
+    /**
+     * Käännetään vertailu arvoksi 1 tai 0.
+     */
+    @Override
+    public char compile(BytecodeEmitter e) {
+        e.condition(this);
+        return 'Z';
+    }
+
+    /**
+     * Käännetään vertailu suoraan hypyksi. NaN-arvolla ehto ei täyty.
+     */
+    @Override
+    public void compileCondition(BytecodeEmitter e, Label onFalse) {
+        if (ints) {
+            left.compile(e, 'I');
+            right.compile(e, 'I');
+            e.jump(BytecodeEmitter.IF_ICMPLE, onFalse);
+            return;
+        }
+        left.compile(e, 'D');
+        right.compile(e, 'D');
+        e.op(BytecodeEmitter.DCMPL, -3);
+        e.jump(BytecodeEmitter.IFLE, onFalse);
+    }
+
+    /**
+     * Vertailun tulos on totuusarvo.
+     */
+    @Override
+    public char kind() {
+        return 'Z';
+    }
+
+    /**
+     * Käännetään vertailu totuusarvorekisteriin.
+     */
+    @Override
+    public int compile(VMCompiler c, int dst) {
+        char kind = ints ? 'I' : 'D';
+        int l = left.compile(c, kind, -1);
+        int r = right.compile(c, kind, -1);
+        int z = c.target('Z', dst);
+        c.emit(ints ? VMProgram.GTI : VMProgram.GTD, z, l, r);
+        return z;
+    }
+
+    /**
+     * Käännetään vertailu suoraan ehdolliseksi hypyksi.
+     */
+    @Override
+    public void compileCondition(VMCompiler c, Label onFalse) {
+        char kind = ints ? 'I' : 'D';
+        int l = left.compile(c, kind, -1);
+        int r = right.compile(c, kind, -1);
+        c.jump(ints ? VMProgram.JNGTI : VMProgram.JNGTD, onFalse, l, r);
+    }
+
+    /**
+     * Muodostetaan vertailun sulkeuma.
+     */
+    @Override
+    public BooleanCode closureBoolean() {
+        if (ints) {
+            IntCode l = left.closureInt();
+            IntCode r = right.closureInt();
+            return f -> l.run(f) > r.run(f);
+        }
+        DoubleCode l = left.closureDouble();
+        DoubleCode r = right.closureDouble();
+        return f -> l.run(f) > r.run(f);
+    }
+
+    /**
+     * Muodostetaan alustamaton vertailu.
      */
     @Override
-    public boolean isInt() {
+    public ExprNode specialize() {
+        if (ints)
+            return new IntCompareNode('>', left.specialize(), right.specialize());
+        return new UninitializedCompareNode('>', left.specialize(), right.specialize());
+    }
+
+
+    /**
+     * Laskostetaan molemmat puolet. Jos molemmat ovat vakioita, vertailu
+     * lasketaan valmiiksi.
+     */
+    @Override
+    public Expr fold(ConstantFolder c) {
+        left = left.fold(c);
+        right = right.fold(c);
+        if (ConstantFolder.numbers(left, right))
+            return ConstantFolder.constant('Z', this);
+        return this;
+    }
+
+
+    /**
+     * Kerätään molempien puolten lukemat muuttujat.
+     */
+    @Override
+    public void countReads(Set<String> reads) {
+        left.countReads(reads);
+        right.countReads(reads);
+    }
+
+    /**
+     * Tarkistetaan molemmat puolet rekursiivisesti.
+     */
+    @Override
+    public boolean mayFail() {
+        return left.mayFail() || right.mayFail();
+    }
+
+
+    /**
+     * Siirretään vertailu kokonaan, jos se on invariantti. Muuten
+     * siirretään molempien puolten invariantit osat.
+     */
+    @Override
+    public Expr hoist(LoopHoister h) {
+        if (h.invariant(this))
+            return h.hoist(this);
+        left = left.hoist(h);
+        right = right.hoist(h);
+        return this;
+    }
+
+
+    /**
+     * Int-vertailussa b > id raja on b.
+     */
+    @Override
+    public Expr upperBound(String id) {
+        return ints && right.isVar(id) ? left : null;
+    }
+
+    /**
+     * Int-vertailussa id > b raja on b.
+     */
+    @Override
+    public Expr lowerBound(String id) {
+        return ints && left.isVar(id) ? right : null;
+    }
+
+
+    /**
+     * Tarkistetaan molempien puolten taulukon haut.
+     */
+    @Override
+    public void checkBounds(BoundsChecker b) {
+        left.checkBounds(b);
+        right.checkBounds(b);
+    }
+
+
+    /**
+     * Int-vertailu voi olla reduktion ehto.
+     */
+    @Override
+    public Reduction reduction(String counter, AssignExpr then) {
+        return ints ? Reduction.compare('>', left, right, counter, then) : null;
+    }
+
+
+    /**
+     * Vertailun avain. Vertailu a > b saa saman avaimen kuin b < a.
+     */
+    @Override
+    public String key() {
+        String l = left.key();
+        String r = right.key();
+        if (l == null || r == null)
+            return null;
+        return "(" + r + (ints ? "<I" : "<D") + l + ")";
+    }
+
+    /**
+     * Vertailu kannattaa käyttää uudelleen.
+     */
+    @Override
+    public boolean isReusable() {
         return true;
     }
+
+    /**
+     * Korvataan toistuva vertailu tai käsitellään operandit.
+     */
+    @Override
+    public Expr cse(ValueNumbering v) {
+        String key = mayFail() ? null : key();
+        Expr known = v.lookup(key, this);
+        if (known != null)
+            return known;
+        left = left.cse(v);
+        right = right.cse(v);
+        return v.define(key, this);
+    }
 }
 
+
 /**
- * Tyyppiluokka, jolla merkataan int-taulukkoa.
+ * Luokka, joka suorittaa yhtä kuin -vertailun.
  */
-class TypeIntSequence extends Type {
+class EqualExpr extends Expr {
+    private static final long serialVersionUID = 1L;
+
+    private Expr left;
+    private Expr right;
+    private boolean ints;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param left Sijoitettava vasen arvo
+     * @param right Sijoitettava oikea arvo
+     */
+    public EqualExpr(Expr left, Expr right) {
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Kopioidaan vertailu ja sen operandit.
+     */
+    @Override
+    public Expr copy() {
+        EqualExpr copy = (EqualExpr) super.copy();
+        copy.left = left.copy();
+        copy.right = right.copy();
+        return copy;
+    }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
      */
     @Override
     public void printTree(PrintWriter pw) {
-        pw.print("intsequence ");
+        pw.print("( ");
+        left.printTree(pw);
+        pw.print(" == ");
+        right.printTree(pw);
+        pw.print(" )");
     }
 
     /**
-     * Tarkastetaan, voidaanko parametrina tuotu tyyppi sijoittaa
-     * haluttuun tyyppiin.
+     * Tyyppitarkastetaan molemmat expr:t rekursiivisesti ja palautetaan
+     * Type.BOOL, jos tyypit ovat yhteensopivat.
+     * Muuten palautetaan null ja virheilmoitus.
      */
     @Override
-    public boolean canAssignTo(Type type) {
-        return type.isIntSequence();
+    protected Type check(HashMap<String, Type> tenv) {
+        Type lty = left.type(tenv);
+        Type rty = right.type(tenv);
+        
+        // Tarkastetaan, ovatko molemmat puolet ovat samaa tyyppiä,
+        // eli ovatko ne vertailukelpoiset keskenään.
+        if (lty.isInt() && rty.isInt()) {
+            return Type.BOOL;
+        } else if (lty.isDouble() && rty.isDouble()) {
+            return Type.BOOL;
+        } else {
+            System.err.println("Incompatiple types in comparison");
+            return null;
+        }
+    }
+
+    /**
+     * Suoritetaan vertailu.
+     */
+    @Override
+    public Boolean eval(HashMap<String, Object> env, ReturnCheck ret) {
+        Number l = (Number) left.eval(env, ret);
+        Number r = (Number) right.eval(env, ret);
+        return (l.doubleValue() == r.doubleValue());
+    }
+
+    /**
+     * Ratkaistaan molempien expr:ien muuttujien paikat rekursiivisesti.
+     */
+    @Override
+    public void resolve(FrameLayout layout) {
+        left.resolve(layout);
+        right.resolve(layout);
+        // Kaksi intiä verrataan intteinä, muuten doubleina.
+        ints = left.kind() == 'I' && right.kind() == 'I';
+    }
+
+    /**
+     * Tarkistetaan operandit ja vertailun tyyppi.
+     */
+    @Override
+    public void verify(TreeVerifier v) {
+        left.verify(v);
+        right.verify(v);
+        v.check(ints == (left.kind() == 'I' && right.kind() == 'I'), "== has stale kind");
+    }
+
+    /**
+     * Suoritetaan vertailu kehyksen avulla.
+     */
+    @Override
+    public Boolean eval(Frame f, ReturnCheck ret) {
+        return Boolean.valueOf(evalBoolean(f, ret));
+    }
+
+    /**
+     * Suoritetaan vertailu kehyksen avulla ilman olioiden luomista.
+     */
+    @Override
+    public boolean evalBoolean(Frame f, ReturnCheck ret) {
+        if (ints)
+            return left.evalInt(f, ret) == right.evalInt(f, ret);
+        return left.evalDouble(f, ret) == right.evalDouble(f, ret);
+    }
+
+    /**
+     * Käännetään vertailu arvoksi 1 tai 0.
+     */
+    @Override
+    public char compile(BytecodeEmitter e) {
+        e.condition(this);
+        return 'Z';
+    }
+
+    /**
+     * Käännetään vertailu suoraan hypyksi.
+     */
+    @Override
+    public void compileCondition(BytecodeEmitter e, Label onFalse) {
+        if (ints) {
+            left.compile(e, 'I');
+            right.compile(e, 'I');
+            e.jump(BytecodeEmitter.IF_ICMPNE, onFalse);
+            return;
+        }
+        left.compile(e, 'D');
+        right.compile(e, 'D');
+        e.op(BytecodeEmitter.DCMPL, -3);
+        e.jump(BytecodeEmitter.IFNE, onFalse);
+    }
+
+    /**
+     * Vertailun tulos on totuusarvo.
+     */
+    @Override
+    public char kind() {
+        return 'Z';
+    }
+
+    /**
+     * Käännetään vertailu totuusarvorekisteriin.
+     */
+    @Override
+    public int compile(VMCompiler c, int dst) {
+        char kind = ints ? 'I' : 'D';
+        int l = left.compile(c, kind, -1);
+        int r = right.compile(c, kind, -1);
+        int z = c.target('Z', dst);
+        c.emit(ints ? VMProgram.EQI : VMProgram.EQD, z, l, r);
+        return z;
+    }
+
+    /**
+     * Käännetään vertailu suoraan ehdolliseksi hypyksi.
+     */
+    @Override
+    public void compileCondition(VMCompiler c, Label onFalse) {
+        char kind = ints ? 'I' : 'D';
+        int l = left.compile(c, kind, -1);
+        int r = right.compile(c, kind, -1);
+        c.jump(ints ? VMProgram.JNEQI : VMProgram.JNEQD, onFalse, l, r);
+    }
+
+    /**
+     * Muodostetaan vertailun sulkeuma.
+     */
+    @Override
+    public BooleanCode closureBoolean() {
+        if (ints) {
+            IntCode l = left.closureInt();
+            IntCode r = right.closureInt();
+            return f -> l.run(f) == r.run(f);
+        }
+        DoubleCode l = left.closureDouble();
+        DoubleCode r = right.closureDouble();
+        return f -> l.run(f) == r.run(f);
+    }
+
+    /**
+     * Muodostetaan alustamaton vertailu.
+     */
+    @Override
+    public ExprNode specialize() {
+        if (ints)
+            return new IntCompareNode('=', left.specialize(), right.specialize());
+        return new UninitializedCompareNode('=', left.specialize(), right.specialize());
+    }
+
+
+    /**
+     * Laskostetaan molemmat puolet. Jos molemmat ovat vakioita, vertailu
+     * lasketaan valmiiksi.
+     */
+    @Override
+    public Expr fold(ConstantFolder c) {
+        left = left.fold(c);
+        right = right.fold(c);
+        if (ConstantFolder.numbers(left, right))
+            return ConstantFolder.constant('Z', this);
+        return this;
+    }
+
+
+    /**
+     * Kerätään molempien puolten lukemat muuttujat.
+     */
+    @Override
+    public void countReads(Set<String> reads) {
+        left.countReads(reads);
+        right.countReads(reads);
+    }
+
+    /**
+     * Tarkistetaan molemmat puolet rekursiivisesti.
+     */
+    @Override
+    public boolean mayFail() {
+        return left.mayFail() || right.mayFail();
+    }
+
+
+    /**
+     * Siirretään vertailu kokonaan, jos se on invariantti. Muuten
+     * siirretään molempien puolten invariantit osat.
+     */
+    @Override
+    public Expr hoist(LoopHoister h) {
+        if (h.invariant(this))
+            return h.hoist(this);
+        left = left.hoist(h);
+        right = right.hoist(h);
+        return this;
+    }
+
+
+    /**
+     * Tarkistetaan molempien puolten taulukon haut.
+     */
+    @Override
+    public void checkBounds(BoundsChecker b) {
+        left.checkBounds(b);
+        right.checkBounds(b);
+    }
+
+
+    /**
+     * Int-vertailu voi olla reduktion ehto.
+     */
+    @Override
+    public Reduction reduction(String counter, AssignExpr then) {
+        return ints ? Reduction.compare('=', left, right, counter, then) : null;
+    }
+
+
+    /**
+     * Vertailun avain. Operandit järjestetään kuten vaihdannaisissa
+     * laskutoimituksissa.
+     */
+    @Override
+    public String key() {
+        String l = left.key();
+        String r = right.key();
+        if (l == null || r == null)
+            return null;
+        if (l.compareTo(r) > 0) {
+            String t = l;
+            l = r;
+            r = t;
+        }
+        return "(" + l + (ints ? "=I" : "=D") + r + ")";
+    }
+
+    /**
+     * Vertailu kannattaa käyttää uudelleen.
+     */
+    @Override
+    public boolean isReusable() {
+        return true;
+    }
+
+    /**
+     * Korvataan toistuva vertailu tai käsitellään operandit.
+     */
+    @Override
+    public Expr cse(ValueNumbering v) {
+        String key = mayFail() ? null : key();
+        Expr known = v.lookup(key, this);
+        if (known != null)
+            return known;
+        left = left.cse(v);
+        right = right.cse(v);
+        return v.define(key, this);
+    }
+}
+
+
+/**
+ * Luokka, joka suorittaa taulukon pituuden laskemisen.
+ */
+class LenghtExpr extends Expr {
+    private static final long serialVersionUID = 1L;
+
+    private String id;
+    private int slot;
+
+    /**
+     * Sijoitetaan parametrina tuotu arvo.
+     * @param id Sijoitettava tunniste/id
+     */
+    public LenghtExpr(String id) {
+        this.id = id;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
+     */
+    @Override
+    public void printTree(PrintWriter pw) {
+        pw.print("( ");
+        pw.printf("%s .length", id);
+        pw.print(" )");
     }
 
     /**
-     * Tarkistetaan onko tyyppi int-taulukko.
+     * Tyyppitarkastus, jossa tarkastetaan, että id löytyy tenvistä ja
+     * että id:n arvo on tyypiltään IntSequence (int-taulukko). Pituus on
+     * int.
      */
     @Override
-    public boolean isIntSequence() {
-        return true;
+    protected Type check(HashMap<String, Type> tenv) {
+        if (!tenv.containsKey(id)) {
+            System.err.printf("Variable name %s has not been declared.\n", id);
+        }
+        if (!tenv.get(id).isIntSequence()) {
+            System.err.printf("Variable %s must be an int array.\n", id);
+            return null;
+        }
+        return Type.INT;
     }
-}
-
-/**
- * Tyyppiluokka, jolla merkataan doublea.
- */
-class TypeDouble extends Type {
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Lasketaan id:llä löytyvän int-taulukon pituus.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print("double ");
+    public Integer eval(HashMap<String, Object> env, ReturnCheck r) {
+        int[] t = (int[]) env.get(id);
+        return Integer.valueOf(t.length);
     }
 
     /**
-     * Tarkastetaan, voidaanko parametrina tuotu tyyppi sijoittaa
-     * haluttuun tyyppiin.
+     * Ratkaistaan id:n paikka kehyksessä.
      */
     @Override
-    public boolean canAssignTo(Type type) {
-        return type.isDouble();
+    public void resolve(FrameLayout layout) {
+        slot = layout.slot(id);
     }
 
     /**
-     * Tarkistetaan onko tyyppi double.
+     * Tarkistetaan taulukon lukeminen.
      */
     @Override
-    public boolean isDouble() {
-        return true;
+    public void verify(TreeVerifier v) {
+        v.use(id, slot, '[');
     }
-}
-
-
-/**
- * Tyyppiluokka, jolla merkataan booleania.
- */
-class TypeBool extends Type {
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Lasketaan kehyksestä löytyvän int-taulukon pituus.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print("boolean ");
+    public Integer eval(Frame f, ReturnCheck r) {
+        return Integer.valueOf(evalInt(f, r));
     }
 
     /**
-     * Tarkastetaan, voidaanko parametrina tuotu tyyppi sijoittaa
-     * haluttuun tyyppiin.
+     * Lasketaan kehyksestä löytyvän int-taulukon pituus intinä.
      */
     @Override
-    public boolean canAssignTo(Type type) {
-        return type.isBool();
+    public int evalInt(Frame f, ReturnCheck r) {
+        return f.arrays[slot].length;
     }
-    
+
     /**
-     * Tarkistetaan onko tyyppi boolean.
+     * Lasketaan kehyksestä löytyvän int-taulukon pituus doublena.
      */
     @Override
-    public boolean isBool() {
-        return true;
+    public double evalDouble(Frame f, ReturnCheck r) {
+        return f.arrays[slot].length;
     }
-}
-
-
-/**
- * Declien ylluokka, jonka alle kuuluvat DeclExpr ja DeclArray.
- * Tmn luokan metodeihin ei kuulu koskaan tulla forloopDeclCheck-metodia
- * lukuun ottamatta. Luokka on luotu pasiassa perimisen takia.
- */
-abstract class Decl extends Stmt {
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Käännetään taulukon pituuden laskeminen.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print(" ( decl ) ");
+    public char compile(BytecodeEmitter e) {
+        e.load('[', slot);
+        e.op(BytecodeEmitter.ARRAYLENGTH, 0);
+        return 'I';
     }
 
     /**
-     * Tyyppitarkastus. Metodi luotu perint varten.
+     * Taulukon pituus on int.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        //
+    public char kind() {
+        return 'I';
     }
 
     /**
-     * Tyyppitarkastus silmukan muuttujan alustamiseen.
-     * Default-metodi.
-     * @param tenv Tyyppiymprist
-     * @return True, jos Decl on sopiva silmukan alustustoimenpiteeseen, muuten false
+     * Käännetään taulukon pituuden laskeminen.
      */
-    public boolean forloopDeclCheck(HashMap<String, Type> tenv) {
-        return false;
+    @Override
+    public int compile(VMCompiler c, int dst) {
+        int d = c.target('I', dst);
+        c.emit(VMProgram.LENA, d, slot);
+        return d;
     }
 
     /**
-     * Default-metodi id:n kysymiseen. Metodi luotu perint varten.
-     * @return id:n arvo merkkijonona
+     * Muodostetaan taulukon pituuden sulkeuma.
      */
-    public String getID() {
-        System.err.printf("Trying to ask id value from abstract Decl!\n");
-        return "";
+    @Override
+    public IntCode closureInt() {
+        int s = slot;
+        return f -> f.arrays[s].length;
     }
-}
-
-/**
- * Luokka uuden arvon alustamista varten.
- * Luokalla on tyyppi ja id, sek Expr arvo.
- */
-class DeclExpr extends Decl {
-    private Type type;
-    private String id;
-    private Expr expr;
 
     /**
-     * Sijoitetaan parametreina tuodut arvot.
-     * @param type Sijoitettava tyyppi
-     * @param id Sijoitettava tunniste/id
-     * @param expr Sijoitettava lauseke/expressions
+     * Muodostetaan taulukon pituuden solmu.
      */
-    public DeclExpr(Type type, String id, Expr expr) {
-        this.type = type;
-        this.id = id;
-        this.expr = expr;
+    @Override
+    public ExprNode specialize() {
+        return new LengthNode(slot);
     }
 
+
     /**
-     * Metodi ID:n kysymiseen.
+     * Korvataan vakiotaulukon pituus vakiolla.
      */
     @Override
-    public String getID() {
-        return id;
+    public Expr fold(ConstantFolder c) {
+        int[] t = c.array(id);
+        return t != null ? new ConstExpr(t.length) : this;
     }
 
+
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Taulukko luetaan.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print(" ( ");
-        type.printTree(pw);
-        pw.printf(" %s ", id);
-        expr.printTree(pw);
-        pw.print(" ) ");
+    public void countReads(Set<String> reads) {
+        reads.add(id);
     }
 
+
     /**
-     * Tyyppitarkastetaan DeclExpr vaihe vaiheelta.
+     * Taulukon pituus siirretään, jos taulukkoa ei sijoiteta silmukassa.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        // Tarkastetaan onko ID jo tenviss. 
-        if (tenv.containsKey(id)) {
-            System.err.printf("Variable name %s has already been declared\n",
-                    id);
-            return;
-        }
-        // Listn ID ja type tyyppiympristn.
-        tenv.put(id, type);
-
-        // Tarkastetaan onko expr:n tyyppi yhteensopiva DeclExpr:n tyypin kanssa.
-        Type t = expr.type(tenv);
-        if (!t.canAssignTo(type)) {
-            System.err.println("Type mismatch on declaration");
-            return;
-        }
+    public Expr hoist(LoopHoister h) {
+        if (h.invariant(this))
+            return h.hoist(this);
+        return this;
     }
 
+
     /**
-     * Tarkastetaan, kyk DeclExpr silmukan muuttujan alustamiseen.
+     * Pituuden lauseke on t.length.
      */
     @Override
-    public boolean forloopDeclCheck(HashMap<String, Type> tenv) {
-        // Tarkastetaan onko DeclExpr:n tyyppi int. 
-        if (!type.isInt()) {
-            System.err.println("Decl type must be int!");
-            return false;
-        }
-        
-        // Tarkastetaan onko vastaava id jo listty tenviin.
-        if (tenv.containsKey(id)) {
-            System.err.printf("Variable name %s has already been declared\n",
-                    id);
-            return false;
-        }
-        // Listn ID ja type tyyppiympristn.
-        tenv.put(id, type);
-        
-        // Tarkastetaan, ett Expr:n tyyppi on TypeInt.
-        if (!expr.type(tenv).isInt()) {
-            System.err.println("Expr type must be type TypeInt!");
-            return false;
-        }
-        
-        // Palautetaan tosi, jos DeclExpr:n tyyppi oli int, muuttujaa ei oltu
-        // listty tenviin aikaisemmin ja Expr:n tyyppi on TypeInt.
-        return true;
+    public String lengthOf() {
+        return id;
     }
 
+
     /**
-     * Listn env:iin id ja expr:n evaluoitu arvo.
+     * Taulukon pituuden avain.
      */
     @Override
-    public void eval(HashMap<String, Object> env, ReturnCheck r) {
-        env.put(id, expr.eval(env, r));
+    public String key() {
+        return "#" + slot;
     }
 }
 
 
 /**
- * Luokka uuden int-taulukon alustamista varten.
- * Luokalla on tyyppi, id ja int-taulukko arvo.
+ * Luokka, joka on vastuussa ehtolauseiden toiminnasta.
+ * Luokka sisältää aina ehdon (expr), joka suoritetaan ja
+ * 1-2 blockia riippuen siitä, onko syöteohjelmaan kirjoitettu
+ * mahdollista else-haaraa.
  */
-class DeclArray extends Decl {
-    private Type type;
-    private String id;
-    private int[] consts;
+class IfStatement extends Stmt {
+    private static final long serialVersionUID = 1L;
+
+    private Expr expr;
+    private Block[] blocks;
 
     /**
-     * Sijoitetaan parametreina tuodut arvot.
-     * @param type Sijoitettava tyyppi
-     * @param id Sijoitettava tunniste/id
-     * @param consts Sijoitettava int-taulukko
+     * sijoitetaan parametreina tuodut arvot.
+     * @param expr Sijoitettava expr
+     * @param statements Sijoitettavat blockit
      */
-    public DeclArray(Type type, String id, int[] consts) {
-        this.type = type;
-        this.id = id;
-        this.consts = consts;
+    public IfStatement(Expr expr, Block[] statements) {
+        this.expr = expr;
+        this.blocks = statements;
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Kopioidaan ehto ja lohkot.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        type.printTree(pw);
-        pw.print(id);
-        for (int a : consts) {
-            pw.printf(" %s ", a);
+    public Stmt copy() {
+        IfStatement copy = (IfStatement) super.copy();
+        copy.expr = expr.copy();
+        copy.blocks = new Block[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            copy.blocks[i] = blocks[i].copy();
         }
+        return copy;
     }
 
     /**
-     * Tyyppitarkastetaan DeclArray vaihe vaiheelta.
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        // Tarkastetaan, onko type tyyppi int.
-        if (!type.isInt()) {
-            System.err.println("Array type must be int.");
-            return;
-        }
-        // Tarkastetaan onko vastaava id jo listty tenviin.
-        if (tenv.containsKey(id)) {
-            System.err.printf("Variable name %s has already been declared.\n",
-                    id);
-            return;
+    public void printTree(PrintWriter pw) {
+        pw.print("( if ");
+        expr.printTree(pw);
+        blocks[0].printTree(pw);
+        if (blocks.length == 2) {
+            pw.print(" else ");
+            blocks[1].printTree(pw);
         }
-        type = new TypeIntSequence();
-        // Listn tenv:iin id ja type
-        tenv.put(id, type);
+        pw.print(" )");
     }
 
     /**
-     * Listn env:iin id ja consts.
+     * Tyyppitarkastetaan, että expr on varmasti tyyppiä boolean.
+     * Blockien sisältämät statementit tyyppitarkastetaan rekursiivisesti.
      */
     @Override
-    public void eval(HashMap<String, Object> env, ReturnCheck r) {
-        env.put(id, consts);
+    public void typecheck(HashMap<String, Type> tenv) {
+        if (!expr.type(tenv).isBool()) {
+            System.err.println("If statement requires type boolean!");
+        }
+        for (Block b : blocks) {
+            b.typecheck(tenv);
+        }
     }
-}
-
-
-/**
- * Assignien ylluokka, jonka alle kuuluvat AssignExpr ja AssignArray.
- * Tmn luokan metodeihin ei kuulu koskaan tulla. Luokka on luotu perimisen takia.
- */
-abstract class Assign extends Stmt {
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Evaluoidaan IfStamentti expristä evaluoidun arvon mukaan.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print(" ( assign ) ");
+    public void eval(HashMap<String, Object> env, ReturnCheck r) {
+        Boolean b = (Boolean) expr.eval(env, r);
+        // Jos ehto on true evaluoidaan blocks-taulukon ensimmäinen indeksi.
+        // Jos ehto on false evaluoidaan blocks-taulukon toinen indeksi.
+        if (b.booleanValue()) {
+            blocks[0].eval(env, r);
+        } else {
+            // Jos else-haara löytyy (blocks-taulukon pituus on enemmän kuin 1)
+            // suoritetaan se.
+            if (blocks.length > 1) {
+                blocks[1].eval(env, r);
+            }
+        }
     }
 
     /**
-     * Tyyppitarkastus. Metodi luotu perint varten.
+     * Ratkaistaan ehdon ja blockien muuttujien paikat kehyksessä.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        //
-    }
-    
-}
-
-
-/**
- * Luokka arvon sijoittamista varten.
- * Luokalla on id, sek Expr arvo.
- */
-class AssignExpr extends Assign {
-    private String id;
-    private Expr expr;
-
-    /**
-     * Sijoitetaan parametreina tuodut arvot.
-     * @param id Sijoitettava tunniste/id
-     * @param expr Sijoitettava lauseke/expression
-     */
-    public AssignExpr(String id, Expr expr) {
-        this.id = id;
-        this.expr = expr;
+    public void resolve(FrameLayout layout) {
+        expr.resolve(layout);
+        for (Block b : blocks) {
+            b.resolve(layout);
+        }
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Tarkistetaan ehto ja haarat.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print(" ( ");
-        pw.printf(" %s ", id);
-        expr.printTree(pw);
-        pw.print(" ) ");
+    public void verify(TreeVerifier v) {
+        expr.verify(v);
+        v.expect(expr, "if condition", "Z");
+        for (Block block : blocks) {
+            block.verify(v);
+        }
     }
 
     /**
-     * Tyyppitarkastetaan AssignExpr vaihe vaiheelta.
+     * Evaluoidaan IfStatement kehyksen avulla.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        // Tarkastetaan, onko vastaava id jo listty tenviin.
-        if (!tenv.containsKey(id)) {
-            System.err.printf("Variable name %s has not been declared.\n", id);
-            return;
-        }
-        Type t = expr.type(tenv);
-        
-        // Tarkastetaan vastaavatko tyypit toisiaan.
-        if (!t.canAssignTo(tenv.get(id))) {
-            System.err.println("Types missmatch");
-            return;
+    public void eval(Frame f, ReturnCheck r) {
+        if (expr.evalBoolean(f, r)) {
+            blocks[0].eval(f, r);
+        } else {
+            if (blocks.length > 1) {
+                blocks[1].eval(f, r);
+            }
         }
     }
 
     /**
-     * Listn env:iin id ja expr:n evaluoitu arvo.
+     * Käännetään ehtolause. Ehto käännetään suoraan hypyksi else-haaraan.
      */
     @Override
-    public void eval(HashMap<String, Object> env, ReturnCheck r) {
-        env.put(id, expr.eval(env, r));
+    public void compile(BytecodeEmitter e) {
+        Label otherwise = new Label();
+        Label end = new Label();
+        expr.compileCondition(e, otherwise);
+        blocks[0].compile(e);
+        if (blocks.length > 1) {
+            e.jump(BytecodeEmitter.GOTO, end);
+            e.mark(otherwise);
+            blocks[1].compile(e);
+        } else {
+            e.mark(otherwise);
+        }
+        e.mark(end);
     }
-}
-
-
-/**
- * Luokka int-taulukon sijoittamista varten.
- * Luokalla on id ja int-taulukko.
- */
-class AssignArray extends Assign {
-    private String id;
-    private int[] consts;
 
     /**
-     * Sijoitetaan parametreina tuodut arvot.
-     * @param id Sijoitettava tunniste/id
-     * @param consts Sijoitettava int-taulukko
+     * Käännetään ehtolause. Ehto käännetään suoraan hypyksi else-haaraan.
      */
-    public AssignArray(String id, int[] consts) {
-        this.id = id;
-        this.consts = consts;
+    @Override
+    public void compile(VMCompiler c) {
+        Label otherwise = new Label();
+        Label end = new Label();
+        c.statement();
+        expr.compileCondition(c, otherwise);
+        blocks[0].compile(c);
+        if (blocks.length > 1) {
+            c.jump(VMProgram.JMP, end);
+            c.mark(otherwise);
+            blocks[1].compile(c);
+        } else {
+            c.mark(otherwise);
+        }
+        c.mark(end);
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Muodostetaan ehtolauseen sulkeuma. Else-haaran olemassaolo
+     * ratkaistaan jo tässä.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print(" ( ");
-        pw.printf(" %s ", id);
-        for (int a : consts) {
-            pw.printf(" %s ", a);
+    public StmtCode closure() {
+        BooleanCode cond = expr.closureBoolean();
+        StmtCode then = blocks[0].closure();
+        if (blocks.length > 1) {
+            StmtCode otherwise = blocks[1].closure();
+            return f -> cond.run(f) ? then.run(f) : otherwise.run(f);
         }
-        pw.print(" ) ");
+        return f -> cond.run(f) && then.run(f);
     }
-    
+
     /**
-     * Tyyppitarkastetaan AssignArray vaihe vaiheelta.
+     * Muodostetaan ehtolauseen solmu.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        // Tarkastetaan, onko vastaava id jo listty tenviin.
-        if (!tenv.containsKey(id)) {
-            System.err.printf("Variable name %s has not been declared.\n", id);
-        }
-        // Tarkastetaan, onko id:n tyyppi IntSequence.
-        if (!tenv.get(id).isIntSequence()) {
-            System.err.printf("%s type is not IntSequence type.\n", id);
+    public StmtNode specialize() {
+        StmtNode otherwise = blocks.length > 1 ? blocks[1].specialize() : null;
+        return new IfNode(expr.specialize(), blocks[0].specialize(), otherwise);
+    }
+
+
+    /**
+     * Lasketaan lohkojen kirjoitukset.
+     */
+    @Override
+    public void countWrites(ConstantFolder c) {
+        for (Block block : blocks) {
+            block.countWrites(c);
         }
     }
 
     /**
-     * Listn env:iin id ja consts.
+     * Laskostetaan ehto ja lohkot.
      */
     @Override
-    public void eval(HashMap<String, Object> env, ReturnCheck r) {
-        env.put(id, consts);
+    public void fold(ConstantFolder c) {
+        expr = expr.fold(c);
+        for (Block block : blocks) {
+            block.fold(c);
+        }
     }
-}
 
-/**
- * Luokka, jolla merkataan silmukan (ForLoop) toiston jlkeist indeksin
- * kasvatus tai vhennys operaatiota (esim. perinteinen i++).
- */
-class Iterator {
-    private String id;
-    private String op;
 
     /**
-     * Sijoitetaan parametreina tuodut arvot.
-     * @param id Sijoitettava id
-     * @param op Sijoitettava operaation merkkijonona (++ tai --)
+     * Kerätään ehdon ja lohkojen lukemat muuttujat.
      */
-    public Iterator(String id, String op) {
-        this.id = id;
-        this.op = op;
+    @Override
+    public void countReads(Set<String> reads) {
+        expr.countReads(reads);
+        for (Block block : blocks) {
+            block.countReads(reads);
+        }
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
-     * @param pw Printwriter syntaksipuun kirjoittamiseen
+     * Ehdon lukemat säilyvät, haarojen lukemat lasketaan statementeittain.
      */
-    public void printTree(PrintWriter pw) {
-        pw.print(" ( ");
-        pw.printf("%s", id);
-        pw.print(op);
-        pw.print(" ) ");
+    @Override
+    public void countUses(UseCounts uses) {
+        Set<String> reads = new HashSet<String>();
+        expr.countReads(reads);
+        uses.read(reads);
+        for (Block block : blocks) {
+            block.countUses(uses);
+        }
     }
 
     /**
-     * Tyyppitarkastetaan AssignArray vaihe vaiheelta.
-     * @param tenv Tyyppiymprist
+     * Jos ehto on vakio, if-lause korvataan suoritettavan haaran
+     * statementeilla. Muuten karsitaan molemmat haarat.
      */
-    public void typecheck(HashMap<String, Type> tenv) {
-        // Tarkastetaan, onko vastaava id jo listty tenviin. 
-        if (!tenv.containsKey(id)) {
-            System.err.printf("%s has not been declared.\n", id);
+    @Override
+    public boolean prune(Set<String> reads, List<Stmt> out) {
+        if (expr.isConstant() && expr.kind() == 'Z') {
+            Block chosen = expr.evalBoolean(null, null) ? blocks[0]
+                    : blocks.length > 1 ? blocks[1] : null;
+            if (chosen != null) {
+                chosen.prune(reads);
+                chosen.inline(out);
+            }
+            return true;
         }
-        // Tarkastetaan, ett id:n tyyppi on int.
-        if (!tenv.get(id).isInt()) {
-            System.err.printf(
-                    "Incompatible type in iterator, requires int was %s.\n",
-                    tenv.get(id));
+        boolean changed = false;
+        for (Block block : blocks) {
+            changed |= block.prune(reads);
         }
+        out.add(this);
+        return changed;
     }
 
     /**
-     * Evaluoidaan Iteraattorin arvo ja pivitetn uusi arvo enviin.
-     * @param env Ymrprist
-     * @param r ReturnCheck-olio
+     * If-lause palauttaa aina, jos molemmat haarat palauttavat aina.
      */
-    public void eval(HashMap<String, Object> env, ReturnCheck r) {
-        // Haetaan Iteraattorin arvo envist id:n avulla.
-        Double idvalue = (Double) env.get(id);
-        double intval = idvalue.doubleValue();
-        
-        // Jos op on ++, korotetaan arvoa yhdell, muuten vhennetn yhdell.
-        if (op.equals("++"))
-            intval++;
-        else 
-            intval--;
-        
-        // Listn env:iin id ja pivitetty intval.
-        // Id-avain lytyy envist jo ennestn, joten id:lle pivitetn uusi arvo.
-        env.put(id, Double.valueOf(intval));
+    @Override
+    public boolean alwaysReturns() {
+        return blocks.length == 2 && blocks[0].alwaysReturns() && blocks[1].alwaysReturns();
     }
-}
 
-
-/**
- * Exprien (lauseke/expression) abstrakti ylluokka, jonka alle kuuluvat VarExpr,
- * IndexExpr, ConstExpr, ParenExpr, MulExpr, AddExpr, LessthanExpr, GreaterthanExpr,
- * EqualExpr ja LengthExpr.
- * Tmn luokan metodeihin ei kuulu koskaan tulla. Luokka on luotu perimisen takia. 
- */
-abstract class Expr {
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
-     * @param pw Printwriter syntaksipuun kirjoittamiseen
+     * Return voi suorittua kummassa tahansa haarassa.
      */
-    public void printTree(PrintWriter pw) {
-        pw.print(" ( expr ) ");
+    @Override
+    public boolean mayReturn() {
+        for (Block block : blocks) {
+            if (block.mayReturn())
+                return true;
+        }
+        return false;
     }
 
+
     /**
-     * Tyyppitarkastus. Metodi luotu perint varten.
-     * @param tenv Tyyppiymprist
+     * Siirretään ehdon ja lohkojen invariantit osat.
      */
-    public void typecheck(HashMap<String, Type> tenv) {
-        System.err.println("Incorrect typecheck of expr.");
+    @Override
+    public void hoist(LoopHoister h) {
+        expr = expr.hoist(h);
+        for (Block block : blocks) {
+            block.hoist(h);
+        }
     }
 
     /**
-     * Palautetaan expr:n tyyppi. Metodi luotu perint varten.
-     * @param tenv Tyyppiymprist
-     * @return Expr-olion tyypin
+     * Etsitään silmukoita molemmista lohkoista.
      */
-    public Type type(HashMap<String, Type> tenv) {
-        System.err.println("Incorrect use of expr in method type.");
-        return null;
+    @Override
+    public void hoistLoops(FrameLayout layout, List<Stmt> out) {
+        for (Block block : blocks) {
+            block.hoistLoops(layout);
+        }
+        out.add(this);
     }
 
+
     /**
-     * Evaluointi. Metodi luotu perint varten.
-     * @param env Ymprist
-     * @param r ReturnCheck-olio
-     * @return Expr:n evaluoitu arvo osbjectina
+     * Korvataan haarojen kertymäsilmukat.
      */
-    public Object eval(HashMap<String, Object> env, ReturnCheck r) {
-        System.err.println("Incorrect use of expr in method eval.");
-        return null;
+    @Override
+    public Stmt closedForm() {
+        for (Block block : blocks) {
+            block.closedForm();
+        }
+        return this;
     }
-}
-
 
-/**
- * Luokka, joka edustaa muuttujaa.
- */
-class VarExpr extends Expr {
-    private String id;
 
     /**
-     * Sijoitetaan parametrina tuotu id.
-     * @param id Sijoitettava tunniste/id
+     * Tarkistetaan ehdon ja haarojen taulukon haut.
      */
-    public VarExpr(String id) {
-        this.id = id;
+    @Override
+    public void checkBounds(BoundsChecker b) {
+        expr.checkBounds(b);
+        for (Block block : blocks) {
+            block.checkBounds(b);
+        }
     }
 
+
     /**
-     * Palautetaan expr:n tyyppi.
-     * Expr:n tulee lyty tyyppiympristst, jotta tyyppi voidaan palauttaa. 
+     * Korvataan haarojen reduktiosilmukat.
      */
     @Override
-    public Type type(HashMap<String, Type> tenv) {
-        if (tenv.containsKey(id)) {
-            return tenv.get(id);
+    public Stmt reductions() {
+        for (Block block : blocks) {
+            block.reductions();
         }
-        System.err.printf("Variable name %s has not been declared.\n", id);
-        return null;
+        return this;
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * If-lause ilman else-haaraa, jonka ainoa statement on sijoitus, voi olla
+     * minimi, maksimi tai ehdon täyttävien alkioiden laskenta.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.printf(" %s ", id);
+    public Reduction reduction(String counter) {
+        if (blocks.length != 1)
+            return null;
+        Stmt stmt = blocks[0].single();
+        AssignExpr then = stmt == null ? null : stmt.assignment();
+        if (then == null)
+            return null;
+        return expr.reduction(counter, then);
     }
 
+
     /**
-     * Tyyppitarkastus. Id:n tulee lyty tenvist.
+     * Käsitellään ehto ja lohkot. Lohkojen arvot eivät ole saatavilla
+     * ehtolauseen jälkeen, ja lohkoissa kirjoitettavia muuttujia lukevat
+     * arvot poistetaan.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        if (!tenv.containsKey(id)) {
-            System.err.printf("Variable name %s has not been declared.\n", id);
+    public void cse(ValueNumbering v) {
+        expr = expr.cse(v);
+        for (Block b : blocks) {
+            v.enter();
+            b.cse(v);
+            v.leave();
         }
+        ConstantFolder writes = new ConstantFolder();
+        countWrites(writes);
+        v.write(writes);
     }
-    
+
+
     /**
-     * Evaluointi. Palautetaan envist id:ll lytyv arvo.
+     * Ehtolauseen koko sisältää molemmat lohkot.
      */
     @Override
-    public Object eval(HashMap<String, Object> env, ReturnCheck r) {
-        return env.get(id);
+    public int size() {
+        int size = 1;
+        for (Block block : blocks) {
+            size += block.size();
+        }
+        return size;
+    }
+
+    /**
+     * Avataan haarojen silmukat.
+     */
+    @Override
+    public void unroll(FrameLayout layout, ConstantFolder c, List<Stmt> out) {
+        for (Block block : blocks) {
+            block.unroll(layout, c);
+        }
+        out.add(this);
     }
 }
 
+
 /**
- * Luokka, joka edustaa int-taulukon indeksi.
- * Id edustaa muuttujan nime ja index indeksi, jolla osoitetaan tietty taulukon arvoa.
+ * Luokka, joka on vastuussa silmukan toiminnasta.
  */
-class IndexExpr extends Expr {
-    private String id;
-    private Expr index;
+class ForLoop extends Stmt {
+    private static final long serialVersionUID = 1L;
 
     /**
-     * Sijoitetaan parametreina tuodut arvot.
-     * @param id Sijoitettava tunniste/id
-     * @param index Sijoitettava Expr indeksi
+     * Takaisinhyppyjen määrä, jonka jälkeen porrastetussa suorituksessa
+     * silmukka käännetään sulkeumiksi.
      */
-    public IndexExpr(String id, Expr index) {
-        this.id = id;
-        this.index = index;
-    }
+    static final int TIER_THRESHOLD = 1000;
+
+    private Decl decl;
+    private Expr expr;
+    private Iterator iterator;
+    private Block block;
+    private transient int backEdges;
+    private transient StmtCode compiled;
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param decl Sijoitettava Decl alustustoimenpiteeseen
+     * @param expr Sijoitettava Expr
+     * @param iterator Sijoitettava Iteraattori
+     * @param statement Sijoitettava Blocks
      */
-    @Override
-    public void printTree(PrintWriter pw) {
-        pw.print(" ( ");
-        pw.print(id);
-        pw.print("[");
-        index.printTree(pw);
-        pw.print("]");
-        pw.print(" ) ");
+    public ForLoop(Decl decl, Expr expr, Iterator iterator, Block statement) {
+        this.decl = decl;
+        this.expr = expr;
+        this.iterator = iterator;
+        this.block = statement;
     }
 
     /**
-     * Tyyppitarkastus, jossa tarkastetaan, ett id lytyy tenvist,
-     * id:n arvon tyyppi on IntSequence (int-taulukko) ja indexin arvolla pystytn
-     * osoittamaan paikkaa taulukossa.
+     * Kopioidaan esittely, ehto, iteraattori ja lohko. Kopio aloittaa
+     * takaisinhyppyjen laskennan alusta eikä ole käännetty.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        if (!tenv.containsKey(id)) {
-            System.err.printf("Variable name %s has not been declared.\n", id);
-        }
-        if (!tenv.get(id).isIntSequence()) {
-            System.err.printf("Variable %s is not int array.\n", id);
-        }
-        Type i = index.type(tenv);
-        if (!i.isInt()) {
-            System.err.println("Array index must evaluate to integer");
-        }
+    public ForLoop copy() {
+        ForLoop copy = (ForLoop) super.copy();
+        copy.decl = (Decl) decl.copy();
+        copy.expr = expr.copy();
+        copy.iterator = iterator.copy();
+        copy.block = block.copy();
+        copy.backEdges = 0;
+        copy.compiled = null;
+        return copy;
     }
 
     /**
-     * Palautetaan expr:n tyyppi.
-     * Expr:n tulee lyty tyyppiympristst, jotta tyyppi voidaan palauttaa. 
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
      */
     @Override
-    public Type type(HashMap<String, Type> tenv) {
-        return index.type(tenv);
+    public void printTree(PrintWriter pw) {
+        pw.print("( for (");
+        decl.printTree(pw);
+        expr.printTree(pw);
+        pw.print(";");
+        iterator.printTree(pw);
+        pw.print(")");
+        block.printTree(pw);
+        pw.print(" )");
     }
 
     /**
-     * Evaluoidaan int-taulukosta arvo kohdasta index.
+     * Tyyppitarkastetaan silmukan kaikki osat.
      */
     @Override
-    public Double eval(HashMap<String, Object> env, ReturnCheck r) {
-        // Alustetaan taulukko t noutamalla id:n arvo env:st
-        int[] t = (int[]) env.get(id);
-        // Evaluoidaan indexin arvo
-        Double d = (Double) index.eval(env, r);
-
-        // Tarkistetaan onko d:n arvo taulukon t rajojen sisll.
-        if (d.doubleValue() > t.length - 1 || d.doubleValue() < 0) {
-            System.err.printf("Index out of bounds, index was %s.\n",
-                    d.doubleValue());
-            return null;
+    public void typecheck(HashMap<String, Type> tenv) {
+        if (!decl.forloopDeclCheck(tenv)) {
+            System.err.println("For statement variable type can't be an array!");
         }
-        // Palautetaan taulukosta t arvo, joka sijaitsee indeksiss d.
-        return Double.valueOf(t[d.intValue()]);
+        if (!expr.type(tenv).isBool()) {
+            System.err.println("For statement requires expr to be type boolean!");
+        }
+        iterator.typecheck(tenv);
+        block.typecheck(tenv);
     }
-}
-
-
-/**
- * Luokka, joka edustaa kokonaislukuarvoja.
- * Val kertoo kokonaislukuarvon.
- */
-class ConstExpr extends Expr {
-    private int val;
 
     /**
-     * Sijoitetaan parametrina tuotu arvo.
-     * @param val Sijoitettava kokonaislukuarvo
+     * 
      */
-    public ConstExpr(int val) { // 
-        this.val = val;
+    @Override
+    public void eval(HashMap<String, Object> env, ReturnCheck r) {
+        // Evaluoidaan silmukkamuuttuja
+        decl.eval(env, r);
+        loop(env, r);
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Evaluoidaan silmukka ilman alustusta.
+     * @param env Ympäristö
+     * @param r ReturnCheck-olio
      */
-    @Override
-    public void printTree(PrintWriter pw) {
-        pw.printf(" %s ", val);
+    void loop(HashMap<String, Object> env, ReturnCheck r) {
+        // Aloitetaan for-silmukan evaluointi
+        while (true) {
+            // Tarkistetaan täyttyykö silmukan ehto
+            Boolean b = (Boolean) expr.eval(env, r);
+            if (!b.booleanValue())
+                break;
+            // Evaluoidaan block
+            block.eval(env, r);
+            // Tarkistetaan onko silmukan sisällä suoritettu return-statementtia
+            if (r.isReturned())
+                break;
+            // Evaluoidaan iteraattori (esim. silmukan perinteinen i++)
+            iterator.eval(env, r);
+        }
     }
 
     /**
-     * Tyyppitarkastus, jossa ei tehd mitn, koska virhe tulisi huomata jo
-     * aikaisemmin ANTLR:n generoimissa Java-tiedostoissa.
+     * Ratkaistaan silmukan kaikkien osien muuttujien paikat kehyksessä.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        // Tyhj toteutus
+    public void resolve(FrameLayout layout) {
+        decl.resolve(layout);
+        expr.resolve(layout);
+        iterator.resolve(layout);
+        block.resolve(layout);
     }
 
     /**
-     * Palautetaan expr:n tyyppi.
-     * Expr:n tulee lyty tyyppiympristst, jotta tyyppi voidaan palauttaa. 
+     * Tarkistetaan esittely, ehto, lohko ja iteraattori suoritusjärjestyksessä.
      */
     @Override
-    public Type type(HashMap<String, Type> tenv) {
-        return new TypeInt();
+    public void verify(TreeVerifier v) {
+        decl.verify(v);
+        expr.verify(v);
+        v.expect(expr, "loop condition", "Z");
+        block.verify(v);
+        iterator.verify(v);
     }
 
     /**
-     * Palautetaan val:n arvo Double-oliona.
+     * Evaluoidaan silmukka kehyksen avulla. Porrastetussa suorituksessa
+     * (f.tierThreshold > 0) silmukka laskee takaisinhyppyjään kaikkien
+     * suorituskertojen yli. Kun raja ylittyy, loput kierrokset suoritetaan
+     * sulkeumiksi käännettynä samassa kehyksessä, ja myöhemmät suoritukset
+     * käyttävät käännettyä silmukkaa suoraan.
      */
     @Override
-    public Double eval(HashMap<String, Object> env, ReturnCheck r) {
-        return Double.valueOf(val);
-    }
-}
-
-
-/**
- * Luokka, joka edustaa sulutettua Expr-oliota.
- * ParenExpr on ksittely jrjestyksess ennen aritmetiikkaa ja vertailua
- * suorittavia expr-olioita. Jrjestys on asetettu Minisharp.g4 -tiedostossa.
- */
-class ParenExpr extends Expr {
-    private Expr paren;
-
-    /**
-     * Sijoitetaan parametrina tuotu arvo.
-     * @param paren Sijoitettava expr
-     */
-    public ParenExpr(Expr paren) { // 
-        this.paren = paren;
+    public void eval(Frame f, ReturnCheck r) {
+        decl.eval(f, r);
+        loop(f, r);
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Evaluoidaan silmukka kehyksen avulla ilman alustusta.
+     * @param f Kehys
+     * @param r ReturnCheck-olio
      */
-    @Override
-    public void printTree(PrintWriter pw) {
-        pw.print("( ");
-        paren.printTree(pw);
-        pw.print(" )");
+    void loop(Frame f, ReturnCheck r) {
+        if (compiled != null) {
+            if (compiled.run(f))
+                r.setReturn();
+            return;
+        }
+        while (true) {
+            if (!expr.evalBoolean(f, r))
+                break;
+            block.eval(f, r);
+            if (r.isReturned())
+                break;
+            iterator.eval(f, r);
+            if (f.tierThreshold > 0 && ++backEdges >= f.tierThreshold) {
+                compiled = loopClosure();
+                if (compiled.run(f))
+                    r.setReturn();
+                break;
+            }
+        }
     }
 
     /**
-     * Suoritetaan tyyppitarkastus rekursiivisesti.
+     * Käännetään silmukka JVM:n silmukaksi, jonka HotSpot voi kääntää
+     * edelleen konekoodiksi.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        paren.typecheck(tenv);
+    public void compile(BytecodeEmitter e) {
+        decl.compile(e);
+        compileLoop(e);
     }
 
     /**
-     * Palautetaan parenin tyyppi rekursiivisesti.
-     * Expr:n tulee lyty tyyppiympristst, jotta tyyppi voidaan palauttaa. 
+     * Käännetään silmukka ilman alustusta.
+     * @param e Tavukoodin kirjoittaja
      */
-    @Override
-    public Type type(HashMap<String, Type> tenv) {
-        return paren.type(tenv);
+    void compileLoop(BytecodeEmitter e) {
+        Label cond = new Label();
+        Label end = new Label();
+        e.mark(cond);
+        expr.compileCondition(e, end);
+        block.compile(e);
+        iterator.compile(e);
+        e.jump(BytecodeEmitter.GOTO, cond);
+        e.mark(end);
     }
 
     /**
-     * Evaluoidaan parenin arvo rekursiivisesti ja palautetaan arvo Doublena.
+     * Käännetään silmukka. Ehto lasketaan jokaisella kierroksella uudelleen.
      */
     @Override
-    public Double eval(HashMap<String, Object> env, ReturnCheck r) {
-        return (Double) paren.eval(env, r);
+    public void compile(VMCompiler c) {
+        decl.compile(c);
+        compileLoop(c);
     }
 
-}
-
-/**
- * Luokka, joka edustaa aritmetiikan suorittamista.
- * ArithExpr on abstrakti yliluokka, josta MulExpr ja AddExpr peritn.
- */
-abstract class ArithExpr extends Expr {
-    protected Expr left;
-    protected Expr right;
-
     /**
-     * Sijoitetaan parametreina tuodut arvot.
-     * @param left Sijoitettava vasen arvo
-     * @param right Sijoitettava oikea arvo
+     * Käännetään silmukka ilman alustusta.
+     * @param c Virtuaalikoneen kääntäjä
      */
-    public ArithExpr(Expr left, Expr right) {
-        this.left = left;
-        this.right = right;
+    void compileLoop(VMCompiler c) {
+        Label cond = new Label();
+        Label end = new Label();
+        c.mark(cond);
+        c.statement();
+        expr.compileCondition(c, end);
+        block.compile(c);
+        iterator.compile(c);
+        c.jump(VMProgram.JMP, cond);
+        c.mark(end);
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Muodostetaan silmukan sulkeuma. Silmukka suoritetaan Javan
+     * silmukkana, jota HotSpot voi optimoida.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print(" ( arithexpr ) ");
+    public StmtCode closure() {
+        StmtCode init = decl.closure();
+        StmtCode loop = loopClosure();
+        return f -> {
+            init.run(f);
+            return loop.run(f);
+        };
+    }
+
+    /**
+     * Muodostetaan silmukan sulkeuma ilman alustusta. Sulkeuma jatkaa
+     * silmukkaa kehyksen nykyisestä tilasta, joten sillä voidaan siirtyä
+     * kesken tulkittua silmukkaa käännettyyn koodiin.
+     * @return Silmukan sulkeuma
+     */
+    StmtCode loopClosure() {
+        BooleanCode cond = expr.closureBoolean();
+        StmtCode body = block.closure();
+        StmtCode step = iterator.closure();
+        return f -> {
+            while (cond.run(f)) {
+                if (body.run(f))
+                    return true;
+                step.run(f);
+            }
+            return false;
+        };
     }
 
     /**
-     * Palautetaan expr arvoille yhteinen tyyppi.
-     * Jos yhteist tyyppi ei lydet, palautetaan null ja tyypitysvirhe.
+     * Muodostetaan silmukan solmu.
      */
     @Override
-    public Type type(HashMap<String, Type> tenv) {
-        Type lty = left.type(tenv);
-        Type rty = right.type(tenv);
-        if (lty.isInt()) {
-            if (rty.isInt()) {
-                return lty;
-            } else if (rty.isDouble()) {
-                return rty;
-            }
-        } else if (lty.isDouble()) {
-            if (rty.isInt()) {
-                return lty;
-            } else if (rty.isDouble()) {
-                return rty;
-            }
-        }
-        // Tyyppi on tnne jouduttaessa virheellinen.
-        System.err.println("Arithmetic type error");
-        return null;
+    public StmtNode specialize() {
+        return new ForNode(decl.specialize(), expr.specialize(), block.specialize(), iterator.specialize());
     }
 
     /**
-     * Tyyppitarkastetaan molemmat expr:t rekursiivisesti.
+     * Muodostetaan silmukan solmu ilman alustusta.
+     * @return Silmukan solmu
      */
-    @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        left.typecheck(tenv);
-        right.typecheck(tenv);
+    StmtNode specializeLoop() {
+        return new ForNode(new BlockNode(new ArrayList<StmtNode>()), expr.specialize(),
+                block.specialize(), iterator.specialize());
     }
-}
 
-/**
- * Luokka, joka suorittaa jakolaskun.
- * Suorittaminen tapahtuu varmasti ennen yhteen- ja
- * vhennyslaskua. Jrjestys mritelty Minisharp.g4-tiedostossa. 
- */
-class DivExpr extends ArithExpr {
 
     /**
-     * Sijoitetaan parametreina tuodut arvot.
-     * @param left Sijoitettava vasen arvo
-     * @param right Sijoitettava oikea arvo
+     * Lasketaan esittelyn, iteraattorin ja lohkon kirjoitukset.
      */
-    public DivExpr(Expr left, Expr right) {
-        super(left, right);
+    @Override
+    public void countWrites(ConstantFolder c) {
+        decl.countWrites(c);
+        iterator.countWrites(c);
+        block.countWrites(c);
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Laskostetaan esittely, ehto ja lohko.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print("( ");
-        left.printTree(pw);
-        pw.print(" / ");
-        right.printTree(pw);
-        pw.print(" )");
+    public void fold(ConstantFolder c) {
+        decl.fold(c);
+        expr = expr.fold(c);
+        block.fold(c);
     }
 
+
     /**
-     * Suoritetaan jakolasku.
+     * Kerätään esittelyn, ehdon, iteraattorin ja lohkon lukemat muuttujat.
      */
     @Override
-    public Double eval(HashMap<String, Object> env, ReturnCheck ret) {
-        Double l = (Double) left.eval(env, ret);
-        Double r = (Double) right.eval(env, ret);
-        return l.doubleValue() / r.doubleValue();
+    public void countReads(Set<String> reads) {
+        decl.countReads(reads);
+        expr.countReads(reads);
+        iterator.countReads(reads);
+        block.countReads(reads);
     }
-}
-
-
-/**
- * Luokka, joka suorittaa kertolaskun.
- * Suorittaminen tapahtuu varmasti ennen yhteen- ja
- * vhennyslaskua. Jrjestys mritelty Minisharp.g4-tiedostossa. 
- */
-class MulExpr extends ArithExpr {
 
     /**
-     * Sijoitetaan parametreina tuodut arvot.
-     * @param left Sijoitettava vasen arvo
-     * @param right Sijoitettava oikea arvo
+     * Esittelyn, ehdon ja iteraattorin lukemat säilyvät, lohkon lukemat
+     * lasketaan statementeittain.
      */
-    public MulExpr(Expr left, Expr right) {
-        super(left, right);
+    @Override
+    public void countUses(UseCounts uses) {
+        Set<String> reads = new HashSet<String>();
+        decl.countReads(reads);
+        expr.countReads(reads);
+        iterator.countReads(reads);
+        uses.read(reads);
+        block.countUses(uses);
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Jos ehto on vakio false, silmukasta jää jäljelle vain esittely.
+     * Muuten karsitaan silmukan lohko.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print("( ");
-        left.printTree(pw);
-        pw.print(" * ");
-        right.printTree(pw);
-        pw.print(" )");
+    public boolean prune(Set<String> reads, List<Stmt> out) {
+        if (expr.isConstant() && expr.kind() == 'Z' && !expr.evalBoolean(null, null)) {
+            decl.prune(reads, out);
+            return true;
+        }
+        boolean changed = block.prune(reads);
+        out.add(this);
+        return changed;
     }
 
     /**
-     * Suoritetaan kertolasku.
+     * Return voi suorittua silmukan lohkossa.
      */
     @Override
-    public Double eval(HashMap<String, Object> env, ReturnCheck ret) {
-        Double l = (Double) left.eval(env, ret);
-        Double r = (Double) right.eval(env, ret);
-        return l.doubleValue() * r.doubleValue();
+    public boolean mayReturn() {
+        return block.mayReturn();
     }
-}
-
 
-/**
- * Luokka, joka suorittaa vhennyslaskun.
- * Suorittaminen tapahtuu varmasti kerto- ja
- * jakolaskun jlkeen. Jrjestys mritelty Minisharp.g4-tiedostossa. 
- */
-class MinExpr extends ArithExpr {
 
     /**
-     * Sijoitetaan parametreina tuodut arvot.
-     * @param left Sijoitettava vasen arvo
-     * @param right Sijoitettava oikea arvo
+     * Sisäkkäisen silmukan esittely, ehto ja lohko voivat sisältää
+     * ulomman silmukan invariantteja.
      */
-    public MinExpr(Expr left, Expr right) {
-        super(left, right);
+    @Override
+    public void hoist(LoopHoister h) {
+        decl.hoist(h);
+        expr = expr.hoist(h);
+        block.hoist(h);
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Siirretään ehdon ja lohkon invariantit lausekkeet silmukan edelle
+     * (ks. LoopHoister). Ulompi silmukka käsitellään ensin, jolloin sisempien
+     * silmukoiden lausekkeet, jotka eivät muutu kummassakaan silmukassa,
+     * siirtyvät uloimman silmukan edelle.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print("( ");
-        left.printTree(pw);
-        pw.print(" - ");
-        right.printTree(pw);
-        pw.print(" )");
+    public void hoistLoops(FrameLayout layout, List<Stmt> out) {
+        ConstantFolder writes = new ConstantFolder();
+        countWrites(writes);
+        LoopHoister h = new LoopHoister(layout, writes);
+        expr = expr.hoist(h);
+        block.hoist(h);
+        out.addAll(h.hoisted());
+        out.add(this);
+        block.hoistLoops(layout);
     }
 
+
     /**
-     * Suoritetaan vhennyslasku.
+     * Korvataan silmukka suljetulla muodolla, jos se on laskettu silmukka
+     * for (int i = a; i < b; i++) tai for (int i = a; i > b; i--), jonka
+     * raja b on invariantti, ja lohkossa on vain kertymiä (ks.
+     * Block.accumulators). Sisemmät silmukat käsitellään ensin.
      */
     @Override
-    public Double eval(HashMap<String, Object> env, ReturnCheck ret) {
-        Double l = (Double) left.eval(env, ret);
-        Double r = (Double) right.eval(env, ret);
-        return l.doubleValue() - r.doubleValue();
+    public Stmt closedForm() {
+        block.closedForm();
+        String id = decl.getID();
+        int step = iterator.step();
+        if (step == 0 || !iterator.getID().equals(id))
+            return this;
+        Expr bound = step > 0 ? expr.upperBound(id) : expr.lowerBound(id);
+        if (bound == null)
+            return this;
+        ConstantFolder writes = new ConstantFolder();
+        countWrites(writes);
+        if (bound.mayFail() || !writes.isInvariant(bound))
+            return this;
+        List<Accumulator> accs = block.accumulators(writes);
+        if (accs == null)
+            return this;
+        return new ClosedFormLoop(this, decl, bound, step > 0, iterator.getSlot(), accs);
+    }
+
+
+    /**
+     * Tarkistetaan esittelyn, ehdon ja lohkon taulukon haut. Lohkossa
+     * laskurin rajat ovat ehdon ja iteraattorin suunnan mukaiset, jos
+     * lohko ei kirjoita laskuriin.
+     */
+    @Override
+    public void checkBounds(BoundsChecker b) {
+        decl.checkBounds(b);
+        expr.checkBounds(b);
+        BoundsChecker inner = b;
+        int step = iterator.step();
+        String id = decl.getID();
+        if (step != 0 && iterator.getID().equals(id)) {
+            ConstantFolder body = new ConstantFolder();
+            block.countWrites(body);
+            inner = b.loop(id, step > 0, decl.initializer(), expr, body);
+        }
+        block.checkBounds(inner);
     }
-}
 
 
-/**
- * Luokka, joka suorittaa yhteenlaskun.
- * Suorittaminen tapahtuu varmasti kerto- ja
- * jakolaskun jlkeen. Jrjestys mritelty Minisharp.g4-tiedostossa. 
- */
-class AddExpr extends ArithExpr {
-
     /**
-     * Sijoitetaan parametreina tuodut arvot.
-     * @param left Sijoitettava vasen arvo
-     * @param right Sijoitettava oikea arvo
+     * Korvataan silmukka reduktiolla, jos se on laskettu silmukka
+     * for (int i = a; i < b; i++), jonka raja b on invariantti, ja lohko on
+     * int-taulukon reduktio (ks. Reduction). Päivitettävään muuttujaan saa
+     * kirjoittaa silmukassa vain kerran, eikä taulukkoon saa kirjoittaa.
      */
-    public AddExpr(Expr left, Expr right) {
-        super(left, right);
+    @Override
+    public Stmt reductions() {
+        block.reductions();
+        String id = decl.getID();
+        if (iterator.step() != 1 || !iterator.getID().equals(id))
+            return this;
+        Expr bound = expr.upperBound(id);
+        Stmt body = block.single();
+        if (bound == null || body == null)
+            return this;
+        Reduction red = body.reduction(id);
+        if (red == null)
+            return this;
+        ConstantFolder writes = new ConstantFolder();
+        countWrites(writes);
+        if (bound.mayFail() || !writes.isInvariant(bound) || !writes.isFinal(red.acc)
+                || writes.isWritten(red.array))
+            return this;
+        if (red.operand != null && (red.operand.kind() != 'I' || red.operand.mayFail()
+                || !writes.isInvariant(red.operand)))
+            return this;
+        return new ReductionLoop(this, decl, bound, iterator.getSlot(), red);
+    }
+
+
+    /**
+     * Käsitellään esittely, ehto ja lohko. Silmukassa kirjoitettavia
+     * muuttujia lukevat arvot poistetaan ennen ehtoa, ja ehto, joka
+     * lasketaan joka kierroksella, vain käyttää saatavilla olevia arvoja.
+     */
+    @Override
+    public void cse(ValueNumbering v) {
+        decl.cse(v);
+        ConstantFolder writes = new ConstantFolder();
+        countWrites(writes);
+        v.write(writes);
+        v.setLookupOnly(true);
+        expr = expr.cse(v);
+        v.setLookupOnly(false);
+        v.enter();
+        block.cse(v);
+        v.leave();
     }
 
+
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Silmukan koko sisältää lohkon.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print("( ");
-        left.printTree(pw);
-        pw.print(" + ");
-        right.printTree(pw);
-        pw.print(" )");
+    public int size() {
+        return 1 + block.size();
     }
 
     /**
-     * Suoritetaan yhteenlasku.
+     * Avataan laskettu silmukka for (int i = a; i < b; i++) tai
+     * for (int i = a; i > b; i--), jonka lohko ei kirjoita laskuriin ja
+     * jonka raja b ei muutu silmukassa (ks. LoopUnroller). Jos a ja b ovat
+     * vakioita ja kierroksia on enintään FULL_TRIPS, silmukka avataan
+     * kokonaan. Muuten silmukka avataan osittain, jos rajan voi siirtää
+     * pääsilmukalle ilman ylivuotoa. Sisemmät silmukat avataan ensin.
      */
     @Override
-    public Double eval(HashMap<String, Object> env, ReturnCheck ret) {
-        Double l = (Double) left.eval(env, ret);
-        Double r = (Double) right.eval(env, ret);
-        return l.doubleValue() + r.doubleValue();
+    public void unroll(FrameLayout layout, ConstantFolder c, List<Stmt> out) {
+        block.unroll(layout, c);
+        String id = decl.getID();
+        int step = iterator.step();
+        Expr bound = step > 0 ? expr.upperBound(id) : step < 0 ? expr.lowerBound(id) : null;
+        ConstantFolder writes = new ConstantFolder();
+        block.countWrites(writes);
+        if (bound == null || !iterator.getID().equals(id) || writes.isWritten(id)
+                || bound.mayFail() || !writes.isInvariant(bound)) {
+            out.add(this);
+            return;
+        }
+        LoopUnroller u = new LoopUnroller(layout, c);
+        Expr init = decl.initializer();
+        int size = block.size();
+        if (init != null && init.isConstant() && init.kind() == 'I' && bound.isConstant()) {
+            long from = init.evalInt(null, null);
+            long to = bound.evalInt(null, null);
+            long trips = Math.max(0, step > 0 ? to - from : from - to);
+            if (trips <= LoopUnroller.FULL_TRIPS && trips * size <= LoopUnroller.FULL_SIZE) {
+                u.full(decl, block, (int) from, (int) trips, step, out);
+                return;
+            }
+        }
+        Expr limit = u.limit(bound, step);
+        if (size > LoopUnroller.PARTIAL_SIZE || limit == null) {
+            out.add(this);
+            return;
+        }
+        Expr cond = step > 0 ? new LessthanExpr(u.variable(id), limit)
+                : new GreaterthanExpr(u.variable(id), limit);
+        cond.resolve(layout);
+        Iterator it = new Iterator(id, step > 0 ? "++" : "--");
+        it.resolve(layout);
+        out.add(new ForLoop(decl, cond, it, u.partial(id, block, step)));
+        out.add(new ForLoop(u.redeclare(id), expr, iterator, block));
     }
 }
 
 
 /**
- * Luokka, joka suorittaa pienempi kuin -vertailun.
+ * Suljetun muodon silmukka, jolla ForLoop korvataan (ks. ForLoop.closedForm).
+ * Laskurin i alkuarvon a ja rajan b avulla lasketaan kierrosten määrä
+ * n = max(0, b - a) (laskevassa silmukassa max(0, a - b)), jolloin jokainen
+ * kertymä v = v + e saa arvon v + n * e ja laskuri arvon max(a, b)
+ * (laskevassa min(a, b)). Int-kertymät ovat aina tarkkoja, koska
+ * ylivuoto pyörähtää ympäri samoin kuin silmukassa. Double-kertymä on tarkka
+ * vain, jos välitulokset ovat tarkasti esitettäviä kokonaislukuja
+ * (ks. ClosedForm.exact). Muuten suoritetaan alkuperäinen silmukka.
  */
-class LessthanExpr extends Expr {
-    private Expr left;
-    private Expr right;
+class ClosedFormLoop extends Stmt {
+    private static final long serialVersionUID = 1L;
+
+    private ForLoop loop;
+    private Decl decl;
+    private Expr bound;
+    private boolean up;
+    private int slot;
+    private List<Accumulator> accs;
 
     /**
      * Sijoitetaan parametreina tuodut arvot.
-     * @param left Sijoitettava vasen arvo
-     * @param right Sijoitettava oikea arvo
+     * @param loop Alkuperäinen silmukka
+     * @param decl Silmukan esittely
+     * @param bound Laskurin raja
+     * @param up true, jos laskuri kasvaa (++)
+     * @param slot Laskurin paikka kehyksessä
+     * @param accs Lohkon kertymät
+     */
+    public ClosedFormLoop(ForLoop loop, Decl decl, Expr bound, boolean up, int slot,
+            List<Accumulator> accs) {
+        this.loop = loop;
+        this.decl = decl;
+        this.bound = bound;
+        this.up = up;
+        this.slot = slot;
+        this.accs = accs;
+    }
+
+    /**
+     * Kopioidaan silmukka, esittely, raja ja kertymien lausekkeet.
      */
-    public LessthanExpr(Expr left, Expr right) {
-        this.left = left;
-        this.right = right;
+    @Override
+    public Stmt copy() {
+        ClosedFormLoop copy = (ClosedFormLoop) super.copy();
+        copy.loop = loop.copy();
+        copy.decl = (Decl) decl.copy();
+        copy.bound = bound.copy();
+        copy.accs = new ArrayList<Accumulator>();
+        for (Accumulator a : accs) {
+            copy.accs.add(new Accumulator(a.id, a.slot, a.kind, a.step.copy(), a.subtract));
+        }
+        return copy;
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
      */
     @Override
     public void printTree(PrintWriter pw) {
-        pw.print("( ");
-        left.printTree(pw);
-        pw.print(" < ");
-        right.printTree(pw);
+        pw.print("( closed ");
+        loop.printTree(pw);
         pw.print(" )");
     }
 
     /**
-     * Palautetaan tyyppiolio TypeBool, jos tyypit ovat yhteensopivat.
-     * Muuten palautetaan null ja virheilmoitus.
+     * Evaluoidaan esittely ja lasketaan suljettu muoto. Jos se ei ole
+     * tarkka, evaluoidaan silmukka.
      */
     @Override
-    public Type type(HashMap<String, Type> tenv) {
-        Type lty = left.type(tenv);
-        Type rty = right.type(tenv);
-        
-        // Tarkastetaan, ovatko molemmat puolet ovat samaa tyyppi,
-        // eli ovatko ne vertailukelpoiset keskenn.
-        if (lty.isInt() && rty.isInt() || lty.isInt() && rty.isDouble() || lty.isDouble() && rty.isInt()
-                || lty.isDouble() && rty.isDouble()) {
-            return new TypeBool();
+    public void eval(HashMap<String, Object> env, ReturnCheck r) {
+        decl.eval(env, r);
+        String id = decl.getID();
+        int start = (Integer) env.get(id);
+        int end = ((Number) bound.eval(env, r)).intValue();
+        int from = up ? start : end;
+        int to = up ? end : start;
+        for (Accumulator a : accs) {
+            if (a.kind == 'D' && !ClosedForm.exact(((Number) env.get(a.id)).doubleValue(),
+                    ((Number) a.step.eval(env, r)).doubleValue(), from, to)) {
+                loop.loop(env, r);
+                return;
+            }
         }
-        System.err.println("Incompatiple types in comparison");
-        return null;
+        for (Accumulator a : accs) {
+            Number v = (Number) env.get(a.id);
+            Number step = (Number) a.step.eval(env, r);
+            if (a.kind == 'I') {
+                env.put(a.id, Integer.valueOf(ClosedForm.accumulate(v.intValue(),
+                        step.intValue(), a.subtract, from, to)));
+            } else {
+                env.put(a.id, Double.valueOf(ClosedForm.accumulate(v.doubleValue(),
+                        step.doubleValue(), a.subtract, from, to)));
+            }
+        }
+        env.put(id, Integer.valueOf(up ? Math.max(start, end) : Math.min(start, end)));
     }
 
     /**
-     * Suoritetaan tyyppitarkastus rekursiivisesti.
+     * Evaluoidaan esittely ja lasketaan suljettu muoto kehyksen avulla.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        left.typecheck(tenv);
-        right.typecheck(tenv);
+    public void eval(Frame f, ReturnCheck r) {
+        decl.eval(f, r);
+        if (!apply(f, r))
+            loop.loop(f, r);
+    }
+
+    /**
+     * Lasketaan suljettu muoto esittelyn jälkeen. Kertymiä ei muuteta, jos
+     * jokin double-kertymä ei ole tarkka.
+     * @param f Kehys
+     * @param r ReturnCheck-olio tai null
+     * @return true, jos suljettu muoto laskettiin
+     */
+    private boolean apply(Frame f, ReturnCheck r) {
+        int start = f.ints[slot];
+        int end = bound.evalInt(f, r);
+        int from = up ? start : end;
+        int to = up ? end : start;
+        for (Accumulator a : accs) {
+            if (a.kind == 'D' && !ClosedForm.exact(f.nums[a.slot], a.step.evalDouble(f, r), from, to))
+                return false;
+        }
+        for (Accumulator a : accs) {
+            if (a.kind == 'I') {
+                f.ints[a.slot] = ClosedForm.accumulate(f.ints[a.slot], a.step.evalInt(f, r),
+                        a.subtract, from, to);
+            } else {
+                f.nums[a.slot] = ClosedForm.accumulate(f.nums[a.slot], a.step.evalDouble(f, r),
+                        a.subtract, from, to);
+            }
+        }
+        f.ints[slot] = up ? Math.max(start, end) : Math.min(start, end);
+        return true;
     }
 
     /**
-     * Suoritetaan vertailu.
+     * Käännetään suljettu muoto. Double-kertymien tarkkuus tarkistetaan
+     * ennen kertymien päivittämistä, ja jos jokin ei ole tarkka, hypätään
+     * alkuperäiseen silmukkaan.
      */
     @Override
-    public Boolean eval(HashMap<String, Object> env, ReturnCheck ret) {
-        Double l = (Double) left.eval(env, ret);
-        Double r = (Double) right.eval(env, ret);
-        return l.doubleValue() < r.doubleValue();
+    public void compile(BytecodeEmitter e) {
+        Label fallback = new Label();
+        Label end = new Label();
+        decl.compile(e);
+        for (Accumulator a : accs) {
+            if (a.kind != 'D')
+                continue;
+            e.load('D', a.slot);
+            a.step.compile(e, 'D');
+            compileRange(e);
+            e.invokestatic("ClosedForm", "exact", "(DDII)Z", -5);
+            e.jump(BytecodeEmitter.IFEQ, fallback);
+        }
+        for (Accumulator a : accs) {
+            e.load(a.kind, a.slot);
+            a.step.compile(e, a.kind);
+            e.iconst(a.subtract ? 1 : 0);
+            compileRange(e);
+            if (a.kind == 'I') {
+                e.invokestatic("ClosedForm", "accumulate", "(IIZII)I", -4);
+            } else {
+                e.invokestatic("ClosedForm", "accumulate", "(DDZII)D", -5);
+            }
+            e.store(a.kind, a.slot);
+        }
+        e.load('I', slot);
+        bound.compile(e, 'I');
+        e.invokestatic("java/lang/Math", up ? "max" : "min", "(II)I", -1);
+        e.store('I', slot);
+        e.jump(BytecodeEmitter.GOTO, end);
+        e.mark(fallback);
+        loop.compileLoop(e);
+        e.mark(end);
     }
-}
-
 
-/**
- * Luokka, joka suorittaa suurempi kuin -vertailun.
- */
-class GreaterthanExpr extends Expr {
-    private Expr left;
-    private Expr right;
+    /**
+     * Käännetään pinoon laskurin rajat from ja to.
+     * @param e Tavukoodin kirjoittaja
+     */
+    private void compileRange(BytecodeEmitter e) {
+        if (up) {
+            e.load('I', slot);
+            bound.compile(e, 'I');
+        } else {
+            bound.compile(e, 'I');
+            e.load('I', slot);
+        }
+    }
 
     /**
-     * Sijoitetaan parametreina tuodut arvot.
-     * @param left Sijoitettava vasen arvo
-     * @param right Sijoitettava oikea arvo
+     * Käännetään suljettu muoto. Raja lasketaan kerran rekisteriin.
      */
-    public GreaterthanExpr(Expr left, Expr right) {
-        this.left = left;
-        this.right = right;
+    @Override
+    public void compile(VMCompiler c) {
+        Label fallback = new Label();
+        Label skip = new Label();
+        Label end = new Label();
+        decl.compile(c);
+        c.statement();
+        int limit = bound.compile(c, 'I', -1);
+        int from = up ? slot : limit;
+        int to = up ? limit : slot;
+        for (Accumulator a : accs) {
+            if (a.kind == 'D')
+                c.jump(VMProgram.JNEXACT, fallback, a.slot, a.step.compile(c, 'D', -1), from, to);
+        }
+        for (Accumulator a : accs) {
+            int step = a.step.compile(c, a.kind, -1);
+            c.emit(a.kind == 'I' ? VMProgram.ACCI : VMProgram.ACCD, a.slot, step,
+                    a.subtract ? 1 : 0, from, to);
+        }
+        c.jump(up ? VMProgram.JNLTI : VMProgram.JNGTI, skip, slot, limit);
+        c.move('I', limit, slot);
+        c.mark(skip);
+        c.jump(VMProgram.JMP, end);
+        c.mark(fallback);
+        loop.compileLoop(c);
+        c.mark(end);
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Muodostetaan suljetun muodon sulkeuma. Suljettu muoto lasketaan vain
+     * kerran silmukan suorituskertaa kohden, joten se lasketaan kehyksen
+     * avulla.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print("( ");
-        left.printTree(pw);
-        pw.print(" > ");
-        right.printTree(pw);
-        pw.print(" )");
+    public StmtCode closure() {
+        StmtCode init = decl.closure();
+        StmtCode rest = loop.loopClosure();
+        return f -> {
+            init.run(f);
+            if (apply(f, null))
+                return false;
+            return rest.run(f);
+        };
     }
 
     /**
-     * Palautetaan tyyppiolio TypeBool, jos tyypit ovat yhteensopivat.
-     * Muuten palautetaan null ja virheilmoitus.
+     * Muodostetaan suljetun muodon solmu.
      */
     @Override
-    public Type type(HashMap<String, Type> tenv) {
-        Type lty = left.type(tenv);
-        Type rty = right.type(tenv);
-        
-        // Tarkastetaan, ovatko molemmat puolet ovat samaa tyyppi,
-        // eli ovatko ne vertailukelpoiset keskenn.
-        if (lty.isInt() && rty.isInt() || lty.isInt() && rty.isDouble() || lty.isDouble() && rty.isInt()
-                || lty.isDouble() && rty.isDouble()) {
-            return new TypeBool();
-        }
-        System.err.println("Incompatiple types in comparison");
-        return null;
+    public StmtNode specialize() {
+        return new ClosedFormNode(decl.specialize(), f -> apply(f, null), loop.specializeLoop());
     }
 
+
     /**
-     * Suoritetaan tyyppitarkastus rekursiivisesti.
+     * Kirjoitukset ovat samat kuin silmukassa.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        left.typecheck(tenv);
-        right.typecheck(tenv);
+    public void countWrites(ConstantFolder c) {
+        loop.countWrites(c);
     }
 
+
     /**
-     * Suoritetaan vertailu.
-     */ 
+     * Luetut muuttujat ovat samat kuin silmukassa.
+     */
     @Override
-    public Boolean eval(HashMap<String, Object> env, ReturnCheck ret) {
-        Double l = (Double) left.eval(env, ret);
-        Double r = (Double) right.eval(env, ret);
-        return l.doubleValue() > r.doubleValue();
+    public void countReads(Set<String> reads) {
+        loop.countReads(reads);
+    }
+
+    /**
+     * Tarkistetaan laskurin esittely, raja ja kertymät sekä alkuperäinen
+     * silmukka, joka suoritetaan, jos double-kertymä ei ole tarkka.
+     */
+    @Override
+    public void verify(TreeVerifier v) {
+        decl.verify(v);
+        v.use(decl.getID(), slot, 'I');
+        bound.verify(v);
+        v.expect(bound, "loop bound", "ID");
+        for (Accumulator a : accs) {
+            v.use(a.id, a.slot, a.kind);
+            a.step.verify(v);
+            v.assign(a.id, a.kind, a.step);
+        }
+        loop.verify(v);
     }
 }
 
 
 /**
- * Luokka, joka suorittaa yht kuin -vertailun.
+ * Int-taulukon reduktio, jolla ForLoop korvataan (ks. ForLoop.reductions ja
+ * Reduction). Laskurin i alkuarvon a ja rajan b välinen osa taulukosta
+ * käsitellään kerralla (ks. Reductions), ja laskuri saa arvon max(a, b)
+ * kuten silmukan jälkeen. Koska haut on todistettu rajojen sisäisiksi ja
+ * int-laskutoimitukset pyörähtävät ympäri, tulos on sama kuin silmukassa.
  */
-class EqualExpr extends Expr {
-    private Expr left;
-    private Expr right;
+class ReductionLoop extends Stmt {
+    private static final long serialVersionUID = 1L;
+
+    private ForLoop loop;
+    private Decl decl;
+    private Expr bound;
+    private int slot;
+    private Reduction red;
 
     /**
      * Sijoitetaan parametreina tuodut arvot.
-     * @param left Sijoitettava vasen arvo
-     * @param right Sijoitettava oikea arvo
+     * @param loop Alkuperäinen silmukka
+     * @param decl Silmukan esittely
+     * @param bound Laskurin yläraja
+     * @param slot Laskurin paikka kehyksessä
+     * @param red Lohkon reduktio
+     */
+    public ReductionLoop(ForLoop loop, Decl decl, Expr bound, int slot, Reduction red) {
+        this.loop = loop;
+        this.decl = decl;
+        this.bound = bound;
+        this.slot = slot;
+        this.red = red;
+    }
+
+    /**
+     * Kopioidaan silmukka, esittely, raja ja reduktion operandi.
      */
-    public EqualExpr(Expr left, Expr right) {
-        this.left = left;
-        this.right = right;
+    @Override
+    public Stmt copy() {
+        ReductionLoop copy = (ReductionLoop) super.copy();
+        copy.loop = loop.copy();
+        copy.decl = (Decl) decl.copy();
+        copy.bound = bound.copy();
+        copy.red = new Reduction(red.op, red.array, red.arraySlot, red.acc, red.accSlot,
+                red.operand == null ? null : red.operand.copy());
+        return copy;
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
      */
     @Override
     public void printTree(PrintWriter pw) {
-        pw.print("( ");
-        left.printTree(pw);
-        pw.print(" == ");
-        right.printTree(pw);
+        pw.print("( reduce ");
+        loop.printTree(pw);
         pw.print(" )");
     }
 
     /**
-     * Palautetaan tyyppiolio TypeBool, jos tyypit ovat yhteensopivat.
-     * Muuten palautetaan null ja virheilmoitus.
+     * Evaluoidaan esittely ja lasketaan reduktio.
      */
     @Override
-    public Type type(HashMap<String, Type> tenv) {
-        Type lty = left.type(tenv);
-        Type rty = right.type(tenv);
-        
-        // Tarkastetaan, ovatko molemmat puolet ovat samaa tyyppi,
-        // eli ovatko ne vertailukelpoiset keskenn.
-        if (lty.isInt() && rty.isInt()) {
-            return new TypeBool();
-        } else if (lty.isDouble() && rty.isDouble()) {
-            return new TypeBool();
-        } else {
-            System.err.println("Incompatiple types in comparison");
-            return null;
-        }
+    public void eval(HashMap<String, Object> env, ReturnCheck r) {
+        decl.eval(env, r);
+        String id = decl.getID();
+        int start = (Integer) env.get(id);
+        int end = ((Number) bound.eval(env, r)).intValue();
+        int k = red.operand == null ? 0 : ((Number) red.operand.eval(env, r)).intValue();
+        int acc = Reductions.reduce(red.op, (int[]) env.get(red.array), start, end,
+                (Integer) env.get(red.acc), k);
+        env.put(red.acc, Integer.valueOf(acc));
+        env.put(id, Integer.valueOf(Math.max(start, end)));
     }
 
     /**
-     * Suoritetaan tyyppitarkastus rekursiivisesti.
+     * Evaluoidaan esittely ja lasketaan reduktio kehyksen avulla.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        left.typecheck(tenv);
-        right.typecheck(tenv);
+    public void eval(Frame f, ReturnCheck r) {
+        decl.eval(f, r);
+        apply(f, r);
     }
 
     /**
-     * Suoritetaan vertailu.
+     * Lasketaan reduktio esittelyn jälkeen.
+     * @param f Kehys
+     * @param r ReturnCheck-olio tai null
      */
-    @Override
-    public Boolean eval(HashMap<String, Object> env, ReturnCheck ret) {
-        Double l = (Double) left.eval(env, ret);
-        Double r = (Double) right.eval(env, ret);
-        return (l.doubleValue() == r.doubleValue());
+    private void apply(Frame f, ReturnCheck r) {
+        int start = f.ints[slot];
+        int end = bound.evalInt(f, r);
+        int k = red.operand == null ? 0 : red.operand.evalInt(f, r);
+        f.ints[red.accSlot] = Reductions.reduce(red.op, f.arrays[red.arraySlot], start, end,
+                f.ints[red.accSlot], k);
+        f.ints[slot] = Math.max(start, end);
     }
-}
 
-
-/**
- * Luokka, joka suorittaa taulukon pituuden laskemisen.
- */
-class LenghtExpr extends Expr {
-    private String id;
+    /**
+     * Käännetään reduktio Reductions.reduce-kutsuksi.
+     */
+    @Override
+    public void compile(BytecodeEmitter e) {
+        decl.compile(e);
+        e.iconst(red.op);
+        e.load('[', red.arraySlot);
+        e.load('I', slot);
+        bound.compile(e, 'I');
+        e.load('I', red.accSlot);
+        if (red.operand == null)
+            e.iconst(0);
+        else
+            red.operand.compile(e, 'I');
+        e.invokestatic("Reductions", "reduce", "(I[IIIII)I", -5);
+        e.store('I', red.accSlot);
+        e.load('I', slot);
+        bound.compile(e, 'I');
+        e.invokestatic("java/lang/Math", "max", "(II)I", -1);
+        e.store('I', slot);
+    }
+
+    /**
+     * Käännetään reduktio yhdeksi käskyksi. Raja lasketaan kerran
+     * rekisteriin.
+     */
+    @Override
+    public void compile(VMCompiler c) {
+        Label skip = new Label();
+        decl.compile(c);
+        c.statement();
+        int limit = bound.compile(c, 'I', -1);
+        int k = red.operand == null ? c.iconst(0) : red.operand.compile(c, 'I', -1);
+        c.emit(VMProgram.REDUCE, red.accSlot, red.op, red.arraySlot, slot, limit, k);
+        c.jump(VMProgram.JNLTI, skip, slot, limit);
+        c.move('I', limit, slot);
+        c.mark(skip);
+    }
 
     /**
-     * Sijoitetaan parametrina tuotu arvo.
-     * @param id Sijoitettava tunniste/id
+     * Muodostetaan reduktion sulkeuma.
      */
-    public LenghtExpr(String id) {
-        this.id = id;
+    @Override
+    public StmtCode closure() {
+        StmtCode init = decl.closure();
+        return f -> {
+            init.run(f);
+            apply(f, null);
+            return false;
+        };
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Muodostetaan reduktion solmu sulkeumasta.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print("( ");
-        pw.printf("%s .length", id);
-        pw.print(" )");
+    public StmtNode specialize() {
+        return new ClosureNode(closure());
     }
 
+
     /**
-     * Tyyppitarkastus, jossa tarkastetaan, ett id lytyy tenvist ja
-     * ett id:n arvo on tyypiltn IntSequence (int-taulukko).
+     * Kirjoitukset ovat samat kuin silmukassa.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        if (!tenv.containsKey(id)) {
-            System.err.printf("Variable name %s has not been declared.\n", id);
-        }
-        if (!tenv.get(id).isIntSequence()) {
-            System.err.printf("Variable %s must be an int array.\n", id);
-        }
+    public void countWrites(ConstantFolder c) {
+        loop.countWrites(c);
     }
 
+
     /**
-     * Palautetaan TypeInt-olio, jossa id:n arvo tenviss on int-taulukko.
+     * Luetut muuttujat ovat samat kuin silmukassa.
      */
     @Override
-    public Type type(HashMap<String, Type> tenv) {
-        if (!tenv.get(id).isIntSequence()) {
-            System.err.printf("Variable %s must be an int array.\n", id);
-            return null;
-        }
-        return new TypeInt();
+    public void countReads(Set<String> reads) {
+        loop.countReads(reads);
     }
 
     /**
-     * Lasketaan id:ll lytyvn int-taulukon pituus.
+     * Tarkistetaan laskurin esittely, raja, taulukko ja kertymä sekä
+     * alkuperäinen silmukka.
      */
     @Override
-    public Double eval(HashMap<String, Object> env, ReturnCheck r) {
-        int[] t = (int[]) env.get(id);
-        return Double.valueOf(t.length);
+    public void verify(TreeVerifier v) {
+        decl.verify(v);
+        v.use(decl.getID(), slot, 'I');
+        bound.verify(v);
+        v.expect(bound, "loop bound", "ID");
+        v.use(red.array, red.arraySlot, '[');
+        v.use(red.acc, red.accSlot, 'I');
+        if (red.operand != null) {
+            red.operand.verify(v);
+            v.expect(red.operand, "reduction operand", "ID");
+        }
+        loop.verify(v);
     }
 }
 
 
 /**
- * Luokka, joka on vastuussa ehtolauseiden toiminnasta.
- * Luokka sislt aina ehdon (expr), joka suoritetaan ja
- * 1-2 blockia riippuen siit, onko syteohjelmaan kirjoitettu
- * mahdollista else-haaraa.
+ * Luokka, jonka tehtävänä käsitellä syöteohjelmassa mahdollisesti esiintynyt
+ * return-statement.
  */
-class IfStatement extends Stmt {
+class Return extends Stmt {
+    private static final long serialVersionUID = 1L;
+
     private Expr expr;
-    private Block[] blocks;
 
     /**
-     * sijoitetaan parametreina tuodut arvot.
+     * Sijoitetaan parametrina tuotu arvo.
      * @param expr Sijoitettava expr
-     * @param statements Sijoitettavat blockit
      */
-    public IfStatement(Expr expr, Block[] statements) {
+    public Return(Expr expr) { // 
         this.expr = expr;
-        this.blocks = statements;
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Kopioidaan palautettava lauseke.
+     */
+    @Override
+    public Stmt copy() {
+        Return copy = (Return) super.copy();
+        copy.expr = expr.copy();
+        return copy;
+    }
+
+    /**
+     * PrinTree tulostaa syötteenä annetun ohjelman syntaksipuun rekursiivisesti.
      */
     @Override
     public void printTree(PrintWriter pw) {
-        pw.print("( if ");
+        pw.print("( return ");
         expr.printTree(pw);
-        blocks[0].printTree(pw);
-        if (blocks.length == 2) {
-            pw.print(" else ");
-            blocks[1].printTree(pw);
-        }
         pw.print(" )");
     }
 
     /**
-     * Tyyppitarkastetaan, ett expr on varmasti tyyppi boolean.
-     * Blockien sisltmt statementit tyyppitarkastetaan rekursiivisesti.
+     * Expr tyyppitarkastetaan rekursiivisesti.
      */
     @Override
     public void typecheck(HashMap<String, Type> tenv) {
         expr.typecheck(tenv);
-        if (!expr.type(tenv).isBool()) {
-            System.err.println("If statement requires type boolean!");
-        }
-        for (Block b : blocks) {
-            b.typecheck(tenv);
-        }
     }
 
     /**
-     * Evaluoidaan IfStamentti exprist evaluoidun arvon mukaan.
+     * Lisätään enviin expr evaluoita arvo avaimella return.
+     * Asetetaan ReturnCheck-olion tila.
      */
     @Override
     public void eval(HashMap<String, Object> env, ReturnCheck r) {
-        Boolean b = (Boolean) expr.eval(env, r);
-        // Jos ehto on true evaluoidaan blocks-taulukon ensimminen indeksi.
-        // Jos ehto on false evaluoidaan blocks-taulukon toinen indeksi.
-        if (b.booleanValue()) {
-            blocks[0].eval(env, r);
-        } else {
-            // Jos else-haara lytyy (blocks-taulukon pituus on enemmn kuin 1)
-            // suoritetaan se.
-            if (blocks.length > 1) {
-                blocks[1].eval(env, r);
-            }
-        }
+        env.put("return", expr.eval(env, r));
+        r.setReturn();
     }
-}
 
+    /**
+     * Ratkaistaan expr:n muuttujien paikat kehyksessä.
+     */
+    @Override
+    public void resolve(FrameLayout layout) {
+        expr.resolve(layout);
+    }
 
-/**
- * Luokka, joka on vastuussa silmukan toiminnasta.
- */
-class ForLoop extends Stmt {
-    private Decl decl;
-    private Expr expr;
-    private Iterator iterator;
-    private Block block;
+    /**
+     * Tarkistetaan palautettava lauseke.
+     */
+    @Override
+    public void verify(TreeVerifier v) {
+        expr.verify(v);
+    }
 
     /**
-     * Sijoitetaan parametreina tuodut arvot.
-     * @param decl Sijoitettava Decl alustustoimenpiteeseen
-     * @param expr Sijoitettava Expr
-     * @param iterator Sijoitettava Iteraattori
-     * @param statement Sijoitettava Blocks
+     * Sijoitetaan kehykseen expr:n evaluoitu arvo paluuarvoksi.
+     * Asetetaan ReturnCheck-olion tila.
      */
-    public ForLoop(Decl decl, Expr expr, Iterator iterator, Block statement) {
-        this.decl = decl;
-        this.expr = expr;
-        this.iterator = iterator;
-        this.block = statement;
+    @Override
+    public void eval(Frame f, ReturnCheck r) {
+        f.ret = expr.eval(f, r);
+        r.setReturn();
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Käännetään return palauttamaan expr:n arvo oliona.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print("( for (");
-        decl.printTree(pw);
-        expr.printTree(pw);
-        pw.print(";");
-        iterator.printTree(pw);
-        pw.print(")");
-        block.printTree(pw);
-        pw.print(" )");
+    public void compile(BytecodeEmitter e) {
+        e.box(expr.compile(e));
+        e.op(BytecodeEmitter.ARETURN, -1);
     }
 
     /**
-     * Tyyppitarkastetaan silmukan kaikki osat.
+     * Käännetään return palauttamaan expr:n arvo.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        if (!decl.forloopDeclCheck(tenv)) {
-            System.err.println("For statement variable type can't be an array!");
-        }
-        expr.typecheck(tenv);
-        if (!expr.type(tenv).isBool()) {
-            System.err.println("For statement requires expr to be type boolean!");
+    public void compile(VMCompiler c) {
+        c.statement();
+        char kind = expr.kind();
+        int reg = expr.compile(c, -1);
+        c.emit(kind == 'I' ? VMProgram.RETI : kind == 'D' ? VMProgram.RETD
+                : kind == 'Z' ? VMProgram.RETZ : VMProgram.RETA, reg);
+    }
+
+    /**
+     * Muodostetaan returnin sulkeuma. Arvo pakataan olioksi expr:n
+     * tyypin mukaan.
+     */
+    @Override
+    public StmtCode closure() {
+        char kind = expr.kind();
+        if (kind == 'I') {
+            IntCode value = expr.closureInt();
+            return f -> {
+                f.ret = Integer.valueOf(value.run(f));
+                return true;
+            };
+        } else if (kind == 'Z') {
+            BooleanCode value = expr.closureBoolean();
+            return f -> {
+                f.ret = Boolean.valueOf(value.run(f));
+                return true;
+            };
+        } else if (kind == '[') {
+            ArrayCode value = expr.closureArray();
+            return f -> {
+                f.ret = value.run(f);
+                return true;
+            };
         }
-        iterator.typecheck(tenv);
-        block.typecheck(tenv);
+        DoubleCode value = expr.closureDouble();
+        return f -> {
+            f.ret = Double.valueOf(value.run(f));
+            return true;
+        };
     }
 
     /**
-     * 
+     * Muodostetaan returnin solmu.
      */
     @Override
-    public void eval(HashMap<String, Object> env, ReturnCheck r) {
-        // Evaluoidaan silmukkamuuttuja
-        decl.eval(env, r);
+    public StmtNode specialize() {
+        return new ReturnNode(expr.kind(), expr.specialize());
+    }
 
-        // Aloitetaan for-silmukan evaluointi
-        while (true) {
-            // Tarkistetaan tyttyyk silmukan ehto
-            Boolean b = (Boolean) expr.eval(env, r);
-            if (!b.booleanValue())
-                break;
-            // Evaluoidaan block
-            block.eval(env, r);
-            // Tarkistetaan onko silmukan sisll suoritettu return-statementtia
-            if (r.isReturned())
-                break;
-            // Evaluoidaan iteraattori (esim. silmukan perinteinen i++)
-            iterator.eval(env, r);
-        }
+
+    /**
+     * Laskostetaan palautettava lauseke.
+     */
+    @Override
+    public void fold(ConstantFolder c) {
+        expr = expr.fold(c);
     }
-}
 
 
-/**
- * Luokka, jonka tehtvn ksitell syteohjelmassa mahdollisesti esiintynyt
- * return-statement.
- */
-class Return extends Stmt {
-    private Expr expr;
+    /**
+     * Kerätään palautettavan lausekkeen lukemat muuttujat.
+     */
+    @Override
+    public void countReads(Set<String> reads) {
+        expr.countReads(reads);
+    }
 
     /**
-     * Sijoitetaan parametrina tuotu arvo.
-     * @param expr Sijoitettava expr
+     * Return palauttaa aina.
      */
-    public Return(Expr expr) { // 
-        this.expr = expr;
+    @Override
+    public boolean alwaysReturns() {
+        return true;
     }
 
     /**
-     * PrinTree tulostaa sytteen annetun ohjelman syntaksipuun rekursiivisesti.
+     * Return palauttaa aina.
      */
     @Override
-    public void printTree(PrintWriter pw) {
-        pw.print("( return ");
-        expr.printTree(pw);
-        pw.print(" )");
+    public boolean mayReturn() {
+        return true;
     }
 
+
     /**
-     * Expr tyyppitarkastetaan rekursiivisesti.
+     * Siirretään palautettavan lausekkeen invariantit osat.
      */
     @Override
-    public void typecheck(HashMap<String, Type> tenv) {
-        expr.typecheck(tenv);
+    public void hoist(LoopHoister h) {
+        expr = expr.hoist(h);
     }
 
+
     /**
-     * Listn enviin expr evaluoita arvo avaimella return.
-     * Asetetaan ReturnCheck-olion tila.
+     * Tarkistetaan palautettavan lausekkeen taulukon haut.
      */
     @Override
-    public void eval(HashMap<String, Object> env, ReturnCheck r) {
-        env.put("return", expr.eval(env, r));
-        r.setReturn();
+    public void checkBounds(BoundsChecker b) {
+        expr.checkBounds(b);
+    }
+
+
+    /**
+     * Käsitellään palautettava lauseke.
+     */
+    @Override
+    public void cse(ValueNumbering v) {
+        expr = expr.cse(v);
     }
 }
\ No newline at end of file
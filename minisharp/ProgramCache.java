@@ -0,0 +1,257 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * ProgramCache tallentaa tyyppitarkastetut ohjelmat levylle, jotta
+ * muuttumatonta ohjelmaa ei tarvitse jäsentää ja tyyppitarkastaa jokaisella
+ * ajokerralla uudelleen. Avain on lähdekoodin, kääntäjän version ja
+ * käytössä olevien optimointipassien SHA-256-tiiviste. Ohjelma tallennetaan Javan sarjallistuksella yhdessä
+ * etuosan virheilmoitusten kanssa, jotka tulostetaan uudelleen, kun ohjelma
+ * luetaan välimuistista. Luettaessa sallitaan vain syntaksipuun luokat ja
+ * niiden käyttämät JDK:n luokat, ja jokaisen luokan tallennettujen kenttien
+ * on vastattava nykyistä luokkaa (ks. CacheInputStream).
+ */
+public class ProgramCache {
+    /**
+     * Kääntäjän versio. Versiota on kasvatettava aina, kun
+     * tyyppitarkastusta tai passeja muutetaan niin, että sama lähdekoodi
+     * tuottaa eri syntaksipuun. Syntaksipuun luokkien kenttien muutokset
+     * tunnistetaan luettaessa (ks. CacheInputStream), vaikka
+     * serialVersionUID pidetään samana.
+     */
+    static final String VERSION = "minisharp-12";
+
+    /**
+     * Sarjallistetussa ohjelmassa sallitut JDK:n luokat. Object[] ja
+     * Map.Entry[] ovat ArrayListin ja HashMapin sisäisiä taulukoita.
+     */
+    private static final List<Class<?>> JDK_CLASSES = Arrays.asList(
+            Object.class, Number.class, Integer.class, ArrayList.class, HashMap.class, Map.Entry.class);
+
+    /**
+     * Luettaessa sallitaan primitiivit, oletuspaketin (syntaksipuun)
+     * luokat ja JDK_CLASSES sekä niiden taulukot. Muut luokat hylätään
+     * ennen kuin niitä luodaan.
+     */
+    static final ObjectInputFilter FILTER = info -> {
+        Class<?> c = info.serialClass();
+        if (c == null)
+            return ObjectInputFilter.Status.UNDECIDED;
+        while (c.isArray())
+            c = c.getComponentType();
+        if (c.isPrimitive() || c.getPackageName().isEmpty() || JDK_CLASSES.contains(c))
+            return ObjectInputFilter.Status.ALLOWED;
+        return ObjectInputFilter.Status.REJECTED;
+    };
+
+    private Path dir;
+    private boolean hit;
+
+    /**
+     * Sijoitetaan parametrina tuotu hakemisto. Hakemisto luodaan
+     * tarvittaessa, kun ensimmäinen ohjelma tallennetaan.
+     * @param dir Välimuistihakemisto
+     */
+    public ProgramCache(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Palautetaan lähdekoodia vastaava ohjelma välimuistista. Jos ohjelmaa
+     * ei löydy tai sitä ei voi lukea, ohjelma muodostetaan frontEndillä ja
+     * tallennetaan välimuistiin.
+     * @param source Lähdekoodi
+     * @param passes Käytössä olevat passit (ks. PassManager.enabled)
+     * @param frontEnd Jäsentää ja tyyppitarkastaa ohjelman
+     * @return Tyyppitarkastettu ohjelma
+     */
+    public Program get(byte[] source, String passes, Supplier<Program> frontEnd) {
+        Path file = dir.resolve(key(source, passes) + ".bin");
+        Program ast = load(file);
+        hit = ast != null;
+        if (hit)
+            return ast;
+
+        // Etuosan virheilmoitukset tulostetaan normaalisti ja kopioidaan
+        // talteen, jotta ne voidaan toistaa välimuistiosuman yhteydessä.
+        PrintStream err = System.err;
+        ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                err.write(b);
+                diagnostics.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                err.write(b, off, len);
+                diagnostics.write(b, off, len);
+            }
+        }, true));
+        try {
+            ast = frontEnd.get();
+        } finally {
+            System.setErr(err);
+        }
+        store(file, ast, diagnostics.toByteArray());
+        return ast;
+    }
+
+    /**
+     * Tarkistetaan, luettiinko viimeisin ohjelma välimuistista.
+     * @return true, jos get ei kutsunut frontEndiä
+     */
+    public boolean hit() {
+        return hit;
+    }
+
+    /**
+     * Luetaan ohjelma tiedostosta ja tulostetaan sen virheilmoitukset.
+     * @param file Välimuistitiedosto
+     * @return Ohjelma tai null, jos tiedostoa ei ole tai se on vanhentunut
+     */
+    private Program load(Path file) {
+        if (!Files.isRegularFile(file))
+            return null;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file));
+             ObjectInputStream ois = new CacheInputStream(in)) {
+            byte[] diagnostics = (byte[]) ois.readObject();
+            Program ast = (Program) ois.readObject();
+            System.err.write(diagnostics, 0, diagnostics.length);
+            System.err.flush();
+            return ast;
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            // Esim. luokkien muuttuessa sarjallistettu muoto ei enää kelpaa,
+            // jolloin ohjelma käännetään uudelleen. Myös rikkinäinen
+            // tiedosto (esim. ClassCastException tai
+            // NegativeArraySizeException) on pelkkä välimuistin ohitus.
+            return null;
+        }
+    }
+
+    /**
+     * CacheInputStream lukee välimuistitiedoston suodattimen FILTER kanssa
+     * ja vertaa jokaisen luokan tallennettuja kenttiä nykyisen luokan
+     * kenttiin. Koska serialVersionUID on kiinteä, Java lukisi muuten
+     * vanhan tiedoston hiljaa ja jättäisi uudet kentät oletusarvoihinsa.
+     */
+    private static class CacheInputStream extends ObjectInputStream {
+        /**
+         * Sijoitetaan parametrina tuotu virta ja suodatin.
+         * @param in Välimuistitiedosto
+         * @throws IOException Jos virran otsake ei kelpaa
+         */
+        CacheInputStream(InputStream in) throws IOException {
+            super(in);
+            setObjectInputFilter(FILTER);
+        }
+
+        /**
+         * Luetaan luokan kuvaus ja hylätään se, jos kentät (nimet ja
+         * tyypit) eroavat nykyisestä luokasta.
+         */
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass stored = super.readClassDescriptor();
+            ObjectStreamClass local = ObjectStreamClass.lookup(
+                    Class.forName(stored.getName(), false, ProgramCache.class.getClassLoader()));
+            if (local == null || !sameFields(stored.getFields(), local.getFields()))
+                throw new InvalidClassException(stored.getName(), "fields have changed");
+            return stored;
+        }
+
+        /**
+         * Verrataan kenttien nimiä ja tyyppejä. Kentät ovat kummassakin
+         * samassa (ObjectStreamClassin määräämässä) järjestyksessä.
+         */
+        private static boolean sameFields(ObjectStreamField[] a, ObjectStreamField[] b) {
+            if (a.length != b.length)
+                return false;
+            for (int i = 0; i < a.length; i++) {
+                if (!a[i].getName().equals(b[i].getName()) || a[i].getTypeCode() != b[i].getTypeCode()
+                        || !String.valueOf(a[i].getTypeString()).equals(String.valueOf(b[i].getTypeString())))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Tallennetaan ohjelma välimuistiin. Tiedosto kirjoitetaan ensin
+     * väliaikaiseen tiedostoon ja siirretään paikalleen, jotta rinnakkaiset
+     * ajot eivät lue puolikasta tiedostoa. Epäonnistuminen ei keskeytä ajoa.
+     * @param file Välimuistitiedosto
+     * @param ast Tyyppitarkastettu ohjelma
+     * @param diagnostics Etuosan virheilmoitukset
+     */
+    private void store(Path file, Program ast, byte[] diagnostics) {
+        Path tmp = null;
+        try {
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, "program", ".tmp");
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp));
+                 ObjectOutputStream oos = new ObjectOutputStream(out)) {
+                oos.writeObject(diagnostics);
+                oos.writeObject(ast);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.printf("Could not write cache file %s\n", file);
+            try {
+                if (tmp != null)
+                    Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Lasketaan lähdekoodin, kääntäjän version ja passien SHA-256-tiiviste.
+     * @param source Lähdekoodi
+     * @param passes Käytössä olevat passit
+     * @return Tiiviste heksadesimaalimuodossa
+     */
+    static String key(byte[] source, String passes) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        md.update(VERSION.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(passes.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        byte[] hash = md.digest(source);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : hash) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
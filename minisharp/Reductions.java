@@ -0,0 +1,275 @@
+import java.io.Serializable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Int-taulukon reduktio, jolla ForLoop korvataan (ks. ReductionLoop).
+ * Silmukka for (int i = a; i < b; i++) lukee lohkossaan taulukkoa t vain
+ * kohdasta i, joka on todistettu rajojen sisäiseksi (ks. BoundsChecker), ja
+ * päivittää yhtä int-muuttujaa:
+ * summa (s = s + t[i]), minimi (if (t[i] < m) { m = t[i]; }), maksimi
+ * (if (t[i] > m) { m = t[i]; }) tai ehdon täyttävien alkioiden määrä
+ * (if (t[i] == k) { c = c + 1; }, myös < ja >).
+ */
+class Reduction implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final int op;
+    final String array;
+    final int arraySlot;
+    final String acc;
+    final int accSlot;
+    final Expr operand;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param op Reduktion laji (ks. Reductions)
+     * @param array Taulukon tunniste
+     * @param arraySlot Taulukon paikka kehyksessä
+     * @param acc Päivitettävän muuttujan tunniste
+     * @param accSlot Päivitettävän muuttujan paikka kehyksessä
+     * @param operand Vertailun toinen operandi tai null
+     */
+    public Reduction(int op, String array, int arraySlot, String acc, int accSlot, Expr operand) {
+        this.op = op;
+        this.array = array;
+        this.arraySlot = arraySlot;
+        this.acc = acc;
+        this.accSlot = accSlot;
+        this.operand = operand;
+    }
+
+    /**
+     * Tunnistetaan reduktio vertailusta ja if-lauseen sijoituksesta.
+     * Vertailu käännetään muotoon t[i] op k, jossa t[i] on laskurin
+     * counter kohdalta luettu alkio.
+     * @param cmp Vertailu: '<', '>' tai '='
+     * @param left Vertailun vasen puoli
+     * @param right Vertailun oikea puoli
+     * @param counter Laskurin tunniste
+     * @param then If-lauseen ainoa statement
+     * @return Reduktio tai null
+     */
+    static Reduction compare(char cmp, Expr left, Expr right, String counter, AssignExpr then) {
+        IndexExpr element = left.element(counter);
+        Expr other = right;
+        if (element == null) {
+            element = right.element(counter);
+            other = left;
+            cmp = cmp == '<' ? '>' : cmp == '>' ? '<' : cmp;
+        }
+        if (element == null || then.getKind() != 'I')
+            return null;
+
+        IndexExpr value = then.getExpr().element(counter);
+        if (cmp != '=' && value != null && value.getID().equals(element.getID())
+                && other.isVar(then.getID())) {
+            return new Reduction(cmp == '<' ? Reductions.MIN : Reductions.MAX, element.getID(),
+                    element.getSlot(), then.getID(), then.getSlot(), null);
+        }
+        Accumulator a = then.accumulator();
+        if (a != null && !a.subtract && a.step.isConstant() && a.step.kind() == 'I'
+                && a.step.evalInt(null, null) == 1) {
+            int op = cmp == '<' ? Reductions.COUNTLT : cmp == '>' ? Reductions.COUNTGT : Reductions.COUNTEQ;
+            return new Reduction(op, element.getID(), element.getSlot(), then.getID(), then.getSlot(), other);
+        }
+        return null;
+    }
+}
+
+
+/**
+ * Reduktioiden laskenta. Pitkät taulukon välit lasketaan Vector API:n
+ * SIMD-käskyillä (ks. VectorReductions), jos jdk.incubator.vector-moduuli on
+ * käytössä (java --add-modules jdk.incubator.vector). Muuten ja lyhyille
+ * väleille käytetään tavallista silmukkaa. Hyvin pitkät välit jaetaan
+ * osiin, jotka lasketaan rinnakkain ForkJoinPoolin säikeissä omiin
+ * välituloksiinsa, ja välitulokset yhdistetään lopuksi. Int-laskutoimitukset
+ * pyörähtävät ympäri kaikissa samoin, ja summa, minimi, maksimi ja määrä
+ * ovat liitännäisiä, joten tulos ei riipu laskujärjestyksestä. Myös
+ * käännetyt ohjelmat kutsuvat näitä metodeja.
+ */
+class Reductions {
+    static final int SUM = 0;
+    static final int MIN = 1;
+    static final int MAX = 2;
+    static final int COUNTLT = 3;
+    static final int COUNTGT = 4;
+    static final int COUNTEQ = 5;
+
+    /**
+     * Välin vähimmäispituus, jolla SIMD-laskentaa käytetään.
+     */
+    static final int VECTOR_THRESHOLD = 64;
+
+    /**
+     * Välin vähimmäispituus, jolla laskenta jaetaan säikeille.
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 18;
+
+    /**
+     * Yhden säikeen kerralla laskeman osan enimmäispituus.
+     */
+    static final int CHUNK = 1 << 16;
+
+    private static final Reducer VECTOR = loadVector();
+
+    /**
+     * Reduktion toteutus.
+     */
+    interface Reducer {
+        int reduce(int op, int[] t, int from, int to, int acc, int k);
+    }
+
+    /**
+     * Lasketaan reduktio taulukon välille [from, to).
+     * @param op Reduktion laji
+     * @param t Taulukko
+     * @param from Välin alku
+     * @param to Välin loppu, jota ei lueta
+     * @param acc Päivitettävän muuttujan arvo ennen silmukkaa
+     * @param k Vertailun toinen operandi (vain COUNT-reduktioissa)
+     * @return Muuttujan arvo silmukan jälkeen
+     */
+    static int reduce(int op, int[] t, int from, int to, int acc, int k) {
+        if (to - from >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1)
+            return combine(op, acc, ForkJoinPool.commonPool().invoke(new Part(op, t, from, to, k)));
+        return sequential(op, t, from, to, acc, k);
+    }
+
+    /**
+     * Lasketaan reduktio yhdessä säikeessä.
+     * @param op Reduktion laji
+     * @param t Taulukko
+     * @param from Välin alku
+     * @param to Välin loppu, jota ei lueta
+     * @param acc Päivitettävän muuttujan arvo ennen silmukkaa
+     * @param k Vertailun toinen operandi
+     * @return Muuttujan arvo silmukan jälkeen
+     */
+    static int sequential(int op, int[] t, int from, int to, int acc, int k) {
+        if (VECTOR != null && to - from >= VECTOR_THRESHOLD)
+            return VECTOR.reduce(op, t, from, to, acc, k);
+        return scalar(op, t, from, to, acc, k);
+    }
+
+    /**
+     * Palautetaan reduktion neutraalialkio, josta osan välitulos aloitetaan.
+     * @param op Reduktion laji
+     * @return Neutraalialkio
+     */
+    static int identity(int op) {
+        return op == MIN ? Integer.MAX_VALUE : op == MAX ? Integer.MIN_VALUE : 0;
+    }
+
+    /**
+     * Yhdistetään kaksi välitulosta.
+     * @param op Reduktion laji
+     * @param a Ensimmäinen välitulos
+     * @param b Toinen välitulos
+     * @return Yhdistetty tulos
+     */
+    static int combine(int op, int a, int b) {
+        switch (op) {
+            case MIN:
+                return Math.min(a, b);
+            case MAX:
+                return Math.max(a, b);
+            default:
+                return a + b;
+        }
+    }
+
+    /**
+     * Taulukon välin osa, joka puolitetaan, kunnes se on enintään CHUNK
+     * alkiota pitkä. Toinen puolisko lasketaan toisessa säikeessä.
+     */
+    private static class Part extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final int op;
+        private final int[] t;
+        private final int from;
+        private final int to;
+        private final int k;
+
+        Part(int op, int[] t, int from, int to, int k) {
+            this.op = op;
+            this.t = t;
+            this.from = from;
+            this.to = to;
+            this.k = k;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= CHUNK)
+                return sequential(op, t, from, to, identity(op), k);
+            int mid = from + (to - from) / 2;
+            Part left = new Part(op, t, from, mid, k);
+            left.fork();
+            int right = new Part(op, t, mid, to, k).compute();
+            return combine(op, left.join(), right);
+        }
+    }
+
+    /**
+     * Lasketaan reduktio tavallisella silmukalla.
+     * @param op Reduktion laji
+     * @param t Taulukko
+     * @param from Välin alku
+     * @param to Välin loppu, jota ei lueta
+     * @param acc Päivitettävän muuttujan arvo ennen silmukkaa
+     * @param k Vertailun toinen operandi
+     * @return Muuttujan arvo silmukan jälkeen
+     */
+    static int scalar(int op, int[] t, int from, int to, int acc, int k) {
+        switch (op) {
+            case SUM:
+                for (int i = from; i < to; i++)
+                    acc += t[i];
+                return acc;
+            case MIN:
+                for (int i = from; i < to; i++)
+                    acc = Math.min(acc, t[i]);
+                return acc;
+            case MAX:
+                for (int i = from; i < to; i++)
+                    acc = Math.max(acc, t[i]);
+                return acc;
+            case COUNTLT:
+                for (int i = from; i < to; i++) {
+                    if (t[i] < k)
+                        acc++;
+                }
+                return acc;
+            case COUNTGT:
+                for (int i = from; i < to; i++) {
+                    if (t[i] > k)
+                        acc++;
+                }
+                return acc;
+            default:
+                for (int i = from; i < to; i++) {
+                    if (t[i] == k)
+                        acc++;
+                }
+                return acc;
+        }
+    }
+
+    /**
+     * Ladataan SIMD-toteutus, jos Vector API on käytössä. Luokka ladataan
+     * nimellä, jotta muu ohjelma toimii ilman moduulia.
+     * @return Toteutus tai null
+     */
+    private static Reducer loadVector() {
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+            return null;
+        try {
+            return (Reducer) Class.forName("VectorReductions").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
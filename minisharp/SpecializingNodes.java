@@ -0,0 +1,953 @@
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Itseään erikoistavat solmut. Tyyppitarkastettu syntaksipuu muutetaan
+ * suoritettavaksi solmupuuksi. Int-tyyppiset laskutoimitukset ja vertailut
+ * luodaan suoraan int-solmuiksi, muut aloittavat alustamattomina.
+ * Ensimmäisellä suorituskerralla solmu katsoo operandiensa arvot ja korvaa
+ * itsensä vanhemmassaan erikoistuneella solmulla: jos double-arvot ovat
+ * kokonaislukuja, laskenta tehdään intteinä, muuten doubleina. Jos int-oletus myöhemmin pettää (operandi ei olekaan
+ * kokonaisluku tai tulos ylivuotaa), solmu korvataan yleisellä
+ * double-solmulla, joka toimii aina.
+ *
+ * Koska jokainen solmu on suorituksen ajan yhtä tyyppiä, HotSpot näkee
+ * kuumissa silmukoissa monomorfiset kutsut ja voi inlinata ne.
+ */
+abstract class Node {
+    Node parent;
+
+    /**
+     * Asetetaan tämä solmu lapsen vanhemmaksi.
+     * @param child Lapsisolmu
+     * @return Lapsisolmu
+     */
+    protected <T extends Node> T adopt(T child) {
+        child.parent = this;
+        return child;
+    }
+
+    /**
+     * Korvataan tämä solmu vanhemmassaan solmulla node.
+     * @param node Uusi solmu
+     * @return Uusi solmu
+     */
+    protected <T extends Node> T replace(T node) {
+        node.parent = parent;
+        parent.replaceChild(this, node);
+        return node;
+    }
+
+    /**
+     * Korvataan lapsisolmu old solmulla node. Metodi luotu perintää varten.
+     * @param old Korvattava lapsi
+     * @param node Uusi lapsi
+     */
+    protected void replaceChild(Node old, Node node) {
+        throw new IllegalStateException("Node has no replaceable children.");
+    }
+}
+
+
+/**
+ * Poikkeus, jolla executeInt ilmoittaa, ettei arvo ollut kokonaisluku.
+ * Poikkeus kuljettaa lasketun arvon, jotta sitä ei tarvitse laskea uudelleen.
+ * Pinojälkeä ei tallenneta, koska poikkeus kuuluu normaaliin suoritukseen.
+ */
+class UnexpectedResultException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    final double value;
+
+    /**
+     * Sijoitetaan parametrina tuotu arvo.
+     * @param value Laskettu arvo
+     */
+    public UnexpectedResultException(double value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
+
+
+/**
+ * Lausekesolmu. Arvo voidaan pyytää doublena, intinä, totuusarvona tai
+ * int-taulukkona.
+ */
+abstract class ExprNode extends Node {
+
+    /**
+     * Suoritetaan lauseke luvuksi.
+     * @param f Kehys
+     * @return Lausekkeen arvo
+     */
+    public double executeDouble(Frame f) {
+        throw new IllegalStateException("Incorrect use of node in method executeDouble.");
+    }
+
+    /**
+     * Suoritetaan lauseke kokonaisluvuksi. Jos arvo ei ole kokonaisluku,
+     * heitetään UnexpectedResultException, joka sisältää arvon.
+     * @param f Kehys
+     * @return Lausekkeen arvo
+     * @throws UnexpectedResultException Arvo ei ollut kokonaisluku
+     */
+    public int executeInt(Frame f) throws UnexpectedResultException {
+        return expectInt(executeDouble(f));
+    }
+
+    /**
+     * Suoritetaan lauseke totuusarvoksi.
+     * @param f Kehys
+     * @return Lausekkeen arvo
+     */
+    public boolean executeBoolean(Frame f) {
+        throw new IllegalStateException("Incorrect use of node in method executeBoolean.");
+    }
+
+    /**
+     * Suoritetaan lauseke int-taulukoksi.
+     * @param f Kehys
+     * @return Lausekkeen arvo
+     */
+    public int[] executeArray(Frame f) {
+        throw new IllegalStateException("Incorrect use of node in method executeArray.");
+    }
+
+    /**
+     * Palautetaan d intinä, jos se on kokonaisluku. Negatiivista nollaa ei
+     * hyväksytä, koska intinä siitä tulisi nolla.
+     * @param d Arvo
+     * @return Arvo intinä
+     * @throws UnexpectedResultException Arvo ei ollut kokonaisluku
+     */
+    static int expectInt(double d) throws UnexpectedResultException {
+        int i = (int) d;
+        if (i != d || (i == 0 && Double.doubleToRawLongBits(d) != 0L)) {
+            throw new UnexpectedResultException(d);
+        }
+        return i;
+    }
+
+    /**
+     * Tarkistetaan, voidaanko d käsitellä intinä.
+     * @param d Arvo
+     * @return true, jos d on kokonaisluku
+     */
+    static boolean isInt(double d) {
+        return (int) d == d && (d != 0 || Double.doubleToRawLongBits(d) == 0L);
+    }
+}
+
+
+/**
+ * Kokonaislukuvakio.
+ */
+class ConstNode extends ExprNode {
+    private final int value;
+
+    public ConstNode(int value) {
+        this.value = value;
+    }
+
+    @Override
+    public double executeDouble(Frame f) {
+        return value;
+    }
+
+    @Override
+    public int executeInt(Frame f) {
+        return value;
+    }
+}
+
+
+/**
+ * Laskostettu double-vakio. Kokonaislukuarvoinen vakio kelpaa myös
+ * int-laskentaan.
+ */
+class DoubleConstNode extends ExprNode {
+    private final double value;
+
+    public DoubleConstNode(double value) {
+        this.value = value;
+    }
+
+    @Override
+    public double executeDouble(Frame f) {
+        return value;
+    }
+}
+
+
+/**
+ * Laskostettu totuusarvovakio.
+ */
+class BoolConstNode extends ExprNode {
+    private final boolean value;
+
+    public BoolConstNode(boolean value) {
+        this.value = value;
+    }
+
+    @Override
+    public boolean executeBoolean(Frame f) {
+        return value;
+    }
+}
+
+
+/**
+ * Int-muuttujan luku kehyksen paikasta. Arvo on aina kokonaisluku.
+ */
+class IntLocalNode extends ExprNode {
+    private final int slot;
+
+    public IntLocalNode(int slot) {
+        this.slot = slot;
+    }
+
+    @Override
+    public int executeInt(Frame f) {
+        return f.ints[slot];
+    }
+
+    @Override
+    public double executeDouble(Frame f) {
+        return f.ints[slot];
+    }
+}
+
+
+/**
+ * Muun kuin int-muuttujan luku kehyksen paikasta.
+ */
+class LocalNode extends ExprNode {
+    private final int slot;
+
+    public LocalNode(int slot) {
+        this.slot = slot;
+    }
+
+    @Override
+    public double executeDouble(Frame f) {
+        return f.nums[slot];
+    }
+
+    @Override
+    public boolean executeBoolean(Frame f) {
+        return f.bools[slot];
+    }
+
+    @Override
+    public int[] executeArray(Frame f) {
+        return f.arrays[slot];
+    }
+}
+
+
+/**
+ * Int-taulukon arvon haku. Arvo on aina kokonaisluku. Int-tyyppinen
+ * indeksi pyydetään ensin intinä, jolloin se ei kulje doublen kautta.
+ * Double-tyyppinen indeksi haetaan doublena, jotta rajojen ylityksen
+ * virheilmoitus on sama kuin muilla evaluointitavoilla.
+ */
+class IndexNode extends ExprNode {
+    private final int slot;
+    private final boolean ints;
+    private ExprNode index;
+
+    public IndexNode(int slot, ExprNode index, boolean ints) {
+        this.slot = slot;
+        this.ints = ints;
+        this.index = adopt(index);
+    }
+
+    @Override
+    public int executeInt(Frame f) {
+        int[] t = f.arrays[slot];
+        if (!ints)
+            return IndexExpr.load(t, index.executeDouble(f));
+        int i;
+        try {
+            i = index.executeInt(f);
+        } catch (UnexpectedResultException e) {
+            return IndexExpr.load(t, e.value);
+        }
+        if (i < 0 || i >= t.length) {
+            return IndexExpr.load(t, i);
+        }
+        return t[i];
+    }
+
+    @Override
+    public double executeDouble(Frame f) {
+        return executeInt(f);
+    }
+
+    @Override
+    protected void replaceChild(Node old, Node node) {
+        index = (ExprNode) node;
+    }
+}
+
+
+/**
+ * Taulukon haku, jonka indeksi on todistettu rajojen sisäiseksi
+ * (ks. BoundsChecker). Indeksi on int-tyyppinen.
+ */
+class UncheckedIndexNode extends ExprNode {
+    private final int slot;
+    private ExprNode index;
+
+    public UncheckedIndexNode(int slot, ExprNode index) {
+        this.slot = slot;
+        this.index = adopt(index);
+    }
+
+    @Override
+    public int executeInt(Frame f) {
+        int i;
+        try {
+            i = index.executeInt(f);
+        } catch (UnexpectedResultException e) {
+            i = (int) e.value;
+        }
+        return f.arrays[slot][i];
+    }
+
+    @Override
+    public double executeDouble(Frame f) {
+        return executeInt(f);
+    }
+
+    @Override
+    protected void replaceChild(Node old, Node node) {
+        index = (ExprNode) node;
+    }
+}
+
+
+/**
+ * Int-taulukon pituus.
+ */
+class LengthNode extends ExprNode {
+    private final int slot;
+
+    public LengthNode(int slot) {
+        this.slot = slot;
+    }
+
+    @Override
+    public int executeInt(Frame f) {
+        return f.arrays[slot].length;
+    }
+
+    @Override
+    public double executeDouble(Frame f) {
+        return f.arrays[slot].length;
+    }
+}
+
+
+/**
+ * Kahden operandin solmujen yhteinen yläluokka. Operaatio on merkki
+ * '+', '-', '*', '/', '<', '>' tai '='.
+ */
+abstract class BinaryNode extends ExprNode {
+    protected final char op;
+    protected ExprNode left;
+    protected ExprNode right;
+
+    public BinaryNode(char op, ExprNode left, ExprNode right) {
+        this.op = op;
+        this.left = adopt(left);
+        this.right = adopt(right);
+    }
+
+    @Override
+    protected void replaceChild(Node old, Node node) {
+        if (left == old) {
+            left = (ExprNode) node;
+        } else {
+            right = (ExprNode) node;
+        }
+    }
+
+    /**
+     * Lasketaan operaatio doubleina. Tämä on kielen määrittelemä tulos,
+     * johon int-erikoistukset vertautuvat.
+     * @param op Operaatio
+     * @param a Vasen operandi
+     * @param b Oikea operandi
+     * @return Laskutoimituksen tulos
+     */
+    static double arith(char op, double a, double b) {
+        switch (op) {
+            case '+':
+                return a + b;
+            case '-':
+                return a - b;
+            case '*':
+                return a * b;
+            default:
+                return a / b;
+        }
+    }
+
+    /**
+     * Lasketaan operaatio intteinä. Jos tulos ei ole täsmälleen sama kuin
+     * doubleina laskettuna (ylivuoto, jakojäännös tai negatiivinen nolla),
+     * heitetään ArithmeticException.
+     * @param op Operaatio
+     * @param a Vasen operandi
+     * @param b Oikea operandi
+     * @return Laskutoimituksen tulos
+     */
+    static int arithExact(char op, int a, int b) {
+        switch (op) {
+            case '+':
+                return Math.addExact(a, b);
+            case '-':
+                return Math.subtractExact(a, b);
+            case '*':
+                int product = Math.multiplyExact(a, b);
+                if (product == 0 && (a < 0 || b < 0)) {
+                    throw new ArithmeticException("negative zero");
+                }
+                return product;
+            default:
+                if (b == 0 || a % b != 0 || (a == 0 && b < 0) || (a == Integer.MIN_VALUE && b == -1)) {
+                    throw new ArithmeticException("inexact division");
+                }
+                return a / b;
+        }
+    }
+
+    /**
+     * Verrataan operandeja.
+     * @param op Vertailu
+     * @param a Vasen operandi
+     * @param b Oikea operandi
+     * @return Vertailun tulos
+     */
+    static boolean compare(char op, double a, double b) {
+        switch (op) {
+            case '<':
+                return a < b;
+            case '>':
+                return a > b;
+            default:
+                return a == b;
+        }
+    }
+}
+
+
+/**
+ * Int-tyyppinen laskutoimitus. Molemmat operandit ovat tyypiltään int,
+ * joten erikoistusta ei tarvita: jakolasku katkaistaan ja ylivuoto
+ * pyörähtää ympäri kuten Javassa.
+ */
+class IntTypedArithNode extends BinaryNode {
+
+    public IntTypedArithNode(char op, ExprNode left, ExprNode right) {
+        super(op, left, right);
+    }
+
+    @Override
+    public int executeInt(Frame f) throws UnexpectedResultException {
+        int a = left.executeInt(f);
+        int b = right.executeInt(f);
+        switch (op) {
+            case '+':
+                return a + b;
+            case '-':
+                return a - b;
+            case '*':
+                return a * b;
+            default:
+                return DivExpr.divide(a, b);
+        }
+    }
+
+    @Override
+    public double executeDouble(Frame f) {
+        try {
+            return executeInt(f);
+        } catch (UnexpectedResultException e) {
+            return e.value;
+        }
+    }
+}
+
+
+/**
+ * Alustamaton double-tyyppinen laskutoimitus. Ensimmäinen suoritus
+ * valitsee erikoistuksen operandien arvojen perusteella.
+ */
+class UninitializedArithNode extends BinaryNode {
+
+    public UninitializedArithNode(char op, ExprNode left, ExprNode right) {
+        super(op, left, right);
+    }
+
+    @Override
+    public double executeDouble(Frame f) {
+        double a = left.executeDouble(f);
+        double b = right.executeDouble(f);
+        if (isInt(a) && isInt(b)) {
+            try {
+                int result = arithExact(op, (int) a, (int) b);
+                replace(new IntArithNode(op, left, right));
+                return result;
+            } catch (ArithmeticException e) {
+                // Tulos ei ole int, joten valitaan double-solmu.
+            }
+        }
+        replace(new DoubleArithNode(op, left, right));
+        return arith(op, a, b);
+    }
+}
+
+
+/**
+ * Laskutoimitus intteinä. Jos operandi ei ole kokonaisluku tai tulos ei
+ * ole täsmällinen, solmu korvataan double-solmulla.
+ */
+class IntArithNode extends BinaryNode {
+
+    public IntArithNode(char op, ExprNode left, ExprNode right) {
+        super(op, left, right);
+    }
+
+    @Override
+    public int executeInt(Frame f) throws UnexpectedResultException {
+        int a;
+        int b;
+        try {
+            a = left.executeInt(f);
+        } catch (UnexpectedResultException e) {
+            throw new UnexpectedResultException(generalize(e.value, right.executeDouble(f)));
+        }
+        try {
+            b = right.executeInt(f);
+        } catch (UnexpectedResultException e) {
+            throw new UnexpectedResultException(generalize(a, e.value));
+        }
+        try {
+            return arithExact(op, a, b);
+        } catch (ArithmeticException e) {
+            throw new UnexpectedResultException(generalize(a, b));
+        }
+    }
+
+    @Override
+    public double executeDouble(Frame f) {
+        try {
+            return executeInt(f);
+        } catch (UnexpectedResultException e) {
+            return e.value;
+        }
+    }
+
+    /**
+     * Korvataan solmu double-solmulla ja lasketaan tulos valmiiksi
+     * lasketuista operandeista.
+     */
+    private double generalize(double a, double b) {
+        replace(new DoubleArithNode(op, left, right));
+        return arith(op, a, b);
+    }
+}
+
+
+/**
+ * Laskutoimitus doubleina. Yleinen solmu, joka toimii kaikilla arvoilla.
+ */
+class DoubleArithNode extends BinaryNode {
+
+    public DoubleArithNode(char op, ExprNode left, ExprNode right) {
+        super(op, left, right);
+    }
+
+    @Override
+    public double executeDouble(Frame f) {
+        return arith(op, left.executeDouble(f), right.executeDouble(f));
+    }
+}
+
+
+/**
+ * Alustamaton vertailu. Ensimmäinen suoritus valitsee erikoistuksen
+ * operandien arvojen perusteella.
+ */
+class UninitializedCompareNode extends BinaryNode {
+
+    public UninitializedCompareNode(char op, ExprNode left, ExprNode right) {
+        super(op, left, right);
+    }
+
+    @Override
+    public boolean executeBoolean(Frame f) {
+        double a = left.executeDouble(f);
+        double b = right.executeDouble(f);
+        if (isInt(a) && isInt(b)) {
+            replace(new IntCompareNode(op, left, right));
+        } else {
+            replace(new DoubleCompareNode(op, left, right));
+        }
+        return compare(op, a, b);
+    }
+}
+
+
+/**
+ * Vertailu intteinä. Solmu luodaan suoraan, jos molemmat operandit ovat
+ * tyypiltään int. Jos operandi ei ole kokonaisluku, solmu korvataan
+ * double-solmulla.
+ */
+class IntCompareNode extends BinaryNode {
+
+    public IntCompareNode(char op, ExprNode left, ExprNode right) {
+        super(op, left, right);
+    }
+
+    @Override
+    public boolean executeBoolean(Frame f) {
+        int a;
+        int b;
+        try {
+            a = left.executeInt(f);
+        } catch (UnexpectedResultException e) {
+            return generalize(e.value, right.executeDouble(f));
+        }
+        try {
+            b = right.executeInt(f);
+        } catch (UnexpectedResultException e) {
+            return generalize(a, e.value);
+        }
+        switch (op) {
+            case '<':
+                return a < b;
+            case '>':
+                return a > b;
+            default:
+                return a == b;
+        }
+    }
+
+    private boolean generalize(double a, double b) {
+        replace(new DoubleCompareNode(op, left, right));
+        return compare(op, a, b);
+    }
+}
+
+
+/**
+ * Vertailu doubleina. Yleinen solmu, joka toimii kaikilla arvoilla.
+ */
+class DoubleCompareNode extends BinaryNode {
+
+    public DoubleCompareNode(char op, ExprNode left, ExprNode right) {
+        super(op, left, right);
+    }
+
+    @Override
+    public boolean executeBoolean(Frame f) {
+        return compare(op, left.executeDouble(f), right.executeDouble(f));
+    }
+}
+
+
+/**
+ * Statementsolmu. Execute palauttaa true, jos statementissa suoritettiin
+ * return, kuten StmtCode.
+ */
+abstract class StmtNode extends Node {
+
+    /**
+     * Suoritetaan statement.
+     * @param f Kehys
+     * @return true, jos suoritettiin return
+     */
+    public abstract boolean execute(Frame f);
+}
+
+
+/**
+ * Lohko, joka suorittaa statementit järjestyksessä.
+ */
+class BlockNode extends StmtNode {
+    private final StmtNode[] stmts;
+
+    public BlockNode(List<StmtNode> stmts) {
+        this.stmts = stmts.toArray(new StmtNode[stmts.size()]);
+        for (StmtNode stmt : this.stmts) {
+            adopt(stmt);
+        }
+    }
+
+    @Override
+    public boolean execute(Frame f) {
+        for (StmtNode stmt : stmts) {
+            if (stmt.execute(f))
+                return true;
+        }
+        return false;
+    }
+}
+
+
+/**
+ * Lausekkeen arvon sijoitus kehyksen paikkaan. Kind on paikan
+ * JVM-tyyppikirjain (ks. BytecodeEmitter.kind).
+ */
+class StoreNode extends StmtNode {
+    private final int slot;
+    private final char kind;
+    private ExprNode expr;
+
+    public StoreNode(int slot, char kind, ExprNode expr) {
+        this.slot = slot;
+        this.kind = kind;
+        this.expr = adopt(expr);
+    }
+
+    @Override
+    public boolean execute(Frame f) {
+        if (kind == 'I') {
+            try {
+                f.ints[slot] = expr.executeInt(f);
+            } catch (UnexpectedResultException e) {
+                f.ints[slot] = (int) e.value;
+            }
+        } else if (kind == 'D') {
+            f.nums[slot] = expr.executeDouble(f);
+        } else if (kind == 'Z') {
+            f.bools[slot] = expr.executeBoolean(f);
+        } else {
+            f.arrays[slot] = expr.executeArray(f);
+        }
+        return false;
+    }
+
+    @Override
+    protected void replaceChild(Node old, Node node) {
+        expr = (ExprNode) node;
+    }
+}
+
+
+/**
+ * Int-taulukkovakion sijoitus kehyksen paikkaan.
+ */
+class ArrayStoreNode extends StmtNode {
+    private final int slot;
+    private final int[] consts;
+
+    public ArrayStoreNode(int slot, int[] consts) {
+        this.slot = slot;
+        this.consts = consts;
+    }
+
+    @Override
+    public boolean execute(Frame f) {
+        f.arrays[slot] = consts;
+        return false;
+    }
+}
+
+
+/**
+ * Iteraattori, joka lisää kehyksen paikkaan arvon delta.
+ */
+class IncrementNode extends StmtNode {
+    private final int slot;
+    private final boolean ints;
+    private final int delta;
+
+    public IncrementNode(int slot, char kind, int delta) {
+        this.slot = slot;
+        this.ints = kind == 'I';
+        this.delta = delta;
+    }
+
+    @Override
+    public boolean execute(Frame f) {
+        if (ints) {
+            f.ints[slot] += delta;
+        } else {
+            f.nums[slot] += delta;
+        }
+        return false;
+    }
+}
+
+
+/**
+ * Ehtolause. Otherwise voi olla null.
+ */
+class IfNode extends StmtNode {
+    private ExprNode cond;
+    private final StmtNode then;
+    private final StmtNode otherwise;
+
+    public IfNode(ExprNode cond, StmtNode then, StmtNode otherwise) {
+        this.cond = adopt(cond);
+        this.then = adopt(then);
+        this.otherwise = otherwise == null ? null : adopt(otherwise);
+    }
+
+    @Override
+    public boolean execute(Frame f) {
+        if (cond.executeBoolean(f)) {
+            return then.execute(f);
+        } else if (otherwise != null) {
+            return otherwise.execute(f);
+        }
+        return false;
+    }
+
+    @Override
+    protected void replaceChild(Node old, Node node) {
+        cond = (ExprNode) node;
+    }
+}
+
+
+/**
+ * For-silmukka.
+ */
+class ForNode extends StmtNode {
+    private final StmtNode init;
+    private ExprNode cond;
+    private final StmtNode body;
+    private final StmtNode step;
+
+    public ForNode(StmtNode init, ExprNode cond, StmtNode body, StmtNode step) {
+        this.init = adopt(init);
+        this.cond = adopt(cond);
+        this.body = adopt(body);
+        this.step = adopt(step);
+    }
+
+    @Override
+    public boolean execute(Frame f) {
+        init.execute(f);
+        while (cond.executeBoolean(f)) {
+            if (body.execute(f))
+                return true;
+            step.execute(f);
+        }
+        return false;
+    }
+
+    @Override
+    protected void replaceChild(Node old, Node node) {
+        cond = (ExprNode) node;
+    }
+}
+
+
+/**
+ * Suljetun muodon silmukka (ks. ClosedFormLoop). Alustuksen jälkeen
+ * lasketaan suljettu muoto, ja jos se ei ole tarkka, suoritetaan silmukka
+ * ilman alustusta.
+ */
+class ClosedFormNode extends StmtNode {
+    private final StmtNode init;
+    private final Predicate<Frame> closedForm;
+    private final StmtNode loop;
+
+    public ClosedFormNode(StmtNode init, Predicate<Frame> closedForm, StmtNode loop) {
+        this.init = adopt(init);
+        this.closedForm = closedForm;
+        this.loop = adopt(loop);
+    }
+
+    @Override
+    public boolean execute(Frame f) {
+        init.execute(f);
+        if (closedForm.test(f))
+            return false;
+        return loop.execute(f);
+    }
+}
+
+
+/**
+ * Statement, joka suoritetaan sulkeumana (ks. ClosureProgram). Käytetään
+ * statementeille, joiden suoritus ei hyödy erikoistumisesta.
+ */
+class ClosureNode extends StmtNode {
+    private final StmtCode code;
+
+    public ClosureNode(StmtCode code) {
+        this.code = code;
+    }
+
+    @Override
+    public boolean execute(Frame f) {
+        return code.run(f);
+    }
+}
+
+
+/**
+ * Return, joka sijoittaa lausekkeen arvon oliona kehyksen kenttään ret.
+ */
+class ReturnNode extends StmtNode {
+    private final char kind;
+    private ExprNode expr;
+
+    public ReturnNode(char kind, ExprNode expr) {
+        this.kind = kind;
+        this.expr = adopt(expr);
+    }
+
+    @Override
+    public boolean execute(Frame f) {
+        if (kind == 'I') {
+            try {
+                f.ret = Integer.valueOf(expr.executeInt(f));
+            } catch (UnexpectedResultException e) {
+                f.ret = Integer.valueOf((int) e.value);
+            }
+        } else if (kind == 'D') {
+            f.ret = Double.valueOf(expr.executeDouble(f));
+        } else if (kind == 'Z') {
+            f.ret = Boolean.valueOf(expr.executeBoolean(f));
+        } else {
+            f.ret = expr.executeArray(f);
+        }
+        return true;
+    }
+
+    @Override
+    protected void replaceChild(Node old, Node node) {
+        expr = (ExprNode) node;
+    }
+}
+
+
+/**
+ * Solmupuun juuri eli suoritettava ohjelma.
+ */
+class SpecializingProgram extends Node {
+    private final StmtNode body;
+
+    public SpecializingProgram(StmtNode body) {
+        this.body = adopt(body);
+    }
+
+    /**
+     * Suoritetaan ohjelma.
+     * @param f Kehys, johon parametrit on sidottu
+     * @return Returnin arvo tai null
+     */
+    public Object run(Frame f) {
+        body.execute(f);
+        return f.ret;
+    }
+}
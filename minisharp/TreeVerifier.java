@@ -0,0 +1,111 @@
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * TreeVerifier tarkistaa tyyppitarkastetun syntaksipuun passien välissä
+ * (ks. PassManager). Puu käydään läpi suoritusjärjestyksessä, ja jokaisen
+ * luetun tai sijoitetun muuttujan on oltava esitelty aiemmin, kuten
+ * tyyppitarkastuksessa. Muuttujan paikan ja tyyppikirjaimen on vastattava
+ * kehyksen asettelua (ks. FrameLayout), ja lausekkeiden ratkaisussa
+ * tallennettujen tyyppien on vastattava operandeja. Ehtojen on oltava
+ * totuusarvoja ja laskutoimitusten operandien lukuja. Virheet tulostetaan.
+ */
+class TreeVerifier {
+    private FrameLayout layout;
+    private Set<String> declared = new HashSet<String>();
+    private int errors;
+
+    /**
+     * Sijoitetaan parametrina tuotu arvo.
+     * @param layout Kehyksen asettelu
+     */
+    public TreeVerifier(FrameLayout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Merkitään muuttujan id esittely. Muuttujaa saa käyttää esittelyn
+     * jälkeen.
+     * @param id Muuttujan tunniste
+     * @param slot Solmuun ratkaistu paikka
+     * @param kind Solmuun ratkaistu tyyppikirjain
+     */
+    public void declare(String id, int slot, char kind) {
+        declared.add(id);
+        variable(id, slot, kind);
+    }
+
+    /**
+     * Tarkistetaan muuttujan id lukeminen tai sijoitus.
+     * @param id Muuttujan tunniste
+     * @param slot Solmuun ratkaistu paikka
+     * @param kind Solmuun ratkaistu tyyppikirjain
+     */
+    public void use(String id, int slot, char kind) {
+        if (!declared.contains(id))
+            error(id + " is used before its declaration");
+        variable(id, slot, kind);
+    }
+
+    /**
+     * Tarkistetaan, että lausekkeen arvon voi sijoittaa tyyppiin kind.
+     * Int-arvon voi sijoittaa myös doubleen.
+     * @param id Muuttujan tunniste
+     * @param kind Muuttujan tyyppikirjain
+     * @param expr Sijoitettu lauseke
+     */
+    public void assign(String id, char kind, Expr expr) {
+        char k = expr.kind();
+        if (k != kind && !(k == 'I' && kind == 'D'))
+            error(id + " of kind " + kind + " is assigned a value of kind " + k);
+    }
+
+    /**
+     * Tarkistetaan lausekkeen tyyppikirjain.
+     * @param expr Lauseke
+     * @param what Lausekkeen kuvaus virheilmoitusta varten
+     * @param kinds Sallitut tyyppikirjaimet
+     */
+    public void expect(Expr expr, String what, String kinds) {
+        if (kinds.indexOf(expr.kind()) < 0)
+            error(what + " has kind " + expr.kind() + ", expected one of " + kinds);
+    }
+
+    /**
+     * Tarkistetaan ehto.
+     * @param ok Ehto
+     * @param message Virheilmoitus, jos ehto ei päde
+     */
+    public void check(boolean ok, String message) {
+        if (!ok)
+            error(message);
+    }
+
+    /**
+     * Palautetaan löytyneiden virheiden määrä.
+     * @return Virheiden määrä
+     */
+    public int errors() {
+        return errors;
+    }
+
+    /**
+     * Verrataan solmuun ratkaistua paikkaa ja tyyppikirjainta kehyksen
+     * asetteluun.
+     */
+    private void variable(String id, int slot, char kind) {
+        int expected = layout.resolved(id);
+        if (slot != expected) {
+            error(id + " has slot " + slot + ", expected " + expected);
+            return;
+        }
+        char k = BytecodeEmitter.kind(layout.slotType(slot));
+        if (kind != k)
+            error(id + " has kind " + kind + ", expected " + k);
+    }
+
+    private void error(String message) {
+        System.err.printf("Tree error: %s\n", message);
+        errors++;
+    }
+}
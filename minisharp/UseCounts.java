@@ -0,0 +1,72 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * UseCounts laskee kuolleen koodin poistoa (ks. Program.prune) varten,
+ * montako statementtia lukee kutakin muuttujaa. Poistettavissa olevan
+ * esittelyn tai sijoituksen (ks. Stmt.countUses) lukemat lasketaan
+ * erikseen, koska ne katoavat, jos esittelyn muuttujaa ei lueta.
+ *
+ * Muuttujat, joiden lukumäärä on nolla, käsitellään työlistana: niiden
+ * esittelyjen ja sijoitusten lukemien muuttujien lukumääriä vähennetään,
+ * ja nollaan laskeneet muuttujat lisätään työlistaan. Lopuksi luettujen
+ * muuttujien joukko on sama, joka saataisiin poistamalla kuolleet
+ * esittelyt ja laskemalla lukemat uudelleen, kunnes ohjelma ei muutu.
+ */
+class UseCounts {
+    private HashMap<String, Integer> counts = new HashMap<String, Integer>();
+    private HashMap<String, List<Set<String>>> defs = new HashMap<String, List<Set<String>>>();
+
+    /**
+     * Merkitään statementin lukemat, jotka säilyvät joka tapauksessa.
+     * @param reads Statementin lukemat muuttujat
+     */
+    public void read(Set<String> reads) {
+        for (String id : reads) {
+            counts.merge(id, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Merkitään esittely tai sijoitus muuttujaan id, joka poistetaan, jos
+     * muuttujaa ei lueta.
+     * @param id Muuttujan tunniste
+     * @param reads Arvon lukemat muuttujat
+     */
+    public void define(String id, Set<String> reads) {
+        read(reads);
+        defs.computeIfAbsent(id, k -> new ArrayList<Set<String>>()).add(reads);
+    }
+
+    /**
+     * Vähennetään kuolleiden muuttujien esittelyjen ja sijoitusten lukemat
+     * työlistan avulla.
+     * @return Muuttujat, joita luetaan kuolleiden esittelyjen poistamisen
+     * jälkeen
+     */
+    public Set<String> live() {
+        ArrayDeque<String> work = new ArrayDeque<String>();
+        for (String id : defs.keySet()) {
+            if (!counts.containsKey(id))
+                work.add(id);
+        }
+        while (!work.isEmpty()) {
+            List<Set<String>> dead = defs.remove(work.poll());
+            if (dead == null)
+                continue;
+            for (Set<String> reads : dead) {
+                for (String id : reads) {
+                    if (counts.merge(id, -1, Integer::sum) == 0) {
+                        counts.remove(id);
+                        work.add(id);
+                    }
+                }
+            }
+        }
+        return new HashSet<String>(counts.keySet());
+    }
+}
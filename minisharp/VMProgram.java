@@ -0,0 +1,502 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * VMProgram on rekisteripohjaiselle virtuaalikoneelle käännetty ohjelma.
+ * Käskyt on koodattu int-taulukkoon: jokaista käskykoodia seuraavat sen
+ * operandit. Arvot ovat neljässä primitiivisessä rekisteritiedostossa:
+ * intit (I), doublet (D), totuusarvot (Z) ja int-taulukot (A). Kunkin
+ * tiedoston alussa
+ * ovat kehyksen paikat, niiden jälkeen väliaikaiset rekisterit ja lopuksi
+ * vakiot, jotka alustetaan ennen suoritusta.
+ *
+ * Käännetty muoto ei sisällä olioviittauksia syntaksipuuhun, joten sen voi
+ * tallentaa sellaisenaan.
+ */
+class VMProgram {
+    static final int MOVI = 0;
+    static final int MOVD = 1;
+    static final int MOVZ = 2;
+    static final int MOVA = 3;
+    static final int I2D = 4;
+    static final int D2I = 5;
+    static final int ADDI = 6;
+    static final int SUBI = 7;
+    static final int MULI = 8;
+    static final int DIVI = 9;
+    static final int ADDD = 10;
+    static final int SUBD = 11;
+    static final int MULD = 12;
+    static final int DIVD = 13;
+    static final int LTI = 14;
+    static final int GTI = 15;
+    static final int EQI = 16;
+    static final int LTD = 17;
+    static final int GTD = 18;
+    static final int EQD = 19;
+    static final int LOADA = 20;
+    static final int LOADAD = 21;
+    static final int LENA = 22;
+    static final int INCI = 23;
+    static final int DECI = 24;
+    static final int INCD = 25;
+    static final int DECD = 26;
+    static final int JMP = 27;
+    static final int JZ = 28;
+    static final int JNLTI = 29;
+    static final int JNGTI = 30;
+    static final int JNEQI = 31;
+    static final int JNLTD = 32;
+    static final int JNGTD = 33;
+    static final int JNEQD = 34;
+    static final int RETI = 35;
+    static final int RETD = 36;
+    static final int RETZ = 37;
+    static final int RETA = 38;
+    static final int RETN = 39;
+    static final int ACCI = 40;
+    static final int ACCD = 41;
+    static final int JNEXACT = 42;
+    static final int LOADU = 43;
+    static final int REDUCE = 44;
+
+    private final int[] code;
+    private final int slots;
+    private final int[] iinit;
+    private final double[] dinit;
+    private final int zsize;
+    private final int[][] ainit;
+
+    /**
+     * Sijoitetaan parametreina tuodut arvot.
+     * @param code Käskyt
+     * @param slots Kehyksen paikkojen määrä
+     * @param iinit Int-rekisterien alkuarvot (vakiot)
+     * @param dinit Double-rekisterien alkuarvot (vakiot)
+     * @param zsize Totuusarvorekisterien määrä
+     * @param ainit Taulukkorekisterien alkuarvot (vakiot)
+     */
+    public VMProgram(int[] code, int slots, int[] iinit, double[] dinit, int zsize, int[][] ainit) {
+        this.code = code;
+        this.slots = slots;
+        this.iinit = iinit;
+        this.dinit = dinit;
+        this.zsize = zsize;
+        this.ainit = ainit;
+    }
+
+    /**
+     * Suoritetaan ohjelma. Kehyksen paikat kopioidaan ensin rekistereihin,
+     * jolloin parametrit tulevat mukaan.
+     * @param f Kehys, johon parametrit on sidottu
+     * @return Returnin arvo tai null
+     */
+    public Object run(Frame f) {
+        final int[] code = this.code;
+        final int[] i = iinit.clone();
+        final double[] d = dinit.clone();
+        final boolean[] z = new boolean[zsize];
+        final int[][] a = ainit.clone();
+        System.arraycopy(f.ints, 0, i, 0, slots);
+        System.arraycopy(f.nums, 0, d, 0, slots);
+        System.arraycopy(f.bools, 0, z, 0, slots);
+        System.arraycopy(f.arrays, 0, a, 0, slots);
+
+        int pc = 0;
+        while (true) {
+            switch (code[pc]) {
+                case MOVI:
+                    i[code[pc + 1]] = i[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case MOVD:
+                    d[code[pc + 1]] = d[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case MOVZ:
+                    z[code[pc + 1]] = z[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case MOVA:
+                    a[code[pc + 1]] = a[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case I2D:
+                    d[code[pc + 1]] = i[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case D2I:
+                    i[code[pc + 1]] = (int) d[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case ADDI:
+                    i[code[pc + 1]] = i[code[pc + 2]] + i[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case SUBI:
+                    i[code[pc + 1]] = i[code[pc + 2]] - i[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case MULI:
+                    i[code[pc + 1]] = i[code[pc + 2]] * i[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case DIVI:
+                    i[code[pc + 1]] = DivExpr.divide(i[code[pc + 2]], i[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case ADDD:
+                    d[code[pc + 1]] = d[code[pc + 2]] + d[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case SUBD:
+                    d[code[pc + 1]] = d[code[pc + 2]] - d[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case MULD:
+                    d[code[pc + 1]] = d[code[pc + 2]] * d[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case DIVD:
+                    d[code[pc + 1]] = d[code[pc + 2]] / d[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case LTI:
+                    z[code[pc + 1]] = i[code[pc + 2]] < i[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case GTI:
+                    z[code[pc + 1]] = i[code[pc + 2]] > i[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case EQI:
+                    z[code[pc + 1]] = i[code[pc + 2]] == i[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case LTD:
+                    z[code[pc + 1]] = d[code[pc + 2]] < d[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case GTD:
+                    z[code[pc + 1]] = d[code[pc + 2]] > d[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case EQD:
+                    z[code[pc + 1]] = d[code[pc + 2]] == d[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case LOADA:
+                    i[code[pc + 1]] = IndexExpr.load(a[code[pc + 2]], i[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case LOADAD:
+                    i[code[pc + 1]] = IndexExpr.load(a[code[pc + 2]], d[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case LOADU:
+                    i[code[pc + 1]] = a[code[pc + 2]][i[code[pc + 3]]];
+                    pc += 4;
+                    break;
+                case LENA:
+                    i[code[pc + 1]] = a[code[pc + 2]].length;
+                    pc += 3;
+                    break;
+                case REDUCE:
+                    i[code[pc + 1]] = Reductions.reduce(code[pc + 2], a[code[pc + 3]], i[code[pc + 4]],
+                            i[code[pc + 5]], i[code[pc + 1]], i[code[pc + 6]]);
+                    pc += 7;
+                    break;
+                case INCI:
+                    i[code[pc + 1]]++;
+                    pc += 2;
+                    break;
+                case DECI:
+                    i[code[pc + 1]]--;
+                    pc += 2;
+                    break;
+                case INCD:
+                    d[code[pc + 1]]++;
+                    pc += 2;
+                    break;
+                case DECD:
+                    d[code[pc + 1]]--;
+                    pc += 2;
+                    break;
+                case ACCI:
+                    i[code[pc + 1]] = ClosedForm.accumulate(i[code[pc + 1]], i[code[pc + 2]],
+                            code[pc + 3] != 0, i[code[pc + 4]], i[code[pc + 5]]);
+                    pc += 6;
+                    break;
+                case ACCD:
+                    d[code[pc + 1]] = ClosedForm.accumulate(d[code[pc + 1]], d[code[pc + 2]],
+                            code[pc + 3] != 0, i[code[pc + 4]], i[code[pc + 5]]);
+                    pc += 6;
+                    break;
+                case JMP:
+                    pc = code[pc + 1];
+                    break;
+                case JZ:
+                    pc = z[code[pc + 1]] ? pc + 3 : code[pc + 2];
+                    break;
+                case JNLTI:
+                    pc = i[code[pc + 1]] < i[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNGTI:
+                    pc = i[code[pc + 1]] > i[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNEQI:
+                    pc = i[code[pc + 1]] == i[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNLTD:
+                    pc = d[code[pc + 1]] < d[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNGTD:
+                    pc = d[code[pc + 1]] > d[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNEQD:
+                    pc = d[code[pc + 1]] == d[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNEXACT:
+                    pc = ClosedForm.exact(d[code[pc + 1]], d[code[pc + 2]], i[code[pc + 3]], i[code[pc + 4]])
+                            ? pc + 6 : code[pc + 5];
+                    break;
+                case RETI:
+                    return Integer.valueOf(i[code[pc + 1]]);
+                case RETD:
+                    return Double.valueOf(d[code[pc + 1]]);
+                case RETZ:
+                    return Boolean.valueOf(z[code[pc + 1]]);
+                case RETA:
+                    return a[code[pc + 1]];
+                case RETN:
+                    return null;
+                default:
+                    throw new IllegalStateException("Unknown instruction " + code[pc]);
+            }
+        }
+    }
+}
+
+
+/**
+ * VMCompiler kokoaa VMProgramin käskyt. Syntaksipuun solmut kääntävät
+ * itsensä compile-metodeissaan tämän luokan avulla.
+ *
+ * Muuttujat ovat kiinteissä rekistereissä (rekisterin numero on kehyksen
+ * paikka), joten muuttujan lukeminen ei vaadi käskyä. Väliaikaiset rekisterit
+ * vapautetaan jokaisen statementin alussa, koska lausekkeen arvo ei säily
+ * statementin yli. Vakioille varataan rekisterit vasta lopuksi väliaikaisten
+ * rekisterien perään, joten vakioihin viittaavat operandit korjataan finish-
+ * metodissa.
+ */
+class VMCompiler {
+    private static final int DCONST = 1 << 24;
+    private static final int ACONST = 2 << 24;
+    private static final int ICONST = 3 << 24;
+    private static final String KINDS = "DZ[I";
+
+    private int[] code = new int[64];
+    private int size;
+    private int slots;
+    private int[] temps = new int[4];
+    private int[] maxTemps = new int[4];
+    private List<Integer> iconsts = new ArrayList<Integer>();
+    private List<Double> dconsts = new ArrayList<Double>();
+    private List<int[]> aconsts = new ArrayList<int[]>();
+    private List<Integer> relocs = new ArrayList<Integer>();
+
+    /**
+     * Luodaan kääntäjä ohjelmalle, jonka kehyksessä on slots paikkaa.
+     * @param slots Kehyksen koko
+     */
+    public VMCompiler(int slots) {
+        this.slots = slots;
+    }
+
+    /**
+     * Vapautetaan väliaikaiset rekisterit. Kutsutaan jokaisen statementin alussa.
+     */
+    public void statement() {
+        Arrays.fill(temps, 0);
+    }
+
+    /**
+     * Varataan väliaikainen rekisteri.
+     * @param kind Rekisteritiedosto: 'I', 'D', 'Z' tai '['
+     * @return Rekisterin numero
+     */
+    public int temp(char kind) {
+        int k = KINDS.indexOf(kind);
+        int reg = slots + temps[k]++;
+        maxTemps[k] = Math.max(maxTemps[k], temps[k]);
+        return reg;
+    }
+
+    /**
+     * Palautetaan int-vakion rekisteri.
+     * @param value Vakio
+     * @return Rekisterin numero
+     */
+    public int iconst(int value) {
+        int index = iconsts.indexOf(value);
+        if (index < 0) {
+            index = iconsts.size();
+            iconsts.add(value);
+        }
+        return ICONST + index;
+    }
+
+    /**
+     * Palautetaan double-vakion rekisteri.
+     * @param value Vakio
+     * @return Rekisterin numero
+     */
+    public int dconst(double value) {
+        int index = dconsts.indexOf(value);
+        if (index < 0) {
+            index = dconsts.size();
+            dconsts.add(value);
+        }
+        return DCONST + index;
+    }
+
+    /**
+     * Palautetaan int-taulukkovakion rekisteri.
+     * @param array Vakio
+     * @return Rekisterin numero
+     */
+    public int aconst(int[] array) {
+        aconsts.add(array);
+        return ACONST + aconsts.size() - 1;
+    }
+
+    /**
+     * Siirretään rekisterin arvo kohderekisteriin. Jos kohdetta ei ole
+     * annettu (dst < 0), käytetään lähderekisteriä sellaisenaan.
+     * @param kind Rekisteritiedosto
+     * @param src Lähderekisteri
+     * @param dst Kohderekisteri tai -1
+     * @return Rekisteri, jossa arvo on
+     */
+    public int move(char kind, int src, int dst) {
+        if (dst < 0 || dst == src) {
+            return src;
+        }
+        int op = kind == 'I' ? VMProgram.MOVI : kind == 'D' ? VMProgram.MOVD
+                : kind == 'Z' ? VMProgram.MOVZ : VMProgram.MOVA;
+        emit(op, dst, src);
+        return dst;
+    }
+
+    /**
+     * Siirretään luku rekisteristä src kohderekisteriin ja muunnetaan se
+     * samalla tyypistä from tyyppiin to (int ja double).
+     * @param from Lähderekisterin tyyppikirjain
+     * @param src Lähderekisteri
+     * @param to Kohderekisterin tyyppikirjain
+     * @param dst Kohderekisteri tai -1
+     * @return Rekisteri, jossa arvo on
+     */
+    public int convert(char from, int src, char to, int dst) {
+        if (from == to || (from != 'I' && from != 'D')) {
+            return move(from, src, dst);
+        }
+        int reg = target(to, dst);
+        emit(from == 'I' ? VMProgram.I2D : VMProgram.D2I, reg, src);
+        return reg;
+    }
+
+    /**
+     * Palautetaan kohderekisteri tai varataan väliaikainen rekisteri.
+     * @param kind Rekisteritiedosto
+     * @param dst Kohderekisteri tai -1
+     * @return Rekisterin numero
+     */
+    public int target(char kind, int dst) {
+        return dst < 0 ? temp(kind) : dst;
+    }
+
+    /**
+     * Kirjoitetaan käsky operandeineen.
+     * @param op Käskykoodi
+     * @param operands Rekisterit
+     */
+    public void emit(int op, int... operands) {
+        put(op);
+        for (int reg : operands) {
+            if (reg >= DCONST) {
+                relocs.add(size);
+            }
+            put(reg);
+        }
+    }
+
+    /**
+     * Kirjoitetaan hyppykäsky. Kohde on käskyn viimeinen operandi.
+     * @param op Hyppykäsky
+     * @param target Kohde
+     * @param operands Hypyn ehdon rekisterit
+     */
+    public void jump(int op, Label target, int... operands) {
+        emit(op, operands);
+        if (target.pos >= 0) {
+            put(target.pos);
+        } else {
+            target.refs.add(size);
+            put(-1);
+        }
+    }
+
+    /**
+     * Asetetaan kohteen paikaksi nykyinen kohta ja korjataan siihen
+     * aiemmin kirjoitetut hypyt.
+     * @param target Kohde
+     */
+    public void mark(Label target) {
+        target.pos = size;
+        for (int at : target.refs) {
+            code[at] = size;
+        }
+    }
+
+    /**
+     * Kootaan valmis ohjelma. Vakiot sijoitetaan väliaikaisten rekisterien
+     * perään ja niihin viittaavat operandit korjataan.
+     * @return Käännetty ohjelma
+     */
+    public VMProgram finish() {
+        int dbase = slots + maxTemps[0];
+        int abase = slots + maxTemps[2];
+        int ibase = slots + maxTemps[3];
+        for (int at : relocs) {
+            if (code[at] >= ICONST) {
+                code[at] = code[at] - ICONST + ibase;
+            } else if (code[at] >= ACONST) {
+                code[at] = code[at] - ACONST + abase;
+            } else {
+                code[at] = code[at] - DCONST + dbase;
+            }
+        }
+        int[] iinit = new int[ibase + iconsts.size()];
+        for (int i = 0; i < iconsts.size(); i++) {
+            iinit[ibase + i] = iconsts.get(i);
+        }
+        double[] dinit = new double[dbase + dconsts.size()];
+        for (int i = 0; i < dconsts.size(); i++) {
+            dinit[dbase + i] = dconsts.get(i);
+        }
+        int[][] ainit = new int[abase + aconsts.size()][];
+        for (int i = 0; i < aconsts.size(); i++) {
+            ainit[abase + i] = aconsts.get(i);
+        }
+        return new VMProgram(Arrays.copyOf(code, size), slots, iinit, dinit, slots + maxTemps[1], ainit);
+    }
+
+    private void put(int value) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size++] = value;
+    }
+}
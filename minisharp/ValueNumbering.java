@@ -0,0 +1,292 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * ValueNumbering poistaa toistuvat lausekkeet (yhteisten alilausekkeiden
+ * poisto ja arvojen numerointi). Lausekkeen arvonumero on sen rakenteesta
+ * muodostettu avain (ks. Expr.key), jossa muuttujat ovat kehyksen paikkoja
+ * ja vaihdannaisten laskutoimitusten operandit järjestetty. Puu käydään
+ * läpi suoritusjärjestyksessä, ja saatavilla olevat arvot pidetään
+ * taulussa, joka periytyy sisempiin lohkoihin, koska ulompi lohko dominoi
+ * niitä. If-lohkon tai silmukan arvot eivät ole saatavilla lohkon
+ * jälkeen: taulun muutokset kirjataan lokiin, ja lohkon lopussa ne
+ * perutaan lohkon alkuun asti. Kirjoitus muuttujaan (myös
+ * taulukkomuuttujaan) poistaa taulusta kaikki arvot, jotka lukevat
+ * muuttujaa, ja silmukassa kirjoitettavia muuttujia lukevat arvot
+ * poistetaan jo ennen silmukkaa. Poistettavat arvot löydetään
+ * hakemistosta, joka kertoo jokaiselle muuttujalle sitä lukevien arvojen
+ * avaimet.
+ *
+ * Jos arvo on sijoitettu muuttujaan (x = a - b), toistuva lauseke korvataan
+ * muuttujan lukemisella. Muuten arvon ensimmäinen esiintymä lasketaan
+ * apumuuttujaan statementin edellä, ja kaikki esiintymät korvataan
+ * apumuuttujan lukemisella. Koska ensimmäisestä esiintymästä ei tiedetä,
+ * toistuuko se, puu käydään läpi kahdesti: ensin merkitään toistuvat
+ * esiintymät ja sitten korvataan ne. Lausekkeet, joiden evaluointi voi
+ * epäonnistua (ks. Expr.mayFail), eivät ole mukana, koska niiden
+ * laskeminen statementin edellä voisi muuttaa virheiden järjestystä.
+ * Korvauksen jälkeen lauseke lukee apumuuttujaa alkuperäisten muuttujien
+ * sijaan, joten apumuuttujan lukeminen lasketaan myös niiden lukemiseksi.
+ */
+class ValueNumbering {
+    /**
+     * Saatavilla oleva arvo.
+     */
+    private static class Value {
+        Expr first;
+        Set<String> reads;
+        String var;
+    }
+
+    /**
+     * Taulun muutos: avaimen aiempi arvo tai null, jos avainta ei ollut.
+     */
+    private static class Change {
+        String key;
+        Value previous;
+    }
+
+    private FrameLayout layout;
+    private boolean rewrite;
+    private boolean lookupOnly;
+    private HashMap<String, Value> available = new HashMap<String, Value>();
+    private HashMap<String, Set<String>> readers = new HashMap<String, Set<String>>();
+    private List<Change> log = new ArrayList<Change>();
+    private Deque<Integer> outer = new ArrayDeque<Integer>();
+    private Deque<List<Stmt>> outerTemps = new ArrayDeque<List<Stmt>>();
+    private Set<Expr> reused = Collections.newSetFromMap(new IdentityHashMap<Expr, Boolean>());
+    private List<Stmt> temps = new ArrayList<Stmt>();
+    private HashMap<String, Set<String>> tempReads = new HashMap<String, Set<String>>();
+
+    /**
+     * Sijoitetaan parametrina tuotu arvo.
+     * @param layout Kehyksen asettelu, johon apumuuttujat lisätään
+     */
+    public ValueNumbering(FrameLayout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Poistetaan lohkon toistuvat lausekkeet.
+     * @param block Ohjelman lohko
+     */
+    public void run(Block block) {
+        block.cse(this);
+        rewrite = true;
+        available = new HashMap<String, Value>();
+        readers = new HashMap<String, Set<String>>();
+        block.cse(this);
+    }
+
+    /**
+     * Etsitään lausekkeen arvo taulusta.
+     * @param key Lausekkeen avain (ks. Expr.key)
+     * @param expr Lauseke
+     * @return Lauseke, jolla expr korvataan, tai null, jos arvoa ei ole
+     */
+    public Expr lookup(String key, Expr expr) {
+        Value v = key == null ? null : available.get(key);
+        if (v == null)
+            return null;
+        if (!rewrite) {
+            if (v.var == null)
+                reused.add(v.first);
+            return expr;
+        }
+        return v.var == null ? expr : variable(v.var);
+    }
+
+    /**
+     * Lisätään lausekkeen arvo tauluun. Toistuva lauseke lasketaan
+     * apumuuttujaan.
+     * @param key Lausekkeen avain
+     * @param expr Lauseke, jonka alilausekkeet on jo käsitelty
+     * @return Lauseke, jolla expr korvataan
+     */
+    public Expr define(String key, Expr expr) {
+        if (key == null || lookupOnly || expr.mayFail())
+            return expr;
+        Value v = new Value();
+        v.first = expr;
+        v.reads = reads(expr);
+        put(key, v);
+        if (!rewrite || !reused.contains(expr))
+            return expr;
+        DeclExpr decl = LoopHoister.declareTemp(layout, expr);
+        temps.add(decl);
+        v.var = decl.getID();
+        index(key, v.var);
+        tempReads.put(v.var, v.reads);
+        return variable(v.var);
+    }
+
+    /**
+     * Merkitään sijoitus id = expr. Arvot, jotka lukevat id:tä, poistetaan,
+     * ja expr:n arvo on tämän jälkeen saatavilla muuttujassa id.
+     * @param id Muuttujan tunniste
+     * @param kind Muuttujan tyyppikirjain
+     * @param expr Sijoitettu lauseke
+     */
+    public void assign(String id, char kind, Expr expr) {
+        write(id);
+        String key = expr.key();
+        if (key == null || lookupOnly || !expr.isReusable() || expr.kind() != kind || expr.mayFail())
+            return;
+        Value v = new Value();
+        v.first = expr;
+        v.reads = reads(expr);
+        if (v.reads.contains(id))
+            return;
+        v.var = id;
+        put(key, v);
+    }
+
+    /**
+     * Merkitään kirjoitus muuttujaan id. Hakemistosta löytyvät avaimet,
+     * joiden arvo lukee id:tä tai on tallessa id:ssä, poistetaan taulusta.
+     * Avain voi olla hakemistossa vanhentuneena, jos sen arvo on sittemmin
+     * korvattu, joten arvo tarkistetaan ennen poistoa.
+     * @param id Muuttujan tunniste
+     */
+    public void write(String id) {
+        Set<String> keys = readers.remove(id);
+        if (keys == null)
+            return;
+        for (String key : keys) {
+            Value v = available.get(key);
+            if (v != null && (id.equals(v.var) || v.reads.contains(id)))
+                change(key, null);
+        }
+    }
+
+    /**
+     * Merkitään kirjoitukset muuttujiin.
+     * @param writes Kirjoitetut muuttujat
+     */
+    public void write(ConstantFolder writes) {
+        for (String id : writes.written()) {
+            write(id);
+        }
+    }
+
+    /**
+     * Aloitetaan sisempi lohko, jossa ulomman lohkon arvot ovat saatavilla.
+     * Ulomman statementin apumuuttujat odottavat lohkon ajan.
+     */
+    public void enter() {
+        outer.push(log.size());
+        outerTemps.push(temps);
+        temps = new ArrayList<Stmt>();
+    }
+
+    /**
+     * Palataan ulompaan lohkoon. Sisemmän lohkon muutokset perutaan
+     * käänteisessä järjestyksessä, jolloin sen arvot unohtuvat ja sen
+     * kirjoitusten poistamat ulomman lohkon arvot palaavat.
+     */
+    public void leave() {
+        int start = outer.pop();
+        for (int i = log.size() - 1; i >= start; i--) {
+            Change c = log.remove(i);
+            if (c.previous == null) {
+                available.remove(c.key);
+            } else {
+                available.put(c.key, c.previous);
+                index(c.key, c.previous);
+            }
+        }
+        temps = outerTemps.pop();
+    }
+
+    /**
+     * Asetetaan tila, jossa arvoja vain haetaan taulusta (silmukan ehto,
+     * joka lasketaan jokaisella kierroksella).
+     * @param lookupOnly true, jos arvoja ei lisätä tauluun
+     */
+    public void setLookupOnly(boolean lookupOnly) {
+        this.lookupOnly = lookupOnly;
+    }
+
+    /**
+     * Palautetaan ja tyhjennetään statementin edelle lisättävät
+     * apumuuttujien esittelyt.
+     * @return Esittelyt suoritusjärjestyksessä
+     */
+    public List<Stmt> temps() {
+        List<Stmt> out = temps;
+        temps = new ArrayList<Stmt>();
+        return out;
+    }
+
+    /**
+     * Lisätään arvo tauluun ja hakemistoon.
+     */
+    private void put(String key, Value v) {
+        change(key, v);
+        index(key, v);
+    }
+
+    /**
+     * Asetetaan avaimen arvo (null poistaa avaimen). Sisemmässä lohkossa
+     * aiempi arvo kirjataan lokiin.
+     */
+    private void change(String key, Value v) {
+        Value previous = v == null ? available.remove(key) : available.put(key, v);
+        if (outer.isEmpty())
+            return;
+        Change c = new Change();
+        c.key = key;
+        c.previous = previous;
+        log.add(c);
+    }
+
+    /**
+     * Lisätään avain hakemistoon arvon lukemien muuttujien ja muuttujan,
+     * johon arvo on tallessa, kohdalle.
+     */
+    private void index(String key, Value v) {
+        for (String id : v.reads) {
+            index(key, id);
+        }
+        if (v.var != null)
+            index(key, v.var);
+    }
+
+    /**
+     * Lisätään avain hakemistoon muuttujan id kohdalle.
+     */
+    private void index(String key, String id) {
+        readers.computeIfAbsent(id, k -> new HashSet<String>()).add(key);
+    }
+
+    /**
+     * Palautetaan muuttujat, joita lauseke lukee. Apumuuttujan lukeminen
+     * lukee myös muuttujat, joita apumuuttujaan laskettu lauseke luki.
+     */
+    private Set<String> reads(Expr expr) {
+        Set<String> reads = new HashSet<String>();
+        expr.countReads(reads);
+        for (String id : new ArrayList<String>(reads)) {
+            Set<String> more = tempReads.get(id);
+            if (more != null)
+                reads.addAll(more);
+        }
+        return reads;
+    }
+
+    /**
+     * Luodaan muuttujan lukeva lauseke.
+     */
+    private Expr variable(String id) {
+        VarExpr var = new VarExpr(id);
+        var.resolve(layout);
+        return var;
+    }
+}
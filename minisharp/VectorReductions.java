@@ -0,0 +1,52 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Reduktiot Vector API:n SIMD-käskyillä. Luokkaa käytetään vain, jos
+ * jdk.incubator.vector-moduuli on käytössä (ks. Reductions). Välin alusta
+ * lasketaan kerralla niin monta alkiota kuin vektoriin mahtuu, ja loput
+ * alkiot lasketaan tavallisella silmukalla.
+ */
+class VectorReductions implements Reductions.Reducer {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public int reduce(int op, int[] t, int from, int to, int acc, int k) {
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        int step = SPECIES.length();
+        switch (op) {
+            case Reductions.SUM: {
+                IntVector v = IntVector.zero(SPECIES);
+                for (; i < upper; i += step)
+                    v = v.add(IntVector.fromArray(SPECIES, t, i));
+                acc += v.reduceLanes(VectorOperators.ADD);
+                break;
+            }
+            case Reductions.MIN: {
+                IntVector v = IntVector.broadcast(SPECIES, acc);
+                for (; i < upper; i += step)
+                    v = v.min(IntVector.fromArray(SPECIES, t, i));
+                acc = v.reduceLanes(VectorOperators.MIN);
+                break;
+            }
+            case Reductions.MAX: {
+                IntVector v = IntVector.broadcast(SPECIES, acc);
+                for (; i < upper; i += step)
+                    v = v.max(IntVector.fromArray(SPECIES, t, i));
+                acc = v.reduceLanes(VectorOperators.MAX);
+                break;
+            }
+            default: {
+                VectorOperators.Comparison cmp = op == Reductions.COUNTLT ? VectorOperators.LT
+                        : op == Reductions.COUNTGT ? VectorOperators.GT : VectorOperators.EQ;
+                int n = 0;
+                for (; i < upper; i += step)
+                    n += IntVector.fromArray(SPECIES, t, i).compare(cmp, k).trueCount();
+                acc += n;
+            }
+        }
+        return Reductions.scalar(op, t, i, to, acc, k);
+    }
+}